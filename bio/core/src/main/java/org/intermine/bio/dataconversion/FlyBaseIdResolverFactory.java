@@ -108,7 +108,7 @@ public class FlyBaseIdResolverFactory extends IdResolverFactory
                 File f = new File(url.getFile());
 
                 LOG.info("Restoring id resolver from cache file: " + idResolverCachedFileName);
-                resolver.populateFromFile(f);
+                resolver.populateFromIndex(f);
 
                 // if file doesn't contain classes, revisit db
                 Set<String> existedClsSet = resolver.getClassNames();
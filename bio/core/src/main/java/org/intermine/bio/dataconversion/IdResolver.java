@@ -15,6 +15,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -57,6 +58,9 @@ public class IdResolver
     @SuppressWarnings("unchecked")
     protected Map<MultiKey, Map<String, Set<String>>> orgIdSynMaps = new MultiKeyMap();
 
+    // read-only data mapped from cache files, used alongside the maps above
+    private List<IdResolverIndex> indexes = new ArrayList<IdResolverIndex>();
+
     /**
      * Construct and empty IdResolver
      */
@@ -79,7 +83,7 @@ public class IdResolver
      * @param className which class to resolve
      */
     protected void checkTaxonId(String taxonId, String className) {
-        if (!orgIdMaps.containsKey(new MultiKey(taxonId, className))) {
+        if (!hasTaxonAndClassName(taxonId, className)) {
             throw new IllegalArgumentException(className + " IdResolver has no data for taxonId: '"
                                                + taxonId + "'.");
         }
@@ -94,7 +98,16 @@ public class IdResolver
      */
     public boolean isPrimaryIdentifier(String taxonId, String className, String id) {
         checkTaxonId(taxonId, className);
-        return orgIdMaps.get(new MultiKey(taxonId, className)).containsKey(id);
+        Map<String, Set<String>> idMap = orgIdMaps.get(new MultiKey(taxonId, className));
+        if (idMap != null && idMap.containsKey(id)) {
+            return true;
+        }
+        for (IdResolverIndex index : indexes) {
+            if (index.contains(IdResolverIndex.IDS, taxonId, className, id)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -122,13 +135,14 @@ public class IdResolver
         if (isPrimaryIdentifier(taxonId, className, id)) {
             return Collections.singleton(id);
         }
-        if (orgMainMaps.containsKey(new MultiKey(taxonId, className))
-            && orgMainMaps.get(new MultiKey(taxonId, className)).containsKey(id)) {
-            return orgMainMaps.get(new MultiKey(taxonId, className)).get(id);
+        Set<String> primaryIds = lookup(orgMainMaps, IdResolverIndex.MAIN_IDS, taxonId,
+                className, id);
+        if (primaryIds != null) {
+            return primaryIds;
         }
-        if (orgSynMaps.containsKey(new MultiKey(taxonId, className))
-            && orgSynMaps.get(new MultiKey(taxonId, className)).containsKey(id)) {
-            return orgSynMaps.get(new MultiKey(taxonId, className)).get(id);
+        primaryIds = lookup(orgSynMaps, IdResolverIndex.SYNONYMS, taxonId, className, id);
+        if (primaryIds != null) {
+            return primaryIds;
         }
         return Collections.emptySet();
     }
@@ -195,7 +209,7 @@ public class IdResolver
         if (!isPrimaryIdentifier(taxonId, className, primaryIdentifier)) {
             return null;
         }
-        return orgIdMaps.get(new MultiKey(taxonId, className)).get(primaryIdentifier);
+        return lookup(orgIdMaps, IdResolverIndex.IDS, taxonId, className, primaryIdentifier);
     }
 
     /**
@@ -248,7 +262,7 @@ public class IdResolver
      */
     public boolean hasTaxons(Set<String> taxonIds) {
         Set<String> taxonIdSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             taxonIdSet.add((String) key.getKey(0));
         }
         return taxonIdSet.containsAll(taxonIds);
@@ -260,7 +274,7 @@ public class IdResolver
      */
     public Set<String> getTaxons() {
         Set<String> taxonIdSet = new LinkedHashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             taxonIdSet.add((String) key.getKey(0));
         }
         return taxonIdSet;
@@ -273,7 +287,7 @@ public class IdResolver
      */
     public boolean hasClassName(String className) {
         Set<String> clsNameSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             clsNameSet.add((String) key.getKey(1));
         }
         return clsNameSet.contains(className);
@@ -285,7 +299,7 @@ public class IdResolver
      */
     public Set<String> getClassNames() {
         Set<String> clsNameSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             clsNameSet.add((String) key.getKey(1));
         }
         return clsNameSet;
@@ -298,7 +312,16 @@ public class IdResolver
      * @return true if the resolver has data for this taxon ID and data type
      */
     public boolean hasTaxonAndClassName(String taxonId, String className) {
-        return orgIdMaps.keySet().contains(new MultiKey(taxonId, className));
+        MultiKey key = new MultiKey(taxonId, className);
+        if (orgIdMaps.containsKey(key)) {
+            return true;
+        }
+        for (IdResolverIndex index : indexes) {
+            if (index.getKeys().contains(key)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -344,7 +367,7 @@ public class IdResolver
             }
         }
 
-        return orgIdMaps.keySet().containsAll(keySet);
+        return getKeys().containsAll(keySet);
     }
 
     /**
@@ -353,7 +376,7 @@ public class IdResolver
      */
     public Map<String, Set<String>> getTaxonsAndClassNames() {
         Map<String, Set<String>> taxonIdAndClsNameMap = new HashMap<String, Set<String>>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             String taxonId = (String) key.getKey(0);
             String className = (String) key.getKey(1);
             if (taxonIdAndClsNameMap.get(taxonId) == null) {
@@ -369,6 +392,40 @@ public class IdResolver
         return taxonIdAndClsNameMap;
     }
 
+    // the taxon ids and class names held on the heap or in an index
+    private Set<MultiKey> getKeys() {
+        if (indexes.isEmpty()) {
+            return orgIdMaps.keySet();
+        }
+        Set<MultiKey> keys = new LinkedHashSet<MultiKey>(orgIdMaps.keySet());
+        for (IdResolverIndex index : indexes) {
+            keys.addAll(index.getKeys());
+        }
+        return keys;
+    }
+
+    // look an id up in the heap maps and the indexes, merging the results
+    private Set<String> lookup(Map<MultiKey, Map<String, Set<String>>> maps, int table,
+            String taxonId, String className, String id) {
+        Set<String> retval = null;
+        Map<String, Set<String>> map = maps.get(new MultiKey(taxonId, className));
+        if (map != null) {
+            retval = map.get(id);
+        }
+        for (IdResolverIndex index : indexes) {
+            Set<String> found = index.get(table, taxonId, className, id);
+            if (found != null) {
+                if (retval == null) {
+                    retval = found;
+                } else {
+                    retval = new LinkedHashSet<String>(retval);
+                    retval.addAll(found);
+                }
+            }
+        }
+        return retval;
+    }
+
     /**
      * Add alternative main identifiers for a primary identifier to the IdResolver.
      * @param taxonId the organism of the identifier
@@ -493,7 +550,8 @@ public class IdResolver
     }
 
     /**
-     * Write IdResolver contents to a flat file
+     * Write IdResolver contents to a flat file. Data read from an index is only written if the
+     * file is not the one that the index was built from, as that file already holds it.
      * @param f the file to write to
      * @throws IOException if fail to write
      */
@@ -501,6 +559,16 @@ public class IdResolver
         LOG.info("Writing id resolver to file: " + f.getName());
         FileWriter fw = new FileWriter(f, true); // append if true
 //        FileWriter fw = new FileWriter(f);
+        for (IdResolverIndex index : indexes) {
+            if (!index.getSourceFile().getCanonicalFile().equals(f.getCanonicalFile())) {
+                BufferedReader reader = new BufferedReader(new FileReader(index.getSourceFile()));
+                String line = null;
+                while ((line = reader.readLine()) != null) {
+                    fw.write(line + System.getProperty("line.separator"));
+                }
+                reader.close();
+            }
+        }
         for (MultiKey key : orgIdMaps.keySet()) {
 
             // get maps for this organism
@@ -587,6 +655,25 @@ public class IdResolver
         reader.close();
     }
 
+    /**
+     * Read contents of an IdResolver from the memory-mapped index of a cache file, building the
+     * index first if it is missing or older than the file. The index is shared with other
+     * processes through the operating system's page cache, so this is much faster and uses much
+     * less heap than populateFromFile(). Entries added later are held on the heap as usual.
+     * @param f the cache file, as written by writeToFile()
+     * @throws IOException if problem reading or building the index
+     */
+    public void populateFromIndex(File f) throws IOException {
+        for (IdResolverIndex index : indexes) {
+            if (index.getSourceFile().getCanonicalFile().equals(f.getCanonicalFile())) {
+                LOG.info("already using index of file: " + f.getAbsolutePath());
+                return;
+            }
+        }
+        LOG.info("populating from index of file: " + f.getAbsolutePath());
+        indexes.add(IdResolverIndex.open(f));
+    }
+
     // TODO populate part from file with given taxons and classes, what if there
     // are some data nonexists? Maybe not a good idea...
 
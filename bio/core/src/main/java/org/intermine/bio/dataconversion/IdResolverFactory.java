@@ -78,7 +78,7 @@ public abstract class IdResolverFactory
     protected boolean restoreFromFile(File f)
         throws IOException {
         if (f.exists()) {
-            resolver.populateFromFile(f);
+            resolver.populateFromIndex(f);
             return true;
         }
         return false;
@@ -95,7 +95,7 @@ public abstract class IdResolverFactory
         URL url = this.getClass().getClassLoader().getResource(idResolverCachedFileName);
         if (url != null) {
             File f = new File(url.getFile());
-            resolver.populateFromFile(f);
+            resolver.populateFromIndex(f);
             return true;
         }
         return false;
@@ -0,0 +1,442 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.apache.log4j.Logger;
+
+/**
+ * A read-only, memory-mapped copy of the contents of an IdResolver cache file. The index is built
+ * once from the cache file and stored next to it, so every later process maps the same file
+ * instead of parsing the cache onto the heap, and the operating system shares its pages between
+ * processes.
+ * <p>
+ * The index file holds a header, a table of every identifier in sorted order, and for each taxon
+ * id and class name three open-addressing hash tables. These map a primary identifier to all its
+ * identifiers, a main identifier to its primary identifiers, and a synonym to its primary
+ * identifiers. Entries refer to identifiers by their position in the sorted table.
+ */
+public final class IdResolverIndex
+{
+    private static final Logger LOG = Logger.getLogger(IdResolverIndex.class);
+
+    /** Table mapping a primary identifier to its main identifiers and synonyms */
+    public static final int IDS = 0;
+    /** Table mapping a main identifier to its primary identifiers */
+    public static final int MAIN_IDS = 1;
+    /** Table mapping a synonym to its primary identifiers */
+    public static final int SYNONYMS = 2;
+
+    private static final int TABLE_COUNT = 3;
+    private static final int MAGIC = 0x494d4952;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".index";
+
+    private final File sourceFile;
+    private final MappedByteBuffer buffer;
+    private final int stringOffsets;
+    private final Map<MultiKey, int[]> tables = new LinkedHashMap<MultiKey, int[]>();
+
+    private IdResolverIndex(File sourceFile, File indexFile) throws IOException {
+        this.sourceFile = sourceFile;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(indexFile)));
+        try {
+            readHeader(in, indexFile);
+            in.readLong();
+            in.readLong();
+            stringOffsets = in.readInt();
+            int keyCount = in.readInt();
+            for (int i = 0; i < keyCount; i++) {
+                MultiKey key = new MultiKey(in.readUTF(), in.readUTF());
+                int[] positions = new int[TABLE_COUNT];
+                for (int table = 0; table < TABLE_COUNT; table++) {
+                    positions[table] = in.readInt();
+                }
+                tables.put(key, positions);
+            }
+        } finally {
+            in.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            // The mapping stays valid after the channel is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Opens the index of an IdResolver cache file, building it first if it does not exist or was
+     * built from an older version of the cache file.
+     *
+     * @param cacheFile the cache file, as written by IdResolver.writeToFile()
+     * @return the index
+     * @throws IOException if the index cannot be read or built
+     */
+    public static IdResolverIndex open(File cacheFile) throws IOException {
+        File indexFile = getIndexFile(cacheFile);
+        if (!isCurrent(indexFile, cacheFile)) {
+            build(cacheFile, indexFile);
+        }
+        return new IdResolverIndex(cacheFile, indexFile);
+    }
+
+    /**
+     * Returns the file that holds the index of an IdResolver cache file.
+     *
+     * @param cacheFile the cache file
+     * @return the index file
+     */
+    public static File getIndexFile(File cacheFile) {
+        return new File(cacheFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Returns the cache file that this index was built from.
+     *
+     * @return a File
+     */
+    public File getSourceFile() {
+        return sourceFile;
+    }
+
+    /**
+     * Returns the taxon ids and class names that the index holds data for.
+     *
+     * @return a Set of MultiKeys of taxon id and class name
+     */
+    public Set<MultiKey> getKeys() {
+        return Collections.unmodifiableSet(tables.keySet());
+    }
+
+    /**
+     * Returns whether a table holds an identifier.
+     *
+     * @param table IDS, MAIN_IDS or SYNONYMS
+     * @param taxonId the taxon id
+     * @param className the class name
+     * @param id the identifier to look up
+     * @return true if the identifier is present
+     */
+    public boolean contains(int table, String taxonId, String className, String id) {
+        return findEntry(table, taxonId, className, id) != 0;
+    }
+
+    /**
+     * Looks up an identifier in a table.
+     *
+     * @param table IDS, MAIN_IDS or SYNONYMS
+     * @param taxonId the taxon id
+     * @param className the class name
+     * @param id the identifier to look up
+     * @return a new Set of the identifiers it maps to, or null if it is not present
+     */
+    public Set<String> get(int table, String taxonId, String className, String id) {
+        int entry = findEntry(table, taxonId, className, id);
+        return (entry == 0) ? null : readValues(entry);
+    }
+
+    private int getTablePosition(int table, String taxonId, String className) {
+        int[] positions = tables.get(new MultiKey(taxonId, className));
+        return (positions == null) ? -1 : positions[table];
+    }
+
+    /**
+     * Returns the position of the entry for an identifier, or zero if it is not present. Zero is
+     * never the position of an entry, as the file starts with the header.
+     */
+    private int findEntry(int table, String taxonId, String className, String id) {
+        int tablePos = getTablePosition(table, taxonId, className);
+        if (tablePos == -1) {
+            return 0;
+        }
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        int hash = id.hashCode();
+        int mask = buffer.getInt(tablePos) - 1;
+        int slot = hash & mask;
+        while (true) {
+            int slotPos = tablePos + 8 + 8 * slot;
+            int entry = buffer.getInt(slotPos + 4);
+            if (entry == 0) {
+                return 0;
+            }
+            if ((buffer.getInt(slotPos) == hash) && stringEquals(buffer.getInt(entry), bytes)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private Set<String> readValues(int entry) {
+        int count = buffer.getInt(entry + 4);
+        Set<String> retval = new LinkedHashSet<String>();
+        for (int i = 0; i < count; i++) {
+            retval.add(readString(buffer.getInt(entry + 8 + 4 * i)));
+        }
+        return retval;
+    }
+
+    private boolean stringEquals(int index, byte[] bytes) {
+        int pos = buffer.getInt(stringOffsets + 4 * index);
+        if (buffer.getInt(pos) != bytes.length) {
+            return false;
+        }
+        pos += 4;
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(pos + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readString(int index) {
+        int pos = buffer.getInt(stringOffsets + 4 * index);
+        byte[] bytes = new byte[buffer.getInt(pos)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(pos + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readHeader(DataInputStream in, File indexFile) throws IOException {
+        if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+            throw new IOException(indexFile + " is not an IdResolver index");
+        }
+    }
+
+    /**
+     * Returns whether an index file exists and was built from the current cache file.
+     */
+    private static boolean isCurrent(File indexFile, File cacheFile) {
+        if (!indexFile.exists()) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(indexFile));
+            try {
+                readHeader(in, indexFile);
+                return (in.readLong() == cacheFile.length())
+                    && (in.readLong() == cacheFile.lastModified());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not read IdResolver index " + indexFile + ", rebuilding it", e);
+            return false;
+        }
+    }
+
+    /**
+     * Builds the index of a cache file. The index is written to a temporary file and renamed, so
+     * that other processes never see a partly written index.
+     */
+    private static void build(File cacheFile, File indexFile) throws IOException {
+        long length = cacheFile.length();
+        long lastModified = cacheFile.lastModified();
+        LOG.info("Building IdResolver index " + indexFile);
+        IdResolver resolver = new IdResolver();
+        resolver.populateFromFile(cacheFile);
+        File tempFile = File.createTempFile(indexFile.getName(), ".tmp",
+                indexFile.getAbsoluteFile().getParentFile());
+        try {
+            write(resolver, tempFile, length, lastModified);
+            if (!tempFile.renameTo(indexFile)) {
+                // Another process may have replaced the index while we were building ours
+                indexFile.delete();
+                if (!tempFile.renameTo(indexFile)) {
+                    throw new IOException("Could not rename " + tempFile + " to " + indexFile);
+                }
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Writes the contents of an IdResolver to an index file.
+     */
+    private static void write(IdResolver resolver, File indexFile, long sourceLength,
+            long sourceModified) throws IOException {
+        List<MultiKey> keys = new ArrayList<MultiKey>(resolver.orgIdMaps.keySet());
+        List<List<Map<String, Set<String>>>> keyTables
+            = new ArrayList<List<Map<String, Set<String>>>>();
+        TreeSet<String> sortedStrings = new TreeSet<String>();
+        for (MultiKey key : keys) {
+            List<Map<String, Set<String>>> maps = new ArrayList<Map<String, Set<String>>>();
+            maps.add(resolver.orgIdMaps.get(key));
+            maps.add(resolver.orgMainMaps.get(key));
+            maps.add(resolver.orgSynMaps.get(key));
+            for (Map<String, Set<String>> map : maps) {
+                if (map != null) {
+                    for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+                        sortedStrings.add(entry.getKey());
+                        sortedStrings.addAll(entry.getValue());
+                    }
+                }
+            }
+            keyTables.add(maps);
+        }
+        Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+        List<byte[]> strings = new ArrayList<byte[]>();
+        for (String string : sortedStrings) {
+            stringIndexes.put(string, new Integer(strings.size()));
+            strings.add(string.getBytes(StandardCharsets.UTF_8));
+        }
+        sortedStrings = null;
+
+        // Lay out the file, so that the header can hold the position of every table
+        int[][] positions = new int[keys.size()][TABLE_COUNT];
+        long pos = writeHeader(null, sourceLength, sourceModified, 0, keys, positions);
+        int stringOffsetsPos = (int) pos;
+        pos += 4L * strings.size();
+        for (byte[] string : strings) {
+            pos += 4 + string.length;
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            for (int table = 0; table < TABLE_COUNT; table++) {
+                Map<String, Set<String>> map = keyTables.get(i).get(table);
+                if (map == null) {
+                    positions[i][table] = -1;
+                } else {
+                    positions[i][table] = (int) pos;
+                    pos += 8 + 8L * getSlotCount(map.size());
+                    for (Set<String> values : map.values()) {
+                        pos += 8 + 4L * values.size();
+                    }
+                }
+                if (pos > Integer.MAX_VALUE) {
+                    throw new IOException("IdResolver index would be too large to map");
+                }
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile), 1024 * 1024));
+        try {
+            writeHeader(out, sourceLength, sourceModified, stringOffsetsPos, keys, positions);
+            int stringPos = stringOffsetsPos + 4 * strings.size();
+            for (byte[] string : strings) {
+                out.writeInt(stringPos);
+                stringPos += 4 + string.length;
+            }
+            for (byte[] string : strings) {
+                out.writeInt(string.length);
+                out.write(string);
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                for (int table = 0; table < TABLE_COUNT; table++) {
+                    Map<String, Set<String>> map = keyTables.get(i).get(table);
+                    if (map != null) {
+                        writeTable(out, positions[i][table], map, stringIndexes);
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the header to a stream, or if the stream is null just returns its size.
+     */
+    private static int writeHeader(DataOutputStream out, long sourceLength, long sourceModified,
+            int stringOffsetsPos, List<MultiKey> keys, int[][] positions) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeLong(sourceLength);
+        header.writeLong(sourceModified);
+        header.writeInt(stringOffsetsPos);
+        header.writeInt(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            header.writeUTF((String) keys.get(i).getKey(0));
+            header.writeUTF((String) keys.get(i).getKey(1));
+            for (int table = 0; table < TABLE_COUNT; table++) {
+                header.writeInt(positions[i][table]);
+            }
+        }
+        header.flush();
+        if (out != null) {
+            bytes.writeTo(out);
+        }
+        return bytes.size();
+    }
+
+    private static void writeTable(DataOutputStream out, int tablePos,
+            Map<String, Set<String>> map, Map<String, Integer> stringIndexes) throws IOException {
+        int slotCount = getSlotCount(map.size());
+        int mask = slotCount - 1;
+        int[] slotHashes = new int[slotCount];
+        int[] slotEntries = new int[slotCount];
+        int entry = tablePos + 8 + 8 * slotCount;
+        for (Map.Entry<String, Set<String>> mapEntry : map.entrySet()) {
+            int hash = mapEntry.getKey().hashCode();
+            int slot = hash & mask;
+            while (slotEntries[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slotHashes[slot] = hash;
+            slotEntries[slot] = entry;
+            entry += 8 + 4 * mapEntry.getValue().size();
+        }
+        out.writeInt(slotCount);
+        out.writeInt(map.size());
+        for (int slot = 0; slot < slotCount; slot++) {
+            out.writeInt(slotHashes[slot]);
+            out.writeInt(slotEntries[slot]);
+        }
+        for (Map.Entry<String, Set<String>> mapEntry : map.entrySet()) {
+            out.writeInt(stringIndexes.get(mapEntry.getKey()).intValue());
+            out.writeInt(mapEntry.getValue().size());
+            for (String value : mapEntry.getValue()) {
+                out.writeInt(stringIndexes.get(value).intValue());
+            }
+        }
+    }
+
+    /**
+     * Returns a power of two at least twice the number of entries, so probe sequences stay short.
+     */
+    private static int getSlotCount(int entryCount) {
+        int retval = 2;
+        while (retval < entryCount * 2) {
+            retval *= 2;
+        }
+        return retval;
+    }
+}
@@ -10,7 +10,9 @@ package org.intermine.bio.io.gff3;
  *
  */
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import java.io.BufferedReader;
@@ -29,7 +31,9 @@ public final class GFF3Parser
     }
 
     /**
-     * Read GFF3 lines from a BufferedReader and return an Iterator over the GFF3Records.
+     * Read GFF3 lines from a BufferedReader and return an Iterator over the GFF3Records. The
+     * records are parsed one at a time as the Iterator is advanced, and share their sequence ids,
+     * sources, types and attribute names.
      * @param reader the Reader to reader from
      * @return an Iterator over the GFF3Record objects from the reader
      * @throws IOException if there is an error during reading or parsing
@@ -37,6 +41,8 @@ public final class GFF3Parser
     public static Iterator<?> parse(final BufferedReader reader) throws IOException {
         String line = null;
         StringBuilder headerBuilder = new StringBuilder();
+        final Map<String, String> names = new HashMap<String, String>();
+        GFF3Record firstRecord = null;
 
         while ((line = reader.readLine()) != null) {
             String trimmedLine = line.trim();
@@ -52,16 +58,18 @@ public final class GFF3Parser
             }
 
             // throws IOException if the first GFF line isn't valid
-            new GFF3Record(headerBuilder.toString(), trimmedLine);
+            firstRecord = new GFF3Record(headerBuilder.toString(), trimmedLine, names);
 
             break;
         }
 
         final String firstGFFLine = line;
         final String header =  headerBuilder.toString();
+        final GFF3Record firstGFFRecord = firstRecord;
 
         return new Iterator<Object>() {
             String currentLine = firstGFFLine;
+            GFF3Record currentRecord = firstGFFRecord;
             @Override
             public boolean hasNext() {
                 return currentLine != null && !currentLine.startsWith(">");
@@ -74,7 +82,13 @@ public final class GFF3Parser
                 }
                 Object objectToReturn = null;
                 try {
-                    objectToReturn = new GFF3Record(header, currentLine);
+                    if (currentRecord != null) {
+                        // the first record was already parsed to check the file
+                        objectToReturn = currentRecord;
+                        currentRecord = null;
+                    } else {
+                        objectToReturn = new GFF3Record(header, currentLine, names);
+                    }
                     while ((currentLine = reader.readLine()) != null) {
                         String trimmedLine = currentLine.trim();
                         if (trimmedLine.length() == 0 || trimmedLine.startsWith("#")) {
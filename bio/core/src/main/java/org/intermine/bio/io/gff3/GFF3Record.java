@@ -19,7 +19,6 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 
 import org.intermine.metadata.StringUtil;
 import org.intermine.util.XmlUtil;
@@ -34,6 +33,8 @@ import org.apache.commons.lang.StringUtils;
 
 public class GFF3Record
 {
+    private static final int MAX_SHARED_NAMES = 10000;
+
     private String sequenceID;
     private String source;
     private String type;
@@ -51,7 +52,7 @@ public class GFF3Record
      * @throws IOException if there is an error during parsing the line
      */
     public GFF3Record(String line) throws IOException {
-        parseLine(line);
+        parseLine(line, null);
     }
 
     /**
@@ -61,24 +62,51 @@ public class GFF3Record
      * @throws IOException if there is an error during parsing the line
      */
     public GFF3Record(String header, String line) throws IOException {
-        parseLine(line);
+        this(header, line, null);
+    }
+
+    /**
+     * Create a GFF3Record from a line of a GFF3 file, sharing the sequence ids, sources, types and
+     * attribute names with the previous records of the same file.
+     * @param line the String to parse
+     * @param header the comments at the beginning of the GFF file. Might be null
+     * @param names the names seen so far in the file, or null not to share names
+     * @throws IOException if there is an error during parsing the line
+     */
+    GFF3Record(String header, String line, Map<String, String> names) throws IOException {
+        parseLine(line, names);
         this.header = header;
     }
 
-    private void parseLine(String line) throws IOException {
-        StringTokenizer st = new StringTokenizer(line, "\t", false);
+    private void parseLine(String line, Map<String, String> names) throws IOException {
+        // split on tabs, skipping empty fields, and ignoring anything after the ninth field
+        String[] fields = new String[9];
+        int fieldCount = 0;
+        int pos = 0;
+        while (pos < line.length() && fieldCount < fields.length) {
+            int tab = line.indexOf('\t', pos);
+            if (tab == -1) {
+                tab = line.length();
+            }
+            if (tab > pos) {
+                fields[fieldCount++] = line.substring(pos, tab);
+            }
+            pos = tab + 1;
+        }
 
-        if (st.countTokens() < 8) {
-            throw new IOException("GFF line too short (" + st.countTokens() + " fields): " + line);
+        if (fieldCount < 8) {
+            throw new IOException("GFF line too short (" + fieldCount + " fields): " + line);
         }
 
-        sequenceID = XmlUtil.fixEntityNames(URLDecoder.decode(st.nextToken(), "UTF-8")).trim();
-        source = st.nextToken().trim();
+        sequenceID = share(names, XmlUtil.fixEntityNames(decode(fields[0])).trim());
+        source = fields[1].trim();
         if ("".equals(source) || ".".equals(source)) {
             source = null;
+        } else {
+            source = share(names, source);
         }
-        type = st.nextToken().trim();
-        String startString = st.nextToken().trim();
+        type = share(names, fields[2].trim());
+        String startString = fields[3].trim();
         try {
             if (".".equals(startString)) {
                 start = -1;
@@ -90,7 +118,7 @@ public class GFF3Record
                     + " from line: " + line);
         }
 
-        String endString = st.nextToken().trim();
+        String endString = fields[4].trim();
         try {
             if (".".equals(endString)) {
                 end = -1;
@@ -102,7 +130,7 @@ public class GFF3Record
                     + " from line: " + line);
         }
 
-        String scoreString = st.nextToken().trim();
+        String scoreString = fields[5].trim();
 
         if ("".equals(scoreString) || ".".equals(scoreString)) {
             score = null;
@@ -115,20 +143,50 @@ public class GFF3Record
             }
         }
 
-        strand = st.nextToken().trim();
+        strand = fields[6].trim();
 
         if ("".equals(strand) || ".".equals(strand)) {
             strand = null;
         }
 
-        phase = st.nextToken().trim();
+        phase = fields[7].trim();
         if ("".equals(phase) || ".".equals(phase)) {
             phase = null;
         }
 
-        if (st.hasMoreTokens()) {
-            parseAttribute(st.nextToken(), line);
+        if (fieldCount > 8) {
+            parseAttribute(fields[8], line, names);
+        }
+    }
+
+    /**
+     * Returns the shared copy of a name, so that records of the same file don't each hold their
+     * own copy of names that repeat on every line.
+     */
+    private static String share(Map<String, String> names, String name) {
+        if (names == null) {
+            return name;
+        }
+        String shared = names.get(name);
+        if (shared == null) {
+            // don't let files with a different sequence id on every line fill the map
+            if (names.size() >= MAX_SHARED_NAMES) {
+                return name;
+            }
+            names.put(name, name);
+            shared = name;
+        }
+        return shared;
+    }
+
+    /**
+     * URL decode a value, skipping the decoder if the value has nothing to decode.
+     */
+    private static String decode(String value) throws UnsupportedEncodingException {
+        if (value.indexOf('%') == -1 && value.indexOf('+') == -1) {
+            return value;
         }
+        return URLDecoder.decode(value, "UTF-8");
     }
 
     /**
@@ -161,54 +219,67 @@ public class GFF3Record
         this.attributes = attributes;
     }
 
-    private void parseAttribute(String argAttributeString, String line) throws IOException {
+    private void parseAttribute(String argAttributeString, String line,
+            Map<String, String> names) throws IOException {
         String attributeString = argAttributeString;
-        attributeString = StringUtils.replaceEach(attributeString,
-                new String[] {"&amp;", "&quot;", "&lt;", "&gt;"},
-                new String[] {"&", "\"", "<", ">"});
-        StringTokenizer sTok = new StringTokenizer(attributeString, ";", false);
+        if (attributeString.indexOf('&') != -1) {
+            attributeString = StringUtils.replaceEach(attributeString,
+                    new String[] {"&amp;", "&quot;", "&lt;", "&gt;"},
+                    new String[] {"&", "\"", "<", ">"});
+        }
 
-        while (sTok.hasMoreTokens()) {
-            String attVal = sTok.nextToken().trim();
+        // scan the name=value pairs by position, rather than copying the rest of the string
+        // after every pair and value
+        int pairStart = 0;
+        while (pairStart < attributeString.length()) {
+            int pairEnd = attributeString.indexOf(';', pairStart);
+            if (pairEnd == -1) {
+                pairEnd = attributeString.length();
+            }
+            int p = skipWhitespace(attributeString, pairStart, pairEnd);
+            int e = pairEnd;
+            while (e > p && attributeString.charAt(e - 1) <= ' ') {
+                e--;
+            }
+            pairStart = pairEnd + 1;
 
-            if (attVal.length() == 0) {
+            if (p == e) {
                 continue;
             }
 
-            String attName;
             List<String> valList = new ArrayList<String>();
-            int spaceIndx = attVal.indexOf("=");
-            if (spaceIndx == -1) {
+            int equalsIndx = attributeString.indexOf('=', p);
+            if (equalsIndx == -1 || equalsIndx >= e) {
                 throw new IOException("the attributes section must contain name=value pairs, "
                                       + "while parsing: " + line);
             }
-            attName = attVal.substring(0, spaceIndx);
-            attributeString = attVal.substring(spaceIndx + 1).trim();
-
-            if (!"\"\"".equals(attributeString)) {
-                while (attributeString.length() > 0) {
-                    if (attributeString.startsWith("\"")) {
-                        attributeString = attributeString.substring(1);
-                        int quoteIndx = attributeString.indexOf("\"");
-                        if (quoteIndx > 0) {
-                            valList.add(attributeString.substring(0, quoteIndx));
-                            attributeString = attributeString.substring(quoteIndx + 1).trim();
-                            if (attributeString.startsWith(",")) {
-                                attributeString = attributeString.substring(1).trim();
+            String attName = share(names, attributeString.substring(p, equalsIndx));
+            p = skipWhitespace(attributeString, equalsIndx + 1, e);
+
+            if (!(e - p == 2 && attributeString.startsWith("\"\"", p))) {
+                while (p < e) {
+                    if (attributeString.charAt(p) == '"') {
+                        p++;
+                        int quoteIndx = attributeString.indexOf('"', p);
+                        if (quoteIndx > p && quoteIndx < e) {
+                            valList.add(attributeString.substring(p, quoteIndx));
+                            p = skipWhitespace(attributeString, quoteIndx + 1, e);
+                            if (p < e && attributeString.charAt(p) == ',') {
+                                p = skipWhitespace(attributeString, p + 1, e);
                             }
                         } else {
                             throw new IOException("unmatched quote in this line: " + line
                                                   + " (reading attribute: " + attName + ", "
-                                                  + attributeString + ")");
+                                                  + attributeString.substring(p, e) + ")");
                         }
                     } else {
-                        int commaIndx = attributeString.indexOf(",");
-                        if (commaIndx == -1) {
-                            valList.add(attributeString);
-                            attributeString = "";
+                        int commaIndx = attributeString.indexOf(',', p);
+                        if (commaIndx == -1 || commaIndx >= e) {
+                            valList.add(attributeString.substring(p, e));
+                            p = e;
                         } else {
-                            valList.add(attributeString.substring(0, commaIndx));
-                            attributeString = attributeString.substring(commaIndx + 1).trim();
+                            valList.add(attributeString.substring(p, commaIndx));
+                            p = skipWhitespace(attributeString, commaIndx + 1, e);
                         }
                     }
                 }
@@ -217,7 +288,7 @@ public class GFF3Record
             for (int i = 0; i < valList.size(); i++) {
                 String value = valList.get(i);
                 if (!"Target".equals(attName) && !"Gap".equals(attName)) {
-                    value = URLDecoder.decode(value, "UTF-8");
+                    value = decode(value);
                 }
                 value = XmlUtil.fixEntityNames(value);
                 valList.set(i, value);
@@ -226,6 +297,14 @@ public class GFF3Record
         }
     }
 
+    private static int skipWhitespace(String string, int start, int end) {
+        int retval = start;
+        while (retval < end && string.charAt(retval) <= ' ') {
+            retval++;
+        }
+        return retval;
+    }
+
     /**
      * Return the sequenceID field of this record.
      * @return the sequenceID field of this record
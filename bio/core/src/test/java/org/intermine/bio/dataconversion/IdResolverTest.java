@@ -224,4 +224,40 @@ public class IdResolverTest extends TestCase
         assertEquals(resolver.orgMainMaps, readFromFile.orgMainMaps);
         assertEquals(resolver.orgSynMaps, readFromFile.orgSynMaps);
     }
+
+    public void testIndexRoundTrip() throws Exception {
+        File f = getResolverCache();
+        resolver.writeToFile(f);
+
+        IdResolver readFromIndex = new IdResolver();
+        readFromIndex.populateFromIndex(f);
+        assertTrue(IdResolverIndex.getIndexFile(f).exists());
+        assertTrue(readFromIndex.orgIdMaps.isEmpty());
+        assertEquals(resolver.getTaxonsAndClassNames(), readFromIndex.getTaxonsAndClassNames());
+        assertTrue(readFromIndex.isPrimaryIdentifier(taxId1, clsName1, primaryId2));
+        assertFalse(readFromIndex.isPrimaryIdentifier(taxId1, clsName1, mainId1));
+        assertEquals(Collections.singleton(primaryId1), readFromIndex.resolveId(taxId1, clsName1, mainId1));
+        assertEquals(new HashSet<String>(Arrays.asList(primaryId1, primaryId2)), readFromIndex.resolveId(taxId1, clsName1, synonym1));
+        assertEquals(Collections.emptySet(), readFromIndex.resolveId(taxId2, clsName1, "unknown"));
+        assertEquals(resolver.getSynonyms(taxId1, clsName1, primaryId1), readFromIndex.getSynonyms(taxId1, clsName1, primaryId1));
+
+        // entries added afterwards are merged with the index, and only they are appended
+        readFromIndex.addSynonyms(taxId1, clsName1, primaryId1, Collections.singleton(synonym4));
+        readFromIndex.addSynonyms(taxId3, clsName3, primaryId3, SynonymSet1);
+        assertEquals(new HashSet<String>(Arrays.asList(mainId1, mainId2, synonym1, synonym2, synonym4)), readFromIndex.getSynonyms(taxId1, clsName1, primaryId1));
+        assertTrue(readFromIndex.hasTaxon(taxId3));
+        long length = f.length();
+        readFromIndex.writeToFile(f);
+        IdResolver readFromFile = new IdResolver();
+        readFromFile.populateFromFile(f);
+        assertEquals(readFromIndex.getSynonyms(taxId1, clsName1, primaryId1), readFromFile.getSynonyms(taxId1, clsName1, primaryId1));
+        assertTrue(f.length() > length);
+
+        // the index is rebuilt because the cache file has changed
+        IdResolver rebuilt = new IdResolver();
+        rebuilt.populateFromIndex(f);
+        assertEquals(Collections.singleton(primaryId3), rebuilt.resolveId(taxId3, clsName3, synonym2));
+        IdResolverIndex.getIndexFile(f).delete();
+        f.delete();
+    }
 }
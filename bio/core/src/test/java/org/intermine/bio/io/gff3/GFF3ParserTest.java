@@ -158,4 +158,21 @@ public class GFF3ParserTest extends TestCase
         assertEquals(expected, record.getParents());
     }
 
+    public void testSharedNames() throws Exception {
+        String gff="4\t.\texon\t22335\t22528\t.\t-\t.\tID=CG32013:2;Parent=CG32013-RA\n"
+            + "\n# comment\n"
+            + "4\t.\texon\t22600\t22700\t.\t-\t.\tID=CG32013:3;Parent=CG32013-RA\n";
+        Iterator iter = GFF3Parser.parse(new BufferedReader(new StringReader(gff)));
+        GFF3Record record1 = (GFF3Record) iter.next();
+        GFF3Record record2 = (GFF3Record) iter.next();
+        assertFalse(iter.hasNext());
+
+        assertEquals("CG32013:2", record1.getId());
+        assertEquals("CG32013:3", record2.getId());
+        assertSame(record1.getSequenceID(), record2.getSequenceID());
+        assertSame(record1.getType(), record2.getType());
+        assertSame(record1.getAttributes().keySet().iterator().next(),
+                record2.getAttributes().keySet().iterator().next());
+    }
+
 }
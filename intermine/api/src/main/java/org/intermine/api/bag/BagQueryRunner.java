@@ -198,7 +198,9 @@ public class BagQueryRunner
                                 String field = String.valueOf(fieldObject);
                                 String lowerField = field.toLowerCase();
                                 if (caseSensitive) {
-                                    if (cleanInput.contains(field)) {
+                                    // cleanInput holds the first spelling of each lower case
+                                    // identifier, which is the one in lowerCaseInput
+                                    if (field.equals(lowerCaseInput.get(lowerField))) {
                                         processMatch(resMap, unresolved, id, field);
                                     }
                                 } else if (lowerCaseInput.containsKey(lowerField)) {
@@ -241,6 +243,9 @@ public class BagQueryRunner
                     // This is a dummy issue just to give a message when running queries
                     bqr.addIssue(BagQueryResult.WILDCARD, bq.getMessage(),
                             entry.getKey(), new ArrayList<Object>(entry.getValue()));
+                }
+                // addResults handles every entry in resMap, so call it once for all of them
+                if (!resMap.isEmpty()) {
                     if (matchOnFirst) {
                         addResults(resMap, wildcardUnresolved, bqr, bq.getMessage(),
                                 typeCls, true, matchOnFirst, bq.matchesAreIssues());
@@ -248,7 +253,6 @@ public class BagQueryRunner
                         addResults(resMap, wildcardUnresolvedOriginal, bqr, bq.getMessage(),
                                 typeCls, true, matchOnFirst, bq.matchesAreIssues());
                     }
-
                 }
 
             }
@@ -281,18 +285,22 @@ public class BagQueryRunner
             boolean matchOnFirst, boolean matchesAreIssues) throws InterMineException {
         Map<String, Set<Object>> objsOfWrongType = new HashMap<String, Set<Object>>();
 
-        // Gather together all the id lookups and perform them in one.
+        // Gather together all the id lookups and perform them in one. Single matches only need
+        // their ids, and wildcard duplicates are not reported, so only fetch the objects that
+        // end up in an issue.
         Map<Integer, InterMineObject> fetchedObjects = new HashMap<Integer, InterMineObject>();
         Set<Integer> idsToFetch = new HashSet<Integer>();
         try {
             for (Map.Entry<String, Set<Integer>> resEntry : resMap.entrySet()) {
-                if (matchesAreIssues || (resEntry.getValue().size() > 1)) {
+                if (matchesAreIssues || ((resEntry.getValue().size() > 1) && (!areWildcards))) {
                     idsToFetch.addAll(resEntry.getValue());
                 }
             }
-            List<InterMineObject> idsFetched = os.getObjectsByIds(idsToFetch);
-            for (InterMineObject fetchedObject : idsFetched) {
-                fetchedObjects.put(fetchedObject.getId(), fetchedObject);
+            if (!idsToFetch.isEmpty()) {
+                List<InterMineObject> idsFetched = os.getObjectsByIds(idsToFetch);
+                for (InterMineObject fetchedObject : idsFetched) {
+                    fetchedObjects.put(fetchedObject.getId(), fetchedObject);
+                }
             }
         } catch (ObjectStoreException e) {
             throw new InterMineException("can't fetch: " + idsToFetch, e);
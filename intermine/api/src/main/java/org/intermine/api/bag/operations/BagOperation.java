@@ -28,7 +28,6 @@ import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.query.ObjectStoreBagCombination;
-import org.intermine.objectstore.query.Query;
 
 /**
  * @author Alex
@@ -158,11 +157,8 @@ public abstract class BagOperation implements BagProducer
 
     private void buildBag() throws InternalBagOperationException {
         ObjectStoreBagCombination osbc = combineBags();
-        Query q = new Query();
-        q.addToSelect(osbc);
-        LOG.debug(q.toString());
         try {
-            combined.addToBagFromQuery(q);
+            combined.addToBagFromCombination(osbc);
         } catch (ObjectStoreException e) {
             cleanUp();
             throw new InternalBagOperationException("Error constructing bag", e);
@@ -38,9 +38,11 @@ import org.intermine.api.userprofile.SavedBag;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
 import org.intermine.objectstore.query.BagConstraint;
 import org.intermine.objectstore.query.ConstraintSet;
 import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.ObjectStoreBagCombination;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryField;
@@ -50,6 +52,7 @@ import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.util.IntBitmap;
 
 /**
  * An object that represents a bag of objects in our database for the webapp. It is backed by an
@@ -64,6 +67,8 @@ public class InterMineBag extends StorableBag implements Cloneable
     protected static final Logger LOG = Logger.getLogger(InterMineBag.class);
     /** name of bag values table */
     public static final String BAG_VALUES = "bagvalues";
+    // Below this many ids, getIdsContained queries the bag rather than reading all of it
+    private static final int MIN_BITMAP_PROBE_SIZE = 1000;
     private String name;
     private String type;
     private String description;
@@ -246,6 +251,13 @@ public class InterMineBag extends StorableBag implements Cloneable
      */
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public List<Integer> getContentsAsIds() {
+        if (os instanceof ObjectStoreInterMineImpl) {
+            try {
+                return toList(((ObjectStoreInterMineImpl) os).getBagBitmap(osb));
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException("Could not read contents of list " + name, e);
+            }
+        }
         Query q = new Query();
         q.addToSelect(osb);
         q.setDistinct(false);
@@ -263,6 +275,28 @@ public class InterMineBag extends StorableBag implements Cloneable
      */
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public List<Integer> getIdsContained(Collection<Integer> ids) {
+        if (os instanceof ObjectStoreInterMineImpl) {
+            // A few ids are looked up through the index on the bag table, unless the contents of
+            // the bag are already in memory
+            ObjectStoreInterMineImpl osi = (ObjectStoreInterMineImpl) os;
+            IntBitmap contents = osi.getCachedBagBitmap(osb);
+            try {
+                if ((contents == null) && (ids.size() >= MIN_BITMAP_PROBE_SIZE)) {
+                    contents = osi.getBagBitmap(osb);
+                }
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException("Could not read contents of list " + name, e);
+            }
+            if (contents != null) {
+                IntBitmap retval = new IntBitmap();
+                for (Integer id : ids) {
+                    if ((id != null) && contents.contains(id.intValue())) {
+                        retval.add(id.intValue());
+                    }
+                }
+                return toList(retval);
+            }
+        }
         Query q = new Query();
         q.setDistinct(false);
         try {
@@ -288,6 +322,33 @@ public class InterMineBag extends StorableBag implements Cloneable
         return ((List) res);
     }
 
+    /**
+     * Returns the contents of this bag as an IntBitmap of ids, so that it can be compared with
+     * other bags in memory. If the production objectstore keeps bitmaps of bags, the bitmap is
+     * shared with it.
+     *
+     * @return an IntBitmap, which must not be modified
+     * @throws ObjectStoreException if the contents cannot be read
+     */
+    public IntBitmap getContentsAsBitmap() throws ObjectStoreException {
+        if (os instanceof ObjectStoreInterMineImpl) {
+            return ((ObjectStoreInterMineImpl) os).getBagBitmap(osb);
+        }
+        IntBitmap retval = new IntBitmap();
+        for (Integer id : getContentsAsIds()) {
+            retval.add(id.intValue());
+        }
+        return retval;
+    }
+
+    private static List<Integer> toList(IntBitmap bitmap) {
+        List<Integer> retval = new ArrayList<Integer>(bitmap.size());
+        for (int id : bitmap.toArray()) {
+            retval.add(Integer.valueOf(id));
+        }
+        return retval;
+    }
+
     /**
      * Returns a List of BagValue (key field value and extra value) of the objects contained
      * by this bag.
@@ -437,6 +498,13 @@ public class InterMineBag extends StorableBag implements Cloneable
 
     @Override
     public int getSize() throws ObjectStoreException {
+        if (os instanceof ObjectStoreInterMineImpl) {
+            // Counting in the database is cheaper than reading the whole bag into memory
+            IntBitmap contents = ((ObjectStoreInterMineImpl) os).getCachedBagBitmap(osb);
+            if (contents != null) {
+                return contents.size();
+            }
+        }
         Query q = new Query();
         q.addToSelect(osb);
         q.setDistinct(false);
@@ -797,6 +865,36 @@ public class InterMineBag extends StorableBag implements Cloneable
         }
     }
 
+    /**
+     * Add the contents of a combination of other bags to the bag. If the production objectstore
+     * keeps bitmaps of bags, the combination is worked out in memory from them and the resulting
+     * ids are written to the bag, otherwise it is worked out in the database.
+     * @param osbc the combination of bags
+     * @throws ObjectStoreException if problem storing
+     */
+    public void addToBagFromCombination(ObjectStoreBagCombination osbc)
+        throws ObjectStoreException {
+        if (!(os instanceof ObjectStoreInterMineImpl)) {
+            Query q = new Query();
+            q.addToSelect(osbc);
+            addToBagFromQuery(q);
+            return;
+        }
+        IntBitmap ids = ((ObjectStoreInterMineImpl) os).getBagBitmap(osbc);
+        ObjectStoreWriter oswProduction = null;
+        try {
+            oswProduction = os.getNewWriter();
+            oswProduction.addAllToBag(osb, toList(ids));
+        } finally {
+            if (oswProduction != null) {
+                oswProduction.close();
+            }
+        }
+        if (profileId != null) {
+            updateBagValues();
+        }
+    }
+
     /**
      * Remove the given id from the bag, this updates the bag contents in the database
      * @param id the id to remove
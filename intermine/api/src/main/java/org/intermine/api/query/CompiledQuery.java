@@ -0,0 +1,188 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.pathquery.LogicExpression;
+import org.intermine.pathquery.OrderElement;
+import org.intermine.pathquery.PathConstraint;
+import org.intermine.pathquery.PathConstraintAttribute;
+import org.intermine.pathquery.PathConstraintBag;
+import org.intermine.pathquery.PathConstraintIds;
+import org.intermine.pathquery.PathConstraintLookup;
+import org.intermine.pathquery.PathConstraintMultiValue;
+import org.intermine.pathquery.PathConstraintRange;
+import org.intermine.pathquery.PathQuery;
+
+/**
+ * The result of converting a PathQuery into an ObjectStore Query, kept so that another PathQuery
+ * with the same shape can be converted without resolving its paths again. MainHelper fills one in
+ * while it converts a PathQuery, and makes later Queries from it by copying the Query and building
+ * new constraints for the values of the new PathQuery.
+ * <p>
+ * The values of attribute, LOOKUP, id and multi-value constraints are parameters - they are left
+ * out of the key, and are bound each time. All other constraints are fixed, and their values form
+ * part of the key. Only queries without outer joins or range constraints are compiled, as those
+ * make parts of the Query that depend on the values or that cannot be shared between copies.
+ */
+final class CompiledQuery
+{
+    private Query query;
+    private Map<String, QuerySelectable> queryBits;
+    private List<Constraint> joins = new ArrayList<Constraint>();
+    private LogicExpression logic;
+    private Map<String, Constraint> fixedConstraints = new HashMap<String, Constraint>();
+    private Map<String, Class<?>> parameterTypes = new HashMap<String, Class<?>>();
+    private boolean complete = false;
+
+    /**
+     * Returns the key under which the compiled form of a PathQuery is cached, which is the same
+     * for any two PathQueries that differ only in the values of their parameter constraints.
+     *
+     * @param pathQuery the PathQuery to execute, from getQueryToExecute()
+     * @param savedBags the saved bags map that the PathQuery will be converted with
+     * @return a String, or null if the PathQuery cannot be compiled
+     */
+    static String getKey(PathQuery pathQuery, Map<String, InterMineBag> savedBags) {
+        StringBuilder key = new StringBuilder(pathQuery.getModel().getName()).append(" SELECT ")
+            .append(pathQuery.getView()).append(" ORDER BY");
+        for (OrderElement order : pathQuery.getOrderBy()) {
+            key.append(' ').append(order.getOrderPath()).append(' ').append(order.getDirection());
+        }
+        key.append(" JOINS ").append(pathQuery.getOuterJoinStatus())
+            .append(" LOGIC ").append(pathQuery.getConstraintLogic());
+        for (Map.Entry<PathConstraint, String> entry : pathQuery.getConstraints().entrySet()) {
+            PathConstraint constraint = entry.getKey();
+            key.append(" ").append(entry.getValue()).append(": ");
+            if (constraint instanceof PathConstraintRange) {
+                return null;
+            } else if ((constraint instanceof PathConstraintAttribute)
+                    || (constraint instanceof PathConstraintIds)
+                    || (constraint instanceof PathConstraintMultiValue)) {
+                key.append(constraint.getClass().getSimpleName()).append(' ')
+                    .append(constraint.getPath()).append(' ').append(constraint.getOp());
+            } else if (constraint instanceof PathConstraintLookup) {
+                // A LOOKUP for everything makes no constraint at all
+                key.append("PathConstraintLookup ").append(constraint.getPath()).append(
+                        "*".equals(((PathConstraintLookup) constraint).getValue()) ? " ALL" : "");
+            } else if (constraint instanceof PathConstraintBag) {
+                InterMineBag bag = savedBags.get(((PathConstraintBag) constraint).getBag());
+                if (bag == null) {
+                    return null;
+                }
+                key.append(constraint).append(" #").append(bag.getOsb().getBagId());
+            } else {
+                key.append(constraint.getClass().getSimpleName()).append(' ').append(constraint);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns whether the value of a constraint is a parameter, bound each time the Query is made.
+     *
+     * @param constraint a PathConstraint
+     * @return true if the constraint is made for each Query
+     */
+    static boolean isParameter(PathConstraint constraint) {
+        return (constraint instanceof PathConstraintAttribute)
+            || (constraint instanceof PathConstraintIds)
+            || (constraint instanceof PathConstraintMultiValue)
+            || (constraint instanceof PathConstraintLookup);
+    }
+
+    /**
+     * Records the Query made from the PathQuery, and marks this object as complete. The Query is
+     * stored without its constraint, which is rebuilt for each copy.
+     *
+     * @param query a copy of the Query, not given to anyone else
+     * @param queryBits the map from path to objects in the Query
+     * @param logic the constraint logic used to build the constraint
+     */
+    void setQuery(Query query, Map<String, QuerySelectable> queryBits, LogicExpression logic) {
+        query.setConstraint(null);
+        this.query = query;
+        this.queryBits = queryBits;
+        this.logic = logic;
+        complete = true;
+    }
+
+    /**
+     * Returns whether this object was filled in.
+     *
+     * @return true if the Query was recorded
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Returns the Query, without its constraint. It must be copied before use.
+     *
+     * @return a Query
+     */
+    Query getQuery() {
+        return query;
+    }
+
+    /**
+     * Returns the map from path to objects in the Query.
+     *
+     * @return a Map from String path to QuerySelectable
+     */
+    Map<String, QuerySelectable> getQueryBits() {
+        return queryBits;
+    }
+
+    /**
+     * Returns the constraints that join the classes of the Query together.
+     *
+     * @return a List of Constraints
+     */
+    List<Constraint> getJoins() {
+        return joins;
+    }
+
+    /**
+     * Returns the constraint logic of the Query.
+     *
+     * @return a LogicExpression, or null if there are no constraints
+     */
+    LogicExpression getLogic() {
+        return logic;
+    }
+
+    /**
+     * Returns the constraints that are the same for every Query made from this object.
+     *
+     * @return a Map from constraint code to Constraint
+     */
+    Map<String, Constraint> getFixedConstraints() {
+        return fixedConstraints;
+    }
+
+    /**
+     * Returns the type of the path of each parameter constraint.
+     *
+     * @return a Map from constraint code to type
+     */
+    Map<String, Class<?>> getParameterTypes() {
+        return parameterTypes;
+    }
+}
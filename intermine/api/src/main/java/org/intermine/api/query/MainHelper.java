@@ -93,6 +93,7 @@ import org.intermine.pathquery.PathConstraintRange;
 import org.intermine.pathquery.PathConstraintSubclass;
 import org.intermine.pathquery.PathException;
 import org.intermine.pathquery.PathQuery;
+import org.intermine.util.CacheMap;
 import org.intermine.util.PropertiesUtil;
 
 /**
@@ -110,6 +111,10 @@ public final class MainHelper
 
     private static final LookupTokeniser LOOKUP_TOKENISER = LookupTokeniser.getLookupTokeniser();
 
+    // The compiled forms of PathQueries, keyed by CompiledQuery.getKey()
+    private static Map<String, CompiledQuery> compiledQueries = Collections.synchronizedMap(
+            new CacheMap<String, CompiledQuery>("MainHelper compiled queries"));
+
     /**
      * Converts a PathQuery object into an ObjectStore Query object, and optionally populates a Map
      * from String path in the PathQuery to the object in the Query that represents it.
@@ -128,21 +133,96 @@ public final class MainHelper
             Map<String, QuerySelectable> pathToQueryNode, BagQueryRunner bagQueryRunner,
             Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
         synchronized (pathQuery) {
+            PathQuery toExecute = pathQuery.getQueryToExecute();
+            String key = CompiledQuery.getKey(toExecute, savedBags);
+            CompiledQuery compiled = (key == null ? null : compiledQueries.get(key));
+            if (compiled != null) {
+                return makeQuery(compiled, toExecute, pathToQueryNode, bagQueryRunner,
+                        returnBagQueryResults);
+            }
             List<String> problems = pathQuery.verifyQuery();
             if (!problems.isEmpty()) {
                 throw new ObjectStoreException("PathQuery is invalid: " + problems);
             }
             Query q = new Query();
+            compiled = (key == null ? null : new CompiledQuery());
             try {
                 makeQuery(q, pathQuery.getRootClass(), pathQuery, savedBags, pathToQueryNode,
-                        bagQueryRunner, returnBagQueryResults);
+                        bagQueryRunner, returnBagQueryResults, compiled);
             } catch (PathException e) {
                 throw new Error("PathQuery is invalid, but was valid earlier", e);
             }
+            if ((compiled != null) && compiled.isComplete()) {
+                compiledQueries.put(key, compiled);
+            }
             return q;
         }
     }
 
+    /**
+     * Makes a Query from the compiled form of an earlier PathQuery with the same shape, binding
+     * the values of the constraints of the given PathQuery.
+     *
+     * @param compiled the CompiledQuery
+     * @param pathQuery the PathQuery to execute, from getQueryToExecute()
+     * @param pathToQueryNode optional parameter which will be populated with entries, mapping from
+     * String path in the pathQuery to objects in the result Query
+     * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
+     * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
+     * returned
+     * @return an ObjectStore Query object
+     * @throws ObjectStoreException if something goes wrong
+     */
+    private static Query makeQuery(CompiledQuery compiled, PathQuery pathQuery,
+            Map<String, QuerySelectable> pathToQueryNode, BagQueryRunner bagQueryRunner,
+            Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+        Map<String, Constraint> codeToConstraint
+            = new HashMap<String, Constraint>(compiled.getFixedConstraints());
+        for (Map.Entry<PathConstraint, String> entry : pathQuery.getConstraints().entrySet()) {
+            Class<?> type = compiled.getParameterTypes().get(entry.getValue());
+            if (type != null) {
+                PathConstraint constraint = entry.getKey();
+                Constraint c;
+                try {
+                    c = makeParameterConstraint(constraint, type,
+                            compiled.getQueryBits().get(constraint.getPath()), bagQueryRunner,
+                            returnBagQueryResults);
+                } catch (RuntimeException e) {
+                    // Values are not verified for a compiled query, so a value that does not
+                    // convert to the type of its path is reported here instead
+                    if (constraint instanceof PathConstraintLookup) {
+                        throw e;
+                    }
+                    throw new ObjectStoreException("PathQuery is invalid: [Value in constraint "
+                            + constraint + " is not in correct format for type of "
+                            + Util.getFriendlyName(type) + "]", e);
+                }
+                if (c != null) {
+                    codeToConstraint.put(entry.getValue(), c);
+                }
+            }
+        }
+        Query q = QueryCloner.cloneQuery(compiled.getQuery());
+        ConstraintSet andCs = new ConstraintSet(ConstraintOp.AND);
+        for (Constraint join : compiled.getJoins()) {
+            andCs.addConstraint(join);
+        }
+        createConstraintStructure(compiled.getLogic(), andCs, codeToConstraint);
+        setConstraints(q, andCs);
+        if (pathToQueryNode != null) {
+            pathToQueryNode.putAll(compiled.getQueryBits());
+        }
+        return q;
+    }
+
+    /**
+     * Removes all the compiled forms of PathQueries, for example after the model or the saved
+     * bags have been replaced.
+     */
+    public static void clearCompiledQueries() {
+        compiledQueries.clear();
+    }
+
     /**
      * Converts a PathQuery object into an ObjectStore Query object, and optionally populates a Map
      * from String path in the PathQuery to the object in the Query that represents it. This is the
@@ -159,12 +239,14 @@ public final class MainHelper
      * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
      * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
      * returned
+     * @param compiled optional parameter which will be filled in with the compiled form of the
+     * query, if it can be compiled
      * @throws ObjectStoreException if something goes wrong
      */
     private static void makeQuery(Queryable q, String root, PathQuery query,
             Map<String, InterMineBag> savedBags, Map<String, QuerySelectable> pathToQueryNode,
-            BagQueryRunner bagQueryRunner,
-            Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+            BagQueryRunner bagQueryRunner, Map<String, BagQueryResult> returnBagQueryResults,
+            CompiledQuery compiled) throws ObjectStoreException {
         PathQuery pathQuery = query;
         Model model = pathQuery.getModel();
 
@@ -332,7 +414,8 @@ public final class MainHelper
                                         = new QueryCollectionPathExpression(parentQc,
                                                 path.getLastElement(), path.getEndType());
                                     makeQuery(qn, stringPath, pathQuery, savedBags,
-                                            pathToQueryNode, bagQueryRunner, returnBagQueryResults);
+                                            pathToQueryNode, bagQueryRunner, returnBagQueryResults,
+                                            null);
                                     queryBits.put(stringPath, qn);
                                     pathExpressions.put(stringPath, qn);
                                 } else {
@@ -340,7 +423,7 @@ public final class MainHelper
                                         = new QueryObjectPathExpression(parentQc,
                                                 path.getLastElement(), path.getEndType());
                                     makeQuery(qn, stringPath, pathQuery, savedBags, pathToQueryNode,
-                                            bagQueryRunner, returnBagQueryResults);
+                                            bagQueryRunner, returnBagQueryResults, null);
                                     queryBits.put(stringPath, qn);
                                     pathExpressions.put(stringPath, qn);
                                 }
@@ -352,10 +435,16 @@ public final class MainHelper
                 queueDeferred = 0;
             }
 
+            // A query with outer joins is not compiled, so compiled is only used at the top level
+            if ((compiled != null) && pathExpressions.isEmpty()) {
+                compiled.getJoins().addAll(andCs.getConstraints());
+            } else {
+                compiled = null;
+            }
             Map<String, Constraint> codeToConstraint = putConstraintsInMap(q,
                     savedBags, bagQueryRunner, returnBagQueryResults,
                     pathQuery, model, queryBits, subclasses, relevantCodes,
-                    participatingLoops);
+                    participatingLoops, compiled);
 
             // Use the constraint logic to create a ConstraintSet structure with the constraints
             // inserted into it
@@ -370,6 +459,9 @@ public final class MainHelper
             if (pathToQueryNode != null) {
                 pathToQueryNode.putAll(queryBits);
             }
+            if (compiled != null) {
+                compiled.setQuery(QueryCloner.cloneQuery((Query) q), queryBits, logic);
+            }
         } catch (PathException e) {
             throw new ObjectStoreException("PathException while converting PathQuery to ObjectStore"
                     + " Query", e);
@@ -541,8 +633,8 @@ public final class MainHelper
             PathQuery pathQuery, Model model,
             Map<String, QuerySelectable> queryBits,
             Map<String, String> subclasses, Set<String> relevantCodes,
-            Set<PathConstraintLoop> participatingLoops) throws PathException,
-            BagNotFound, ObjectStoreException {
+            Set<PathConstraintLoop> participatingLoops,
+            CompiledQuery compiled) throws PathException, BagNotFound, ObjectStoreException {
         // For each of the relevant codes, produce a Constraint object, and put it in a Map.
         // Constraints that do not have a code (namely loop NOT EQUALS) can be put straight into
         // the andCs.
@@ -562,26 +654,16 @@ public final class MainHelper
                     field = new QueryField(qc, path.getLastElement());
                     queryBits.put(stringPath, field);
                 }
-                if (constraint instanceof PathConstraintAttribute) {
-                    PathConstraintAttribute pca = (PathConstraintAttribute) constraint;
-                    Class<?> fieldType = path.getEndType();
-                    if (String.class.equals(fieldType)) {
-                        codeToConstraint.put(code, makeQueryStringConstraint(
-                                    (QueryField) field, pca));
-                    } else if (Date.class.equals(fieldType)) {
-                        codeToConstraint.put(code, makeQueryDateConstraint(
-                                    (QueryField) field, pca));
-                    } else {
-                        // Use simple forms of operators when not dealing with strings.
-                        ConstraintOp simpleOp = ConstraintOp.EXACT_MATCH == pca.getOp()
-                                ? ConstraintOp.EQUALS
-                                        : ConstraintOp.STRICT_NOT_EQUALS == pca.getOp()
-                                            ? ConstraintOp.NOT_EQUALS : pca.getOp();
-                        codeToConstraint.put(code, new SimpleConstraint((QueryField) field,
-                                simpleOp, new QueryValue(TypeUtil.stringToObject(
-                                        fieldType, pca.getValue()))));
+                if (CompiledQuery.isParameter(constraint)) {
+                    Constraint c = makeParameterConstraint(constraint, path.getEndType(), field,
+                            bagQueryRunner, returnBagQueryResults);
+                    if (c != null) {
+                        codeToConstraint.put(code, c);
                     }
-
+                    if (compiled != null) {
+                        compiled.getParameterTypes().put(code, path.getEndType());
+                    }
+                    continue;
                 } else if (constraint instanceof PathConstraintNull) {
                     if (path.endIsAttribute()) {
                         codeToConstraint.put(code, new SimpleConstraint((QueryField) field,
@@ -627,10 +709,6 @@ public final class MainHelper
                     }
                     codeToConstraint.put(code, new BagConstraint((QueryNode) field, pcb.getOp(),
                                 bag.getOsb()));
-                } else if (constraint instanceof PathConstraintIds) {
-                    codeToConstraint.put(code, new BagConstraint(new QueryField(
-                                    (QueryClass) field, "id"), constraint.getOp(),
-                                ((PathConstraintIds) constraint).getIds()));
                 } else if (constraint instanceof PathConstraintRange) {
                     PathConstraintRange pcr = (PathConstraintRange) constraint;
                     codeToConstraint.put(code, makeRangeConstraint(q, (QueryNode) field, pcr));
@@ -638,57 +716,95 @@ public final class MainHelper
                     PathConstraintMultitype pcmt = (PathConstraintMultitype) constraint;
                     codeToConstraint.put(code, makeMultiTypeConstraint(pathQuery.getModel(),
                             (QueryNode) field, pcmt));
-                } else if (constraint instanceof PathConstraintMultiValue) {
-                    Class<?> fieldType = path.getEndType();
-                    if (String.class.equals(fieldType)) {
-                        codeToConstraint.put(code, new BagConstraint((QueryField) field,
-                                constraint.getOp(), ((PathConstraintMultiValue) constraint)
-                                .getValues()));
-                    } else {
-                        Collection<Object> objects = new ArrayList<Object>();
-                        for (String s : ((PathConstraintMultiValue) constraint).getValues()) {
-                            objects.add(TypeUtil.stringToObject(fieldType, s));
-                        }
-                        codeToConstraint.put(code, new BagConstraint((QueryField) field,
-                                constraint.getOp(), objects));
-                    }
-                } else if (constraint instanceof PathConstraintLookup) {
-                    QueryClass qc = (QueryClass) field;
-                    PathConstraintLookup pcl = (PathConstraintLookup) constraint;
-                    if (bagQueryRunner == null) {
-                        throw new NullPointerException("Cannot convert this PathQuery to an "
-                                + "ObjectStore Query without a BagQueryRunner");
-                    }
-                    String identifiers = pcl.getValue();
-
-                    // if this LOOKUP constraint only includes *, just ignore constraint
-                    // as user wants everything.
-                    if (!"*".equals(identifiers)) {
-                        BagQueryResult bagQueryResult;
-                        List<String> identifierList = LOOKUP_TOKENISER.tokenise(identifiers);
-                        try {
-                            bagQueryResult = bagQueryRunner.searchForBag(qc.getType()
-                                    .getSimpleName(), identifierList, pcl.getExtraValue(), true);
-                        } catch (ClassNotFoundException e) {
-                            throw new ObjectStoreException(e);
-                        } catch (InterMineException e) {
-                            throw new ObjectStoreException(e);
-                        }
-                        codeToConstraint.put(code, new BagConstraint(new QueryField(qc, "id"),
-                                ConstraintOp.IN, bagQueryResult.getMatchAndIssueIds()));
-                        if (returnBagQueryResults != null) {
-                            returnBagQueryResults.put(stringPath, bagQueryResult);
-                        }
-                    }
                 } else {
                     throw new ObjectStoreException("Unknown constraint type "
                             + constraint.getClass().getName());
                 }
+                if ((compiled != null) && codeToConstraint.containsKey(code)) {
+                    compiled.getFixedConstraints().put(code, codeToConstraint.get(code));
+                }
             }
         }
         return codeToConstraint;
     }
 
+    /**
+     * Makes the Constraint for a PathConstraint whose values are bound each time a compiled query
+     * is used - see CompiledQuery.isParameter().
+     *
+     * @param constraint the PathConstraint
+     * @param fieldType the type of the end of the path of the constraint
+     * @param field the object in the Query that represents the path of the constraint
+     * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
+     * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
+     * returned
+     * @return a Constraint, or null if the PathConstraint does not constrain the query
+     * @throws ObjectStoreException if something goes wrong
+     */
+    private static Constraint makeParameterConstraint(PathConstraint constraint,
+            Class<?> fieldType, QuerySelectable field, BagQueryRunner bagQueryRunner,
+            Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+        if (constraint instanceof PathConstraintAttribute) {
+            PathConstraintAttribute pca = (PathConstraintAttribute) constraint;
+            if (String.class.equals(fieldType)) {
+                return makeQueryStringConstraint((QueryField) field, pca);
+            } else if (Date.class.equals(fieldType)) {
+                return makeQueryDateConstraint((QueryField) field, pca);
+            } else {
+                // Use simple forms of operators when not dealing with strings.
+                ConstraintOp simpleOp = ConstraintOp.EXACT_MATCH == pca.getOp()
+                        ? ConstraintOp.EQUALS
+                                : ConstraintOp.STRICT_NOT_EQUALS == pca.getOp()
+                                    ? ConstraintOp.NOT_EQUALS : pca.getOp();
+                return new SimpleConstraint((QueryField) field, simpleOp, new QueryValue(
+                            TypeUtil.stringToObject(fieldType, pca.getValue())));
+            }
+        } else if (constraint instanceof PathConstraintIds) {
+            return new BagConstraint(new QueryField((QueryClass) field, "id"),
+                    constraint.getOp(), ((PathConstraintIds) constraint).getIds());
+        } else if (constraint instanceof PathConstraintMultiValue) {
+            if (String.class.equals(fieldType)) {
+                return new BagConstraint((QueryField) field, constraint.getOp(),
+                        ((PathConstraintMultiValue) constraint).getValues());
+            } else {
+                Collection<Object> objects = new ArrayList<Object>();
+                for (String s : ((PathConstraintMultiValue) constraint).getValues()) {
+                    objects.add(TypeUtil.stringToObject(fieldType, s));
+                }
+                return new BagConstraint((QueryField) field, constraint.getOp(), objects);
+            }
+        } else {
+            QueryClass qc = (QueryClass) field;
+            PathConstraintLookup pcl = (PathConstraintLookup) constraint;
+            if (bagQueryRunner == null) {
+                throw new NullPointerException("Cannot convert this PathQuery to an "
+                        + "ObjectStore Query without a BagQueryRunner");
+            }
+            String identifiers = pcl.getValue();
+
+            // if this LOOKUP constraint only includes *, just ignore constraint
+            // as user wants everything.
+            if ("*".equals(identifiers)) {
+                return null;
+            }
+            BagQueryResult bagQueryResult;
+            List<String> identifierList = LOOKUP_TOKENISER.tokenise(identifiers);
+            try {
+                bagQueryResult = bagQueryRunner.searchForBag(qc.getType().getSimpleName(),
+                        identifierList, pcl.getExtraValue(), true);
+            } catch (ClassNotFoundException e) {
+                throw new ObjectStoreException(e);
+            } catch (InterMineException e) {
+                throw new ObjectStoreException(e);
+            }
+            if (returnBagQueryResults != null) {
+                returnBagQueryResults.put(constraint.getPath(), bagQueryResult);
+            }
+            return new BagConstraint(new QueryField(qc, "id"), ConstraintOp.IN,
+                    bagQueryResult.getMatchAndIssueIds());
+        }
+    }
+
     /**
      * Construct a new multi-type constraint.
      * @param model The model to look for types within.
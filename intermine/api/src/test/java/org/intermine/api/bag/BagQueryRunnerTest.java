@@ -136,6 +136,21 @@ public class BagQueryRunnerTest {
         Assert.assertEquals(res.getUnresolved().size(), 1);
     }
 
+    // an upload large enough to be loaded into a bag table, mostly of unknown identifiers
+    @Test
+    public void testSearchForBagLargeInput() throws Exception {
+        int unknown = 1000;
+        List<String> input = new ArrayList<String>(Arrays.asList("EmployeeA1", "EmployeeB3"));
+        for (int i = 0; i < unknown; i++) {
+            input.add("Unknown" + i);
+        }
+        BagQueryResult res = runner.searchForBag("Employee", input, null, false);
+        Assert.assertEquals(2, res.getMatches().size());
+        Assert.assertTrue(res.getMatches().containsKey(eIds.get("EmployeeA1").getId()));
+        Assert.assertTrue(res.getMatches().containsKey(eIds.get("EmployeeB3").getId()));
+        Assert.assertEquals(unknown, res.getUnresolved().size());
+    }
+
     // two identifiers for same object - both match once
     // in this case there are two entries in matches but both have
     // the same id - so getMatches().values().size() == 1
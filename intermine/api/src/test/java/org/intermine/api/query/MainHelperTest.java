@@ -53,6 +53,7 @@ import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryNode;
 import org.intermine.objectstore.query.QueryObjectPathExpression;
 import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Queryable;
 import org.intermine.objectstore.query.SimpleConstraint;
@@ -252,6 +253,32 @@ public class MainHelperTest extends TestCase {
         assertEquals(q.toString(), MainHelper.makeQuery(pq, new HashMap(), null, bagQueryRunner, new HashMap()).toString());
     }
 
+    // The second query has the same shape as the first, so it is made from the compiled form of
+    // the first, and must come out the same as when it is made from scratch
+    public void testCompiledQuery() throws Exception {
+        Map<String, PathQuery> queries = readQueries();
+        MainHelper.clearCompiledQueries();
+        Map<String, QuerySelectable> firstNodes = new HashMap<String, QuerySelectable>();
+        Query first = MainHelper.makeQuery(queries.get("employeeDepartmentCompany"),
+                new HashMap(), firstNodes, bagQueryRunner, new HashMap());
+        Map<String, QuerySelectable> compiledNodes = new HashMap<String, QuerySelectable>();
+        Query compiled = MainHelper.makeQuery(queries.get("employeeDepartmentCompanyWildcard"),
+                new HashMap(), compiledNodes, bagQueryRunner, new HashMap());
+        MainHelper.clearCompiledQueries();
+        Map<String, QuerySelectable> expectedNodes = new HashMap<String, QuerySelectable>();
+        Query expected = MainHelper.makeQuery(queries.get("employeeDepartmentCompanyWildcard"),
+                new HashMap(), expectedNodes, bagQueryRunner, new HashMap());
+
+        assertEquals(expected.toString(), compiled.toString());
+        assertFalse(first.toString().equals(compiled.toString()));
+        assertEquals(expectedNodes.keySet(), compiledNodes.keySet());
+        for (QuerySelectable node : compiledNodes.values()) {
+            QueryClass qc = (QueryClass) (node instanceof QueryField
+                    ? ((QueryField) node).getFromElement() : node);
+            assertTrue(compiled.getFrom().contains(qc));
+        }
+    }
+
     private static class DummyHelper implements RangeHelper {
         @Override
         public Constraint createConstraint(Queryable q, QueryNode node, PathConstraintRange con) {
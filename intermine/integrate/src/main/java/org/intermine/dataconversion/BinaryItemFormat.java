@@ -0,0 +1,105 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+
+/**
+ * Constants and helpers shared by BinaryItemWriter and BinaryItemReader.
+ * <p>
+ * A binary items file starts with a header of a magic number, a version, the name of the model and
+ * the size of the initial dictionary. The rest of the file is a sequence of records, each a tag
+ * byte followed by the length of its payload and the payload. Class and field names are written
+ * as indexes into a dictionary of strings, which starts with every class and field name in the
+ * model in a fixed order, so that the reader can build the same dictionary from its own copy of
+ * the model. Any other name is added to the dictionary by a STRING record before it is first used.
+ * <p>
+ * An ITEM record holds a whole Item, numbered in the order in which Items are written. The
+ * ATTRIBUTE, REFERENCE and COLLECTION records hold additions to an Item that has already been
+ * written, as stored by the ItemWriter methods that take an item id.
+ */
+final class BinaryItemFormat
+{
+    static final int MAGIC = 0x494d4249;
+    static final int VERSION = 1;
+
+    static final byte STRING = 1;
+    static final byte ITEM = 2;
+    static final byte ATTRIBUTE = 3;
+    static final byte REFERENCE = 4;
+    static final byte COLLECTION = 5;
+
+    private BinaryItemFormat() {
+        // don't instantiate
+    }
+
+    /**
+     * Returns the initial dictionary for a model.
+     *
+     * @param model the Model
+     * @return a List of the names of the classes and fields, sorted
+     */
+    static List<String> getModelDictionary(Model model) {
+        TreeSet<String> names = new TreeSet<String>();
+        for (ClassDescriptor cld : model.getClassDescriptors()) {
+            names.add(cld.getUnqualifiedName());
+            for (FieldDescriptor field : cld.getFieldDescriptors()) {
+                names.add(field.getName());
+            }
+        }
+        names.add("id");
+        return new ArrayList<String>(names);
+    }
+
+    /**
+     * Writes a String of any length, which may be null.
+     *
+     * @param out the DataOutput
+     * @param value the String
+     * @throws IOException if an error occurs
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a String written by writeString.
+     *
+     * @param in the DataInput
+     * @return the String, or null
+     * @throws IOException if an error occurs
+     */
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,233 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.metadata.Model;
+import org.intermine.xml.full.Attribute;
+import org.intermine.xml.full.Item;
+import org.intermine.xml.full.ItemFactory;
+import org.intermine.xml.full.ItemReader;
+import org.intermine.xml.full.Reference;
+import org.intermine.xml.full.ReferenceList;
+
+/**
+ * Reads the Items in a file written by BinaryItemWriter, one at a time.
+ * <p>
+ * The file is read twice. The first pass skips over the Items and collects the additions made to
+ * them after they were written, which are usually few, and the second pass returns each Item with
+ * its additions applied.
+ */
+public class BinaryItemReader implements ItemReader
+{
+    private File file;
+    private Model model;
+    private List<String> dictionary;
+    private Map<Integer, Item> additions = new HashMap<Integer, Item>();
+    private DataInputStream in = null;
+    private boolean finished = false;
+
+    /**
+     * Opens a binary items file, and reads the additions to Items.
+     *
+     * @param file the file to read
+     * @param model the data model of the Items
+     * @throws IOException if the file cannot be read or was written for a different model
+     */
+    public BinaryItemReader(File file, Model model) throws IOException {
+        this.file = file;
+        this.model = model;
+        DataInputStream scan = open();
+        try {
+            byte tag;
+            while ((tag = readTag(scan)) != -1) {
+                int length = scan.readInt();
+                if (tag == BinaryItemFormat.STRING) {
+                    byte[] bytes = new byte[length];
+                    scan.readFully(bytes);
+                    dictionary.add(new String(bytes, StandardCharsets.UTF_8));
+                } else if (tag == BinaryItemFormat.ITEM) {
+                    skipFully(scan, length);
+                } else {
+                    readAddition(scan, tag);
+                }
+            }
+        } finally {
+            scan.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Item next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (in == null) {
+            in = open();
+        }
+        byte tag;
+        while ((tag = readTag(in)) != -1) {
+            int length = in.readInt();
+            if (tag == BinaryItemFormat.ITEM) {
+                return readItem(in);
+            }
+            // Names are already in the dictionary, and additions have been collected
+            skipFully(in, length);
+        }
+        close();
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException {
+        finished = true;
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+    /**
+     * Opens the file and checks its header, resetting the dictionary to the names in the model.
+     */
+    private DataInputStream open() throws IOException {
+        DataInputStream retval = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), 1024 * 1024));
+        try {
+            if (retval.readInt() != BinaryItemFormat.MAGIC) {
+                throw new IOException(file + " is not a binary items file");
+            }
+            int version = retval.readInt();
+            if (version != BinaryItemFormat.VERSION) {
+                throw new IOException(file + " has unsupported version " + version);
+            }
+            String modelName = retval.readUTF();
+            int dictionarySize = retval.readInt();
+            if (dictionary == null) {
+                dictionary = BinaryItemFormat.getModelDictionary(model);
+                if (!model.getName().equals(modelName) || (dictionary.size() != dictionarySize)) {
+                    throw new IOException(file + " was written for a different version of model "
+                            + modelName);
+                }
+            }
+        } catch (IOException e) {
+            retval.close();
+            throw e;
+        }
+        return retval;
+    }
+
+    private static void skipFully(DataInputStream stream, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = stream.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new EOFException("Binary items file ends in the middle of a record");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static byte readTag(DataInputStream stream) throws IOException {
+        try {
+            return stream.readByte();
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    private Item readItem(DataInputStream stream) throws IOException {
+        Integer itemId = new Integer(stream.readInt());
+        String identifier = BinaryItemFormat.readString(stream);
+        String className = name(stream.readInt());
+        String implementations = name(stream.readInt());
+        Item item = ItemFactory.NULL_MODEL_ITEM_FACTORY.makeItem(identifier,
+                (className == null) ? "" : className,
+                (implementations == null) ? "" : implementations);
+        int count = stream.readInt();
+        for (int i = 0; i < count; i++) {
+            item.addAttribute(new Attribute(name(stream.readInt()),
+                        BinaryItemFormat.readString(stream)));
+        }
+        count = stream.readInt();
+        for (int i = 0; i < count; i++) {
+            item.setReference(name(stream.readInt()), BinaryItemFormat.readString(stream));
+        }
+        count = stream.readInt();
+        for (int i = 0; i < count; i++) {
+            item.setCollection(name(stream.readInt()), readRefIds(stream));
+        }
+        Item added = additions.remove(itemId);
+        if (added != null) {
+            for (Attribute att : added.getAttributes()) {
+                item.addAttribute(att);
+            }
+            for (Reference ref : added.getReferences()) {
+                item.setReference(ref.getName(), ref.getRefId());
+            }
+            for (ReferenceList refList : added.getCollections()) {
+                for (String refId : refList.getRefIds()) {
+                    item.addToCollection(refList.getName(), refId);
+                }
+            }
+        }
+        return item;
+    }
+
+    private void readAddition(DataInputStream stream, byte tag) throws IOException {
+        Integer itemId = new Integer(stream.readInt());
+        Item added = additions.get(itemId);
+        if (added == null) {
+            added = ItemFactory.NULL_MODEL_ITEM_FACTORY.makeItem();
+            additions.put(itemId, added);
+        }
+        String fieldName = name(stream.readInt());
+        if (tag == BinaryItemFormat.ATTRIBUTE) {
+            added.addAttribute(new Attribute(fieldName, BinaryItemFormat.readString(stream)));
+        } else if (tag == BinaryItemFormat.REFERENCE) {
+            added.setReference(fieldName, BinaryItemFormat.readString(stream));
+        } else if (tag == BinaryItemFormat.COLLECTION) {
+            for (String refId : readRefIds(stream)) {
+                added.addToCollection(fieldName, refId);
+            }
+        } else {
+            throw new IOException("Unknown record type " + tag + " in " + file);
+        }
+    }
+
+    private static List<String> readRefIds(DataInputStream stream) throws IOException {
+        int count = stream.readInt();
+        List<String> refIds = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            refIds.add(BinaryItemFormat.readString(stream));
+        }
+        return refIds;
+    }
+
+    private String name(int index) {
+        return (index == -1) ? null : dictionary.get(index);
+    }
+}
@@ -0,0 +1,234 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.metadata.StringUtil;
+
+/**
+ * Writes Items to a binary items file, which can be loaded by BinaryItemReader without going
+ * through an items database. See BinaryItemFormat for the layout of the file.
+ */
+public class BinaryItemWriter implements ItemWriter
+{
+    private static final Logger LOG = Logger.getLogger(BinaryItemWriter.class);
+
+    private DataOutputStream out;
+    private ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private DataOutputStream record = new DataOutputStream(recordBytes);
+    private Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    private int itemCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Constructor. The stream is closed when the writer is closed.
+     *
+     * @param os the OutputStream to write to
+     * @param model the data model of the Items
+     * @throws ObjectStoreException if the header cannot be written
+     */
+    public BinaryItemWriter(OutputStream os, Model model) throws ObjectStoreException {
+        out = new DataOutputStream(new BufferedOutputStream(os, 1024 * 1024));
+        List<String> names = BinaryItemFormat.getModelDictionary(model);
+        for (String name : names) {
+            dictionary.put(name, new Integer(dictionary.size()));
+        }
+        try {
+            out.writeInt(BinaryItemFormat.MAGIC);
+            out.writeInt(BinaryItemFormat.VERSION);
+            out.writeUTF(model.getName());
+            out.writeInt(names.size());
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not write binary items header", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Integer store(Item item) throws ObjectStoreException {
+        if (StringUtils.isEmpty(item.getClassName())
+            && StringUtils.isEmpty(item.getImplementations())) {
+            throw new RuntimeException("className not set for item: " + item.getIdentifier());
+        }
+        Integer itemId = new Integer(itemCount++);
+        item.setId(itemId);
+        try {
+            // Define any new names before the record is started
+            int className = name(item.getClassName());
+            int implementations = name(item.getImplementations());
+            for (Attribute att : item.getAttributes()) {
+                name(att.getName());
+            }
+            for (Reference ref : item.getReferences()) {
+                name(ref.getName());
+            }
+            for (ReferenceList refList : item.getCollections()) {
+                name(refList.getName());
+            }
+            record.writeInt(itemId.intValue());
+            BinaryItemFormat.writeString(record, item.getIdentifier());
+            record.writeInt(className);
+            record.writeInt(implementations);
+            Collection<Attribute> attributes = item.getAttributes();
+            record.writeInt(attributes.size());
+            for (Attribute att : attributes) {
+                writeAttribute(att);
+            }
+            Collection<Reference> references = item.getReferences();
+            record.writeInt(references.size());
+            for (Reference ref : references) {
+                writeReference(ref);
+            }
+            Collection<ReferenceList> collections = item.getCollections();
+            record.writeInt(collections.size());
+            for (ReferenceList refList : collections) {
+                writeCollection(refList);
+            }
+            writeRecord(BinaryItemFormat.ITEM);
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not write item " + item.getIdentifier(), e);
+        }
+        return itemId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(ReferenceList refList, Integer itemId) throws ObjectStoreException {
+        try {
+            name(refList.getName());
+            record.writeInt(itemId.intValue());
+            writeCollection(refList);
+            writeRecord(BinaryItemFormat.COLLECTION);
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not write collection for item " + itemId, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(Reference ref, Integer itemId) throws ObjectStoreException {
+        try {
+            name(ref.getName());
+            record.writeInt(itemId.intValue());
+            writeReference(ref);
+            writeRecord(BinaryItemFormat.REFERENCE);
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not write reference for item " + itemId, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void store(Attribute att, Integer itemId) throws ObjectStoreException {
+        try {
+            name(att.getName());
+            record.writeInt(itemId.intValue());
+            writeAttribute(att);
+            writeRecord(BinaryItemFormat.ATTRIBUTE);
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not write attribute for item " + itemId, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void storeAll(Collection<Item> items) throws ObjectStoreException {
+        for (Item item : items) {
+            store(item);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws ObjectStoreException {
+        if (!closed) {
+            closed = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new ObjectStoreException("Could not close binary items file", e);
+            }
+            LOG.info("Wrote " + itemCount + " items with " + dictionary.size()
+                    + " dictionary entries");
+        }
+    }
+
+    private void writeAttribute(Attribute att) throws IOException {
+        record.writeInt(name(att.getName()));
+        BinaryItemFormat.writeString(record, att.getValue());
+    }
+
+    private void writeReference(Reference ref) throws IOException {
+        record.writeInt(name(ref.getName()));
+        BinaryItemFormat.writeString(record, ref.getRefId());
+    }
+
+    private void writeCollection(ReferenceList refList) throws IOException {
+        record.writeInt(name(refList.getName()));
+        List<String> refIds = StringUtil.tokenize(refList.getRefIds());
+        record.writeInt(refIds.size());
+        for (String refId : refIds) {
+            BinaryItemFormat.writeString(record, refId);
+        }
+    }
+
+    /**
+     * Returns the dictionary index of a name, writing a STRING record if it is new. The STRING
+     * record goes straight to the file, so new names must be defined before the record that uses
+     * them is started.
+     */
+    private int name(String value) throws IOException {
+        if (value == null) {
+            return -1;
+        }
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            index = new Integer(dictionary.size());
+            dictionary.put(value, index);
+            out.writeByte(BinaryItemFormat.STRING);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        return index.intValue();
+    }
+
+    private void writeRecord(byte tag) throws IOException {
+        out.writeByte(tag);
+        out.writeInt(recordBytes.size());
+        recordBytes.writeTo(out);
+        recordBytes.reset();
+    }
+}
@@ -15,10 +15,8 @@ import java.io.Reader;
 import org.apache.log4j.Logger;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.SAXParser;
-import org.intermine.xml.full.FullHandler;
 import org.intermine.xml.full.Item;
-import org.xml.sax.InputSource;
+import org.intermine.xml.full.ItemXmlReader;
 
 /**
  * Loads InterMine XML into an items database. This is an alternative to XmlDataLoader, and it can
@@ -57,49 +55,38 @@ public class FullXmlConverter extends DataConverter
         for (int i = 0; i < 20; i++) {
             times[i] = -1;
         }
-        SAXParser.parse(new InputSource(in), new FullDataXmlHandler());
+        ItemXmlReader reader = new ItemXmlReader(in);
+        Item item;
+        while ((item = reader.next()) != null) {
+            finishedItem(item);
+        }
     }
 
     /**
-     * Extend SAX DefaultHandler to process XML.
+     * Store an Item, and log progress.
+     *
+     * @param item the Item
+     * @throws ObjectStoreException if an error occurs while storing
      */
-    class FullDataXmlHandler extends FullHandler
-    {
-        /**
-         * @see DefaultHandler
-         */
-        public FullDataXmlHandler() {
-        }
-
-        /**
-         * Do something useful with the Item.
-         * @param item the Item
-         */
-        @Override
-        public void finishedItem(Item item) {
-            try {
-                store(item);
-            } catch (ObjectStoreException e) {
-                throw new RuntimeException(e);
-            }
-            count++;
-            if (count % 10000 == 0) {
-                long now = System.currentTimeMillis();
-                if (times[(int) ((count / 10000) % 20)] == -1) {
-                    LOG.info("Processed " + count + " rows - running at "
-                            + (600000000L / (now - time)) + " (avg "
-                            + ((60000L * count) / (now - start))
-                            + ") rows per minute");
-                } else {
-                    LOG.info("Processed " + count + " rows - running at "
-                            + (600000000L / (now - time)) + " (200000 avg "
-                            + (12000000000L / (now - times[(int) ((count / 10000) % 20)]))
-                            + ") (avg " + ((60000L * count) / (now - start))
-                            + ") rows per minute");
-                }
-                time = now;
-                times[(int) ((count / 10000) % 20)] = now;
+    protected void finishedItem(Item item) throws ObjectStoreException {
+        store(item);
+        count++;
+        if (count % 10000 == 0) {
+            long now = System.currentTimeMillis();
+            if (times[(int) ((count / 10000) % 20)] == -1) {
+                LOG.info("Processed " + count + " rows - running at "
+                        + (600000000L / (now - time)) + " (avg "
+                        + ((60000L * count) / (now - start))
+                        + ") rows per minute");
+            } else {
+                LOG.info("Processed " + count + " rows - running at "
+                        + (600000000L / (now - time)) + " (200000 avg "
+                        + (12000000000L / (now - times[(int) ((count / 10000) % 20)]))
+                        + ") (avg " + ((60000L * count) / (now - start))
+                        + ") rows per minute");
             }
+            time = now;
+            times[(int) ((count / 10000) % 20)] = now;
         }
     }
 }
@@ -61,11 +61,11 @@ public class BaseEquivalentObjectFetcher implements EquivalentObjectFetcher
     protected IntToIntMap idMap;
     protected ObjectStore lookupOs;
     protected Map<Class<? extends InterMineObject>, Long> summaryTimes =
-        new HashMap<Class<? extends InterMineObject>, Long>();
+        Collections.synchronizedMap(new HashMap<Class<? extends InterMineObject>, Long>());
     protected Map<Class<? extends InterMineObject>, Integer> summaryCounts =
-        new HashMap<Class<? extends InterMineObject>, Integer>();
+        Collections.synchronizedMap(new HashMap<Class<? extends InterMineObject>, Integer>());
     protected Map<Class<? extends InterMineObject>, Integer> summaryCallCounts =
-        new HashMap<Class<? extends InterMineObject>, Integer>();
+        Collections.synchronizedMap(new HashMap<Class<? extends InterMineObject>, Integer>());
 
     /**
      * Constructor for this EquivalentObjectFetcher.
@@ -32,6 +32,7 @@ import org.intermine.metadata.Model;
 import org.intermine.metadata.PrimaryKey;
 import org.intermine.metadata.PrimaryKeyUtil;
 import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStore;
 import org.intermine.objectstore.intermine.DatabaseSchema;
@@ -471,6 +472,42 @@ public final class DataLoaderHelper
         return fields.contains(fieldName);
     }
 
+    /**
+     * Returns a String identifying the values of a primary key of an object, such that two objects
+     * have equal Strings if they have equal values for every field of the key. Referenced objects
+     * are identified by their ids.
+     *
+     * @param cld the ClassDescriptor that the primary key belongs to
+     * @param pk the PrimaryKey
+     * @param obj the object, an instance of the class of cld
+     * @return a String, or null if any of the fields of the key is null
+     * @throws MetaDataException if a field cannot be read
+     */
+    public static String getPrimaryKeyValue(ClassDescriptor cld, PrimaryKey pk,
+            FastPathObject obj) throws MetaDataException {
+        StringBuilder retval = new StringBuilder(cld.getName()).append('.').append(pk.getName());
+        for (String fieldName : pk.getFieldNames()) {
+            FieldDescriptor fd = cld.getFieldDescriptorByName(fieldName);
+            Object value;
+            try {
+                if (fd instanceof AttributeDescriptor) {
+                    value = obj.getFieldValue(fieldName);
+                } else {
+                    InterMineObject refObj = (InterMineObject) obj.getFieldProxy(fieldName);
+                    value = (refObj == null) ? null : refObj.getId();
+                }
+            } catch (IllegalAccessException e) {
+                throw new MetaDataException("Failed to get field " + fieldName
+                        + " for key " + pk + " from " + obj, e);
+            }
+            if (value == null) {
+                return null;
+            }
+            retval.append('\u0000').append(value);
+        }
+        return retval.toString();
+    }
+
     private static class PrimaryKeyCacheKey
     {
         private Model model;
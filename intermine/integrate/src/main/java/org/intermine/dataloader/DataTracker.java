@@ -10,16 +10,14 @@ package org.intermine.dataloader;
  *
  */
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -27,6 +25,9 @@ import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.intermine.sql.Database;
+import org.intermine.sql.writebatch.PostgresCopyBuffer;
+import org.intermine.util.IntHashSet;
+import org.postgresql.copy.CopyIn;
 
 /**
  * Interface providing access to data tracking.
@@ -39,6 +40,10 @@ import org.intermine.sql.Database;
 public class DataTracker
 {
     private static final Logger LOG = Logger.getLogger(DataTracker.class);
+    /** The default maximum size of the spill file, in bytes. */
+    public static final long DEFAULT_SPILL_SIZE = 2L * 1024 * 1024 * 1024;
+    // The amount of COPY data to buffer before sending it to the database
+    private static final int COPY_PAGE_SIZE = 16 * PostgresCopyBuffer.SEGMENT_SIZE;
 
     /* We need a Map or two to store the entries. Each entry can be in several states:
      * 1. Recently-used and new - must be written to the database eventually.
@@ -52,7 +57,11 @@ public class DataTracker
      * The LinkedHashMap has a threshold size. When it grows bigger than maxSize, a database write
      * occurs, which stores commitSize least-recently-used entries in the database, which then
      * become type 4.
+     *
+     * Type 4 entries are written to a memory-mapped TrackerSpillFile, up to spillSize bytes, so
+     * that reading them again does not need a database query, while taking no heap space.
      */
+
     private int maxSize;
     private int commitSize;
     private LinkedHashMap<Integer, ObjectDescription> cache;
@@ -64,12 +73,20 @@ public class DataTracker
     private Connection storeConn;
     protected Exception broken = null;
     private CacheStorer cacheStorer;
+    private long spillSize = DEFAULT_SPILL_SIZE;
+    private TrackerSpillFile spill = null;
     private int version = 0;
+    // While a source is being reloaded, its entries older than reloadVersion are read as entries
+    // of its skeleton source
+    private String reloadName = null;
+    private Source reloadSkeleton = null;
+    private int reloadVersion = 0;
     // This reference is here so that the Database doesn't get garbage collected.
     private Database db;
 
     private int ops = 0;
     private int misses = 0;
+    private int spillHits = 0;
     private int batched = 0;
     private long timeSpentReading = 0;
     private long timeSpentPrefetching = 0;
@@ -109,6 +126,19 @@ public class DataTracker
         cacheStorerThread.start();
     }
 
+    /**
+     * Sets the maximum size of the local file that holds entries evicted from the cache. A size of
+     * zero switches the file off, so that evicted entries are read back from the database.
+     *
+     * @param spillSize the maximum size in bytes
+     */
+    public synchronized void setSpillSize(long spillSize) {
+        this.spillSize = spillSize;
+        if (spillSize <= 0) {
+            closeSpill();
+        }
+    }
+
     /**
      * Clears the data tracker of all entries. This method may only be called immediately after
      * construction.
@@ -116,6 +146,11 @@ public class DataTracker
      * @throws SQLException sometimes
      */
     public void clear() throws SQLException {
+        synchronized (this) {
+            closeSpill();
+            reloadName = null;
+            reloadSkeleton = null;
+        }
         Statement s = conn.createStatement();
         try {
             s.executeQuery("drop table tracker");
@@ -139,7 +174,7 @@ public class DataTracker
             prefetchConn.setAutoCommit(true);
             prefetchConn.createStatement().execute("SET enable_seqscan = off;");
             long startTime = System.currentTimeMillis();
-            Set<Integer> toFetch = new HashSet<Integer>();
+            IntHashSet toFetch = new IntHashSet();
             synchronized (this) {
                 if (broken != null) {
                     IllegalArgumentException e = new IllegalArgumentException();
@@ -150,10 +185,13 @@ public class DataTracker
                     ObjectDescription desc = cache.get(id);
                     if (desc == null) {
                         desc = writeBack.get(id);
+                        if (desc == null) {
+                            desc = readSpill(id);
+                        }
                         cache.put(id, desc);
                     }
                     if (desc == null) {
-                        toFetch.add(id);
+                        toFetch.add(id.intValue());
                     }
                 }
             }
@@ -163,10 +201,11 @@ public class DataTracker
                 int count = 0;
                 StringBuffer sql = new StringBuffer();
                 boolean needComma = false;
-                Iterator<Integer> idIter = toFetch.iterator();
-                while (idIter.hasNext()) {
+                // In order, so that each query reads a narrow range of the index
+                int[] idsToFetch = toFetch.toSortedArray();
+                for (int i = 0; i < idsToFetch.length; i++) {
                     count++;
-                    Integer id = idIter.next();
+                    Integer id = new Integer(idsToFetch[i]);
                     if (needComma) {
                         sql.append(", ");
                     } else {
@@ -176,7 +215,7 @@ public class DataTracker
                     needComma = true;
                     sql.append("" + id);
                     idsFetched.put(id, new ObjectDescription());
-                    if ((count % 500 == 0) || (!idIter.hasNext())) {
+                    if ((count % 500 == 0) || (i == idsToFetch.length - 1)) {
                         sql.append(") ORDER BY version");
                         try {
                             Statement s = prefetchConn.createStatement();
@@ -190,7 +229,7 @@ public class DataTracker
                                     idsFetched.get(new Integer(r.getInt(1)));
                                 highestVersionSeen = Math.max(highestVersionSeen, r.getInt(4));
                                 objectDescription.putClean(r.getString(2).intern(),
-                                                           stringToSource(r.getString(3)));
+                                        rowSource(r.getString(3), r.getInt(4)));
                             }
                         } catch (SQLException e) {
                             broken = e;
@@ -263,6 +302,9 @@ public class DataTracker
             if (forWrite && (desc != null)) {
                 desc = new ObjectDescription(desc);
             }
+            if (desc == null) {
+                desc = readSpill(id);
+            }
             cache.put(id, desc);
         }
         if (desc == null) {
@@ -273,8 +315,8 @@ public class DataTracker
                 ResultSet r = s.executeQuery("select fieldname, sourcename, version from tracker"
                         + " where objectid = " + id + " ORDER BY version");
                 while (r.next()) {
-                    desc.putClean(r.getString(1).intern(), stringToSource(r.getString(2)));
                     int rowVersion = r.getInt(3);
+                    desc.putClean(r.getString(1).intern(), rowSource(r.getString(2), rowVersion));
                     if (version <= rowVersion) {
                         version = rowVersion + 1;
                     }
@@ -299,8 +341,8 @@ public class DataTracker
         timeSpentReading += System.currentTimeMillis() - startTime;
         ops++;
         if (ops % 1000000 == 0) {
-            LOG.info("Operations: " + ops + ", cache misses: " + misses + ", time spent reading: "
-                    + timeSpentReading);
+            LOG.info("Operations: " + ops + ", cache misses: " + misses + ", read from spill file: "
+                    + spillHits + ", time spent reading: " + timeSpentReading);
         }
         return desc;
     }
@@ -418,11 +460,13 @@ public class DataTracker
      */
     public void close() {
         LOG.info("Closing DataTracker. Operations: " + ops + ", cache misses: " + misses
-                + ", time spent reading: " + timeSpentReading + ", prefetched: " + batched
-                + ", time spent prefetching: " + timeSpentPrefetching);
+                + ", read from spill file: " + spillHits + ", time spent reading: "
+                + timeSpentReading + ", prefetched: " + batched + ", time spent prefetching: "
+                + timeSpentPrefetching);
         cacheStorer.die();
         flush();
         synchronized (this) {
+            closeSpill();
             try {
                 conn.close();
                 storeConn.close();
@@ -436,6 +480,142 @@ public class DataTracker
         }
     }
 
+    /**
+     * Prepares the tracker for loading a source again into a database that holds the data it
+     * loaded before. From now on, the entries of the source that were written before this call are
+     * read as entries of its skeleton source, so that new values from the source replace them, and
+     * objects that the source stored before are not taken to be duplicates. The cache is written to
+     * the database and emptied first, so that every entry is read again.
+     *
+     * @param source the main Source that is being reloaded
+     * @throws SQLException if an error occurs in the backing database
+     */
+    public void startReload(Source source) throws SQLException {
+        flush();
+        // Synchronise in this order to prevent deadlocks.
+        synchronized (writeBack) {
+            synchronized (this) {
+                cache.clear();
+                closeSpill();
+                Statement s = conn.createStatement();
+                ResultSet r = s.executeQuery("SELECT max(version) FROM tracker");
+                r.next();
+                reloadVersion = Math.max(version, r.getInt(1) + 1);
+                version = reloadVersion;
+                reloadName = sourceToString(source);
+                reloadSkeleton = stringToSource("skel_" + source.getName(), source.getType());
+            }
+        }
+        LOG.info("Reloading source " + reloadName + " - entries older than version "
+                + reloadVersion + " are read as skeleton entries");
+    }
+
+    /**
+     * Returns the skeleton Source that the old entries of the source being reloaded are read as.
+     *
+     * @return a Source, or null if no source is being reloaded
+     */
+    public synchronized Source getReloadSkeleton() {
+        return reloadSkeleton;
+    }
+
+    /**
+     * Finds the objects that have a field whose latest entry in the tracker comes from the given
+     * source or from its skeleton source. The cache is written to the database first.
+     *
+     * @param source the main Source
+     * @param onlyFrom a set to add the ids of the objects whose fields all come from the source or
+     * its skeleton source to
+     * @return the ids of the objects
+     * @throws SQLException if an error occurs in the backing database
+     */
+    public IntHashSet getObjectsFrom(Source source, IntHashSet onlyFrom) throws SQLException {
+        flush();
+        String name = sourceToString(source);
+        String skelName = "skel_" + source.getName();
+        IntHashSet retval = new IntHashSet();
+        Connection c = db.getConnection();
+        try {
+            // Needed for the fetch size to take effect
+            c.setAutoCommit(false);
+            PreparedStatement s = c.prepareStatement("SELECT objectid, fieldname, sourcename"
+                    + " FROM tracker WHERE objectid IN (SELECT objectid FROM tracker"
+                    + " WHERE sourcename IN (?, ?)) ORDER BY objectid, version");
+            s.setString(1, name);
+            s.setString(2, skelName);
+            s.setFetchSize(10000);
+            ResultSet r = s.executeQuery();
+            Map<String, String> fieldSources = new HashMap<String, String>();
+            int currentId = 0;
+            while (r.next()) {
+                int id = r.getInt(1);
+                if ((id != currentId) && (!fieldSources.isEmpty())) {
+                    addIfFrom(currentId, fieldSources, name, skelName, retval, onlyFrom);
+                    fieldSources.clear();
+                }
+                currentId = id;
+                // Later versions replace earlier ones
+                fieldSources.put(r.getString(2), r.getString(3));
+            }
+            if (!fieldSources.isEmpty()) {
+                addIfFrom(currentId, fieldSources, name, skelName, retval, onlyFrom);
+            }
+            c.commit();
+        } finally {
+            c.close();
+        }
+        return retval;
+    }
+
+    private static void addIfFrom(int id, Map<String, String> fieldSources, String name,
+            String skelName, IntHashSet from, IntHashSet onlyFrom) {
+        boolean any = false;
+        boolean all = true;
+        for (String sourceName : fieldSources.values()) {
+            if (name.equals(sourceName) || skelName.equals(sourceName)) {
+                any = true;
+            } else {
+                all = false;
+            }
+        }
+        if (any) {
+            from.add(id);
+            if (all) {
+                onlyFrom.add(id);
+            }
+        }
+    }
+
+    /**
+     * Removes all the entries for objects that have been deleted from the production database.
+     * The ids of deleted objects are never used again, so the entries are not needed.
+     *
+     * @param ids the ids of the deleted objects
+     * @throws SQLException if an error occurs in the backing database
+     */
+    public void removeObjs(Collection<Integer> ids) throws SQLException {
+        flush();
+        synchronized (this) {
+            StringBuffer sql = new StringBuffer();
+            int count = 0;
+            for (Integer id : ids) {
+                cache.remove(id);
+                if (sql.length() == 0) {
+                    sql.append("DELETE FROM tracker WHERE objectid IN (");
+                } else {
+                    sql.append(", ");
+                }
+                sql.append(id);
+                count++;
+                if ((count % 500 == 0) || (count == ids.size())) {
+                    sql.append(")");
+                    conn.createStatement().execute(sql.toString());
+                    sql = new StringBuffer();
+                }
+            }
+        }
+    }
+
     /**
      * Returns a Map created from cache, containing the entries that should be flushed to the
      * backing database. The entries are removed from the cache and put in a special write-back
@@ -460,6 +640,8 @@ public class DataTracker
                 if (desc.isDirty()) {
                     retval.put(id, desc);
                     writeBack.put(id, desc);
+                } else {
+                    spill(id, desc);
                 }
                 iter.remove();
                 count++;
@@ -474,15 +656,69 @@ public class DataTracker
      * Clears the write-back cache. This should be called after the data has been committed to the
      * database. Note that some of the entries may have been altered since they were put in the
      * write-back cache. Data loss is avoided by the fact that such entries are placed back in the
-     * main cache.
+     * main cache. The entries that are not back in the main cache are now clean in the
+     * database, so they are written to the spill file.
      */
     private synchronized void clearWriteBack() {
+        for (Map.Entry<Integer, ObjectDescription> entry : writeBack.entrySet()) {
+            if (!cache.containsKey(entry.getKey())) {
+                spill(entry.getKey(), entry.getValue());
+            }
+        }
         writeBack.clear();
     }
 
+    /**
+     * Writes a clean entry evicted from the cache to the spill file, creating the file if
+     * necessary. If the file cannot be written, it is discarded and switched off, which is safe as
+     * everything in it is also in the database.
+     *
+     * @param id the ID of the object
+     * @param desc the ObjectDescription, which is clean or has just been written to the database
+     */
+    private void spill(Integer id, ObjectDescription desc) {
+        if (spillSize > 0) {
+            try {
+                if (spill == null) {
+                    spill = new TrackerSpillFile(null, spillSize);
+                }
+                spill.put(id.intValue(), desc);
+            } catch (IOException e) {
+                LOG.warn("Could not write to the DataTracker spill file - switching it off", e);
+                closeSpill();
+                spillSize = 0;
+            }
+        }
+    }
+
+    /**
+     * Reads an entry from the spill file.
+     *
+     * @param id the ID of the object
+     * @return a clean ObjectDescription, or null if the spill file does not hold the object
+     */
+    private ObjectDescription readSpill(Integer id) {
+        if (spill == null) {
+            return null;
+        }
+        ObjectDescription desc = spill.get(id.intValue());
+        if (desc != null) {
+            spillHits++;
+        }
+        return desc;
+    }
+
+    private void closeSpill() {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+    }
+
     /**
      * Writes the contents of the given Map to the backing database. Attempts to make use of all the
-     * SQL tricks to speed this operation up.
+     * SQL tricks to speed this operation up. The rows are streamed to a binary COPY a page at a
+     * time, so that writing the whole cache does not need a buffer as big as the data.
      *
      * @param map a Map from Integer to ObjectDesciption
      * @param clean true if this method should call clean() on all the entries in the given Map, or
@@ -491,48 +727,51 @@ public class DataTracker
      */
     private void writeMap(Map<Integer, ObjectDescription> map, boolean clean) throws SQLException {
         long start = System.currentTimeMillis();
+        org.postgresql.copy.CopyManager copyManager = null;
+        CopyIn copyIn = null;
+        PostgresCopyBuffer buffer = null;
+        Statement s = null;
+        if (storeConn.isWrapperFor(org.postgresql.PGConnection.class)) {
+            copyManager = (storeConn.unwrap(org.postgresql.PGConnection.class)).getCopyAPI();
+            copyIn = copyManager.copyIn("COPY tracker FROM STDIN BINARY");
+            buffer = new PostgresCopyBuffer();
+            buffer.writeAscii("PGCOPY\n");
+            buffer.writeByte(255);
+            buffer.writeAscii("\r\n");
+            buffer.writeByte(0); // Signature done
+            buffer.writeInt(0); // Flags - we aren't supplying OIDS
+            buffer.writeInt(0); // Length of header extension
+        } else {
+            s = storeConn.createStatement();
+            LOG.warn("Using slow portable writing method");
+        }
         try {
-            org.postgresql.copy.CopyManager copyManager = null;
-            ByteArrayOutputStream baos = null;
-            DataOutputStream dos = null;
-            Statement s = null;
-            if (storeConn.isWrapperFor(org.postgresql.PGConnection.class)) {
-                copyManager = (storeConn.unwrap(org.postgresql.PGConnection.class)).getCopyAPI();
-                baos = new ByteArrayOutputStream();
-                dos = new DataOutputStream(baos);
-                dos.writeBytes("PGCOPY\n");
-                dos.writeByte(255);
-                dos.writeBytes("\r\n");
-                dos.writeByte(0); // Signature done
-                dos.writeInt(0); // Flags - we aren't supplying OIDS
-                dos.writeInt(0); // Length of header extension
-            }
-            if (copyManager == null) {
-                s = storeConn.createStatement();
-                LOG.warn("Using slow portable writing method");
-            }
             for (Map.Entry<Integer, ObjectDescription> entry : map.entrySet()) {
                 Integer id = entry.getKey();
                 ObjectDescription desc = entry.getValue();
                 if (desc.isDirty()) {
-                    Map<String, Source> orig = desc.getOrig();
-                    Map<String, Source> newData = desc.getNewData();
-                    for (Map.Entry<String, Source> fieldEntry : newData.entrySet()) {
-                        String field = fieldEntry.getKey();
-                        Source source = fieldEntry.getValue();
-                        if (!orig.containsKey(field) || (!orig.get(field).equals(source))) {
+                    for (int i = 0; i < desc.getNewSize(); i++) {
+                        String field = desc.getNewField(i);
+                        Source source = desc.getNewSource(i);
+                        Source origSource = desc.getOrigSource(field);
+                        if ((origSource == null) || (!origSource.equals(source))) {
                             // Insert required
                             if (s == null) {
-                                dos.writeShort(4); // Number of fields
-                                dos.writeInt(4); // Length of an integer
-                                dos.writeInt(id.intValue()); // objectid
-                                dos.writeInt(field.length()); // Length of fieldname
-                                dos.writeBytes(field); // Field name
                                 String sourceName = sourceToString(source);
-                                dos.writeInt(sourceName.length()); // Length of source name
-                                dos.writeBytes(sourceName); // Source name
-                                dos.writeInt(4); // Length of an integer
-                                dos.writeInt(version); // version
+                                buffer.writeShort(4); // Number of fields
+                                buffer.writeInt(4); // Length of an integer
+                                buffer.writeInt(id.intValue()); // objectid
+                                buffer.writeInt(PostgresCopyBuffer.utf8Length(field));
+                                buffer.writeUTF8(field); // Field name
+                                buffer.writeInt(PostgresCopyBuffer.utf8Length(sourceName));
+                                buffer.writeUTF8(sourceName); // Source name
+                                buffer.writeInt(4); // Length of an integer
+                                buffer.writeInt(version); // version
+                                if (buffer.size() >= COPY_PAGE_SIZE) {
+                                    buffer.writeTo(copyIn);
+                                    buffer.release();
+                                    buffer = new PostgresCopyBuffer();
+                                }
                             } else {
                                 s.addBatch("INSERT INTO tracker (objectid, fieldname, sourcename,"
                                         + " version) VALUES (" + id + ", '" + field + "', '"
@@ -546,18 +785,22 @@ public class DataTracker
                 }
             }
             if (s == null) {
-                dos.writeShort(-1); // No more tuples
-                dos.flush();
-                copyManager.copyIn("COPY tracker FROM STDIN BINARY",
-                        new ByteArrayInputStream(baos.toByteArray()));
+                buffer.writeShort(-1); // No more tuples
+                buffer.writeTo(copyIn);
+                copyIn.endCopy();
             } else {
                 s.executeBatch();
             }
-            version++;
-            storeConn.commit();
-        } catch (IOException e) {
-            throw new SQLException(e.toString());
+        } finally {
+            if (buffer != null) {
+                buffer.release();
+            }
+            if ((copyIn != null) && copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
         }
+        version++;
+        storeConn.commit();
         long now = System.currentTimeMillis();
         LOG.debug("Finished storing batch (time = " + (now - start) + " ms)");
     }
@@ -571,6 +814,21 @@ public class DataTracker
         }
     }
 
+    /**
+     * Converts the source name of a row read from the backing database to a Source, allowing for a
+     * source that is being reloaded.
+     *
+     * @param name a string source name
+     * @param rowVersion the version of the row
+     * @return a Source
+     */
+    private synchronized Source rowSource(String name, int rowVersion) {
+        if ((reloadName != null) && (rowVersion < reloadVersion) && reloadName.equals(name)) {
+            return reloadSkeleton;
+        }
+        return stringToSource(name);
+    }
+
     /**
      * Converts a string sourcename to a Source.
      *
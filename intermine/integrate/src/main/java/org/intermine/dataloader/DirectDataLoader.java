@@ -157,6 +157,30 @@ public class DirectDataLoader extends DataLoader
         return keyClassRefs;
     }
 
+    /**
+     * Returns the classes of the objects referred to by a reference in a primary key used by this
+     * source. Objects of these classes must not be referred to by ProxyReferences.
+     *
+     * @return a Set of classes
+     * @throws ObjectStoreException if the source cannot be found
+     */
+    public Set<Class<?>> getClassesReferencedInKeys() throws ObjectStoreException {
+        Source source = getIntegrationWriter().getMainSource(sourceName, sourceType);
+        Set<Class<?>> retval = new HashSet<Class<?>>();
+        for (PrimaryKey pk : DataLoaderHelper.getSourcePrimaryKeys(source,
+                    getIntegrationWriter().getModel())) {
+            ClassDescriptor cld = pk.getClassDescriptor();
+            for (String fieldName : pk.getFieldNames()) {
+                FieldDescriptor fld = cld.getFieldDescriptorByName(fieldName);
+                if (fld instanceof ReferenceDescriptor) {
+                    retval.add(((ReferenceDescriptor) fld).getReferencedClassDescriptor()
+                            .getType());
+                }
+            }
+        }
+        return retval;
+    }
+
     /**
      * Objects stored by the direct data loader can use ProxyReferences for referenced objects to
      * avoid keeping full InterMineObjects in memory in the parser. However, references CANNOT be
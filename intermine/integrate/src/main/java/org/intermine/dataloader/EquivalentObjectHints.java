@@ -71,7 +71,7 @@ public class EquivalentObjectHints
      *
      * @return a boolean
      */
-    public boolean databaseEmpty() {
+    public synchronized boolean databaseEmpty() {
         if (databaseEmptyChecked) {
             return databaseEmpty;
         }
@@ -104,7 +104,7 @@ public class EquivalentObjectHints
      * @param clazz the class, must be in the model
      * @return a boolean
      */
-    public boolean classNotExists(Class<? extends FastPathObject> clazz) {
+    public synchronized boolean classNotExists(Class<? extends FastPathObject> clazz) {
         if (databaseEmpty) {
             return true;
         }
@@ -142,8 +142,8 @@ public class EquivalentObjectHints
      * @param value the value
      * @return a boolean
      */
-    public boolean pkQueryFruitless(Class<? extends FastPathObject> clazz, String fieldName,
-            Object value) {
+    public synchronized boolean pkQueryFruitless(Class<? extends FastPathObject> clazz,
+            String fieldName, Object value) {
         if (classNotExists(clazz)) {
             return true;
         }
@@ -48,7 +48,8 @@ public class HintingFetcher extends BaseEquivalentObjectFetcher
             new TreeMap<String, Long>());
     protected Map<String, Integer> savedCounts = Collections.synchronizedMap(
             new TreeMap<String, Integer>());
-    protected Map<Class<?>, Boolean> allPkClassesEmptyForClass = new HashMap<Class<?>, Boolean>();
+    protected Map<Class<?>, Boolean> allPkClassesEmptyForClass = Collections.synchronizedMap(
+            new HashMap<Class<?>, Boolean>());
 
     /**
      * Constructor
@@ -68,6 +68,7 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
     protected HintingFetcher eof;
     protected BaseEquivalentObjectFetcher beof;
     protected Source lastSource = null;
+    protected SourceKeyIndex keyIndex = null;
     protected Set<String> seenBrokenOneToMany = Collections.synchronizedSet(new HashSet<String>());
 
     /**
@@ -123,6 +124,25 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
         this.ignoreDuplicates = ignoreDuplicates;
     }
 
+    /**
+     * Returns whether duplicate objects in a source are being ignored.
+     *
+     * @return a boolean
+     */
+    public boolean getIgnoreDuplicates() {
+        return ignoreDuplicates;
+    }
+
+    /**
+     * Sets an index of the primary keys of the source being loaded, which is used in place of
+     * equivalent object queries for the classes it covers while duplicates are being ignored.
+     *
+     * @param keyIndex a SourceKeyIndex built from the source, or null to query the database
+     */
+    public void setSourceKeyIndex(SourceKeyIndex keyIndex) {
+        this.keyIndex = keyIndex;
+    }
+
     /**
      * Returns the underlying ObjectStoreWriter.
      *
@@ -162,6 +182,15 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
                         + (idMap.size() < 100 ? ", idMap = " : ""));
             }
 
+            if (ignoreDuplicates && (keyIndex != null) && keyIndex.covers(obj)) {
+                // The class was empty, so only duplicates within this source can be equivalent
+                Integer dupId = keyIndex.getStoredDuplicate(obj, idMap);
+                if (dupId == null) {
+                    return Collections.emptySet();
+                }
+                return Collections.singleton((InterMineObject) new ProxyReference(osw, dupId,
+                        InterMineObject.class));
+            }
             if (obj.getId() == null || ignoreDuplicates) {
                 return beof.queryEquivalentObjects(obj, source);
             } else {
@@ -388,7 +417,8 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
      * @param dest the ID of the object from the destination
      * @throws ObjectStoreException if an attempt is made to change an existing mapping
      */
-    public void assignMapping(Integer source, Integer dest) throws ObjectStoreException {
+    public synchronized void assignMapping(Integer source, Integer dest)
+        throws ObjectStoreException {
         if (source != null && dest != null) {
             Integer existingValue = idMap.get(source);
             if (existingValue != null && !existingValue.equals(dest)) {
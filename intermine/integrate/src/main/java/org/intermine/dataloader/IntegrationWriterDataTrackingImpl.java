@@ -11,20 +11,26 @@ package org.intermine.dataloader;
  */
 
 import java.lang.reflect.Constructor;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
+import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.ConstraintOp;
 import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.Model;
+import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.metadata.StringUtil;
 import org.intermine.metadata.TypeUtil;
 import org.intermine.metadata.Util;
@@ -35,8 +41,13 @@ import org.intermine.objectstore.ObjectStoreWriter;
 import org.intermine.objectstore.ObjectStoreWriterFactory;
 import org.intermine.objectstore.intermine.ObjectStoreWriterInterMineImpl;
 import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryForeignKey;
 import org.intermine.sql.Database;
 import org.intermine.util.DynamicUtil;
+import org.intermine.util.IntHashSet;
 import org.intermine.util.IntPresentSet;
 
 /**
@@ -66,6 +77,8 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
     protected IntPresentSet duplicateObjects = new IntPresentSet();
     protected boolean isDuplicates = false;
     protected PriorityConfig priorityConfig;
+    /** The source being loaded again over the data it loaded before, or null */
+    protected Source reloadSource = null;
 
     /**
      * Creates a new instance of this class, given the properties defining it.
@@ -115,6 +128,8 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
                     + " datatracker commit size specified (check properties file)");
         }
         String trackerMissingClassesString = props.getProperty("datatrackerMissingClasses");
+        // The maximum size in megabytes of the file holding entries evicted from the cache
+        String trackerSpillSizeString = props.getProperty("datatrackerSpillSize");
 
         ObjectStoreWriter writer = ObjectStoreWriterFactory.getObjectStoreWriter(writerAlias);
         try {
@@ -135,6 +150,9 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
                     new Class[] {Database.class, Integer.TYPE, Integer.TYPE});
             DataTracker newDataTracker = con.newInstance(new Object[] {db,
                 new Integer(maxSize), new Integer(commitSize)});
+            if (trackerSpillSizeString != null) {
+                newDataTracker.setSpillSize(Long.parseLong(trackerSpillSizeString) * 1024 * 1024);
+            }
 
             Constructor<? extends IntegrationWriterDataTrackingImpl> con2 =
                 iwClass.getConstructor(new Class[] {ObjectStoreWriter.class, DataTracker.class,
@@ -178,6 +196,52 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
         priorityConfig = new PriorityConfig(osw.getModel());
     }
 
+    /**
+     * Records that an object from the source being loaded has been written to the given id. The
+     * check and the update are made atomically, as objects may be stored from several threads.
+     *
+     * @param id the id of the object in the production objectstore
+     * @return false if an object from the source has already been written to that id
+     */
+    protected boolean markWritten(Integer id) {
+        synchronized (writtenObjects) {
+            if (writtenObjects.contains(id)) {
+                return false;
+            }
+            writtenObjects.add(id);
+            return true;
+        }
+    }
+
+    /**
+     * Sets up this IntegrationWriter to load a source again into a production database that holds
+     * the data it loaded before, so that the source can be updated without building the database
+     * from scratch. This must be called before anything is stored.
+     * <p>
+     * The values that the source gave before are treated like values from its skeleton source, so
+     * the objects it stored before are not taken to be duplicates, and when it stores an object
+     * again its new values replace them, even where the new value is null and whatever the
+     * priorities. When this IntegrationWriter is closed, the objects that only this source
+     * contributed to and that the new data no longer contains are deleted, after references to
+     * them are set to null and they are removed from collections. Objects that the source no
+     * longer stores in full keep the values it gave them before, including objects that other
+     * sources also contributed to, as the data tracker does not hold the values of the other
+     * sources that they replaced. Collections are only ever added to, and objects that are not
+     * InterMineObjects are not tracked, so a source that stores those is stored again in full.
+     *
+     * @param source the main Source being reloaded
+     * @throws ObjectStoreException if the data tracker cannot be prepared
+     */
+    public void startReload(Source source) throws ObjectStoreException {
+        try {
+            dataTracker.startReload(source);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not prepare the data tracker to reload "
+                    + source.getName(), e);
+        }
+        reloadSource = source;
+    }
+
     /**
      * Resets the IntegrationWriter, clearing the id map and the hints
      */
@@ -302,7 +366,7 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
             }
 
             if (type == SOURCE) {
-                if (writtenObjects.contains(newObj.getId())) {
+                if (!markWritten(newObj.getId())) {
                     // There are duplicate objects
                     if (!ignoreDuplicates) {
                         throw new IllegalArgumentException("There are duplicate objects in the "
@@ -312,8 +376,6 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
                     }
                     duplicateObjects.add(newObj.getId());
                     isDuplicates = true;
-                } else {
-                    writtenObjects.add(newObj.getId());
                 }
             }
             time1 = System.currentTimeMillis();
@@ -595,7 +657,7 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
         newObj.setId(newId);
 
         if (type == SOURCE) {
-            if (writtenObjects.contains(newId)) {
+            if (!markWritten(newId)) {
                 // There are duplicate objects
                 if (!ignoreDuplicates) {
                     // Yes, this *can* happen, if two items in the tgt-items-database have
@@ -607,8 +669,6 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
                 }
                 duplicateObjects.add(newId);
                 isDuplicates = true;
-            } else {
-                writtenObjects.add(newId);
             }
         }
 
@@ -656,6 +716,104 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
         return newObj;
     }
 
+    /**
+     * Deletes the objects that only the source being reloaded contributed to, and that were not
+     * stored in this run. References to them from the objects that remain are set to null, and
+     * they are removed from all many-to-many collections first, so that nothing is left pointing
+     * at the deleted ids.
+     *
+     * @throws ObjectStoreException if an error occurs
+     */
+    protected void deleteStaleObjects() throws ObjectStoreException {
+        IntHashSet onlyFrom = new IntHashSet();
+        IntHashSet from;
+        try {
+            from = dataTracker.getObjectsFrom(reloadSource, onlyFrom);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not read the data tracker", e);
+        }
+        List<Integer> toDelete = new ArrayList<Integer>();
+        int sharedNotStored = 0;
+        for (int id : from.toSortedArray()) {
+            if (!dbIdsStored.contains(id)) {
+                if (onlyFrom.contains(id)) {
+                    toDelete.add(new Integer(id));
+                } else {
+                    sharedNotStored++;
+                }
+            }
+        }
+        beginTransaction();
+        int referencesCleared = clearReferencesTo(toDelete);
+        ((ObjectStoreWriterInterMineImpl) osw).removeFromAllCollections(toDelete);
+        for (int i = 0; i < toDelete.size(); i += 1000) {
+            List<Integer> batch = toDelete.subList(i, Math.min(i + 1000, toDelete.size()));
+            for (InterMineObject obj : getObjectsByIds(batch)) {
+                if (obj != null) {
+                    delete(obj);
+                }
+            }
+        }
+        commitTransaction();
+        try {
+            dataTracker.removeObjs(toDelete);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not remove deleted objects from the data"
+                    + " tracker", e);
+        }
+        LOG.info("Reload of source " + reloadSource.getName() + ": deleted " + toDelete.size()
+                + " objects that are no longer in the source, and cleared " + referencesCleared
+                + " references to them");
+        if (sharedNotStored > 0) {
+            LOG.warn("Reload of source " + reloadSource.getName() + ": " + sharedNotStored
+                    + " objects that other sources also contributed to are no longer in the"
+                    + " source, and keep the values it gave them before");
+        }
+    }
+
+    /**
+     * Sets to null every reference from an object that is not being deleted to one that is.
+     *
+     * @param toDelete the ids of the objects being deleted
+     * @return the number of references cleared
+     * @throws ObjectStoreException if an error occurs
+     */
+    private int clearReferencesTo(List<Integer> toDelete) throws ObjectStoreException {
+        Set<Integer> deleting = new HashSet<Integer>(toDelete);
+        int retval = 0;
+        for (ClassDescriptor cld : getModel().getClassDescriptors()) {
+            if (!InterMineObject.class.isAssignableFrom(cld.getType())) {
+                continue;
+            }
+            for (ReferenceDescriptor ref : cld.getReferenceDescriptors()) {
+                for (int i = 0; i < toDelete.size(); i += 1000) {
+                    List<Integer> batch = toDelete.subList(i, Math.min(i + 1000,
+                                toDelete.size()));
+                    Query q = new Query();
+                    QueryClass qc = new QueryClass(cld.getType());
+                    q.addFrom(qc);
+                    q.addToSelect(qc);
+                    q.setConstraint(new BagConstraint(new QueryForeignKey(qc, ref.getName()),
+                                ConstraintOp.IN, batch));
+                    // Read them all before storing any, as storing alters the table being read
+                    List<InterMineObject> referrers = new ArrayList<InterMineObject>();
+                    for (Object obj : executeSingleton(q, 1000, false, false, false)) {
+                        InterMineObject referrer = (InterMineObject) obj;
+                        if (!deleting.contains(referrer.getId())) {
+                            referrers.add(referrer);
+                        }
+                    }
+                    for (InterMineObject referrer : referrers) {
+                        referrer.setFieldValue(ref.getName(), null);
+                        store(referrer);
+                        retval++;
+                    }
+                }
+            }
+        }
+        return retval;
+    }
+
     /**
      * {@inheritDoc}
     public void commitTransaction() throws ObjectStoreException {
@@ -669,6 +827,9 @@ public class IntegrationWriterDataTrackingImpl extends IntegrationWriterAbstract
      */
     @Override
     public void close() throws ObjectStoreException {
+        if (reloadSource != null) {
+            deleteStaleObjects();
+        }
         super.close();
         dataTracker.close();
 
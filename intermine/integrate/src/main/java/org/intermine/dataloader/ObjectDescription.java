@@ -10,20 +10,24 @@ package org.intermine.dataloader;
  *
  */
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
- * Object class used by DataTracker for data tracking.
+ * Object class used by DataTracker for data tracking. The field names and Sources are held in
+ * small parallel arrays rather than Maps, as an object only has a few fields and there may be
+ * millions of these objects in the DataTracker cache.
  *
  * @author Matthew Wakeling
  */
 public class ObjectDescription
 {
     private boolean dirty = false;
-    private Map<String, Source> orig = null;
-    private Map<String, Source> newData = null;
+    private String[] origFields = null;
+    private Source[] origSources = null;
+    private int origSize = 0;
+    private String[] newFields = null;
+    private Source[] newSources = null;
+    private int newSize = 0;
 
     /**
      * Constructs a new ObjectDescription.
@@ -39,11 +43,15 @@ public class ObjectDescription
      */
     public ObjectDescription(ObjectDescription desc) {
         dirty = desc.dirty;
-        if (desc.orig != null) {
-            orig = new HashMap<String, Source>(desc.orig);
+        if (desc.origFields != null) {
+            origFields = desc.origFields.clone();
+            origSources = desc.origSources.clone();
+            origSize = desc.origSize;
         }
-        if (desc.newData != null) {
-            newData = new HashMap<String, Source>(desc.newData);
+        if (desc.newFields != null) {
+            newFields = desc.newFields.clone();
+            newSources = desc.newSources.clone();
+            newSize = desc.newSize;
         }
     }
 
@@ -58,10 +66,21 @@ public class ObjectDescription
         if (dirty) {
             throw new IllegalStateException("Can't putClean() on a dirty ObjectDescription");
         }
-        if (orig == null) {
-            orig = new HashMap<String, Source>();
+        int index = indexOf(origFields, origSize, fieldName);
+        if (index >= 0) {
+            origSources[index] = source;
+        } else {
+            if (origFields == null) {
+                origFields = new String[4];
+                origSources = new Source[4];
+            } else if (origSize == origFields.length) {
+                origFields = Arrays.copyOf(origFields, origSize * 2);
+                origSources = Arrays.copyOf(origSources, origSize * 2);
+            }
+            origFields[origSize] = fieldName;
+            origSources[origSize] = source;
+            origSize++;
         }
-        orig.put(fieldName, source);
     }
 
     /**
@@ -74,9 +93,22 @@ public class ObjectDescription
     public void put(String fieldName, Source source) {
         if (!dirty) {
             dirty = true;
-            newData = new HashMap<String, Source>();
+            newFields = new String[4];
+            newSources = new Source[4];
+            newSize = 0;
+        }
+        int index = indexOf(newFields, newSize, fieldName);
+        if (index >= 0) {
+            newSources[index] = source;
+        } else {
+            if (newSize == newFields.length) {
+                newFields = Arrays.copyOf(newFields, newSize * 2);
+                newSources = Arrays.copyOf(newSources, newSize * 2);
+            }
+            newFields[newSize] = fieldName;
+            newSources[newSize] = source;
+            newSize++;
         }
-        newData.put(fieldName, source);
     }
 
     /**
@@ -86,16 +118,11 @@ public class ObjectDescription
      * @return the Source, or null if it doesn't exist
      */
     public Source getSource(String fieldName) {
-        if (newData != null) {
-            Source retval = newData.get(fieldName);
-            if (retval != null) {
-                return retval;
-            }
-        }
-        if (orig != null) {
-            return orig.get(fieldName);
+        int index = indexOf(newFields, newSize, fieldName);
+        if (index >= 0) {
+            return newSources[index];
         }
-        return null;
+        return getOrigSource(fieldName);
     }
 
     /**
@@ -114,34 +141,91 @@ public class ObjectDescription
     public void clean() {
         if (dirty) {
             dirty = false;
-            if (orig == null) {
-                orig = new HashMap<String, Source>();
+            for (int i = 0; i < newSize; i++) {
+                putClean(newFields[i], newSources[i]);
             }
-            for (Map.Entry<String, Source> entry : newData.entrySet()) {
-                orig.put(entry.getKey(), entry.getValue());
-            }
-            newData = null;
+            newFields = null;
+            newSources = null;
+            newSize = 0;
         }
     }
 
     /**
-     * Returns the original data, as reflected in the backing database.
+     * Returns the Source of a field as reflected in the backing database.
      *
-     * @return a Map
+     * @param fieldName the fieldname to look up
+     * @return the Source, or null if there is none
      */
-    protected Map<String, Source> getOrig() {
-        if (orig == null) {
-            return Collections.emptyMap();
-        }
-        return orig;
+    protected Source getOrigSource(String fieldName) {
+        int index = indexOf(origFields, origSize, fieldName);
+        return index >= 0 ? origSources[index] : null;
     }
 
     /**
-     * Returns the new data, which needs to be written back into the backing database.
+     * Returns the number of fields in the original data, as reflected in the backing database.
      *
-     * @return a Map
+     * @return an int
      */
-    protected Map<String, Source> getNewData() {
-        return newData;
+    protected int getOrigSize() {
+        return origSize;
+    }
+
+    /**
+     * Returns the name of a field in the original data.
+     *
+     * @param index the index of the field, less than getOrigSize()
+     * @return the field name
+     */
+    protected String getOrigField(int index) {
+        return origFields[index];
+    }
+
+    /**
+     * Returns the Source of a field in the original data.
+     *
+     * @param index the index of the field, less than getOrigSize()
+     * @return the Source
+     */
+    protected Source getOrigSource(int index) {
+        return origSources[index];
+    }
+
+    /**
+     * Returns the number of fields in the new data, which needs to be written back into the
+     * backing database.
+     *
+     * @return an int
+     */
+    protected int getNewSize() {
+        return newSize;
+    }
+
+    /**
+     * Returns the name of a field in the new data.
+     *
+     * @param index the index of the field, less than getNewSize()
+     * @return the field name
+     */
+    protected String getNewField(int index) {
+        return newFields[index];
+    }
+
+    /**
+     * Returns the Source of a field in the new data.
+     *
+     * @param index the index of the field, less than getNewSize()
+     * @return the Source
+     */
+    protected Source getNewSource(int index) {
+        return newSources[index];
+    }
+
+    private static int indexOf(String[] fields, int size, String fieldName) {
+        for (int i = 0; i < size; i++) {
+            if (fields[i].equals(fieldName)) {
+                return i;
+            }
+        }
+        return -1;
     }
 }
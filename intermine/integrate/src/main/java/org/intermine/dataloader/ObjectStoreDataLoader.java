@@ -10,7 +10,9 @@ package org.intermine.dataloader;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.log4j.Logger;
@@ -37,6 +39,8 @@ public class ObjectStoreDataLoader extends DataLoader
     private static final Logger LOG = Logger.getLogger(ObjectStoreDataLoader.class);
     private static final int ITEM_READ_BATCH_SIZE = 5000;
 
+    private int errorCount;
+
     /**
      * Construct an ObjectStoreDataLoader
      *
@@ -73,7 +77,7 @@ public class ObjectStoreDataLoader extends DataLoader
      */
     public void process(ObjectStore os, Source source, Source skelSource,
             Class<? extends FastPathObject> queryClass) throws ObjectStoreException {
-        int errorCount = 0;
+        errorCount = 0;
         ObjectStore origOs = os;
         try {
             if (os instanceof ObjectStoreFastCollectionsForTranslatorImpl) {
@@ -111,6 +115,24 @@ public class ObjectStoreDataLoader extends DataLoader
             Properties props = PropertiesUtil.getPropertiesStartingWith("dataLoader");
             boolean allowMultipleErrors = "true".equals(props.getProperty(
                             "dataLoader.allowMultipleErrors"));
+            int threads = Integer.parseInt(props.getProperty("dataLoader.threads", "1"));
+            PartitionedIntegrator integrator = null;
+            List<FastPathObject> chunk = new ArrayList<FastPathObject>();
+            if (threads > 1) {
+                IntegrationWriter iw = getIntegrationWriter();
+                if ((iw instanceof IntegrationWriterDataTrackingImpl)
+                        && !((IntegrationWriterDataTrackingImpl) iw).getIgnoreDuplicates()) {
+                    LOG.info("Storing independent objects in parallel using " + threads
+                            + " threads - set the property \"dataLoader.threads\" to 1 to store"
+                            + " objects one at a time");
+                    integrator = new PartitionedIntegrator((IntegrationWriterAbstractImpl) iw,
+                            source, skelSource, threads);
+                } else {
+                    LOG.warn("Ignoring \"dataLoader.threads\" = " + threads + " - objects can"
+                            + " only be stored in parallel by an IntegrationWriterDataTrackingImpl"
+                            + " that is not ignoring duplicates");
+                }
+            }
 
             long[] times = new long[20];
             for (int i = 0; i < 20; i++) {
@@ -129,6 +151,27 @@ public class ObjectStoreDataLoader extends DataLoader
             long timeSpentWrite = 0;
             long timeSpentCommit = 0;
             long timeSpentLoop = 0;
+            SourceKeyIndex keyIndex = null;
+            if ("true".equals(props.getProperty("dataLoader.bulkLoad"))) {
+                IntegrationWriter iw = getIntegrationWriter();
+                if ((iw instanceof IntegrationWriterAbstractImpl)
+                        && ((IntegrationWriterAbstractImpl) iw).getIgnoreDuplicates()) {
+                    LOG.info("Indexing the primary keys of source " + source.getName()
+                            + " to avoid equivalent object queries for empty classes - set the"
+                            + " property \"dataLoader.bulkLoad\" to false to query every object");
+                    // Read through the original ObjectStore, so the fetchers see the objects once
+                    @SuppressWarnings({ "unchecked", "rawtypes" })
+                    Collection<FastPathObject> allObjects = (Collection) origOs.executeSingleton(q,
+                            ITEM_READ_BATCH_SIZE, false, false, true);
+                    keyIndex = new SourceKeyIndex((IntegrationWriterAbstractImpl) iw, source,
+                            null);
+                    keyIndex.build(allObjects);
+                    ((IntegrationWriterAbstractImpl) iw).setSourceKeyIndex(keyIndex);
+                } else {
+                    LOG.warn("Ignoring \"dataLoader.bulkLoad\" - equivalent object queries are"
+                            + " only replaced for sources loaded with ignoreDuplicates set");
+                }
+            }
             getIntegrationWriter().beginTransaction();
             SingletonResults res = os.executeSingleton(q, ITEM_READ_BATCH_SIZE, false, false, true);
             long time4 = System.currentTimeMillis();
@@ -147,30 +190,16 @@ public class ObjectStoreDataLoader extends DataLoader
                 //    System//.out.println("Storing " + objText.substring(0, (objTextLen > 60 ? 60
                 //                    : objTextLen)));
                 //}
-                try {
-                    getIntegrationWriter().store(obj, source, skelSource);
-                } catch (RuntimeException e) {
-                    String identifier = null;
-                    if ((origOs instanceof ObjectStoreFastCollectionsForTranslatorImpl)
-                           && (obj instanceof InterMineObject)) {
-                        ItemToObjectTranslator trans = (ItemToObjectTranslator)
-                            ((ObjectStoreFastCollectionsForTranslatorImpl) origOs).getTranslator();
-                        identifier = trans.idToIdentifier(((InterMineObject) obj).getId());
-                    }
-                    LOG.error("Exception while dataloading" + (identifier == null ? ""
-                                : " item with identifier " + identifier), e);
-                    errorCount++;
-                    if (errorCount >= 100) {
-                        throw new RuntimeException("Too many data loading exceptions - to stop on"
-                                + " the first error, set the property"
-                                + " \"dataLoader.allowMultipleErrors\" to false", e);
+                if (integrator == null) {
+                    try {
+                        getIntegrationWriter().store(obj, source, skelSource);
+                    } catch (RuntimeException e) {
+                        storeFailed(origOs, obj, e, allowMultipleErrors);
                     }
-                    if (!allowMultipleErrors) {
-                        throw new RuntimeException("Exception while dataloading - to allow multiple"
-                                + " errors, set the property \"dataLoader.allowMultipleErrors\" to"
-                                + " true\n" + (identifier == null ? ""
-                                    : "Problem while loading item identifier " + identifier
-                                    + " because\n") + e.getMessage(), e);
+                } else {
+                    chunk.add(obj);
+                    if (chunk.size() >= ITEM_READ_BATCH_SIZE) {
+                        storeChunk(integrator, chunk, origOs, allowMultipleErrors);
                     }
                 }
 
@@ -207,8 +236,14 @@ public class ObjectStoreDataLoader extends DataLoader
                 timeSpentCommit += time4 - time3;
             }
 
+            if (integrator != null) {
+                storeChunk(integrator, chunk, origOs, allowMultipleErrors);
+            }
             time3 = System.currentTimeMillis();
             getIntegrationWriter().commitTransaction();
+            if (keyIndex != null) {
+                ((IntegrationWriterAbstractImpl) getIntegrationWriter()).setSourceKeyIndex(null);
+            }
             getIntegrationWriter().close();
             long now = System.currentTimeMillis();
             timeSpentCommit += now - time3;
@@ -239,4 +274,48 @@ public class ObjectStoreDataLoader extends DataLoader
                     + ".allowMultipleErrors\" to false");
         }
     }
+
+    /**
+     * Stores a chunk of objects through a PartitionedIntegrator, and empties the chunk.
+     */
+    private void storeChunk(PartitionedIntegrator integrator, List<FastPathObject> chunk,
+            ObjectStore origOs, boolean allowMultipleErrors) throws ObjectStoreException {
+        if (!chunk.isEmpty()) {
+            for (PartitionedIntegrator.Failure failure
+                    : integrator.storeAll(chunk, !allowMultipleErrors)) {
+                storeFailed(origOs, failure.getObject(), failure.getException(),
+                        allowMultipleErrors);
+            }
+            chunk.clear();
+        }
+    }
+
+    /**
+     * Logs an object that failed to store, and throws an exception if loading should stop.
+     */
+    private void storeFailed(ObjectStore origOs, FastPathObject obj, RuntimeException e,
+            boolean allowMultipleErrors) {
+        String identifier = null;
+        if ((origOs instanceof ObjectStoreFastCollectionsForTranslatorImpl)
+               && (obj instanceof InterMineObject)) {
+            ItemToObjectTranslator trans = (ItemToObjectTranslator)
+                ((ObjectStoreFastCollectionsForTranslatorImpl) origOs).getTranslator();
+            identifier = trans.idToIdentifier(((InterMineObject) obj).getId());
+        }
+        LOG.error("Exception while dataloading" + (identifier == null ? ""
+                    : " item with identifier " + identifier), e);
+        errorCount++;
+        if (errorCount >= 100) {
+            throw new RuntimeException("Too many data loading exceptions - to stop on"
+                    + " the first error, set the property"
+                    + " \"dataLoader.allowMultipleErrors\" to false", e);
+        }
+        if (!allowMultipleErrors) {
+            throw new RuntimeException("Exception while dataloading - to allow multiple"
+                    + " errors, set the property \"dataLoader.allowMultipleErrors\" to"
+                    + " true\n" + (identifier == null ? ""
+                        : "Problem while loading item identifier " + identifier
+                        + " because\n") + e.getMessage(), e);
+        }
+    }
 }
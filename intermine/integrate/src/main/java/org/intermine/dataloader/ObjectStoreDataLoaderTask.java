@@ -29,6 +29,7 @@ public class ObjectStoreDataLoaderTask extends Task
     protected String sourceName;
     protected String sourceType;
     protected boolean ignoreDuplicates;
+    protected boolean reload = false;
     protected String queryClass = null;
     protected String allSources;
 
@@ -77,6 +78,16 @@ public class ObjectStoreDataLoaderTask extends Task
         this.ignoreDuplicates = ignoreDuplicates;
     }
 
+    /**
+     * Set whether the source is being loaded again into a production database that holds the data
+     * it loaded before, replacing that data.
+     *
+     * @param reload true to reload the source
+     */
+    public void setReload(boolean reload) {
+        this.reload = reload;
+    }
+
     /**
      * If the name of a class is set will only load objects of that type.
      *
@@ -111,6 +122,13 @@ public class ObjectStoreDataLoaderTask extends Task
         try {
             IntegrationWriter iw = IntegrationWriterFactory.getIntegrationWriter(integrationWriter);
             iw.setIgnoreDuplicates(ignoreDuplicates);
+            if (reload) {
+                if (!(iw instanceof IntegrationWriterDataTrackingImpl)) {
+                    throw new BuildException("Cannot reload a source without data tracking");
+                }
+                ((IntegrationWriterDataTrackingImpl) iw).startReload(iw.getMainSource(sourceName,
+                            sourceType));
+            }
             if (queryClass != null) {
                 Class<?> tmpQueryClass = Class.forName(queryClass);
                 if (!FastPathObject.class.isAssignableFrom(tmpQueryClass)) {
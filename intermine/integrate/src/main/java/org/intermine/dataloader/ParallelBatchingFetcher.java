@@ -10,34 +10,42 @@ package org.intermine.dataloader;
  *
  */
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.PrimaryKey;
 import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.ObjectPipe;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.util.ExecutionService;
+import org.intermine.util.PropertiesUtil;
+import org.intermine.util.TaskGroup;
 
 import org.apache.log4j.Logger;
 
 /**
  * Class providing EquivalentObjectFetcher functionality that fetches batches of equivalent objects
  * in parallel to improve performance.
+ * <p>
+ * The primary keys of a batch are fetched by tasks on the shared thread pool, at most
+ * equivalentObjectFetcher.threads (default 10) at once and no more than the lookup database's
+ * connections allow. A primary key that refers to a class whose keys are still being fetched
+ * is started by the task that finishes the last of them.
  *
  * @author Matthew Wakeling
  */
 public class ParallelBatchingFetcher extends BatchingFetcher
 {
     private static final Logger LOG = Logger.getLogger(ParallelBatchingFetcher.class);
-    private ObjectPipe<WorkUnit> jobs = new ObjectPipe<WorkUnit>();
+    private int threads;
+    private TaskGroup lastGroup = null;
 
     /**
      * Constructor
@@ -49,9 +57,11 @@ public class ParallelBatchingFetcher extends BatchingFetcher
     public ParallelBatchingFetcher(BaseEquivalentObjectFetcher fetcher, DataTracker dataTracker,
             Source source) {
         super(fetcher, dataTracker, source);
-        for (int i = 0; i < 10; i++) {
-            Thread t = new Thread(new Worker(), "ParallelBatchingFetcher Worker " + (i + 1));
-            t.start();
+        threads = Integer.parseInt(PropertiesUtil.getProperties().getProperty(
+                    "equivalentObjectFetcher.threads", "10"));
+        if (lookupOs instanceof ObjectStoreInterMineImpl) {
+            threads = ExecutionService.getConnectionLimit(((ObjectStoreInterMineImpl) lookupOs)
+                    .getDatabase(), threads);
         }
     }
 
@@ -60,10 +70,10 @@ public class ParallelBatchingFetcher extends BatchingFetcher
      */
     @Override
     public void close(Source source) {
-        jobs.finish();
         LOG.info("Parallel Batching equivalent object query summary for source " + source + " :"
                 + getSummary(source).toString() + "\nQueried " + batchQueried
-                + " objects by batch, cache misses: " + cacheMisses);
+                + " objects by batch, cache misses: " + cacheMisses
+                + (lastGroup == null ? "" : "\nLast batch - " + lastGroup.getSummary()));
     }
 
     /**
@@ -74,97 +84,84 @@ public class ParallelBatchingFetcher extends BatchingFetcher
             Map<InterMineObject, Set<InterMineObject>> results,
             Map<ClassDescriptor, List<InterMineObject>> cldToObjectsForCld,
             long time1) throws ObjectStoreException {
-        Map<PrimaryKey, ClassDescriptor> pksNotDone
-            = new IdentityHashMap<PrimaryKey, ClassDescriptor>(pksToDo);
-        List<Exception> exceptions = Collections.synchronizedList(new ArrayList<Exception>());
-        synchronized (pksNotDone) {
-            while (!pksToDo.isEmpty()) {
-                Iterator<PrimaryKey> pkIter = pksToDo.keySet().iterator();
-                while (pkIter.hasNext()) {
-                    PrimaryKey pk = pkIter.next();
-                    ClassDescriptor cld = pksToDo.get(pk);
-                    if (canDoPkNow(pk, cld, pksNotDone)) {
-                        jobs.put(new WorkUnit(pk, cld, results, cldToObjectsForCld.get(cld),
-                                    pksNotDone, exceptions));
-                        pkIter.remove();
-                    //} else {
-                    //    LOG.error("Cannot do pk " + cld.getName() + "." + pk.getName() + " yet");
-                    }
-                }
-                try {
-                    pksNotDone.wait();
-                } catch (InterruptedException e) {
-                }
-                if (!exceptions.isEmpty()) {
-                    throw new ObjectStoreException("Error in worker thread", exceptions.iterator()
-                            .next());
-                }
-            }
-            while (!pksNotDone.isEmpty()) {
-                try {
-                    pksNotDone.wait();
-                } catch (InterruptedException e) {
-                }
-            }
-            if (!exceptions.isEmpty()) {
-                throw new ObjectStoreException("Error in worker thread", exceptions.iterator()
-                        .next());
-            }
+        TaskGroup group = ExecutionService.newGroup("ParallelBatchingFetcher", threads);
+        PkScheduler scheduler = new PkScheduler(group, pksToDo, results, cldToObjectsForCld);
+        scheduler.submitReadyPks();
+        try {
+            group.await();
+        } catch (ExecutionException e) {
+            throw new ObjectStoreException("Error in worker thread", e.getCause());
+        } catch (InterruptedException e) {
+            group.cancel();
+            throw new ObjectStoreException("Interrupted while fetching equivalent objects", e);
+        }
+        lastGroup = group;
+        if (!pksToDo.isEmpty()) {
+            throw new RuntimeException("Error - cannot fetch any pks: " + pksToDo.keySet());
         }
         long time2 = System.currentTimeMillis();
         timeSpentPrefetchEquiv += time2 - time1;
     }
 
-    private class WorkUnit
+    /**
+     * Starts each primary key of a batch once no primary key it depends on is still being
+     * fetched.
+     */
+    private class PkScheduler
     {
-        private PrimaryKey pk;
-        private ClassDescriptor cld;
-        private Map<InterMineObject, Set<InterMineObject>> results;
-        private List<InterMineObject> objectsForCld;
+        private TaskGroup group;
+        private Map<PrimaryKey, ClassDescriptor> pksToDo;
         private Map<PrimaryKey, ClassDescriptor> pksNotDone;
-        private List<Exception> exceptions;
+        private Map<InterMineObject, Set<InterMineObject>> results;
+        private Map<ClassDescriptor, List<InterMineObject>> cldToObjectsForCld;
 
-        public WorkUnit(PrimaryKey pk, ClassDescriptor cld,
+        PkScheduler(TaskGroup group, Map<PrimaryKey, ClassDescriptor> pksToDo,
                 Map<InterMineObject, Set<InterMineObject>> results,
-                List<InterMineObject> objectsForCld,
-                Map<PrimaryKey, ClassDescriptor> pksNotDone, List<Exception> exceptions) {
-            this.pk = pk;
-            this.cld = cld;
+                Map<ClassDescriptor, List<InterMineObject>> cldToObjectsForCld) {
+            this.group = group;
+            this.pksToDo = pksToDo;
+            this.pksNotDone = new IdentityHashMap<PrimaryKey, ClassDescriptor>(pksToDo);
             this.results = results;
-            this.objectsForCld = objectsForCld;
-            this.pksNotDone = pksNotDone;
-            this.exceptions = exceptions;
+            this.cldToObjectsForCld = cldToObjectsForCld;
         }
 
-        public void fetch() {
-            try {
-                Set<Integer> fetchedObjectIds = new HashSet<Integer>();
-                doPk(pk, cld, results, objectsForCld, fetchedObjectIds);
-                dataTracker.prefetchIds(fetchedObjectIds);
-            } catch (Exception e) {
-                exceptions.add(e);
-            }
-            synchronized (pksNotDone) {
-                pksNotDone.remove(pk);
-                pksNotDone.notify();
+        synchronized void submitReadyPks() {
+            Iterator<PrimaryKey> pkIter = pksToDo.keySet().iterator();
+            while (pkIter.hasNext()) {
+                PrimaryKey pk = pkIter.next();
+                ClassDescriptor cld = pksToDo.get(pk);
+                if (canDoPkNow(pk, cld, pksNotDone)) {
+                    group.submit(new PkFetch(this, pk, cld));
+                    pkIter.remove();
+                }
             }
         }
+
+        synchronized void pkDone(PrimaryKey pk) {
+            pksNotDone.remove(pk);
+            submitReadyPks();
+        }
     }
 
-    private class Worker implements Runnable
+    private class PkFetch implements Callable<Void>
     {
-        public Worker() {
+        private PkScheduler scheduler;
+        private PrimaryKey pk;
+        private ClassDescriptor cld;
+
+        PkFetch(PkScheduler scheduler, PrimaryKey pk, ClassDescriptor cld) {
+            this.scheduler = scheduler;
+            this.pk = pk;
+            this.cld = cld;
         }
 
-        public void run() {
-            try {
-                while (true) {
-                    WorkUnit u = jobs.next();
-                    u.fetch();
-                }
-            } catch (NoSuchElementException e) {
-                // Fetcher has been closed
-            }
+        public Void call() throws ObjectStoreException {
+            Set<Integer> fetchedObjectIds = new HashSet<Integer>();
+            doPk(pk, cld, scheduler.results, scheduler.cldToObjectsForCld.get(cld),
+                    fetchedObjectIds);
+            dataTracker.prefetchIds(fetchedObjectIds);
+            scheduler.pkDone(pk);
+            return null;
         }
     }
 }
@@ -0,0 +1,358 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.MetaDataException;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.PrimaryKey;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.util.ExecutionService;
+import org.intermine.util.IntToIntMap;
+
+/**
+ * Stores a batch of objects from a source through an IntegrationWriter using several threads.
+ * <p>
+ * The objects are first divided into partitions that cannot affect each other. Two objects are
+ * put in the same partition if one refers to the other, if they refer to the same object, or if
+ * they have the same values for a primary key that the source uses, because in each of those cases
+ * storing one may create or merge with the production object that the other is stored into. A
+ * reference to an object that has already been stored from this source does not join partitions,
+ * as the IntegrationWriter only reads its id from the id map. The objects of a partition are
+ * stored by a single thread in the order they were given, and separate partitions are stored
+ * concurrently, largest first.
+ * <p>
+ * The IntegrationWriter and the structures it shares between threads must be thread-safe. The
+ * underlying ObjectStoreWriter serialises the actual writes on its connection, so the gain comes
+ * from overlapping the equivalent object lookups and the copying of fields.
+ */
+public class PartitionedIntegrator
+{
+    private static final Logger LOG = Logger.getLogger(PartitionedIntegrator.class);
+
+    private IntegrationWriterAbstractImpl iw;
+    private Source source;
+    private Source skelSource;
+    private int threads;
+
+    /**
+     * Constructor.
+     *
+     * @param iw the IntegrationWriter to store objects through
+     * @param source the main Source
+     * @param skelSource the skeleton Source
+     * @param threads the number of threads to use, including the calling thread
+     */
+    public PartitionedIntegrator(IntegrationWriterAbstractImpl iw, Source source,
+            Source skelSource, int threads) {
+        this.iw = iw;
+        this.source = source;
+        this.skelSource = skelSource;
+        this.threads = threads;
+    }
+
+    /**
+     * Stores the given objects, returning once they have all been stored. A RuntimeException
+     * thrown while storing an object is collected and returned, and the rest of the objects are
+     * still stored unless stopOnError is true. An ObjectStoreException stops all the threads.
+     *
+     * @param objects the objects to store, in the order in which they were read from the source
+     * @param stopOnError true to stop storing objects as soon as one has failed
+     * @return a List of the objects that failed to store, with the exceptions thrown
+     * @throws ObjectStoreException if an error occurs in the underlying objectstore
+     */
+    public List<Failure> storeAll(List<FastPathObject> objects,
+            boolean stopOnError) throws ObjectStoreException {
+        long start = System.currentTimeMillis();
+        List<List<FastPathObject>> partitions = partition(objects);
+        long partitionTime = System.currentTimeMillis() - start;
+        StoreState state = new StoreState(partitions, stopOnError);
+        int workerCount = Math.min(threads, partitions.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 1; i < workerCount; i++) {
+            futures.add(ExecutionService.getExecutor().submit(new StoreWorker(state)));
+        }
+        storePartitions(state);
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                state.fail(new ObjectStoreException("Error while storing objects",
+                            e.getCause()));
+            } catch (InterruptedException e) {
+                state.fail(new ObjectStoreException("Interrupted while storing objects", e));
+            }
+        }
+        if (state.problem != null) {
+            throw state.problem;
+        }
+        LOG.debug("Stored " + objects.size() + " objects in " + partitions.size()
+                + " partitions using " + Math.max(workerCount, 1) + " threads - took "
+                + (System.currentTimeMillis() - start) + " ms (" + partitionTime
+                + " ms partitioning)");
+        return state.failures;
+    }
+
+    /**
+     * Stores partitions from the queue until it is empty or storing has been stopped.
+     */
+    private void storePartitions(StoreState state) {
+        List<FastPathObject> partition;
+        while ((!state.isStopped()) && ((partition = state.queue.poll()) != null)) {
+            for (FastPathObject obj : partition) {
+                if (state.isStopped()) {
+                    break;
+                }
+                try {
+                    iw.store(obj, source, skelSource);
+                } catch (RuntimeException e) {
+                    state.addFailure(new Failure(obj, e));
+                } catch (ObjectStoreException e) {
+                    state.fail(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Divides the objects into partitions that can be stored independently. Each partition holds
+     * its objects in their original order, and the partitions are returned largest first.
+     *
+     * @param objects the objects to divide
+     * @return a List of partitions
+     */
+    protected List<List<FastPathObject>> partition(List<FastPathObject> objects) {
+        Model model = iw.getModel();
+        IntToIntMap idMap = iw.getBaseEof().getIdMap();
+        UnionFind sets = new UnionFind(objects.size());
+        Map<Object, Integer> keyNodes = new HashMap<Object, Integer>();
+        for (int i = 0; i < objects.size(); i++) {
+            FastPathObject obj = objects.get(i);
+            if (obj instanceof InterMineObject) {
+                join(sets, keyNodes, i, ((InterMineObject) obj).getId());
+            }
+            try {
+                for (FieldDescriptor field : model.getFieldDescriptorsForClass(obj.getClass())
+                        .values()) {
+                    if (field instanceof CollectionDescriptor) {
+                        Collection<?> coll = (Collection<?>) obj.getFieldValue(field.getName());
+                        if (coll != null) {
+                            for (Object element : coll) {
+                                joinReference(sets, keyNodes, idMap, i, element);
+                            }
+                        }
+                    } else if (field instanceof ReferenceDescriptor) {
+                        joinReference(sets, keyNodes, idMap, i,
+                                obj.getFieldProxy(field.getName()));
+                    }
+                }
+                if (obj instanceof InterMineObject) {
+                    for (ClassDescriptor cld : model.getClassDescriptorsForClass(obj.getClass())) {
+                        for (PrimaryKey pk : DataLoaderHelper.getPrimaryKeys(cld, source, iw)) {
+                            String key = DataLoaderHelper.getPrimaryKeyValue(cld, pk, obj);
+                            if (key != null) {
+                                join(sets, keyNodes, i, key);
+                            }
+                        }
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Failed to read the fields of " + obj, e);
+            } catch (MetaDataException e) {
+                throw new RuntimeException("Failed to read the primary keys of " + obj, e);
+            }
+        }
+        Map<Integer, List<FastPathObject>> partitions
+            = new LinkedHashMap<Integer, List<FastPathObject>>();
+        for (int i = 0; i < objects.size(); i++) {
+            Integer root = new Integer(sets.find(i));
+            List<FastPathObject> partition = partitions.get(root);
+            if (partition == null) {
+                partition = new ArrayList<FastPathObject>();
+                partitions.put(root, partition);
+            }
+            partition.add(objects.get(i));
+        }
+        List<List<FastPathObject>> retval
+            = new ArrayList<List<FastPathObject>>(partitions.values());
+        // Start the largest partitions first, so the threads finish at about the same time
+        Collections.sort(retval, new Comparator<List<FastPathObject>>() {
+            public int compare(List<FastPathObject> a, List<FastPathObject> b) {
+                return b.size() - a.size();
+            }
+        });
+        return retval;
+    }
+
+    /**
+     * Joins an object with the object in one of its references or collections, unless that object
+     * has already been stored.
+     */
+    private static void joinReference(UnionFind sets, Map<Object, Integer> keyNodes,
+            IntToIntMap idMap, int node, Object referenced) {
+        if (referenced instanceof InterMineObject) {
+            Integer id = ((InterMineObject) referenced).getId();
+            if ((id != null) && (idMap.get(id) == null)) {
+                join(sets, keyNodes, node, id);
+            }
+        }
+    }
+
+    private static void join(UnionFind sets, Map<Object, Integer> keyNodes, int node,
+            Object key) {
+        if (key != null) {
+            Integer keyNode = keyNodes.get(key);
+            if (keyNode == null) {
+                keyNodes.put(key, new Integer(node));
+            } else {
+                sets.union(node, keyNode.intValue());
+            }
+        }
+    }
+
+    /**
+     * An object that failed to store, and the exception that was thrown.
+     */
+    public static class Failure
+    {
+        private FastPathObject object;
+        private RuntimeException exception;
+
+        /**
+         * Constructor.
+         *
+         * @param object the object that failed to store
+         * @param exception the exception thrown
+         */
+        public Failure(FastPathObject object, RuntimeException exception) {
+            this.object = object;
+            this.exception = exception;
+        }
+
+        /**
+         * Returns the object that failed to store.
+         *
+         * @return a FastPathObject
+         */
+        public FastPathObject getObject() {
+            return object;
+        }
+
+        /**
+         * Returns the exception that was thrown.
+         *
+         * @return a RuntimeException
+         */
+        public RuntimeException getException() {
+            return exception;
+        }
+    }
+
+    /**
+     * The partitions waiting to be stored, and the outcome so far, shared by the threads.
+     */
+    private static class StoreState
+    {
+        private Queue<List<FastPathObject>> queue;
+        private boolean stopOnError;
+        private List<Failure> failures = Collections.synchronizedList(new ArrayList<Failure>());
+        private volatile ObjectStoreException problem = null;
+
+        StoreState(List<List<FastPathObject>> partitions, boolean stopOnError) {
+            this.queue = new ConcurrentLinkedQueue<List<FastPathObject>>(partitions);
+            this.stopOnError = stopOnError;
+        }
+
+        boolean isStopped() {
+            return (problem != null) || (stopOnError && !failures.isEmpty());
+        }
+
+        void addFailure(Failure failure) {
+            failures.add(failure);
+        }
+
+        synchronized void fail(ObjectStoreException e) {
+            if (problem == null) {
+                problem = e;
+            }
+        }
+    }
+
+    private class StoreWorker implements Runnable
+    {
+        private StoreState state;
+
+        StoreWorker(StoreState state) {
+            this.state = state;
+        }
+
+        public void run() {
+            storePartitions(state);
+        }
+    }
+
+    /**
+     * A disjoint-set forest over the indexes of the objects being partitioned.
+     */
+    private static class UnionFind
+    {
+        private int[] parents;
+
+        UnionFind(int size) {
+            parents = new int[size];
+            for (int i = 0; i < size; i++) {
+                parents[i] = i;
+            }
+        }
+
+        int find(int node) {
+            int root = node;
+            while (parents[root] != root) {
+                root = parents[root];
+            }
+            // Compress the path, so later finds are quick
+            int current = node;
+            while (parents[current] != root) {
+                int next = parents[current];
+                parents[current] = root;
+                current = next;
+            }
+            return root;
+        }
+
+        void union(int a, int b) {
+            int rootA = find(a);
+            int rootB = find(b);
+            if (rootA != rootB) {
+                parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+            }
+        }
+    }
+}
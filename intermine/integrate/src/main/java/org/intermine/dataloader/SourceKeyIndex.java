@@ -0,0 +1,465 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.MetaDataException;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.PrimaryKey;
+import org.intermine.metadata.Util;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.util.IntToIntHashMap;
+import org.intermine.util.IntToIntMap;
+
+/**
+ * An index of the primary key values of the objects in a source, used to load a source into
+ * classes that are empty without querying the database for equivalent objects.
+ * <p>
+ * The index is built by reading every object of the source before loading starts. A class that
+ * defines primary keys is indexed if it is empty in the production database, and the keys used by
+ * the source are made only of attributes. For every object of the source, a String for each of its
+ * primary key values defined in an indexed class is written to a run of sorted records, whatever
+ * the class of the object, and the runs are spilled to local disk and merged, so that the objects
+ * with equal key values end up next to each other whatever the size of the source. Objects that
+ * share a key value are duplicates, and are gathered into groups. Only the duplicates are held in
+ * memory.
+ * <p>
+ * A class is covered by the index if every class it inherits primary keys from is indexed. As
+ * those classes were empty, the only objects equivalent to an object of a covered class are the
+ * other objects of its group that have already been stored, including objects of classes that are
+ * not covered but share one of its keys, which can be found in the id map.
+ * The IntegrationWriter therefore asks this index instead of running primary key queries. Once
+ * built, the index is read-only and may be used from several threads.
+ */
+public class SourceKeyIndex
+{
+    private static final Logger LOG = Logger.getLogger(SourceKeyIndex.class);
+    private static final int NO_VALUE = Integer.MIN_VALUE;
+    private static final int RUN_SIZE = 500000;
+
+    private IntegrationWriterAbstractImpl iw;
+    private Source source;
+    private File dir;
+    private Map<Class<?>, List<ClassDescriptor>> keyClds = new HashMap<Class<?>,
+        List<ClassDescriptor>>();
+    private Map<ClassDescriptor, Boolean> indexed = new HashMap<ClassDescriptor, Boolean>();
+    private Set<Class<?>> covered = new HashSet<Class<?>>();
+    private IntToIntHashMap memberRoots = new IntToIntHashMap(NO_VALUE);
+    private Map<Integer, int[]> groups = new HashMap<Integer, int[]>();
+    private int objectCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param iw the IntegrationWriter that the source will be loaded through
+     * @param source the main Source
+     * @param dir the directory for the sorted runs, or null for the default temporary directory
+     */
+    public SourceKeyIndex(IntegrationWriterAbstractImpl iw, Source source, File dir) {
+        this.iw = iw;
+        this.source = source;
+        this.dir = dir;
+    }
+
+    /**
+     * Builds the index from the objects of the source. This must be called before any of the
+     * objects are stored.
+     *
+     * @param objects the objects of the source
+     * @throws ObjectStoreException if the database cannot be checked for existing objects, or the
+     * runs cannot be written
+     */
+    public void build(Iterable<? extends FastPathObject> objects) throws ObjectStoreException {
+        long start = System.currentTimeMillis();
+        EquivalentObjectHints hints = new EquivalentObjectHints(iw.getObjectStoreWriter()
+                .getObjectStore());
+        KeySorter sorter = new KeySorter(dir);
+        try {
+            for (FastPathObject obj : objects) {
+                if ((obj instanceof InterMineObject) && (((InterMineObject) obj).getId() != null)) {
+                    Class<?> c = obj.getClass();
+                    List<ClassDescriptor> clds = keyClds.get(c);
+                    if (clds == null) {
+                        clds = checkCovered(c, hints);
+                    }
+                    if (!clds.isEmpty()) {
+                        int id = ((InterMineObject) obj).getId().intValue();
+                        for (ClassDescriptor cld : clds) {
+                            for (PrimaryKey pk : DataLoaderHelper.getPrimaryKeys(cld, source,
+                                        iw)) {
+                                String key = DataLoaderHelper.getPrimaryKeyValue(cld, pk, obj);
+                                if (key != null) {
+                                    sorter.add(key, id);
+                                }
+                            }
+                        }
+                        objectCount++;
+                    }
+                }
+            }
+            sorter.merge(this);
+        } catch (IOException e) {
+            throw new ObjectStoreException("Could not sort the primary keys of source "
+                    + source.getName(), e);
+        } catch (MetaDataException e) {
+            throw new ObjectStoreException("Could not read the primary keys of source "
+                    + source.getName(), e);
+        } finally {
+            sorter.close();
+        }
+        buildGroups();
+        StringBuffer classNames = new StringBuffer();
+        for (Class<?> c : covered) {
+            classNames.append(classNames.length() == 0 ? "" : ", ")
+                .append(Util.getFriendlyName(c));
+        }
+        LOG.info("Indexed primary keys of " + objectCount + " objects of empty classes for source "
+                + source.getName() + " in " + sorter.runCount + " runs, found "
+                + memberRoots.size() + " duplicates in " + groups.size() + " groups - took "
+                + (System.currentTimeMillis() - start) + " ms. Classes: " + classNames);
+    }
+
+    /**
+     * Returns whether the index can answer equivalent object queries for an object.
+     *
+     * @param obj an object from the source
+     * @return true if the object's class is covered by the index
+     */
+    public boolean covers(InterMineObject obj) {
+        return (obj.getId() != null) && covered.contains(obj.getClass());
+    }
+
+    /**
+     * Returns the id in the production database of an object that has already been stored from
+     * the source and has the same primary key values as the given object.
+     *
+     * @param obj an object of a class covered by the index
+     * @param idMap the id map of the IntegrationWriter
+     * @return the id of the equivalent object, or null if none has been stored yet
+     */
+    public Integer getStoredDuplicate(InterMineObject obj, IntToIntMap idMap) {
+        int id = obj.getId().intValue();
+        int root = memberRoots.get(id);
+        if (root != NO_VALUE) {
+            for (int member : groups.get(new Integer(root))) {
+                if (member != id) {
+                    Integer destId = idMap.get(new Integer(member));
+                    if (destId != null) {
+                        return destId;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of objects in groups of duplicates.
+     *
+     * @return an int
+     */
+    public int getDuplicateCount() {
+        return memberRoots.size();
+    }
+
+    /**
+     * Finds the indexed ClassDescriptors that the primary keys of a class come from, and records
+     * whether the class is covered by the index, which is when they all are.
+     */
+    private List<ClassDescriptor> checkCovered(Class<?> c, EquivalentObjectHints hints) {
+        Model model = iw.getModel();
+        List<ClassDescriptor> clds = new ArrayList<ClassDescriptor>();
+        boolean allIndexed = true;
+        for (ClassDescriptor cld : model.getClassDescriptorsForClass(c)) {
+            if (!DataLoaderHelper.getPrimaryKeys(cld, source, iw).isEmpty()) {
+                if (isIndexed(cld, hints)) {
+                    clds.add(cld);
+                } else {
+                    allIndexed = false;
+                }
+            }
+        }
+        keyClds.put(c, clds);
+        if (allIndexed) {
+            covered.add(c);
+        }
+        return clds;
+    }
+
+    /**
+     * Returns whether the primary keys defined in a class are indexed, which is when they are made
+     * only of attributes and the class is empty.
+     */
+    private boolean isIndexed(ClassDescriptor cld, EquivalentObjectHints hints) {
+        Boolean retval = indexed.get(cld);
+        if (retval == null) {
+            retval = Boolean.TRUE;
+            for (PrimaryKey pk : DataLoaderHelper.getPrimaryKeys(cld, source, iw)) {
+                for (String fieldName : pk.getFieldNames()) {
+                    if (!(cld.getFieldDescriptorByName(fieldName) instanceof AttributeDescriptor)) {
+                        retval = Boolean.FALSE;
+                    }
+                }
+            }
+            if (retval.booleanValue() && !hints.classNotExists(cld.getType())) {
+                retval = Boolean.FALSE;
+            }
+            indexed.put(cld, retval);
+        }
+        return retval.booleanValue();
+    }
+
+    /**
+     * Records that two objects have an equal primary key value.
+     */
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA != rootB) {
+            memberRoots.put(rootB, rootA);
+        }
+    }
+
+    private int find(int id) {
+        int root = id;
+        int parent = memberRoots.get(root);
+        if (parent == NO_VALUE) {
+            memberRoots.put(id, id);
+            return id;
+        }
+        while (parent != root) {
+            root = parent;
+            parent = memberRoots.get(root);
+        }
+        int current = id;
+        while (current != root) {
+            int next = memberRoots.get(current);
+            memberRoots.put(current, root);
+            current = next;
+        }
+        return root;
+    }
+
+    /**
+     * Gathers the members of each group, and points every member directly at its root.
+     */
+    private void buildGroups() {
+        final int[] members = new int[memberRoots.size()];
+        memberRoots.forEach(new IntToIntHashMap.EntryConsumer() {
+            private int pos = 0;
+
+            public void accept(int key, int value) {
+                members[pos++] = key;
+            }
+        });
+        Map<Integer, List<Integer>> lists = new HashMap<Integer, List<Integer>>();
+        for (int member : members) {
+            Integer root = new Integer(find(member));
+            List<Integer> list = lists.get(root);
+            if (list == null) {
+                list = new ArrayList<Integer>();
+                lists.put(root, list);
+            }
+            list.add(new Integer(member));
+        }
+        for (Map.Entry<Integer, List<Integer>> entry : lists.entrySet()) {
+            List<Integer> list = entry.getValue();
+            int[] group = new int[list.size()];
+            for (int i = 0; i < group.length; i++) {
+                group[i] = list.get(i).intValue();
+            }
+            groups.put(entry.getKey(), group);
+        }
+    }
+
+    /**
+     * An external merge sort of (key, id) records. Records are sorted in memory in runs of
+     * RUN_SIZE, and the runs are written to temporary files and merged.
+     */
+    private static class KeySorter
+    {
+        private static final Comparator<KeyRecord> ORDER = new Comparator<KeyRecord>() {
+            public int compare(KeyRecord a, KeyRecord b) {
+                int retval = a.key.compareTo(b.key);
+                if (retval == 0) {
+                    retval = Integer.compare(a.id, b.id);
+                }
+                return retval;
+            }
+        };
+
+        private File dir;
+        private List<KeyRecord> current = new ArrayList<KeyRecord>();
+        private List<File> runFiles = new ArrayList<File>();
+        private int runCount = 0;
+
+        KeySorter(File dir) {
+            this.dir = dir;
+        }
+
+        void add(String key, int id) throws IOException {
+            current.add(new KeyRecord(key, id));
+            if (current.size() >= RUN_SIZE) {
+                writeRun();
+            }
+        }
+
+        private void writeRun() throws IOException {
+            Collections.sort(current, ORDER);
+            File file = File.createTempFile("sourcekeys", ".run", dir);
+            file.deleteOnExit();
+            runFiles.add(file);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file)));
+            try {
+                for (KeyRecord record : current) {
+                    byte[] bytes = record.key.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                    out.writeInt(record.id);
+                }
+            } finally {
+                out.close();
+            }
+            current.clear();
+            runCount++;
+        }
+
+        /**
+         * Passes the records to the index in sorted order, joining records with equal keys.
+         */
+        void merge(SourceKeyIndex index) throws IOException {
+            if (runFiles.isEmpty()) {
+                // Everything fitted in memory
+                Collections.sort(current, ORDER);
+                runCount = 1;
+                KeyRecord previous = null;
+                for (KeyRecord record : current) {
+                    if ((previous != null) && previous.key.equals(record.key)) {
+                        index.union(previous.id, record.id);
+                    }
+                    previous = record;
+                }
+                current.clear();
+                return;
+            }
+            if (!current.isEmpty()) {
+                writeRun();
+            }
+            PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(runFiles.size(),
+                    new Comparator<RunReader>() {
+                        public int compare(RunReader a, RunReader b) {
+                            return ORDER.compare(a.record, b.record);
+                        }
+                    });
+            List<RunReader> readers = new ArrayList<RunReader>();
+            try {
+                for (File file : runFiles) {
+                    RunReader reader = new RunReader(file);
+                    readers.add(reader);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+                String previousKey = null;
+                int previousId = 0;
+                while (!queue.isEmpty()) {
+                    RunReader reader = queue.poll();
+                    KeyRecord record = reader.record;
+                    if (record.key.equals(previousKey)) {
+                        index.union(previousId, record.id);
+                    }
+                    previousKey = record.key;
+                    previousId = record.id;
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+            } finally {
+                for (RunReader reader : readers) {
+                    reader.close();
+                }
+            }
+        }
+
+        void close() {
+            current.clear();
+            for (File file : runFiles) {
+                if (!file.delete()) {
+                    LOG.warn("Could not delete " + file);
+                }
+            }
+            runFiles.clear();
+        }
+    }
+
+    private static class KeyRecord
+    {
+        private String key;
+        private int id;
+
+        KeyRecord(String key, int id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    private static class RunReader
+    {
+        private DataInputStream in;
+        private KeyRecord record = null;
+
+        RunReader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        boolean next() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            record = new KeyRecord(new String(bytes, StandardCharsets.UTF_8), in.readInt());
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
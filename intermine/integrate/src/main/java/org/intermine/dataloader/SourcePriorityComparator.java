@@ -44,6 +44,7 @@ public class SourcePriorityComparator implements Comparator<InterMineObject>
     private IntegrationWriterAbstractImpl iw;
     private Source source, skelSource;
     private PriorityConfig priorityConfig;
+    private Source reloadSkeleton;
 
     /**
      * Constructs a new Comparator for comparing objects for priority for a given field.
@@ -74,6 +75,7 @@ public class SourcePriorityComparator implements Comparator<InterMineObject>
         this.source = source;
         this.skelSource = skelSource;
         this.priorityConfig = priorityConfig;
+        reloadSkeleton = dataTracker.getReloadSkeleton();
     }
 
     /**
@@ -96,6 +98,19 @@ public class SourcePriorityComparator implements Comparator<InterMineObject>
         } catch (IllegalAccessException e) {
             throw new RuntimeException(e);
         }
+        if ((reloadSkeleton != null) && reloadSkeleton.equals(skelSource)
+                && source.equals(def)) {
+            // While the source is reloaded, the values it gave before lose to the values it gives
+            // now, even null ones, whatever the priorities
+            if ((o1 == defObj) && reloadSkeleton.equals(dataTracker.getSource(o2.getId(),
+                            fieldName))) {
+                return 1;
+            }
+            if ((o2 == defObj) && reloadSkeleton.equals(dataTracker.getSource(o1.getId(),
+                            fieldName))) {
+                return -1;
+            }
+        }
         List<String> srcs = priorityConfig.getPriorities(clazz, fieldName);
         if (srcs != null) {
             if (o1 == defObj) {
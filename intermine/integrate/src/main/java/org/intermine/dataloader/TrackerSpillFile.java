@@ -0,0 +1,382 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A local file holding the clean ObjectDescriptions that the DataTracker has evicted from its
+ * cache, so that they can be read back without querying the tracker table. The file is mapped
+ * into memory, so the descriptions take no heap space and the operating system decides how much
+ * of the file to keep in RAM.
+ * <p>
+ * Each description is written as a record of a two-byte field count followed by a four-byte
+ * entry for each field, holding the ordinal of the field name in the upper two bytes and the
+ * ordinal of the Source in the lower two. The ordinals are assigned as names and Sources are first
+ * seen. Records are appended in 64MB mapped segments. A description that is spilled again
+ * unchanged, as happens every time a description read back from the file is evicted from the
+ * DataTracker's cache again, is not written at all, and a changed description overwrites its old
+ * record if it fits, so that only descriptions that have grown take a new record. The records are
+ * found through an open-addressing hash table from object id to record offset, held in a second
+ * mapped file and doubled in size when it is half full.
+ * <p>
+ * Once the data file reaches its maximum size, further descriptions are refused and the
+ * DataTracker falls back to reading them from the database. This class is not thread-safe.
+ */
+public class TrackerSpillFile
+{
+    private static final Logger LOG = Logger.getLogger(TrackerSpillFile.class);
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int INITIAL_SLOTS = 65536;
+    // The largest index that fits in one mapping, at eight bytes a slot, as a mapping can be at
+    // most Integer.MAX_VALUE bytes
+    static final int MAX_SLOTS = 1 << 27;
+    // An entry of all ones would read as -1, which encode() uses to report failure
+    private static final int MAX_ORDINAL = 0xFFFE;
+    // The value of a slot whose record has been discarded
+    private static final int DISCARDED = -1;
+
+    private File dir;
+    private long maxSize;
+    private File dataFile;
+    private RandomAccessFile data;
+    private List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    private long dataSize = 0;
+    private File indexFile;
+    private RandomAccessFile index;
+    private MappedByteBuffer slots;
+    private int slotCount;
+    private int maxSlots;
+    private int entryCount = 0;
+    private int recordCount = 0;
+    private boolean full = false;
+
+    private Map<String, Integer> fieldOrdinals = new HashMap<String, Integer>();
+    private List<String> fields = new ArrayList<String>();
+    private Map<Source, Integer> sourceOrdinals = new HashMap<Source, Integer>();
+    private List<Source> sources = new ArrayList<Source>();
+
+    /**
+     * Creates a spill file in the given directory.
+     *
+     * @param dir the directory to create the files in, or null for the default temporary
+     * directory
+     * @param maxSize the maximum number of bytes of descriptions to hold
+     * @throws IOException if the files cannot be created
+     */
+    public TrackerSpillFile(File dir, long maxSize) throws IOException {
+        this(dir, maxSize, MAX_SLOTS);
+    }
+
+    /**
+     * Creates a spill file in the given directory, with a limit on the size of the index.
+     *
+     * @param dir the directory to create the files in, or null for the default temporary
+     * directory
+     * @param maxSize the maximum number of bytes of descriptions to hold
+     * @param maxSlots the largest number of slots in the index, a power of two no larger than
+     * MAX_SLOTS
+     * @throws IOException if the files cannot be created
+     */
+    TrackerSpillFile(File dir, long maxSize, int maxSlots) throws IOException {
+        this.dir = dir;
+        this.maxSlots = maxSlots;
+        // Offsets are held as ints in units of four bytes
+        this.maxSize = Math.min(maxSize, 4L * (Integer.MAX_VALUE - 1));
+        dataFile = File.createTempFile("datatracker", ".spill", dir);
+        dataFile.deleteOnExit();
+        data = new RandomAccessFile(dataFile, "rw");
+        createIndex(Math.min(INITIAL_SLOTS, maxSlots));
+    }
+
+    /**
+     * Writes a description to the file, replacing any description already held for the id. Only
+     * the data of the description as it would be once clean is written, and nothing is written if
+     * that matches the description already held. If the description cannot be held, any
+     * description already held for the id is discarded, as it is out of date.
+     *
+     * @param id the id of the object
+     * @param desc the ObjectDescription
+     * @return false if the description could not be held, because the file is full or there are
+     * too many distinct field names or Sources
+     * @throws IOException if the file cannot be extended
+     */
+    public boolean put(int id, ObjectDescription desc) throws IOException {
+        int origSize = desc.getOrigSize();
+        int newSize = desc.getNewSize();
+        int[] entries = new int[origSize + newSize];
+        int count = 0;
+        for (int i = 0; i < newSize; i++) {
+            int entry = encode(desc.getNewField(i), desc.getNewSource(i));
+            if (entry == -1) {
+                discard(id);
+                return false;
+            }
+            entries[count++] = entry;
+        }
+        for (int i = 0; i < origSize; i++) {
+            String field = desc.getOrigField(i);
+            if ((newSize == 0) || (findNewField(desc, field) == -1)) {
+                int entry = encode(field, desc.getOrigSource(i));
+                if (entry == -1) {
+                    discard(id);
+                    return false;
+                }
+                entries[count++] = entry;
+            }
+        }
+        // Pad records to four bytes, so the offset can be stored in units of four bytes
+        int recordSize = recordSize(count);
+        int slot = findSlot(id);
+        int value = slots.getInt(slot * 8 + 4);
+        if ((value != 0) && (value != DISCARDED)) {
+            long oldOffset = ((long) (value - 1)) << 2;
+            MappedByteBuffer segment = segments.get((int) (oldOffset / SEGMENT_SIZE));
+            int pos = (int) (oldOffset % SEGMENT_SIZE);
+            int oldCount = segment.getShort(pos) & 0xFFFF;
+            if (recordEquals(segment, pos, oldCount, entries, count)) {
+                return true;
+            }
+            if (recordSize <= recordSize(oldCount)) {
+                writeRecord(segment, pos, entries, count);
+                return true;
+            }
+        }
+        if (full) {
+            discard(id);
+            return false;
+        }
+        long offset = dataSize;
+        if ((offset % SEGMENT_SIZE) + recordSize > SEGMENT_SIZE) {
+            // Records never cross a segment boundary
+            offset = (offset / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+        }
+        if ((offset + recordSize > maxSize) || (entryCount >= maxSlots / 4 * 3)) {
+            LOG.info("DataTracker spill file is full at " + dataSize + " bytes holding "
+                    + entryCount + " objects - further objects will be read from the database");
+            full = true;
+            discard(id);
+            return false;
+        }
+        MappedByteBuffer segment = getSegment((int) (offset / SEGMENT_SIZE));
+        writeRecord(segment, (int) (offset % SEGMENT_SIZE), entries, count);
+        dataSize = offset + recordSize;
+        recordCount++;
+        putOffset(id, (int) (offset >>> 2));
+        return true;
+    }
+
+    /**
+     * Reads the description held for an id.
+     *
+     * @param id the id of the object
+     * @return a clean ObjectDescription, or null if none is held
+     */
+    public ObjectDescription get(int id) {
+        int slot = findSlot(id);
+        int value = slots.getInt(slot * 8 + 4);
+        if ((value == 0) || (value == DISCARDED)) {
+            return null;
+        }
+        long offset = ((long) (value - 1)) << 2;
+        MappedByteBuffer segment = segments.get((int) (offset / SEGMENT_SIZE));
+        int pos = (int) (offset % SEGMENT_SIZE);
+        int count = segment.getShort(pos) & 0xFFFF;
+        ObjectDescription retval = new ObjectDescription();
+        for (int i = 0; i < count; i++) {
+            int entry = segment.getInt(pos + 2 + 4 * i);
+            retval.putClean(fields.get(entry >>> 16), sources.get(entry & 0xFFFF));
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the number of objects held.
+     *
+     * @return an int
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the number of bytes of the data file in use, including superseded records.
+     *
+     * @return a long
+     */
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    /**
+     * Deletes the files. The spill file cannot be used afterwards.
+     */
+    public void close() {
+        LOG.info("Closing DataTracker spill file - " + entryCount + " objects in " + recordCount
+                + " records, " + dataSize + " bytes");
+        segments.clear();
+        slots = null;
+        closeQuietly(data, dataFile);
+        closeQuietly(index, indexFile);
+    }
+
+    private int encode(String field, Source source) {
+        Integer fieldOrdinal = fieldOrdinals.get(field);
+        if (fieldOrdinal == null) {
+            if (fields.size() > MAX_ORDINAL) {
+                return -1;
+            }
+            fieldOrdinal = new Integer(fields.size());
+            fields.add(field);
+            fieldOrdinals.put(field, fieldOrdinal);
+        }
+        Integer sourceOrdinal = sourceOrdinals.get(source);
+        if (sourceOrdinal == null) {
+            if (sources.size() > MAX_ORDINAL) {
+                return -1;
+            }
+            sourceOrdinal = new Integer(sources.size());
+            sources.add(source);
+            sourceOrdinals.put(source, sourceOrdinal);
+        }
+        return (fieldOrdinal.intValue() << 16) | sourceOrdinal.intValue();
+    }
+
+    private static int recordSize(int count) {
+        return (2 + 4 * count + 3) & ~3;
+    }
+
+    private static boolean recordEquals(MappedByteBuffer segment, int pos, int oldCount,
+            int[] entries, int count) {
+        if (oldCount != count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (segment.getInt(pos + 2 + 4 * i) != entries[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeRecord(MappedByteBuffer segment, int pos, int[] entries,
+            int count) {
+        segment.putShort(pos, (short) count);
+        for (int i = 0; i < count; i++) {
+            segment.putInt(pos + 2 + 4 * i, entries[i]);
+        }
+    }
+
+    private static int findNewField(ObjectDescription desc, String field) {
+        for (int i = 0; i < desc.getNewSize(); i++) {
+            if (desc.getNewField(i).equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private MappedByteBuffer getSegment(int segmentNo) throws IOException {
+        while (segments.size() <= segmentNo) {
+            segments.add(data.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                        ((long) segments.size()) * SEGMENT_SIZE, SEGMENT_SIZE));
+        }
+        return segments.get(segmentNo);
+    }
+
+    /**
+     * Returns the slot that holds the given id, or the empty slot where it would be inserted.
+     * Each slot is eight bytes, holding the id and the record offset plus one, so that an empty
+     * slot is all zeros, or DISCARDED in place of the offset.
+     */
+    private int findSlot(int id) {
+        int mask = slotCount - 1;
+        int slot = hash(id) & mask;
+        while (true) {
+            int value = slots.getInt(slot * 8 + 4);
+            if ((value == 0) || (slots.getInt(slot * 8) == id)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void putOffset(int id, int offset) throws IOException {
+        int slot = findSlot(id);
+        if (slots.getInt(slot * 8 + 4) == 0) {
+            entryCount++;
+        }
+        slots.putInt(slot * 8, id);
+        slots.putInt(slot * 8 + 4, offset + 1);
+        if ((entryCount * 2 > slotCount) && (slotCount < maxSlots)) {
+            resizeIndex();
+        }
+    }
+
+    private void discard(int id) {
+        int slot = findSlot(id);
+        if (slots.getInt(slot * 8 + 4) != 0) {
+            // The slot stays occupied, so that probing for other ids still passes over it
+            slots.putInt(slot * 8 + 4, DISCARDED);
+        }
+    }
+
+    private void createIndex(int newSlotCount) throws IOException {
+        indexFile = File.createTempFile("datatracker", ".index", dir);
+        indexFile.deleteOnExit();
+        index = new RandomAccessFile(indexFile, "rw");
+        slotCount = newSlotCount;
+        slots = index.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8L * slotCount);
+    }
+
+    private void resizeIndex() throws IOException {
+        MappedByteBuffer oldSlots = slots;
+        int oldSlotCount = slotCount;
+        RandomAccessFile oldIndex = index;
+        File oldIndexFile = indexFile;
+        createIndex(oldSlotCount * 2);
+        for (int slot = 0; slot < oldSlotCount; slot++) {
+            int value = oldSlots.getInt(slot * 8 + 4);
+            if (value != 0) {
+                int newSlot = findSlot(oldSlots.getInt(slot * 8));
+                slots.putInt(newSlot * 8, oldSlots.getInt(slot * 8));
+                slots.putInt(newSlot * 8 + 4, value);
+            }
+        }
+        closeQuietly(oldIndex, oldIndexFile);
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static void closeQuietly(RandomAccessFile file, File path) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            LOG.warn("Error closing " + path, e);
+        }
+        if (!path.delete()) {
+            LOG.warn("Could not delete " + path);
+        }
+    }
+}
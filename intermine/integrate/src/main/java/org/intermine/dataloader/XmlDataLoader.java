@@ -10,16 +10,18 @@ package org.intermine.dataloader;
  *
  */
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
-import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.log4j.Logger;
 import org.intermine.InterMineException;
 import org.intermine.model.FastPathObject;
-import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.XmlBinding;
+import org.intermine.xml.full.FullObjectReader;
+import org.intermine.xml.full.ItemXmlReader;
 
 /**
  * Provides a method for unmarshalling XML given source into java
@@ -62,23 +64,14 @@ public class XmlDataLoader extends DataLoader
             long opCount = 0;
             long time = (new Date()).getTime();
             long startTime = time;
-            LOG.info("Starting XmlDataLoader. Loading XML file.");
-            XmlBinding binding = new XmlBinding(getIntegrationWriter().getObjectStore().getModel());
-
-            List<FastPathObject> objects = binding.unmarshal(is);
-            LOG.info("Loaded XML file to list of " + objects.size() + " objects");
-
-            for (FastPathObject o : objects) {
-                if (o instanceof InterMineObject) {
-                    LOG.info("InterMine Id " + ((InterMineObject) o).getId());
-                    LOG.info("InterMine Id " + ((InterMineObject) o).toString());
-                    InterMineObject io = (InterMineObject) o;
-                    io.setId(new Integer(idCounter++));
-                }
-            }
+            LOG.info("Starting XmlDataLoader. Streaming objects from XML file.");
+            FullObjectReader reader = new FullObjectReader(new ItemXmlReader(is),
+                    getIntegrationWriter().getObjectStore().getModel(),
+                    getIntegrationWriter().getObjectStore(), idCounter, true);
 
             getIntegrationWriter().beginTransaction();
-            for (FastPathObject o : objects) {
+            FastPathObject o;
+            while ((o = reader.next()) != null) {
                 getIntegrationWriter().store(o, source, skelSource);
                 opCount++;
                 if (opCount % 1000 == 0) {
@@ -103,6 +96,7 @@ public class XmlDataLoader extends DataLoader
                     }
                 }
             }
+            idCounter = reader.getNextId();
             getIntegrationWriter().commitTransaction();
             long now = System.currentTimeMillis();
             LOG.info("Finished dataloading " + opCount + " objects at " + ((60000L * opCount)
@@ -110,6 +104,12 @@ public class XmlDataLoader extends DataLoader
                     + " ms total) for source " + source.getName());
         } catch (ObjectStoreException e) {
             throw new InterMineException("Problem with store method", e);
+        } catch (XMLStreamException e) {
+            throw new InterMineException("Error during unmarshalling", e);
+        } catch (IOException e) {
+            throw new InterMineException("Error during unmarshalling", e);
+        } catch (ClassNotFoundException e) {
+            throw new InterMineException("Error during unmarshalling", e);
         }
     }
 
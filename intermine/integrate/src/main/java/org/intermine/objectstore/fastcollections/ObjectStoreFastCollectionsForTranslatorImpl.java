@@ -19,6 +19,7 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.IntConsumer;
 
 import org.intermine.dataconversion.ItemToObjectTranslator;
 import org.intermine.dataloader.Source;
@@ -41,6 +42,7 @@ import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.objectstore.translating.ObjectStoreTranslatingImpl;
 import org.intermine.objectstore.translating.Translator;
+import org.intermine.util.IntHashSet;
 import org.intermine.util.IntPresentSet;
 
 /**
@@ -203,7 +205,7 @@ public class ObjectStoreFastCollectionsForTranslatorImpl extends ObjectStorePass
                         Map<FastPathObject, Map<String, Object>> froms =
                             new HashMap<FastPathObject, Map<String, Object>>();
                         Set<Integer> toIds = new TreeSet<Integer>();
-                        Set<Integer> toAddToDoneAlready = new HashSet<Integer>();
+                        IntHashSet toAddToDoneAlready = new IntHashSet();
                         Map<Integer, FastPathObject> idToObj =
                             new HashMap<Integer, FastPathObject>();
                         for (ResultsRow<Object> row : retval) {
@@ -322,9 +324,11 @@ public class ObjectStoreFastCollectionsForTranslatorImpl extends ObjectStorePass
                                 doneAlready.add(o.getId());
                             }
                         }
-                        for (Integer toAdd : toAddToDoneAlready) {
-                            doneAlready.add(toAdd);
-                        }
+                        toAddToDoneAlready.forEach(new IntConsumer() {
+                            public void accept(int toAdd) {
+                                doneAlready.set(toAdd, true);
+                            }
+                        });
                         // Now we have fetched all the objects in from the database. We now need to
                         // populate every object in our froms Map
 
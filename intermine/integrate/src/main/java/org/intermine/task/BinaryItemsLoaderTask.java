@@ -0,0 +1,66 @@
+package org.intermine.task;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+
+import org.apache.log4j.Logger;
+import org.apache.tools.ant.BuildException;
+import org.intermine.dataconversion.BinaryItemReader;
+import org.intermine.dataloader.DirectDataLoader;
+import org.intermine.dataloader.IntegrationWriter;
+import org.intermine.metadata.Model;
+import org.intermine.model.FastPathObject;
+import org.intermine.xml.full.FullObjectReader;
+
+/**
+ * Loads binary items files written by a converter through a BinaryItemWriter, storing the objects
+ * with a DirectDataLoader. Each file must hold all the Items that its Items refer to.
+ */
+public class BinaryItemsLoaderTask extends FileDirectDataLoaderTask
+{
+    private static final Logger LOG = Logger.getLogger(BinaryItemsLoaderTask.class);
+
+    private int nextId = 0;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void processFile(File file) {
+        LOG.info("Loading binary items file " + file);
+        BinaryItemReader items = null;
+        try {
+            DirectDataLoader loader = getDirectDataLoader();
+            IntegrationWriter iw = getIntegrationWriter();
+            Model model = iw.getModel();
+            items = new BinaryItemReader(file, model);
+            FullObjectReader reader = new FullObjectReader(items, model, iw.getObjectStore(),
+                    nextId, true);
+            reader.setRetainedClasses(loader.getClassesReferencedInKeys());
+            FastPathObject obj;
+            while ((obj = reader.next()) != null) {
+                loader.store(obj);
+            }
+            nextId = reader.getNextId();
+        } catch (Exception e) {
+            throw new BuildException("Failed to load " + file, e);
+        } finally {
+            if (items != null) {
+                try {
+                    items.close();
+                } catch (Exception e) {
+                    LOG.warn("Failed to close " + file, e);
+                }
+            }
+        }
+    }
+}
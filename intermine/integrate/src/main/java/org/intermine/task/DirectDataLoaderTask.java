@@ -38,6 +38,7 @@ public abstract class DirectDataLoaderTask extends DynamicAttributeTask
     protected String sourceName;
     private String sourceType;
     private boolean ignoreDuplicates = false;
+    private boolean reload = false;
     private DirectDataLoader directDataLoader;
     private IntegrationWriter iw;
 
@@ -79,6 +80,15 @@ public abstract class DirectDataLoaderTask extends DynamicAttributeTask
         this.ignoreDuplicates = ignoreDuplicates;
     }
 
+    /**
+     * Set whether the source is being loaded again into a production database that holds the data
+     * it loaded before, replacing that data.
+     *
+     * @param reload true to reload the source
+     */
+    public void setReload(boolean reload) {
+        this.reload = reload;
+    }
 
     /**
      * Return the IntegrationWriter for this task.
@@ -165,6 +175,13 @@ public abstract class DirectDataLoaderTask extends DynamicAttributeTask
         try {
             getIntegrationWriter().beginTransaction();
             getIntegrationWriter().setIgnoreDuplicates(ignoreDuplicates);
+            if (reload) {
+                if (!(getIntegrationWriter() instanceof IntegrationWriterDataTrackingImpl)) {
+                    throw new BuildException("Cannot reload a source without data tracking");
+                }
+                ((IntegrationWriterDataTrackingImpl) getIntegrationWriter()).startReload(
+                        getIntegrationWriter().getMainSource(sourceName, sourceType));
+            }
             process();
             directDataLoader.close();
 
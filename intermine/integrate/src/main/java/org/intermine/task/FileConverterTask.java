@@ -12,6 +12,7 @@ package org.intermine.task;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.lang.reflect.Constructor;
 
@@ -19,6 +20,7 @@ import org.apache.log4j.Logger;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.types.FileSet;
+import org.intermine.dataconversion.BinaryItemWriter;
 import org.intermine.dataconversion.FileConverter;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.dataconversion.ObjectStoreItemWriter;
@@ -41,6 +43,7 @@ public class FileConverterTask extends ConverterTask
 
     protected FileSet fileSet;
     protected String clsName;
+    protected File itemsFile = null;
 
     /**
      * Set the source specific subclass of FileConverter to run
@@ -50,6 +53,16 @@ public class FileConverterTask extends ConverterTask
         this.clsName = clsName;
     }
 
+    /**
+     * Set a file to write the Items to in the binary items format, to be loaded by the
+     * load-binary-items task, instead of storing them in the items database.
+     *
+     * @param itemsFile the binary items file to write
+     */
+    public void setItemsFile(File itemsFile) {
+        this.itemsFile = itemsFile;
+    }
+
     /**
      * Set the data fileset
      * @param fileSet the fileset
@@ -69,7 +82,7 @@ public class FileConverterTask extends ConverterTask
         if (clsName == null) {
             throw new BuildException("clsName attribute is not set");
         }
-        if (getOsName() == null) {
+        if ((getOsName() == null) && (itemsFile == null)) {
             throw new BuildException("osName attribute is not set");
         }
         if (getModelName() == null) {
@@ -84,8 +97,12 @@ public class FileConverterTask extends ConverterTask
         ItemWriter writer = null;
         try {
             Model model = Model.getInstanceByName(getModelName());
-            osw = ObjectStoreWriterFactory.getObjectStoreWriter(getOsName());
-            writer = new ObjectStoreItemWriter(osw);
+            if (itemsFile == null) {
+                osw = ObjectStoreWriterFactory.getObjectStoreWriter(getOsName());
+                writer = new ObjectStoreItemWriter(osw);
+            } else {
+                writer = new BinaryItemWriter(new FileOutputStream(itemsFile), model);
+            }
 
             Class<?> c = Class.forName(clsName);
             if (!FileConverter.class.isAssignableFrom(c)) {
@@ -132,7 +149,7 @@ public class FileConverterTask extends ConverterTask
                 if (writer != null) {
                     writer.close();
                 }
-                if (writer != null) {
+                if (osw != null) {
                     osw.close();
                 }
             } catch (Exception e) {
@@ -140,10 +157,12 @@ public class FileConverterTask extends ConverterTask
             }
         }
 
-        try {
-            doSQL(osw.getObjectStore());
-        } catch (Exception e) {
-            throw new BuildException(e);
+        if (osw != null) {
+            try {
+                doSQL(osw.getObjectStore());
+            } catch (Exception e) {
+                throw new BuildException(e);
+            }
         }
     }
 
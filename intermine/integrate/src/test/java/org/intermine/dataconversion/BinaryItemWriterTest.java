@@ -0,0 +1,81 @@
+package org.intermine.dataconversion;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Model;
+import org.intermine.xml.full.FullParser;
+import org.intermine.xml.full.Item;
+import org.intermine.xml.full.ItemFactory;
+import org.intermine.xml.full.ItemHelper;
+import org.intermine.xml.full.Reference;
+
+public class BinaryItemWriterTest extends TestCase
+{
+    private Model model;
+    private File file;
+
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+        file = File.createTempFile("items", ".bin");
+    }
+
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testRoundTrip() throws Exception {
+        InputStream is = getClass().getClassLoader().getResourceAsStream("FullParserTest.xml");
+        List<Item> xmlItems = FullParser.parse(is);
+        BinaryItemWriter writer = new BinaryItemWriter(new FileOutputStream(file), model);
+        for (Item item : xmlItems) {
+            writer.store(ItemHelper.convert(item));
+        }
+        writer.close();
+
+        assertEquals(xmlItems, readAll());
+    }
+
+    public void testAdditionsAndNewNames() throws Exception {
+        Item company = ItemFactory.NULL_MODEL_ITEM_FACTORY.makeItem("1", "", "Company");
+        company.setAttribute("name", "CompanyA");
+        Item address = ItemFactory.NULL_MODEL_ITEM_FACTORY.makeItem("2", "Address", "");
+        address.setAttribute("notInModel", "value");
+
+        BinaryItemWriter writer = new BinaryItemWriter(new FileOutputStream(file), model);
+        Integer companyId = writer.store(ItemHelper.convert(company));
+        writer.store(ItemHelper.convert(address));
+        writer.store(ItemHelper.convert(new Reference("address", "2")), companyId);
+        writer.close();
+
+        company.setReference("address", "2");
+        assertEquals(Arrays.asList(company, address), readAll());
+    }
+
+    private List<Item> readAll() throws Exception {
+        BinaryItemReader reader = new BinaryItemReader(file, model);
+        List<Item> retval = new ArrayList<Item>();
+        Item item;
+        while ((item = reader.next()) != null) {
+            retval.add(item);
+        }
+        reader.close();
+        return retval;
+    }
+}
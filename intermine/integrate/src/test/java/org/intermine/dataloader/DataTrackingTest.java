@@ -11,11 +11,13 @@ package org.intermine.dataloader;
  */
 
 import java.sql.Connection;
+import java.util.Collections;
 
 import junit.framework.TestCase;
 
 import org.intermine.sql.Database;
 import org.intermine.sql.DatabaseFactory;
+import org.intermine.util.IntHashSet;
 
 public class DataTrackingTest extends TestCase {
     protected DataTracker dt;
@@ -83,4 +85,36 @@ public class DataTrackingTest extends TestCase {
         dt2 = new DataTracker(DatabaseFactory.getDatabase("db.unittest"), 30, 10);
         assertEquals(source2.getName(), dt2.getSource(new Integer(14), "name").getName());
     }
+
+    public void testReload() throws Exception {
+        Source skel1 = dt.stringToSource("skel_Source1");
+        dt.setSource(new Integer(13), "name", source1);
+        dt.setSource(new Integer(13), "age", skel1);
+        dt.setSource(new Integer(14), "name", source1);
+        dt.setSource(new Integer(14), "age", source2);
+        dt.setSource(new Integer(15), "name", source2);
+        dt.flush();
+
+        dt.startReload(source1);
+        // Entries written before the reload are read as skeleton entries
+        assertSame(skel1, dt.getSource(new Integer(13), "name"));
+        assertSame(skel1, dt.getSource(new Integer(14), "name"));
+        assertSame(source2, dt.getSource(new Integer(14), "age"));
+        dt.setSource(new Integer(13), "name", source1);
+        assertSame(source1, dt.getSource(new Integer(13), "name"));
+
+        IntHashSet onlyFrom = new IntHashSet();
+        IntHashSet from = dt.getObjectsFrom(source1, onlyFrom);
+        assertEquals(2, from.size());
+        assertTrue(from.contains(13));
+        assertTrue(from.contains(14));
+        assertEquals(1, onlyFrom.size());
+        assertTrue(onlyFrom.contains(13));
+
+        dt.removeObjs(Collections.singleton(new Integer(13)));
+        onlyFrom = new IntHashSet();
+        from = dt.getObjectsFrom(source1, onlyFrom);
+        assertEquals(1, from.size());
+        assertTrue(onlyFrom.isEmpty());
+    }
 }
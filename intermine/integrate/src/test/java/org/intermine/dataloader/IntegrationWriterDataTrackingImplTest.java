@@ -33,6 +33,7 @@ import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.objectstore.query.SingletonResults;
 import org.intermine.util.DynamicUtil;
+import org.intermine.util.IntPresentSet;
 import org.junit.*;
 
 public class IntegrationWriterDataTrackingImplTest
@@ -1124,4 +1125,50 @@ public class IntegrationWriterDataTrackingImplTest
         r2 = iw.executeSingleton(q2);
         Assert.assertEquals(1, r2.size());
     }
+
+    @Test
+    public void testReload() throws Exception {
+        Source source = iw.getMainSource("storedata", "storedata");
+        Source skelSource = iw.getSkeletonSource("storedata", "storedata");
+        Employee example = new Employee();
+        example.setName("EmployeeA2");
+        Employee dbEmployee = iw.getObjectByExample(example, Collections.singleton("name"));
+        Integer deptId = dbEmployee.getDepartment().getId();
+        // Not tracked, so not deleted, but it refers to an object that the reload deletes
+        Employee outsider = new Employee();
+        outsider.setId(iw.getSerial());
+        outsider.setName("Outsider");
+        outsider.setDepartment(dbEmployee.getDepartment());
+        writer.store(outsider);
+        iw.commitTransaction();
+
+        iw.dbIdsStored = new IntPresentSet();
+        iw.startReload(source);
+        try {
+            iw.beginTransaction();
+            Employee e = new Employee();
+            e.setId(new Integer(1));
+            e.setName("EmployeeA2");
+            e.setAge(20);
+            e.setFullTime(true);
+            iw.store(e, source, skelSource);
+            iw.commitTransaction();
+            iw.deleteStaleObjects();
+        } finally {
+            iw.reloadSource = null;
+            iw.getDataTracker().clear();
+            iw.beginTransaction();
+        }
+
+        Employee reloaded = iw.getObjectByExample(example, Collections.singleton("name"));
+        Assert.assertEquals(dbEmployee.getId(), reloaded.getId());
+        // Values the source no longer gives are removed
+        Assert.assertNull(reloaded.getEnd());
+        Assert.assertNull(reloaded.getDepartment());
+        Assert.assertNull(reloaded.getAddress());
+        Assert.assertNull(iw.getObjectById(deptId));
+        Employee outsiderAfter = (Employee) iw.getObjectById(outsider.getId());
+        Assert.assertNotNull(outsiderAfter);
+        Assert.assertNull(outsiderAfter.getDepartment());
+    }
 }
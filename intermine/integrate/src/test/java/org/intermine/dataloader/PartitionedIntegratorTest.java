@@ -0,0 +1,106 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.intermine.model.FastPathObject;
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Company;
+import org.intermine.util.DynamicUtil;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PartitionedIntegratorTest
+{
+    private static IntegrationWriterDataTrackingImpl iw;
+    private static PartitionedIntegrator integrator;
+
+    @BeforeClass
+    public static void oneTimeSetUp() throws Exception {
+        iw = (IntegrationWriterDataTrackingImpl) IntegrationWriterFactory.getIntegrationWriter("integration.unittestmulti");
+        Source source = iw.getMainSource("testsource", "testsource");
+        Source skelSource = iw.getSkeletonSource("testsource", "testsource");
+        integrator = new PartitionedIntegrator(iw, source, skelSource, 4);
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() throws Exception {
+        iw.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        iw.reset();
+    }
+
+    private static Address address(int id, String text) {
+        Address a = new Address();
+        a.setId(new Integer(id));
+        a.setAddress(text);
+        return a;
+    }
+
+    private static Company company(int id, String name, Address a) {
+        Company c = (Company) DynamicUtil.createObject(Collections.singleton(Company.class));
+        c.setId(new Integer(id));
+        c.setName(name);
+        c.setAddress(a);
+        return c;
+    }
+
+    @Test
+    public void testReferencesJoinPartitions() throws Exception {
+        Address a1 = address(1, "Company Street, AVille");
+        Address a2 = address(2, "Company Street, BVille");
+        Company c1 = company(3, "CompanyA", a1);
+        Company c2 = company(4, "CompanyB", a2);
+        Address a3 = address(5, "Company Street, CVille");
+        List<FastPathObject> objects = Arrays.<FastPathObject>asList(c1, a1, a3, c2, a2);
+
+        List<List<FastPathObject>> partitions = integrator.partition(objects);
+        Assert.assertEquals(3, partitions.size());
+        Assert.assertEquals(Arrays.<FastPathObject>asList(c1, a1), partitions.get(0));
+        Assert.assertEquals(Arrays.<FastPathObject>asList(c2, a2), partitions.get(1));
+        Assert.assertEquals(Arrays.<FastPathObject>asList(a3), partitions.get(2));
+    }
+
+    @Test
+    public void testPrimaryKeysJoinPartitions() throws Exception {
+        Address a1 = address(1, "Company Street, AVille");
+        Address a2 = address(2, "Company Street, AVille");
+        Address a3 = address(3, "Company Street, BVille");
+        List<FastPathObject> objects = Arrays.<FastPathObject>asList(a1, a3, a2);
+
+        List<List<FastPathObject>> partitions = integrator.partition(objects);
+        Assert.assertEquals(2, partitions.size());
+        Assert.assertEquals(Arrays.<FastPathObject>asList(a1, a2), partitions.get(0));
+        Assert.assertEquals(Arrays.<FastPathObject>asList(a3), partitions.get(1));
+    }
+
+    @Test
+    public void testStoredReferencesDoNotJoinPartitions() throws Exception {
+        Address a1 = address(1, "Company Street, AVille");
+        Company c1 = company(2, "CompanyA", a1);
+        Company c2 = company(3, "CompanyB", a1);
+        List<FastPathObject> objects = new ArrayList<FastPathObject>(Arrays.asList(c1, c2));
+
+        Assert.assertEquals(1, integrator.partition(objects).size());
+        iw.assignMapping(new Integer(1), new Integer(1000));
+        Assert.assertEquals(2, integrator.partition(objects).size());
+    }
+}
@@ -0,0 +1,111 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.intermine.model.FastPathObject;
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Contractor;
+import org.intermine.model.testmodel.Employable;
+import org.intermine.util.DynamicUtil;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SourceKeyIndexTest
+{
+    private static IntegrationWriterDataTrackingImpl iw;
+    private static Source source;
+
+    @BeforeClass
+    public static void oneTimeSetUp() throws Exception {
+        iw = (IntegrationWriterDataTrackingImpl) IntegrationWriterFactory.getIntegrationWriter("integration.unittestmulti");
+        source = iw.getMainSource("testsource", "testsource");
+    }
+
+    @AfterClass
+    public static void oneTimeTearDown() throws Exception {
+        iw.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        iw.reset();
+    }
+
+    private static Address address(int id, String text) {
+        Address a = new Address();
+        a.setId(new Integer(id));
+        a.setAddress(text);
+        return a;
+    }
+
+    @Test
+    public void testDuplicates() throws Exception {
+        Address a1 = address(1, "Company Street, AVille");
+        Address a2 = address(2, "Company Street, BVille");
+        Address a3 = address(3, "Company Street, AVille");
+        Address a4 = address(4, null);
+        SourceKeyIndex index = new SourceKeyIndex(iw, source, null);
+        index.build(Arrays.<FastPathObject>asList(a1, a2, a3, a4));
+
+        Assert.assertTrue(index.covers(a1));
+        Assert.assertEquals(2, index.getDuplicateCount());
+        Assert.assertNull(index.getStoredDuplicate(a3, iw.getBaseEof().getIdMap()));
+        iw.assignMapping(new Integer(1), new Integer(1000));
+        Assert.assertEquals(new Integer(1000),
+                index.getStoredDuplicate(a3, iw.getBaseEof().getIdMap()));
+        Assert.assertNull(index.getStoredDuplicate(a1, iw.getBaseEof().getIdMap()));
+        Assert.assertNull(index.getStoredDuplicate(a2, iw.getBaseEof().getIdMap()));
+        Assert.assertNull(index.getStoredDuplicate(a4, iw.getBaseEof().getIdMap()));
+    }
+
+    @Test
+    public void testReferenceKeysNotCovered() throws Exception {
+        Address a1 = address(1, "Company Street, AVille");
+        Company c1 = (Company) DynamicUtil.createObject(Collections.singleton(Company.class));
+        c1.setId(new Integer(2));
+        c1.setName("CompanyA");
+        c1.setAddress(a1);
+        SourceKeyIndex index = new SourceKeyIndex(iw, source, null);
+        index.build(Arrays.<FastPathObject>asList(a1, c1));
+
+        Assert.assertTrue(index.covers(a1));
+        Assert.assertFalse(index.covers(c1));
+    }
+
+    @Test
+    public void testKeySharedWithUncoveredClass() throws Exception {
+        // Company keys use a reference, but its Employable key is shared with Contractor
+        Employable e1 = (Employable) DynamicUtil.createObject(new HashSet<Class<?>>(
+                    Arrays.<Class<?>>asList(Company.class, Employable.class)));
+        e1.setId(new Integer(1));
+        e1.setName("Fred");
+        Contractor c2 = new Contractor();
+        c2.setId(new Integer(2));
+        c2.setName("Fred");
+        SourceKeyIndex index = new SourceKeyIndex(iw, source, null);
+        index.build(Arrays.<FastPathObject>asList(e1, c2));
+
+        Assert.assertFalse(index.covers(e1));
+        Assert.assertTrue(index.covers(c2));
+        Assert.assertEquals(2, index.getDuplicateCount());
+        iw.assignMapping(new Integer(1), new Integer(1000));
+        Assert.assertEquals(new Integer(1000),
+                index.getStoredDuplicate(c2, iw.getBaseEof().getIdMap()));
+    }
+}
@@ -0,0 +1,138 @@
+package org.intermine.dataloader;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class TrackerSpillFileTest extends TestCase
+{
+    private TrackerSpillFile spill;
+    private Source source1, source2;
+
+    public void setUp() throws Exception {
+        spill = new TrackerSpillFile(null, 16 * 1024 * 1024);
+        source1 = new Source("Source1");
+        source2 = new Source("Source2");
+    }
+
+    public void tearDown() throws Exception {
+        spill.close();
+    }
+
+    public void testPutAndGet() throws Exception {
+        ObjectDescription desc = new ObjectDescription();
+        desc.putClean("name", source1);
+        desc.putClean("address", source1);
+        desc.put("name", source2);
+        assertTrue(spill.put(13, desc));
+
+        ObjectDescription read = spill.get(13);
+        assertFalse(read.isDirty());
+        assertSame(source2, read.getSource("name"));
+        assertSame(source1, read.getSource("address"));
+        assertNull(read.getSource("vatNumber"));
+        assertNull(spill.get(14));
+    }
+
+    public void testReplace() throws Exception {
+        ObjectDescription desc = new ObjectDescription();
+        desc.putClean("name", source1);
+        spill.put(13, desc);
+        desc = new ObjectDescription();
+        desc.putClean("name", source2);
+        spill.put(13, desc);
+
+        assertEquals(1, spill.size());
+        assertSame(source2, spill.get(13).getSource("name"));
+    }
+
+    public void testManyObjects() throws Exception {
+        for (int i = -50000; i < 150000; i++) {
+            ObjectDescription desc = new ObjectDescription();
+            desc.putClean("name", (i % 2 == 0) ? source1 : source2);
+            assertTrue(spill.put(i * 7, desc));
+        }
+        assertEquals(200000, spill.size());
+        for (int i = -50000; i < 150000; i++) {
+            assertSame((i % 2 == 0) ? source1 : source2, spill.get(i * 7).getSource("name"));
+        }
+        assertNull(spill.get(1));
+    }
+
+    public void testFull() throws Exception {
+        spill.close();
+        spill = new TrackerSpillFile(null, 64);
+        ObjectDescription desc = new ObjectDescription();
+        desc.putClean("name", source1);
+        assertTrue(spill.put(1, desc));
+        assertTrue(spill.put(2, desc));
+        int id = 3;
+        while (spill.put(id, desc)) {
+            id++;
+        }
+        assertNull(spill.get(id));
+        // An object that could not be written again must not be read back out of date
+        ObjectDescription grown = new ObjectDescription();
+        grown.putClean("name", source2);
+        grown.putClean("address", source2);
+        assertFalse(spill.put(1, grown));
+        assertNull(spill.get(1));
+        // An unchanged object needs no space
+        assertTrue(spill.put(2, desc));
+        assertSame(source1, spill.get(2).getSource("name"));
+    }
+
+    public void testRewrite() throws Exception {
+        ObjectDescription desc = new ObjectDescription();
+        desc.putClean("name", source1);
+        desc.putClean("address", source1);
+        spill.put(13, desc);
+        long size = spill.getDataSize();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(spill.put(13, spill.get(13)));
+        }
+        assertEquals(size, spill.getDataSize());
+
+        desc = new ObjectDescription();
+        desc.putClean("name", source2);
+        assertTrue(spill.put(13, desc));
+        assertEquals(size, spill.getDataSize());
+        ObjectDescription read = spill.get(13);
+        assertSame(source2, read.getSource("name"));
+        assertNull(read.getSource("address"));
+
+        desc.putClean("address", source1);
+        desc.putClean("vatNumber", source1);
+        assertTrue(spill.put(13, desc));
+        assertTrue(spill.getDataSize() > size);
+        assertSame(source1, spill.get(13).getSource("vatNumber"));
+        assertEquals(1, spill.size());
+    }
+
+    public void testIndexLimit() throws Exception {
+        // The largest index must fit in one mapping
+        assertTrue(8L * TrackerSpillFile.MAX_SLOTS <= Integer.MAX_VALUE);
+        spill.close();
+        spill = new TrackerSpillFile(null, 16 * 1024 * 1024, 1 << 18);
+        ObjectDescription desc = new ObjectDescription();
+        desc.putClean("name", source1);
+        int id = 0;
+        while (spill.put(id, desc)) {
+            id++;
+        }
+        // The index doubled up to its limit, and is then kept no more than three quarters full
+        assertEquals((1 << 18) / 4 * 3, id);
+        assertEquals(id, spill.size());
+        assertSame(source1, spill.get(0).getSource("name"));
+        assertSame(source1, spill.get(id - 1).getSource("name"));
+        assertNull(spill.get(id));
+    }
+}
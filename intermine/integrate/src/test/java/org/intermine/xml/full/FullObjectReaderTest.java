@@ -0,0 +1,78 @@
+package org.intermine.xml.full;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.InputStream;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.Model;
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
+import org.intermine.objectstore.proxy.ProxyReference;
+
+public class FullObjectReaderTest extends TestCase
+{
+    private Model model;
+
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+    }
+
+    public void testForwardReferences() throws Exception {
+        InputStream is = getClass().getClassLoader().getResourceAsStream("FullParserTest.xml");
+        FullObjectReader reader = new FullObjectReader(new ItemXmlReader(is), model, null, 10,
+                true);
+
+        // The company refers to items later in the file, so it is held back until they are read
+        Address a1 = (Address) reader.next();
+        assertEquals(new Integer(11), a1.getId());
+        Department d1 = (Department) reader.next();
+        assertEquals("Department1", d1.getName());
+        assertEquals(new Integer(12), d1.getId());
+        Department d2 = (Department) reader.next();
+        assertEquals(new Integer(13), d2.getId());
+        Company c1 = (Company) reader.next();
+        assertEquals("Company1", c1.getName());
+        assertEquals(new Integer(10), c1.getId());
+        assertSame(a1, c1.getFieldProxy("address"));
+        assertEquals(2, c1.getDepartments().size());
+        assertTrue(c1.getDepartments().contains(d1));
+        assertNull(reader.next());
+        assertEquals(14, reader.getNextId());
+    }
+
+    public void testBackwardReferences() throws Exception {
+        String xml = "<items>"
+            + "<item id=\"0_1\" class=\"Address\" implements=\"\">"
+            + "<attribute name=\"address\" value=\"Company Street\"/></item>"
+            + "<item id=\"0_2\" class=\"\" implements=\"Company\">"
+            + "<attribute name=\"name\" value=\"CompanyA\"/>"
+            + "<reference name=\"address\" ref_id=\"0_1\"/>"
+            + "<reference name=\"CEO\" ref_id=\"0_3\"/></item>"
+            + "</items>";
+        FullObjectReader reader = new FullObjectReader(new ItemXmlReader(new StringReader(xml)),
+                model, null, 1, false);
+
+        Address a1 = (Address) reader.next();
+        assertEquals(new Integer(1), a1.getId());
+        // The address has already been returned, so the company refers to it by id only
+        Company c1 = (Company) reader.next();
+        Object address = c1.getFieldProxy("address");
+        assertTrue(address instanceof ProxyReference);
+        assertEquals(new Integer(1), ((ProxyReference) address).getId());
+        // The CEO is never read, so the company is released at the end of the file
+        assertNull(c1.getFieldProxy("CEO"));
+        assertNull(reader.next());
+    }
+}
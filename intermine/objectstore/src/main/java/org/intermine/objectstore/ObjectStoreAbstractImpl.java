@@ -32,8 +32,9 @@ import org.intermine.objectstore.query.QueryCreator;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SingletonResults;
-import org.intermine.util.CacheMap;
+import org.intermine.util.ObjectCache;
 import org.intermine.util.PropertiesUtil;
+import org.intermine.util.SoftReferenceObjectCache;
 
 /**
  * Abstract implementation of the ObjectStore interface. Used to provide uniformity
@@ -54,7 +55,7 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
     protected long maxTime = Long.MAX_VALUE;
     // Optimiser will use a default query parse time if none is provided from properties
     protected Long maxQueryParseTime = null;
-    protected CacheMap<Integer, InterMineObject> cache;
+    protected ObjectCache<Integer, InterMineObject> cache;
 
     protected int getObjectOps = 0;
     protected int getObjectHits = 0;
@@ -97,8 +98,38 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
 
         LOG.info("Creating new " + getClass().getName() + " with sequence = " + sequenceNumber
                 + ", model = \"" + model.getName() + "\"");
-        cache = new CacheMap<Integer, InterMineObject>(getClass().getName() + " with sequence = "
-                + sequenceNumber + ", model = \"" + model.getName() + "\" getObjectById cache");
+        cache = new SoftReferenceObjectCache<Integer, InterMineObject>(getObjectCacheName());
+    }
+
+    /**
+     * Returns the name to use for the getObjectById cache of this objectstore.
+     *
+     * @return a String
+     */
+    protected String getObjectCacheName() {
+        return getClass().getName() + " with sequence = " + sequenceNumber + ", model = \""
+            + model.getName() + "\" getObjectById cache";
+    }
+
+    /**
+     * Replaces the getObjectById cache of this objectstore. The contents of the old cache are
+     * discarded.
+     *
+     * @param cache the new ObjectCache
+     */
+    public void setObjectCache(ObjectCache<Integer, InterMineObject> cache) {
+        LOG.info("Replacing " + this.cache.getName() + " with " + cache);
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the getObjectById cache of this objectstore, which can be used to read hit, miss and
+     * eviction statistics.
+     *
+     * @return an ObjectCache
+     */
+    public ObjectCache<Integer, InterMineObject> getObjectCache() {
+        return cache;
     }
 
     /**
@@ -188,33 +219,34 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
         getObjectOps++;
         if (getObjectOps % 10000 == 0) {
             LOG.info("getObjectById called " + getObjectOps + " times. Cache hits: "
-                    + getObjectHits + ". Prefetches: " + getObjectPrefetches);
+                    + getObjectHits + ". Prefetches: " + getObjectPrefetches + ". Cache: " + cache);
         }
-        boolean contains = true;
-        InterMineObject cached = null;
-        synchronized (cache) {
-            cached = cache.get(id);
-            if (cached == null) {
-                contains = cache.containsKey(id);
-            }
-        }
-        if (contains) {
+        // The cache makes callers racing to load the same object share one load and instance
+        IdLoader loader = new IdLoader(clazz);
+        InterMineObject retval = cache.get(id, loader);
+        if (!loader.loaded) {
             getObjectHits++;
-            return cached;
         }
-        InterMineObject fromDb = internalGetObjectById(id, clazz);
-        synchronized (cache) {
-            cached = cache.get(id);
-            if (cached == null) {
-                contains = cache.containsKey(id);
-            }
-            if (contains) {
-                fromDb = cached;
-            } else {
-                cacheObjectById(id, fromDb);
-            }
+        return retval;
+    }
+
+    /**
+     * Loads objects into the getObjectById cache, remembering whether it was called.
+     */
+    private class IdLoader implements ObjectCache.Loader<Integer, InterMineObject,
+            ObjectStoreException>
+    {
+        private final Class<? extends InterMineObject> clazz;
+        private boolean loaded = false;
+
+        IdLoader(Class<? extends InterMineObject> clazz) {
+            this.clazz = clazz;
+        }
+
+        public InterMineObject load(Integer id) throws ObjectStoreException {
+            loaded = true;
+            return internalGetObjectById(id, clazz);
         }
-        return fromDb;
     }
 
     /**
@@ -295,18 +327,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void invalidateObjectById(Integer id) {
-        synchronized (cache) {
-            cache.remove(id);
-        }
+        cache.remove(id);
     }
 
     /**
      * {@inheritDoc}
      */
     public Object cacheObjectById(Integer id, InterMineObject obj) {
-        synchronized (cache) {
-            cache.put(id, obj);
-        }
+        cache.put(id, obj);
         return obj;
     }
 
@@ -314,18 +342,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
      * {@inheritDoc}
      */
     public void flushObjectById() {
-        synchronized (cache) {
-            cache.clear();
-        }
+        cache.clear();
     }
 
     /**
      * {@inheritDoc}
      */
     public InterMineObject pilferObjectById(Integer id) {
-        synchronized (cache) {
-            return cache.get(id);
-        }
+        return cache.get(id);
     }
 
     /**
@@ -0,0 +1,280 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Date;
+import java.util.Map;
+
+import org.intermine.metadata.Model;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.Util;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.StringConstructor;
+import org.intermine.objectstore.intermine.NotXmlDecoder.ClassPlan;
+import org.intermine.objectstore.intermine.NotXmlDecoder.FieldPlan;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.objectstore.query.ClobAccess;
+
+/**
+ * A compact alternative to NotXml for the OBJECT field of database tables.
+ * <p>
+ * The OBJECT column is text, so this format is made of characters rather than bytes, but it is
+ * laid out like a binary format. It starts with a marker character that can never start NotXml,
+ * then a format version, then the space-separated class names terminated by a separator, then a
+ * fingerprint of the class's field dictionary (the attributes and references of the class from
+ * the Model, in name order). Each field that has a value is then written as its ordinal in the
+ * field dictionary, stored as the gap since the previous field's ordinal, followed by its value.
+ * Ordinals, whole numbers, dates and reference ids are written as varints of five bits per
+ * character (zigzag encoded if they may be negative), booleans as a single character, and
+ * everything else as a varint length followed by the text of the value, which needs no
+ * escaping. All characters used for the structure are below 0x80, so each is a single byte in
+ * UTF-8.
+ * <p>
+ * Field ordinals only mean something for the Model they were written with. If the field
+ * dictionary of a class has changed since an object was written, the fingerprint does not match
+ * and decoding fails rather than putting values in the wrong fields. A database must therefore
+ * be rebuilt, or written as NotXml, when its Model changes.
+ * <p>
+ * NotXmlParser recognises both formats, so a database may hold a mixture of the two.
+ */
+public final class CompactObjectFormat
+{
+    private CompactObjectFormat() {
+    }
+
+    /** The first character of an object in this format. */
+    public static final char MARKER = '\u0001';
+    /** The version of the format written by this class. */
+    public static final char VERSION = '2';
+
+    private static final char CLASS_END = '\u0002';
+    private static final int CONTINUATION_BASE = 0x40;
+    private static final int FINAL_BASE = 0x60;
+    private static final int GROUP_BITS = 5;
+    private static final int GROUP_MASK = (1 << GROUP_BITS) - 1;
+    private static final int LARGE_STRING = 4096;
+
+    /**
+     * Returns whether the given OBJECT field value is in this format rather than NotXml.
+     *
+     * @param s the value of the OBJECT field
+     * @return true if it is in this format
+     */
+    public static boolean isCompact(String s) {
+        return (s.length() > 0) && (s.charAt(0) == MARKER);
+    }
+
+    /**
+     * Render the given object in this format.
+     *
+     * @param obj the object to render
+     * @param model the Model, from which the field dictionary is taken
+     * @return a StringConstructor
+     */
+    public static StringConstructor render(InterMineObject obj, Model model) {
+        try {
+            StringConstructor retval = new StringConstructor();
+            StringBuilder sb = new StringBuilder();
+            sb.append(MARKER).append(VERSION);
+            boolean needSpace = false;
+            for (Class<?> clazz : Util.decomposeClass(obj.getClass())) {
+                if (needSpace) {
+                    sb.append(' ');
+                }
+                needSpace = true;
+                sb.append(clazz.getName());
+            }
+            sb.append(CLASS_END);
+            ClassPlan plan = NotXmlDecoder.getPlan(obj.getClass(), model);
+            writeUnsignedVarint(sb, plan.fingerprint);
+            int previousOrdinal = -1;
+            for (FieldPlan field : plan.fields) {
+                Object value = TypeUtil.getFieldProxy(obj, field.name);
+                if (value == null) {
+                    continue;
+                }
+                writeUnsignedVarint(sb, field.ordinal - previousOrdinal - 1);
+                previousOrdinal = field.ordinal;
+                if (field.reference) {
+                    writeVarint(sb, ((InterMineObject) value).getId().intValue());
+                } else if (value instanceof Date) {
+                    writeVarint(sb, ((Date) value).getTime());
+                } else if ((field.kind == FieldPlan.INTEGER) || (field.kind == FieldPlan.LONG)
+                        || (field.kind == FieldPlan.SHORT)) {
+                    writeVarint(sb, ((Number) value).longValue());
+                } else if (field.kind == FieldPlan.BOOLEAN) {
+                    sb.append(((Boolean) value).booleanValue() ? 'T' : 'F');
+                } else {
+                    String string = value instanceof ClobAccess
+                        ? ((ClobAccess) value).getDbDescription() : value.toString();
+                    writeVarint(sb, string.length());
+                    if (string.length() >= LARGE_STRING) {
+                        // Avoid copying large values - StringConstructor can hold them as they are
+                        retval.append(sb.toString());
+                        retval.append(string);
+                        sb.setLength(0);
+                    } else {
+                        sb.append(string);
+                    }
+                }
+            }
+            if (sb.length() > 0) {
+                retval.append(sb.toString());
+            }
+            return retval;
+        } catch (IllegalAccessException e) {
+            IllegalArgumentException e2 = new IllegalArgumentException();
+            e2.initCause(e);
+            throw e2;
+        }
+    }
+
+    /**
+     * Returns the space-separated class names at the start of an object in this format.
+     *
+     * @param s the object in this format
+     * @return a String
+     */
+    public static String getClassNames(String s) {
+        if ((s.length() < 2) || (s.charAt(1) != VERSION)) {
+            throw new IllegalArgumentException("Unsupported compact object format version in: "
+                    + s);
+        }
+        int end = s.indexOf(CLASS_END, 2);
+        if (end == -1) {
+            throw new IllegalArgumentException("Missing end of class names in: " + s);
+        }
+        return s.substring(2, end);
+    }
+
+    /**
+     * Populates the fields of an object from a String in this format. The object must be a newly
+     * created object of the class named at the start of the String.
+     *
+     * @param s the object in this format
+     * @param obj the object to populate
+     * @param valueMap the field map of the object if it is a dynamic object, or null to set
+     * fields through setFieldValue
+     * @param os the ObjectStore from which to create lazy objects
+     */
+    public static void decode(String s, InterMineObject obj, Map<String, Object> valueMap,
+            ObjectStoreInterMineImpl os) {
+        ClassPlan plan = NotXmlDecoder.getPlan(obj.getClass(), os.getModel());
+        boolean fetchFromInterMineObject = (valueMap != null)
+            && os.getSchema().isFetchFromInterMineObject();
+        Reader reader = new Reader(s, s.indexOf(CLASS_END, 2) + 1);
+        if (reader.readUnsignedVarint() != plan.fingerprint) {
+            throw new IllegalArgumentException("The fields of " + obj.getClass() + " in the Model"
+                    + " have changed since this object was written: " + s);
+        }
+        int length = s.length();
+        int ordinal = -1;
+        while (reader.pos < length) {
+            ordinal += (int) reader.readUnsignedVarint() + 1;
+            if ((ordinal < 0) || (ordinal >= plan.fields.length)) {
+                throw new IllegalArgumentException("Unknown field ordinal " + ordinal + " for "
+                        + obj.getClass() + " in: " + s);
+            }
+            FieldPlan field = plan.fields[ordinal];
+            Object value;
+            if (field.reference) {
+                Integer id = Integer.valueOf((int) reader.readVarint());
+                value = new ProxyReference(os, id, fetchFromInterMineObject
+                        ? InterMineObject.class : field.referencedType);
+            } else {
+                switch (field.kind) {
+                    case FieldPlan.INTEGER:
+                        value = Integer.valueOf((int) reader.readVarint());
+                        break;
+                    case FieldPlan.LONG:
+                        value = Long.valueOf(reader.readVarint());
+                        break;
+                    case FieldPlan.SHORT:
+                        value = Short.valueOf((short) reader.readVarint());
+                        break;
+                    case FieldPlan.DATE:
+                        value = new Date(reader.readVarint());
+                        break;
+                    case FieldPlan.BOOLEAN:
+                        value = Boolean.valueOf(s.charAt(reader.pos++) == 'T');
+                        break;
+                    case FieldPlan.STRING:
+                        int stringLength = (int) reader.readVarint();
+                        value = s.substring(reader.pos, reader.pos + stringLength);
+                        reader.pos += stringLength;
+                        break;
+                    default:
+                        int valueLength = (int) reader.readVarint();
+                        value = field.convert(s, reader.pos, reader.pos + valueLength, os);
+                        reader.pos += valueLength;
+                        break;
+                }
+            }
+            NotXmlDecoder.setValue(obj, valueMap, field.name, value);
+        }
+        NotXmlDecoder.setCollections(plan, obj, valueMap, os);
+    }
+
+    /**
+     * Appends a zigzag-encoded varint to a StringBuilder.
+     *
+     * @param sb the StringBuilder
+     * @param value the number to write
+     */
+    static void writeVarint(StringBuilder sb, long value) {
+        writeUnsignedVarint(sb, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Appends a varint to a StringBuilder, without zigzag encoding.
+     *
+     * @param sb the StringBuilder
+     * @param value the number to write, treated as unsigned
+     */
+    static void writeUnsignedVarint(StringBuilder sb, long value) {
+        while ((value & ~GROUP_MASK) != 0) {
+            sb.append((char) (CONTINUATION_BASE + (value & GROUP_MASK)));
+            value >>>= GROUP_BITS;
+        }
+        sb.append((char) (FINAL_BASE + value));
+    }
+
+    /**
+     * A position in a String being decoded.
+     */
+    static final class Reader
+    {
+        private final String s;
+        int pos;
+
+        Reader(String s, int pos) {
+            this.s = s;
+            this.pos = pos;
+        }
+
+        long readVarint() {
+            long zigzag = readUnsignedVarint();
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        long readUnsignedVarint() {
+            long value = 0;
+            int shift = 0;
+            char c;
+            while ((c = s.charAt(pos++)) < FINAL_BASE) {
+                value |= ((long) (c - CONTINUATION_BASE)) << shift;
+                shift += GROUP_BITS;
+            }
+            value |= ((long) (c - FINAL_BASE)) << shift;
+            return value;
+        }
+    }
+}
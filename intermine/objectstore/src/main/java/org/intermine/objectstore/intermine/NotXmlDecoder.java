@@ -0,0 +1,406 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import static org.intermine.objectstore.intermine.NotXmlParser.DELIM;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.proxy.ProxyCollection;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.objectstore.query.ClobAccess;
+
+/**
+ * Decodes the fields of a NotXml String into an object in a single pass over the characters.
+ * <p>
+ * Unlike splitting the NotXml on the delimiter, this does not create a String for every field
+ * name and value. Field names are matched in place against a per-class plan, which knows the type
+ * of each field, and numeric values and reference ids are parsed directly from the NotXml. Only
+ * values that really are objects (Strings, BigDecimals and so on) are copied out.
+ */
+public final class NotXmlDecoder
+{
+    private NotXmlDecoder() {
+    }
+
+    private static final int DELIM_LENGTH = DELIM.length();
+    private static final char ENCODED_DELIM_CHAR = NotXmlParser.ENCODED_DELIM.charAt(0);
+
+    private static Map<Class<?>, ClassPlan> plans = new ConcurrentHashMap<Class<?>, ClassPlan>();
+
+    /**
+     * Returns the index of the start of the fields in the given NotXml String, that is the
+     * position after the delimiter that follows the class names, or the length of the String if
+     * there are no fields.
+     *
+     * @param xml the NotXml String
+     * @return an index into xml
+     */
+    public static int getFieldsStart(String xml) {
+        int end = xml.indexOf(DELIM, DELIM_LENGTH);
+        return end == -1 ? xml.length() : end + DELIM_LENGTH;
+    }
+
+    /**
+     * Returns the space-separated class names at the start of the given NotXml String.
+     *
+     * @param xml the NotXml String
+     * @return a String
+     */
+    public static String getClassNames(String xml) {
+        int end = xml.indexOf(DELIM, DELIM_LENGTH);
+        return xml.substring(DELIM_LENGTH, end == -1 ? xml.length() : end);
+    }
+
+    /**
+     * Populates the fields of an object from a NotXml String. The object must be a newly created
+     * object of the class named at the start of the NotXml.
+     *
+     * @param xml the NotXml String
+     * @param start the index of the first field, as returned by getFieldsStart
+     * @param obj the object to populate
+     * @param valueMap the field map of the object if it is a dynamic object, or null to set
+     * fields through setFieldValue
+     * @param os the ObjectStore from which to create lazy objects
+     */
+    public static void decode(String xml, int start, InterMineObject obj,
+            Map<String, Object> valueMap, ObjectStoreInterMineImpl os) {
+        ClassPlan plan = getPlan(obj.getClass(), os.getModel());
+        boolean fetchFromInterMineObject = (valueMap != null)
+            && os.getSchema().isFetchFromInterMineObject();
+        int length = xml.length();
+        int pos = start;
+        while (pos < length) {
+            int nameEnd = xml.indexOf(DELIM, pos);
+            if (nameEnd == -1) {
+                nameEnd = length;
+            }
+            FieldPlan field = plan.lookup(xml, pos, nameEnd);
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown field "
+                        + xml.substring(pos, nameEnd) + " for object from XML: " + xml);
+            }
+            int valueStart = Math.min(nameEnd + DELIM_LENGTH, length);
+            int valueEnd = xml.indexOf(DELIM, valueStart);
+            if (valueEnd == -1) {
+                valueEnd = length;
+            }
+            Object value;
+            if (field.reference) {
+                Integer id = Integer.valueOf(parseInt(xml, valueStart, valueEnd));
+                value = new ProxyReference(os, id, fetchFromInterMineObject
+                        ? InterMineObject.class : field.referencedType);
+            } else if (field.kind == FieldPlan.STRING) {
+                StringBuilder string = null;
+                int firstEnd = valueEnd;
+                while ((valueEnd + DELIM_LENGTH < length)
+                        && (xml.charAt(valueEnd + DELIM_LENGTH) == ENCODED_DELIM_CHAR)) {
+                    if (string == null) {
+                        string = new StringBuilder(xml.length() - valueStart);
+                        string.append(xml, valueStart, firstEnd);
+                    }
+                    int partStart = valueEnd + DELIM_LENGTH + 1;
+                    valueEnd = xml.indexOf(DELIM, partStart);
+                    if (valueEnd == -1) {
+                        valueEnd = length;
+                    }
+                    string.append(DELIM).append(xml, partStart, valueEnd);
+                }
+                value = string == null ? xml.substring(valueStart, firstEnd) : string.toString();
+            } else {
+                value = field.convert(xml, valueStart, valueEnd, os);
+            }
+            setValue(obj, valueMap, field.name, value);
+            pos = valueEnd + DELIM_LENGTH;
+        }
+        setCollections(plan, obj, valueMap, os);
+    }
+
+    /**
+     * Sets a field of an object being decoded.
+     *
+     * @param obj the object
+     * @param valueMap the field map of the object if it is a dynamic object, or null
+     * @param fieldName the name of the field
+     * @param value the value
+     */
+    static void setValue(InterMineObject obj, Map<String, Object> valueMap, String fieldName,
+            Object value) {
+        if (valueMap == null) {
+            obj.setFieldValue(fieldName, value);
+        } else {
+            valueMap.put(fieldName, value);
+        }
+    }
+
+    /**
+     * Sets all the collections of an object being decoded to lazy collections.
+     *
+     * @param plan the ClassPlan of the object
+     * @param obj the object
+     * @param valueMap the field map of the object if it is a dynamic object, or null
+     * @param os the ObjectStore from which to create lazy objects
+     */
+    static void setCollections(ClassPlan plan, InterMineObject obj, Map<String, Object> valueMap,
+            ObjectStoreInterMineImpl os) {
+        for (int i = 0; i < plan.collectionNames.length; i++) {
+            Collection<Object> lazyColl = new ProxyCollection<Object>(os, obj,
+                    plan.collectionNames[i], plan.collectionTypes[i]);
+            setValue(obj, valueMap, plan.collectionNames[i], lazyColl);
+        }
+    }
+
+    /**
+     * Returns the decoding plan for the given class, creating it if necessary.
+     *
+     * @param clazz the class of the object being decoded
+     * @param model the Model
+     * @return a ClassPlan
+     */
+    static ClassPlan getPlan(Class<?> clazz, Model model) {
+        ClassPlan plan = plans.get(clazz);
+        if (plan == null) {
+            plan = new ClassPlan(clazz, model);
+            plans.put(clazz, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Parses a decimal number from a region of a String, without creating a substring.
+     *
+     * @param s the String
+     * @param start the start of the number
+     * @param end the end of the number
+     * @return the number
+     */
+    static long parseLong(String s, int start, int end) {
+        boolean negative = false;
+        int pos = start;
+        if ((pos < end) && (s.charAt(pos) == '-')) {
+            negative = true;
+            pos++;
+        }
+        if ((pos == end) || (end - pos > 18)) {
+            return Long.parseLong(s.substring(start, end).replace(",", ""));
+        }
+        long retval = 0;
+        while (pos < end) {
+            int digit = s.charAt(pos) - '0';
+            if ((digit < 0) || (digit > 9)) {
+                return Long.parseLong(s.substring(start, end).replace(",", ""));
+            }
+            retval = retval * 10 + digit;
+            pos++;
+        }
+        return negative ? -retval : retval;
+    }
+
+    /**
+     * Parses a decimal int from a region of a String, without creating a substring.
+     *
+     * @param s the String
+     * @param start the start of the number
+     * @param end the end of the number
+     * @return the number
+     */
+    static int parseInt(String s, int start, int end) {
+        long retval = parseLong(s, start, end);
+        if ((retval < Integer.MIN_VALUE) || (retval > Integer.MAX_VALUE)) {
+            return Integer.parseInt(s.substring(start, end));
+        }
+        return (int) retval;
+    }
+
+    /**
+     * The decoding plan for one class, holding a hash table of its fields keyed on the NotXml
+     * field token (the field name prefixed by "a" or "r"). The attributes and references are also
+     * numbered in field name order, for formats that refer to fields by ordinal.
+     */
+    static final class ClassPlan
+    {
+        final FieldPlan[] fields;
+        final String[] collectionNames;
+        final Class<?>[] collectionTypes;
+        // A hash of the field dictionary, which changes if the Model changes the fields
+        final int fingerprint;
+        private final FieldPlan[] table;
+        private final int mask;
+
+        ClassPlan(Class<?> clazz, Model model) {
+            Map<String, FieldDescriptor> descriptors = model.getFieldDescriptorsForClass(clazz);
+            Map<String, TypeUtil.FieldInfo> fieldInfos = TypeUtil.getFieldInfos(clazz);
+            List<FieldPlan> fieldPlans = new ArrayList<FieldPlan>();
+            List<String> names = new ArrayList<String>();
+            List<Class<?>> types = new ArrayList<Class<?>>();
+            for (TypeUtil.FieldInfo info : fieldInfos.values()) {
+                FieldDescriptor fd = descriptors.get(info.getName());
+                if (fd instanceof CollectionDescriptor) {
+                    names.add(fd.getName().intern());
+                    types.add(((CollectionDescriptor) fd).getReferencedClassDescriptor().getType());
+                } else if (fd instanceof ReferenceDescriptor) {
+                    fieldPlans.add(FieldPlan.forReference(fd.getName(), ((ReferenceDescriptor) fd)
+                                .getReferencedClassDescriptor().getType()));
+                } else if ((fd == null) || (fd instanceof AttributeDescriptor)) {
+                    fieldPlans.add(FieldPlan.forAttribute(info.getName(), info.getType()));
+                }
+            }
+            int size = 16;
+            while (size < fieldPlans.size() * 2) {
+                size <<= 1;
+            }
+            table = new FieldPlan[size];
+            mask = size - 1;
+            for (FieldPlan field : fieldPlans) {
+                int index = field.token.hashCode() & mask;
+                while (table[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = field;
+            }
+            fields = fieldPlans.toArray(new FieldPlan[fieldPlans.size()]);
+            int hash = 0;
+            for (int i = 0; i < fields.length; i++) {
+                fields[i].ordinal = i;
+                hash = 31 * hash + fields[i].token.hashCode();
+                hash = 31 * hash + fields[i].type.getName().hashCode();
+            }
+            fingerprint = hash & 0x3FFFFFFF;
+            collectionNames = names.toArray(new String[names.size()]);
+            collectionTypes = types.toArray(new Class<?>[types.size()]);
+        }
+
+        FieldPlan lookup(String xml, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + xml.charAt(i);
+            }
+            int index = hash & mask;
+            FieldPlan field;
+            while ((field = table[index]) != null) {
+                if ((field.token.length() == end - start)
+                        && xml.regionMatches(start, field.token, 0, end - start)) {
+                    return field;
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The decoding plan for one field of a class.
+     */
+    static final class FieldPlan
+    {
+        static final int STRING = 0;
+        static final int INTEGER = 1;
+        static final int LONG = 2;
+        static final int SHORT = 3;
+        static final int BOOLEAN = 4;
+        static final int DOUBLE = 5;
+        static final int FLOAT = 6;
+        static final int DATE = 7;
+        static final int BIG_DECIMAL = 8;
+        static final int CLOB = 9;
+        static final int UUID_TYPE = 10;
+        static final int OTHER = 11;
+
+        final String name;
+        final String token;
+        final boolean reference;
+        final Class<? extends InterMineObject> referencedType;
+        final Class<?> type;
+        final int kind;
+        int ordinal;
+
+        @SuppressWarnings("unchecked")
+        private FieldPlan(String name, Class<?> type, boolean reference) {
+            this.name = name.intern();
+            this.token = (reference ? "r" : "a") + name;
+            this.reference = reference;
+            this.referencedType = reference ? (Class<? extends InterMineObject>) type : null;
+            this.type = type;
+            this.kind = reference ? OTHER : kindOf(type);
+        }
+
+        static FieldPlan forAttribute(String name, Class<?> type) {
+            return new FieldPlan(name, type, false);
+        }
+
+        static FieldPlan forReference(String name, Class<?> referencedType) {
+            return new FieldPlan(name, referencedType, true);
+        }
+
+        private static int kindOf(Class<?> type) {
+            if (String.class.equals(type)) {
+                return STRING;
+            } else if (Integer.class.equals(type) || Integer.TYPE.equals(type)) {
+                return INTEGER;
+            } else if (Long.class.equals(type) || Long.TYPE.equals(type)) {
+                return LONG;
+            } else if (Short.class.equals(type) || Short.TYPE.equals(type)) {
+                return SHORT;
+            } else if (Boolean.class.equals(type) || Boolean.TYPE.equals(type)) {
+                return BOOLEAN;
+            } else if (Double.class.equals(type) || Double.TYPE.equals(type)) {
+                return DOUBLE;
+            } else if (Float.class.equals(type) || Float.TYPE.equals(type)) {
+                return FLOAT;
+            } else if (Date.class.equals(type)) {
+                return DATE;
+            } else if (BigDecimal.class.equals(type)) {
+                return BIG_DECIMAL;
+            } else if (ClobAccess.class.equals(type)) {
+                return CLOB;
+            } else if (UUID.class.equals(type)) {
+                return UUID_TYPE;
+            }
+            return OTHER;
+        }
+
+        Object convert(String xml, int start, int end, ObjectStoreInterMineImpl os) {
+            switch (kind) {
+                case INTEGER:
+                    return Integer.valueOf(parseInt(xml, start, end));
+                case LONG:
+                    return Long.valueOf(parseLong(xml, start, end));
+                case SHORT:
+                    return Short.valueOf(xml.substring(start, end));
+                case BOOLEAN:
+                    return Boolean.valueOf((end - start == 4)
+                            && xml.regionMatches(true, start, "true", 0, 4));
+                case DATE:
+                    return new Date(parseLong(xml, start, end));
+                case CLOB:
+                    return ClobAccess.decodeDbDescription(os, xml.substring(start, end));
+                case UUID_TYPE:
+                    return UUID.fromString(xml.substring(start, end));
+                default:
+                    return TypeUtil.stringToObject(type, xml.substring(start, end));
+            }
+        }
+    }
+}
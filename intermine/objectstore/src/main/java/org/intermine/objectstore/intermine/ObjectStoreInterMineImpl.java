@@ -13,6 +13,7 @@ package org.intermine.objectstore.intermine;
 import static org.intermine.objectstore.query.ResultsBatches.DEFAULT_BATCH_SIZE;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
@@ -59,7 +60,10 @@ import org.intermine.objectstore.query.ConstraintTraverseAction;
 import org.intermine.objectstore.query.ConstraintWithBag;
 import org.intermine.objectstore.query.FromElement;
 import org.intermine.objectstore.query.MultipleInBagConstraint;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.ObjectStoreBagCombination;
 import org.intermine.objectstore.query.OrderDescending;
+import org.intermine.objectstore.query.PrefetchManager;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryClassBag;
@@ -79,6 +83,7 @@ import org.intermine.sql.Database;
 import org.intermine.sql.DatabaseConnectionException;
 import org.intermine.sql.DatabaseFactory;
 import org.intermine.sql.DatabaseUtil;
+import org.intermine.sql.PreparedSql;
 import org.intermine.sql.precompute.BestQuery;
 import org.intermine.sql.precompute.BestQueryExplainer;
 import org.intermine.sql.precompute.OptimiserCache;
@@ -90,9 +95,12 @@ import org.intermine.sql.query.ExplainResult;
 import org.intermine.sql.query.PostgresExplainResult;
 import org.intermine.sql.writebatch.Batch;
 import org.intermine.sql.writebatch.BatchWriterPostgresCopyImpl;
+import org.intermine.util.BoundedObjectCache;
 import org.intermine.util.CacheMap;
+import org.intermine.util.IntBitmap;
 import org.intermine.util.ShutdownHook;
 import org.intermine.util.Shutdownable;
+import org.intermine.util.SoftReferenceObjectCache;
 
 /**
  * An SQL-backed implementation of the ObjectStore interface. The schema is oriented towards data
@@ -133,6 +141,12 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     protected static final int SEQUENCE_MULTIPLE = 1000000;
     protected boolean logExplains = false;
     protected boolean disableResultsCache = false;
+    protected int objectCacheSize = -1;
+    protected boolean compactObjects = false;
+    protected boolean keysetPagination = false;
+    protected boolean preparedStatements = false;
+    protected QueryMetrics queryMetrics = null;
+    protected ResultsPageCache resultsPageCache = null;
 
     // don't use a table to represent bags if the bag is smaller than this value
     protected int minBagTableSize = -1;
@@ -152,6 +166,8 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         = new CacheMap<String, SingletonResults>();
     protected Map<String, Map<Integer, ResultsBatches>> batchesCache
         = new CacheMap<String, Map<Integer, ResultsBatches>>();
+    protected Map<ObjectStoreBag, BagBitmap> bagBitmapCache
+        = new CacheMap<ObjectStoreBag, BagBitmap>();
 
     private static final String[] LOG_TABLE_COLUMNS = new String[] {"timestamp", "optimise",
         "estimated", "execute", "permitted", "convert", "iql", "sql"};
@@ -347,6 +363,18 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         String logExplainsString = props.getProperty("logExplains");
         String logBeforeExecuteString = props.getProperty("logBeforeExecute");
         String disableResultsCacheString = props.getProperty("disableResultsCache");
+        String objectCacheSizeString = props.getProperty("objectCacheSize");
+        String compactObjectsString = props.getProperty("compactObjects");
+        String keysetPaginationString = props.getProperty("keysetPagination");
+        String preparedStatementsString = props.getProperty("preparedStatements");
+        String persistentOptimiserCacheString = props.getProperty("persistentOptimiserCache");
+        String prefetchThreadsString = props.getProperty("prefetchThreads");
+        String prefetchReadAheadString = props.getProperty("prefetchReadAhead");
+        String queryMetricsString = props.getProperty("queryMetrics");
+        String resultsPageCacheSizeString = props.getProperty("resultsPageCacheSize");
+        String resultsPageCacheOffHeapString = props.getProperty("resultsPageCacheOffHeap");
+        String resultsPageCacheDirString = props.getProperty("resultsPageCacheDir");
+        String resultsPageCacheDirSizeString = props.getProperty("resultsPageCacheDirSize");
 
         synchronized (instances) {
             ObjectStoreInterMineImpl os = instances.get(osAlias);
@@ -508,6 +536,78 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     os.setDisableResultsCache(true);
                 }
 
+                if ("true".equals(compactObjectsString)) {
+                    os.setCompactObjects(true);
+                }
+
+                if ("true".equals(keysetPaginationString)) {
+                    os.setKeysetPagination(true);
+                }
+
+                if ("true".equals(preparedStatementsString)) {
+                    os.setPreparedStatements(true);
+                }
+
+                if ("true".equals(persistentOptimiserCacheString)) {
+                    // Loads the optimiser's earlier work, so the first queries are not slow
+                    OptimiserCache.getPersistentInstance(database);
+                }
+
+                if (objectCacheSizeString != null) {
+                    try {
+                        os.setObjectCacheSize(Integer.parseInt(objectCacheSizeString));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Error setting objectCacheSize: " + e);
+                    }
+                }
+
+                // Prefetch threads each hold a database connection while they fetch a batch
+                PrefetchManager.limitThreadsToConnections(database.getMaxConnections());
+                if (prefetchThreadsString != null) {
+                    try {
+                        PrefetchManager.setMaxThreads(Integer.parseInt(prefetchThreadsString));
+                    } catch (IllegalArgumentException e) {
+                        LOG.warn("Error setting prefetchThreads: " + e);
+                    }
+                }
+                if (prefetchReadAheadString != null) {
+                    try {
+                        PrefetchManager.setReadAhead(Integer.parseInt(prefetchReadAheadString));
+                    } catch (IllegalArgumentException e) {
+                        LOG.warn("Error setting prefetchReadAhead: " + e);
+                    }
+                }
+
+                if ("true".equals(queryMetricsString)) {
+                    QueryMetrics metrics = new QueryMetrics();
+                    metrics.register(osAlias);
+                    os.setQueryMetrics(metrics);
+                }
+
+                if (resultsPageCacheSizeString != null) {
+                    try {
+                        long size = Long.parseLong(resultsPageCacheSizeString);
+                        File dir = null;
+                        long dirSize = 0;
+                        if (resultsPageCacheDirString != null) {
+                            dir = new File(resultsPageCacheDirString);
+                            dirSize = (resultsPageCacheDirSizeString == null ? size
+                                    : Long.parseLong(resultsPageCacheDirSizeString));
+                        }
+                        // Pages are only kept between runs for the same release of the database
+                        String release = MetadataManager.retrieve(database,
+                                MetadataManager.SERIAL_NUMBER);
+                        ResultsPageCache cache = new ResultsPageCache(release, size,
+                                "true".equals(resultsPageCacheOffHeapString), dir, dirSize);
+                        cache.register(osAlias);
+                        os.setResultsPageCache(cache);
+                    } catch (IllegalArgumentException e) {
+                        LOG.warn("Error setting resultsPageCacheSize: " + e);
+                    } catch (SQLException e) {
+                        LOG.warn("Could not read serial number for results page cache: " + e);
+                    }
+                }
+
                 instances.put(osAlias, os);
             }
 
@@ -656,6 +756,139 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         return disableResultsCache;
     }
 
+    /**
+     * Sets the compactObjects configuration option. If true, writers created from this
+     * objectstore store the OBJECT field in the CompactObjectFormat instead of NotXml. Objects in
+     * either format can be read, but compact objects only with the Model they were written with.
+     *
+     * @param compactObjects a boolean
+     */
+    public void setCompactObjects(boolean compactObjects) {
+        this.compactObjects = compactObjects;
+    }
+
+    /**
+     * Gets the compactObjects configuration option.
+     *
+     * @return a boolean
+     */
+    public boolean getCompactObjects() {
+        return compactObjects;
+    }
+
+    /**
+     * Sets the keysetPagination configuration option. If true (default false), then after each full
+     * batch of results this objectstore remembers the ORDER BY values of the last row, so that the
+     * next batch can be fetched with a WHERE constraint instead of an OFFSET, where the order of
+     * the query is total.
+     *
+     * @param keysetPagination a boolean
+     */
+    public void setKeysetPagination(boolean keysetPagination) {
+        this.keysetPagination = keysetPagination;
+    }
+
+    /**
+     * Gets the keysetPagination configuration option.
+     *
+     * @return a boolean
+     */
+    public boolean getKeysetPagination() {
+        return keysetPagination;
+    }
+
+    /**
+     * Sets the preparedStatements configuration option. If true, then queries are run as
+     * prepared statements with their constant values bound as parameters, so that queries of the
+     * same shape, such as runs of one template with different values, share one plan on each
+     * connection instead of being parsed and planned each time - see PreparedSql. The values are
+     * taken out after the query has been optimised, so precomputed tables are still used.
+     *
+     * @param preparedStatements a boolean
+     */
+    public void setPreparedStatements(boolean preparedStatements) {
+        this.preparedStatements = preparedStatements;
+    }
+
+    /**
+     * Gets the preparedStatements configuration option.
+     *
+     * @return a boolean
+     */
+    public boolean getPreparedStatements() {
+        return preparedStatements;
+    }
+
+    /**
+     * Sets the objectCacheSize configuration option. A positive value replaces the default
+     * soft-reference getObjectById cache with a BoundedObjectCache holding at most that many
+     * objects. Writers created from this objectstore use the same setting.
+     *
+     * @param objectCacheSize the maximum number of objects to cache, or -1 for an unbounded cache
+     */
+    public void setObjectCacheSize(int objectCacheSize) {
+        this.objectCacheSize = objectCacheSize;
+        if (objectCacheSize > 0) {
+            setObjectCache(new BoundedObjectCache<Integer, InterMineObject>(getObjectCacheName(),
+                        objectCacheSize));
+        } else {
+            setObjectCache(new SoftReferenceObjectCache<Integer, InterMineObject>(
+                        getObjectCacheName()));
+        }
+    }
+
+    /**
+     * Gets the objectCacheSize configuration option.
+     *
+     * @return the maximum number of objects to cache, or -1 for an unbounded cache
+     */
+    public int getObjectCacheSize() {
+        return objectCacheSize;
+    }
+
+    /**
+     * Sets the QueryMetrics that records the cost of each query run through this objectstore, or
+     * null to record nothing (default null). Objectstores created by getInstance() record metrics
+     * if the queryMetrics property is true.
+     *
+     * @param queryMetrics a QueryMetrics object, or null
+     */
+    public void setQueryMetrics(QueryMetrics queryMetrics) {
+        this.queryMetrics = queryMetrics;
+    }
+
+    /**
+     * Gets the QueryMetrics that records the cost of each query run through this objectstore.
+     *
+     * @return a QueryMetrics object, or null if metrics are not being recorded
+     */
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    /**
+     * Sets the ResultsPageCache that holds pages of results of queries executed by this
+     * objectstore, or null to cache nothing. Objectstores created by getInstance() have one if
+     * the resultsPageCacheSize property is set to the number of bytes that it may hold, and it is
+     * held off the heap if resultsPageCacheOffHeap is true. If resultsPageCacheDir is set, pages
+     * evicted from memory are kept in that directory, up to resultsPageCacheDirSize bytes.
+     *
+     * @param resultsPageCache a ResultsPageCache, or null
+     */
+    public void setResultsPageCache(ResultsPageCache resultsPageCache) {
+        this.resultsPageCache = resultsPageCache;
+    }
+
+    /**
+     * Gets the ResultsPageCache that holds pages of results of queries executed by this
+     * objectstore.
+     *
+     * @return a ResultsPageCache, or null if results are not cached
+     */
+    public ResultsPageCache getResultsPageCache() {
+        return resultsPageCache;
+    }
+
     /**
      * Allows the log table to be flushed, guaranteeing that all log entries are committed to the
      * database.
@@ -740,6 +973,9 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     retval = null;
                 }
             }
+            if ((retval != null) && (queryMetrics != null)) {
+                queryMetrics.recordCacheHit(q);
+            }
             if (retval == null) {
                 String batchesKey = q.toString();
                 synchronized (batchesCache) {
@@ -756,6 +992,9 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                         // batch sizes, this way we avoid re-executing queries that have results
                         // already in cache.
                         retval = new Results(batch, optimise, explain, prefetch);
+                        if (queryMetrics != null) {
+                            queryMetrics.recordCacheHit(q);
+                        }
                     } else {
                         retval = super.execute(q, batchSize, optimise, explain, prefetch);
                         batches.put(new Integer(batchSize), retval.getResultsBatches());
@@ -796,6 +1035,9 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 }
             }
 
+            if ((retval != null) && (queryMetrics != null)) {
+                queryMetrics.recordCacheHit(q);
+            }
             if (retval == null) {
                 String batchesKey = q.toString();
                 synchronized (batchesCache) {
@@ -808,6 +1050,9 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     ResultsBatches batch = getResultsBatches(batches, batchSize);
                     if (batch != null) {
                         retval = new SingletonResults(batch, optimise, explain, prefetch);
+                        if (queryMetrics != null) {
+                            queryMetrics.recordCacheHit(q);
+                        }
                     } else {
                         retval = super.executeSingleton(q, batchSize, optimise, explain, prefetch);
                         batches.put(batchSize, retval.getResultsBatches());
@@ -951,6 +1196,38 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * Runs an SQL query, registered against the request ID of the current thread so that it can
+     * be cancelled. If the preparedStatements option is set, the query is run as a prepared
+     * statement with its constant values as parameters.
+     *
+     * @param c the Connection
+     * @param sql the SQL query
+     * @return a ResultSet
+     * @throws SQLException if the query fails
+     * @throws ObjectStoreException if the request is cancelled
+     */
+    protected ResultSet executeSql(Connection c, String sql) throws SQLException,
+        ObjectStoreException {
+        Statement s;
+        PreparedSql prepared = null;
+        if (preparedStatements) {
+            prepared = PreparedSql.parameterise(sql);
+            s = prepared.prepare(c);
+        } else {
+            s = c.createStatement();
+        }
+        registerStatement(s);
+        try {
+            if (prepared != null) {
+                return ((PreparedStatement) s).executeQuery();
+            }
+            return s.executeQuery(sql);
+        } finally {
+            deregisterStatement(s);
+        }
+    }
+
     /**
      * This method cancels any Statement running in a given request ID, and blacklists that ID.
      *
@@ -1008,10 +1285,30 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 return Collections.emptyList();
             }
         }
+        ResultsPageCache pageCache = resultsPageCache;
+        String pageKey = null;
+        long generation = 0;
+        if (pageCache != null) {
+            checkSequence(sequence, q, "Execute (START " + start + " LIMIT " + limit + ") ");
+            pageKey = ResultsPageCache.getKey(q, start, limit);
+            generation = pageCache.getGeneration();
+            List<ResultsRow<Object>> page = pageCache.get(pageKey, this);
+            if (page != null) {
+                if (queryMetrics != null) {
+                    queryMetrics.recordCacheHit(q);
+                }
+                return page;
+            }
+        }
         Connection c = null;
         try {
             c = getConnection();
-            return executeWithConnection(c, q, start, limit, optimise, explain, sequence);
+            List<ResultsRow<Object>> retval = executeWithConnection(c, q, start, limit, optimise,
+                    explain, sequence);
+            if (pageCache != null) {
+                pageCache.put(pageKey, retval, generation);
+            }
+            return retval;
         } catch (SQLException e) {
             throw new ObjectStoreException("Could not get connection to database", e);
         } finally {
@@ -1055,6 +1352,12 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 + ", SQL Optimise: " + statsOptTime + ", Estimate: "
                 + statsEstTime + ", Execute: " + statsExeTime + ", Results Convert: "
                 + statsConTime);
+        if (queryMetrics != null) {
+            queryMetrics.unregister();
+        }
+        if (resultsPageCache != null) {
+            resultsPageCache.unregister();
+        }
 
         if (logTableBatch != null) {
             try {
@@ -1215,14 +1518,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                         + "optimised sql: " + sql);
             }
             long preExecute = System.currentTimeMillis();
-            Statement s = c.createStatement();
-            registerStatement(s);
-            ResultSet sqlResults;
-            try {
-                sqlResults = s.executeQuery(sql);
-            } finally {
-                deregisterStatement(s);
-            }
+            ResultSet sqlResults = executeSql(c, sql);
             long postExecute = System.currentTimeMillis();
             ExtraQueryTime extra = new ExtraQueryTime();
             List<ResultsRow<Object>>  objResults = ResultsConverter.convert(sqlResults, q, this, c,
@@ -1274,6 +1570,10 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
             statsExeTime += exeTime;
             long conTime = postConvert - postExecute - extra.getQueryTime();
             statsConTime += conTime;
+            if (queryMetrics != null) {
+                queryMetrics.recordExecute(q, optTime, exeTime, conTime,
+                        postConvert - preBagTableTime, objResults.size());
+            }
             if (getVerboseQueryLog()) {
                 SQLLOGGER.info("(VERBOSE) iql: " + q.getIqlQuery().toStringTruncateParameters(20)
                         + "\n"
@@ -1296,8 +1596,14 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                     }
                 }
             }
+            boolean keysetRegistered = false;
+            if (keysetPagination && (limit != Integer.MAX_VALUE)
+                    && (objResults.size() == limit)) {
+                keysetRegistered = SqlGenerator.registerKeyset(q, start + limit, schema, db,
+                        objResults.get(limit - 1), bagConstraintTables);
+            }
             Object firstOrderByObject = q.getEffectiveOrderBy().iterator().next();
-            if ((firstOrderByObject instanceof QueryOrderable)
+            if ((!keysetRegistered) && (firstOrderByObject instanceof QueryOrderable)
                     && (!(firstOrderByObject instanceof QueryObjectReference))) {
                 QueryOrderable firstOrderBy = (QueryOrderable) firstOrderByObject;
                 if (firstOrderBy instanceof OrderDescending) {
@@ -1605,7 +1911,12 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         Connection c = null;
         try {
             c = getConnection();
-            return estimateWithConnection(c, q);
+            long start = System.currentTimeMillis();
+            ResultsInfo retval = estimateWithConnection(c, q);
+            if (queryMetrics != null) {
+                queryMetrics.recordEstimate(q, System.currentTimeMillis() - start);
+            }
+            return retval;
         } catch (SQLException e) {
             throw new ObjectStoreException("Could not get connection to database", e);
         } finally {
@@ -1656,7 +1967,12 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         Connection c = null;
         try {
             c = getConnection();
-            return countWithConnection(c, q, sequence);
+            long start = System.currentTimeMillis();
+            int retval = countWithConnection(c, q, sequence);
+            if (queryMetrics != null) {
+                queryMetrics.recordCount(q, System.currentTimeMillis() - start);
+            }
+            return retval;
         } catch (SQLException e) {
             throw new ObjectStoreException("Could not get connection to database", e);
         } finally {
@@ -1693,14 +2009,7 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
                 sql = "SELECT COUNT(*) FROM (" + sql + ") as fake_table";
             }
             //long time = (new Date()).getTime();
-            ResultSet sqlResults;
-            Statement s = c.createStatement();
-            registerStatement(s);
-            try {
-                sqlResults = s.executeQuery(sql);
-            } finally {
-                deregisterStatement(s);
-            }
+            ResultSet sqlResults = executeSql(c, sql);
             //long now = (new Date()).getTime();
             //if (now - time > 10) {
             //    LOG.debug(getModel().getName() + ": Executed SQL (time = "
@@ -1715,6 +2024,112 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * Returns the contents of an ObjectStoreBag as an IntBitmap. The contents are read from the
+     * database the first time, and the bitmap is kept until the bag is altered, so that counts,
+     * membership tests and combinations of bags can be done in memory. The bag is still held in
+     * the database, so queries can constrain on it as before.
+     *
+     * @param osb an ObjectStoreBag
+     * @return an IntBitmap of the ids in the bag, which is shared and must not be modified
+     * @throws ObjectStoreException if the bag cannot be read
+     */
+    public IntBitmap getBagBitmap(ObjectStoreBag osb) throws ObjectStoreException {
+        IntBitmap cachedBitmap = getCachedBagBitmap(osb);
+        if (cachedBitmap != null) {
+            return cachedBitmap;
+        }
+        // Taken before reading, so that a change made during the read invalidates the bitmap
+        Map<Object, Integer> sequence = getSequence(Collections.<Object>singleton(osb));
+        IntBitmap bitmap = new IntBitmap();
+        Connection c = null;
+        try {
+            c = getConnection();
+            Statement s = c.createStatement();
+            try {
+                ResultSet r = s.executeQuery("SELECT " + BAGVAL_COLUMN + " FROM "
+                        + INT_BAG_TABLE_NAME + " WHERE " + BAGID_COLUMN + " = " + osb.getBagId());
+                while (r.next()) {
+                    bitmap.add(r.getInt(1));
+                }
+            } finally {
+                s.close();
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not read contents of bag " + osb.getBagId(), e);
+        } finally {
+            releaseConnection(c);
+        }
+        synchronized (bagBitmapCache) {
+            bagBitmapCache.put(osb, new BagBitmap(bitmap, sequence));
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the contents of an ObjectStoreBag as an IntBitmap only if the bitmap is already
+     * held and the bag has not changed since, without reading the bag from the database.
+     *
+     * @param osb an ObjectStoreBag
+     * @return a shared IntBitmap of the ids in the bag, which must not be modified, or null
+     */
+    public IntBitmap getCachedBagBitmap(ObjectStoreBag osb) {
+        synchronized (bagBitmapCache) {
+            BagBitmap cached = bagBitmapCache.get(osb);
+            if (cached != null) {
+                try {
+                    checkSequence(cached.getSequence(), null, "Bag bitmap ");
+                    return cached.getBitmap();
+                } catch (DataChangedException e) {
+                    bagBitmapCache.remove(osb);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the contents of an ObjectStoreBagCombination as an IntBitmap, worked out in memory
+     * from the bitmaps of its bags rather than in the database.
+     *
+     * @param osbc an ObjectStoreBagCombination
+     * @return a new IntBitmap of the ids in the combination
+     * @throws ObjectStoreException if a bag cannot be read
+     */
+    public IntBitmap getBagBitmap(ObjectStoreBagCombination osbc) throws ObjectStoreException {
+        List<IntBitmap> bitmaps = new ArrayList<IntBitmap>();
+        for (QuerySelectable qs : osbc.getBags()) {
+            if (qs instanceof ObjectStoreBag) {
+                bitmaps.add(getBagBitmap((ObjectStoreBag) qs));
+            } else {
+                bitmaps.add(getBagBitmap((ObjectStoreBagCombination) qs));
+            }
+        }
+        if (bitmaps.isEmpty()) {
+            return new IntBitmap();
+        }
+        if (osbc.getOp() == ObjectStoreBagCombination.ALLBUTINTERSECT) {
+            IntBitmap union = bitmaps.get(0);
+            IntBitmap intersection = bitmaps.get(0);
+            for (IntBitmap bitmap : bitmaps.subList(1, bitmaps.size())) {
+                union = IntBitmap.or(union, bitmap);
+                intersection = IntBitmap.and(intersection, bitmap);
+            }
+            return IntBitmap.andNot(union, intersection);
+        }
+        IntBitmap retval = bitmaps.get(0).copy();
+        for (IntBitmap bitmap : bitmaps.subList(1, bitmaps.size())) {
+            if (osbc.getOp() == ObjectStoreBagCombination.UNION) {
+                retval = IntBitmap.or(retval, bitmap);
+            } else if (osbc.getOp() == ObjectStoreBagCombination.INTERSECT) {
+                retval = IntBitmap.and(retval, bitmap);
+            } else {
+                retval = IntBitmap.andNot(retval, bitmap);
+            }
+        }
+        return retval;
+    }
+
     /**
      * Internal method called by the ObjectStoreWriter, to notify the ObjectStore that some of the
      * data in the database has changed.
@@ -1724,6 +2139,9 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
     public void databaseAltered(Set<Object> tablesAltered) {
         if (tablesAltered.size() > 0) {
             changeSequence(tablesAltered);
+            if (resultsPageCache != null) {
+                resultsPageCache.clear();
+            }
             Set<String> tableNames = new HashSet<String>();
             for (Object o : tablesAltered) {
                 if (o instanceof String) {
@@ -2332,6 +2750,28 @@ public class ObjectStoreInterMineImpl extends ObjectStoreAbstractImpl implements
         }
     }
 
+    /**
+     * The contents of an ObjectStoreBag, with the state of the bag that they were read from.
+     */
+    protected static final class BagBitmap
+    {
+        private final IntBitmap bitmap;
+        private final Map<Object, Integer> sequence;
+
+        private BagBitmap(IntBitmap bitmap, Map<Object, Integer> sequence) {
+            this.bitmap = bitmap;
+            this.sequence = sequence;
+        }
+
+        private IntBitmap getBitmap() {
+            return bitmap;
+        }
+
+        private Map<Object, Integer> getSequence() {
+            return sequence;
+        }
+    }
+
     /**
      * Gets an ID number which is unique in the database.
      *
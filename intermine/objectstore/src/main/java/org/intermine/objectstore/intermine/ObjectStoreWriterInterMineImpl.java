@@ -19,6 +19,7 @@ import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -119,6 +120,12 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         schema = ((ObjectStoreInterMineImpl) os).getSchema();
         limitedContext = ((ObjectStoreInterMineImpl) os).limitedContext;
         description = "Writer(" + ((ObjectStoreInterMineImpl) os).description + ")";
+        compactObjects = ((ObjectStoreInterMineImpl) os).getCompactObjects();
+        keysetPagination = ((ObjectStoreInterMineImpl) os).getKeysetPagination();
+        queryMetrics = ((ObjectStoreInterMineImpl) os).getQueryMetrics();
+        if (((ObjectStoreInterMineImpl) os).getObjectCacheSize() > 0) {
+            setObjectCacheSize(((ObjectStoreInterMineImpl) os).getObjectCacheSize());
+        }
         if (os instanceof ObjectStoreWriter) {
             throw new ObjectStoreException("Cannot create an ObjectStoreWriterInterMineImpl from "
                     + "another ObjectStoreWriter. Call osw.getObjectStore() and construct from "
@@ -676,7 +683,10 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
                             value = objectClass;
                         } else if ("OBJECT".equals(tableInfo.colNames[colNo])) {
                             if (xml == null) {
-                                if (o instanceof InterMineObject) {
+                                if (compactObjects && (o instanceof InterMineObject)) {
+                                    xml = CompactObjectFormat.render((InterMineObject) o,
+                                            getModel());
+                                } else if (o instanceof InterMineObject) {
                                     xml = ((InterMineObject) o).getoBJECT();
                                 } else {
                                     xml = NotXmlRenderer.render(o);
@@ -1471,6 +1481,92 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         }
     }
 
+    /**
+     * Removes the objects with the given ids from every many-to-many collection, on either side,
+     * by deleting their rows from the indirection tables. delete() only removes the rows of the
+     * object itself, so this should be called before deleting objects that other objects may hold
+     * in their collections.
+     *
+     * @param ids the ids of the objects
+     * @throws ObjectStoreException if an error occurs
+     */
+    public void removeFromAllCollections(Collection<Integer> ids) throws ObjectStoreException {
+        Connection c = null;
+        try {
+            c = getConnection();
+            removeFromAllCollectionsWithConnection(c, ids);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not get connection to database", e);
+        } finally {
+            releaseConnection(c);
+        }
+    }
+
+    /**
+     * Performs removeFromAllCollections with given connection.
+     *
+     * @param c the Connection
+     * @param ids the ids of the objects
+     * @throws ObjectStoreException if an error occurs
+     */
+    protected void removeFromAllCollectionsWithConnection(Connection c,
+            Collection<Integer> ids) throws ObjectStoreException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        boolean wasInTransaction = isInTransactionWithConnection(c);
+        if (!wasInTransaction) {
+            beginTransactionWithConnection(c);
+        }
+
+        try {
+            List<String> idLists = new ArrayList<String>();
+            StringBuilder idList = new StringBuilder();
+            int count = 0;
+            for (Integer id : ids) {
+                idList.append(idList.length() == 0 ? "" : ", ").append(id);
+                count++;
+                if ((count % 1000 == 0) || (count == ids.size())) {
+                    idLists.add(idList.toString());
+                    idList = new StringBuilder();
+                }
+            }
+            // Both ends of a collection share an indirection table
+            Set<String> done = new HashSet<String>();
+            for (ClassDescriptor cld : model.getClassDescriptors()) {
+                for (CollectionDescriptor coll : cld.getCollectionDescriptors()) {
+                    String tableName = DatabaseUtil.getIndirectionTableName(coll);
+                    if ((coll.relationType() == FieldDescriptor.M_N_RELATION)
+                            && done.add(tableName)) {
+                        String inwardColumnName = DatabaseUtil.getInwardIndirectionColumnName(
+                                coll, schema.getVersion());
+                        String outwardColumnName = DatabaseUtil.getOutwardIndirectionColumnName(
+                                coll, schema.getVersion());
+                        batch.flush(c, Collections.singleton(tableName));
+                        Statement s = c.createStatement();
+                        for (String list : idLists) {
+                            s.execute("DELETE FROM " + tableName + " WHERE " + inwardColumnName
+                                    + " IN (" + list + ") OR " + outwardColumnName + " IN ("
+                                    + list + ")");
+                        }
+                        tablesAltered.add(tableName);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Error while deleting", e);
+        } finally {
+            if (!wasInTransaction) {
+                try {
+                    commitTransactionWithConnection(c);
+                } catch (ObjectStoreException e) {
+                    abortTransactionWithConnection(c);
+                    throw e;
+                }
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1719,7 +1815,12 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             c = getConnection();
             Set<String> readTables = SqlGenerator.findTableNames(q, getSchema());
             batch.flush(c, readTables);
-            return countWithConnection(c, q, sequence);
+            long start = System.currentTimeMillis();
+            int retval = countWithConnection(c, q, sequence);
+            if (queryMetrics != null) {
+                queryMetrics.recordCount(q, System.currentTimeMillis() - start);
+            }
+            return retval;
         } catch (SQLException e) {
             throw new ObjectStoreException("Could not get connection to database", e);
         } finally {
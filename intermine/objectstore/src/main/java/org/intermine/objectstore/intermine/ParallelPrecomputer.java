@@ -10,25 +10,23 @@ package org.intermine.objectstore.intermine;
  *
  */
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.log4j.Logger;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryNode;
 import org.intermine.objectstore.query.ResultsInfo;
-import org.intermine.util.SynchronisedIterator;
+import org.intermine.util.ExecutionService;
+import org.intermine.util.TaskGroup;
 
 /**
- * An object that can perform a set of precomputes in parallel.
+ * An object that can perform a set of precomputes in parallel, on the shared thread pool.
  *
  * @author Matthew Wakeling
  */
@@ -86,54 +84,54 @@ public class ParallelPrecomputer
             }
         }
 
-        Iterator<Job> jobIter = new SynchronisedIterator<Job>(todo.iterator());
-        Map<Integer, String> threads = new TreeMap<Integer, String>();
-        List<Exception> exceptions = Collections.synchronizedList(new ArrayList<Exception>());
-
-        synchronized (threads) {
-            for (int i = 1; i < threadCount; i++) {
-                Thread worker = new Thread(new Worker(threads, jobIter, i, exceptions));
-                threads.put(new Integer(i), "");
-                worker.setName("PrecomputeTask extra thread " + i);
-                worker.start();
-            }
+        TaskGroup group = ExecutionService.newGroup("ParallelPrecomputer",
+                ExecutionService.getConnectionLimit(os.getDatabase(), threadCount));
+        final Map<Integer, String> threads = new TreeMap<Integer, String>();
+        for (final Job job : todo) {
+            group.submit(new Callable<Void>() {
+                public Void call() throws ObjectStoreException {
+                    int threadNo = startJob(threads, job);
+                    try {
+                        executeJob(job, threadNo);
+                    } finally {
+                        finishJob(threads, threadNo);
+                    }
+                    return null;
+                }
+            });
         }
-
         try {
-            while (jobIter.hasNext()) {
-                Job job = jobIter.next();
-                synchronized (threads) {
-                    threads.put(new Integer(0), job.getKey());
-                    LOG.info("Threads doing: " + threads);
-                }
-                executeJob(job, 0);
-                if (!exceptions.isEmpty()) {
-                    throw new ObjectStoreException("Exception while executing in worker thread",
-                            exceptions.get(0));
-                }
-            }
-        } catch (NoSuchElementException e) {
-            // This is fine - just a consequence of concurrent access to the iterator. It means the
-            // end of the iterator has been reached, so there is no more work to do.
+            group.await();
+        } catch (ExecutionException e) {
+            throw new ObjectStoreException("Exception while executing in worker thread",
+                    e.getCause());
+        } catch (InterruptedException e) {
+            group.cancel();
+            throw new ObjectStoreException("Interrupted while precomputing", e);
         }
-        LOG.info("Thread 0 finished");
+        LOG.info("All threads finished - " + group.getSummary());
+    }
+
+    /**
+     * Records that a job has started, under the lowest thread number not in use, for logging.
+     */
+    private static int startJob(Map<Integer, String> threads, Job job) {
         synchronized (threads) {
-            threads.remove(new Integer(0));
-            LOG.info("Threads doing: " + threads);
-            while (threads.size() != 0) {
-                LOG.info(threads.size() + " threads left");
-                try {
-                    threads.wait();
-                } catch (InterruptedException e) {
-                    // Do nothing
-                }
+            int threadNo = 0;
+            while (threads.containsKey(new Integer(threadNo))) {
+                threadNo++;
             }
+            threads.put(new Integer(threadNo), job.getKey());
+            LOG.info("Threads doing: " + threads);
+            return threadNo;
         }
-        if (!exceptions.isEmpty()) {
-            throw new ObjectStoreException("Exception while executing in worker thread",
-                    exceptions.get(0));
+    }
+
+    private static void finishJob(Map<Integer, String> threads, int threadNo) {
+        synchronized (threads) {
+            threads.remove(new Integer(threadNo));
+            LOG.info("Thread " + threadNo + " finished - threads doing: " + threads);
         }
-        LOG.info("All threads finished");
     }
 
     /**
@@ -222,49 +220,6 @@ public class ParallelPrecomputer
         }
     }
 
-    private class Worker implements Runnable
-    {
-        private Map<Integer, String> threads;
-        private Iterator<Job> jobIter;
-        private int threadNo;
-        private List<Exception> exceptions;
-
-        public Worker(Map<Integer, String> threads, Iterator<Job> jobIter, int threadNo,
-                List<Exception> exceptions) {
-            this.threads = threads;
-            this.jobIter = jobIter;
-            this.threadNo = threadNo;
-            this.exceptions = exceptions;
-        }
-
-        public void run() {
-            try {
-                while (jobIter.hasNext()) {
-                    Job job = jobIter.next();
-                    synchronized (threads) {
-                        threads.put(new Integer(threadNo), job.getKey());
-                        LOG.info("Threads doing: " + threads);
-                    }
-                    try {
-                        executeJob(job, threadNo);
-                    } catch (Exception e) {
-                        // Something has gone wrong.
-                        exceptions.add(e);
-                    }
-                }
-            } catch (NoSuchElementException e) {
-                // Empty
-            } finally {
-                LOG.info("Thread " + threadNo + " finished");
-                synchronized (threads) {
-                    threads.remove(new Integer(threadNo));
-                    LOG.info("Threads doing: " + threads);
-                    threads.notify();
-                }
-            }
-        }
-    }
-
     /**
      * Executes a job.
      *
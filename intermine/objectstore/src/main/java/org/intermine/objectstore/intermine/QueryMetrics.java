@@ -0,0 +1,422 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.query.Query;
+
+/**
+ * Per-query execution metrics for an ObjectStoreInterMineImpl. Each batch execute, count, estimate
+ * and results cache hit is recorded against a fingerprint of its query, which is the IQL of the
+ * query with its literal values replaced by question marks, so that runs of the same template
+ * with different constraint values are aggregated together. For each fingerprint we keep the
+ * number of each kind of operation, the time spent optimising, executing SQL and decoding rows
+ * into objects, the number of rows fetched, and a histogram of batch fetch latencies.
+ * <p>
+ * Recording is lock-free apart from the first sighting of a fingerprint. At most MAX_FINGERPRINTS
+ * fingerprints are tracked, after which further new queries are aggregated under OTHER. A
+ * snapshot can be pulled through getSnapshot(), or through JMX once register() has been called.
+ */
+public class QueryMetrics implements QueryMetricsMBean
+{
+    private static final Logger LOG = Logger.getLogger(QueryMetrics.class);
+
+    /** The maximum number of fingerprints tracked separately. */
+    public static final int MAX_FINGERPRINTS = 1000;
+    /** The fingerprint under which queries beyond MAX_FINGERPRINTS are aggregated. */
+    public static final String OTHER = "(other queries)";
+    /**
+     * The number of buckets in a latency histogram. Bucket 0 counts batches taking under a
+     * millisecond, bucket n counts batches taking from 2^(n-1) to 2^n - 1 milliseconds, and the
+     * last bucket counts everything slower than that.
+     */
+    public static final int HISTOGRAM_BUCKETS = 18;
+
+    private final Map<String, Metrics> metrics = new ConcurrentHashMap<String, Metrics>();
+    private ObjectName objectName = null;
+
+    /**
+     * Returns the fingerprint of a query.
+     *
+     * @param q a Query
+     * @return a String
+     */
+    public static String fingerprint(Query q) {
+        return fingerprint(q.getIqlQuery().getQueryString());
+    }
+
+    /**
+     * Returns the fingerprint of a query string, which is the string with quoted strings and
+     * numbers replaced by a question mark, and lists of question marks collapsed into one.
+     *
+     * @param query an IQL or SQL string
+     * @return a String
+     */
+    public static String fingerprint(String query) {
+        int length = query.length();
+        StringBuilder retval = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (c == '\'') {
+                i++;
+                while (i < length) {
+                    if (query.charAt(i) == '\'') {
+                        if ((i + 1 < length) && (query.charAt(i + 1) == '\'')) {
+                            i++;
+                        } else {
+                            break;
+                        }
+                    }
+                    i++;
+                }
+                i++;
+                appendParameter(retval);
+            } else if ((c >= '0') && (c <= '9') && ((i == 0)
+                        || !isIdentifierChar(query.charAt(i - 1)))) {
+                while ((i < length) && (isIdentifierChar(query.charAt(i))
+                            || (query.charAt(i) == '.'))) {
+                    i++;
+                }
+                appendParameter(retval);
+            } else {
+                retval.append(c);
+                i++;
+            }
+        }
+        return retval.toString();
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || (c == '_');
+    }
+
+    private static void appendParameter(StringBuilder fingerprint) {
+        int length = fingerprint.length();
+        if ((length >= 3) && (fingerprint.charAt(length - 1) == ' ')
+                && (fingerprint.charAt(length - 2) == ',')
+                && (fingerprint.charAt(length - 3) == '?')) {
+            fingerprint.setLength(length - 2);
+        } else {
+            fingerprint.append('?');
+        }
+    }
+
+    /**
+     * Returns the Metrics for a query, creating them if necessary.
+     *
+     * @param q a Query
+     * @return a Metrics object
+     */
+    protected Metrics getMetrics(Query q) {
+        String fingerprint = fingerprint(q);
+        Metrics retval = metrics.get(fingerprint);
+        if (retval == null) {
+            synchronized (metrics) {
+                retval = metrics.get(fingerprint);
+                if (retval == null) {
+                    if (metrics.size() >= MAX_FINGERPRINTS) {
+                        fingerprint = OTHER;
+                        retval = metrics.get(fingerprint);
+                    }
+                    if (retval == null) {
+                        retval = new Metrics(fingerprint);
+                        metrics.put(fingerprint, retval);
+                    }
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Records the execution of one batch of a query.
+     *
+     * @param q the Query
+     * @param optimiseTime the time spent optimising the SQL, in milliseconds
+     * @param executeTime the time spent executing the SQL, in milliseconds
+     * @param decodeTime the time spent converting the rows into objects, in milliseconds
+     * @param batchTime the total time taken to fetch the batch, in milliseconds
+     * @param rows the number of rows fetched
+     */
+    public void recordExecute(Query q, long optimiseTime, long executeTime, long decodeTime,
+            long batchTime, int rows) {
+        Metrics m = getMetrics(q);
+        m.executes.incrementAndGet();
+        m.optimiseTime.addAndGet(optimiseTime);
+        m.executeTime.addAndGet(executeTime);
+        m.decodeTime.addAndGet(decodeTime);
+        m.totalTime.addAndGet(batchTime);
+        m.rows.addAndGet(rows);
+        m.histogram.incrementAndGet(bucketFor(batchTime));
+        long max = m.maxBatchTime.get();
+        while ((batchTime > max) && (!m.maxBatchTime.compareAndSet(max, batchTime))) {
+            max = m.maxBatchTime.get();
+        }
+    }
+
+    /**
+     * Records a count of the rows of a query.
+     *
+     * @param q the Query
+     * @param time the time taken, in milliseconds
+     */
+    public void recordCount(Query q, long time) {
+        Metrics m = getMetrics(q);
+        m.counts.incrementAndGet();
+        m.totalTime.addAndGet(time);
+    }
+
+    /**
+     * Records an estimate of the cost of a query.
+     *
+     * @param q the Query
+     * @param time the time taken, in milliseconds
+     */
+    public void recordEstimate(Query q, long time) {
+        Metrics m = getMetrics(q);
+        m.estimates.incrementAndGet();
+        m.totalTime.addAndGet(time);
+    }
+
+    /**
+     * Records that the Results for a query were found in the results cache.
+     *
+     * @param q the Query
+     */
+    public void recordCacheHit(Query q) {
+        getMetrics(q).cacheHits.incrementAndGet();
+    }
+
+    /**
+     * Returns the histogram bucket for a latency.
+     *
+     * @param time a time in milliseconds
+     * @return an index into the histogram
+     */
+    protected static int bucketFor(long time) {
+        if (time <= 0) {
+            return 0;
+        }
+        return Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(time));
+    }
+
+    /**
+     * Returns a snapshot of the metrics of the most expensive fingerprints, by total time. Each
+     * fingerprint is described by a Map from metric name to value, suitable for rendering as
+     * JSON. The histogram is a List of counts, as described for HISTOGRAM_BUCKETS.
+     *
+     * @param count the maximum number of fingerprints to return
+     * @return a List of Maps, most expensive first
+     */
+    public List<Map<String, Object>> getSnapshot(int count) {
+        List<Map<String, Object>> retval = new ArrayList<Map<String, Object>>();
+        for (Metrics m : getTop(count)) {
+            retval.add(m.toMap());
+        }
+        return retval;
+    }
+
+    private List<Metrics> getTop(int count) {
+        List<Metrics> all = new ArrayList<Metrics>(metrics.values());
+        Collections.sort(all, new Comparator<Metrics>() {
+            @Override
+            public int compare(Metrics m1, Metrics m2) {
+                return Long.compare(m2.totalTime.get(), m1.totalTime.get());
+            }
+        });
+        return all.size() > count ? all.subList(0, count) : all;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getFingerprintCount() {
+        return metrics.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getExecuteCount() {
+        long retval = 0;
+        for (Metrics m : metrics.values()) {
+            retval += m.executes.get();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCountCount() {
+        long retval = 0;
+        for (Metrics m : metrics.values()) {
+            retval += m.counts.get();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEstimateCount() {
+        long retval = 0;
+        for (Metrics m : metrics.values()) {
+            retval += m.estimates.get();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCacheHitCount() {
+        long retval = 0;
+        for (Metrics m : metrics.values()) {
+            retval += m.cacheHits.get();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTotalTime() {
+        long retval = 0;
+        for (Metrics m : metrics.values()) {
+            retval += m.totalTime.get();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String[] describeTopQueries(int count) {
+        List<Metrics> top = getTop(count);
+        String[] retval = new String[top.size()];
+        for (int i = 0; i < retval.length; i++) {
+            retval[i] = top.get(i).toMap().toString();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        synchronized (metrics) {
+            metrics.clear();
+        }
+    }
+
+    /**
+     * Registers this object with the platform MBean server, so that it can be read through JMX.
+     * Failure to register is logged rather than thrown, as the metrics are not essential.
+     *
+     * @param name the name to register under, which is usually the alias of the objectstore
+     */
+    public synchronized void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName newName = new ObjectName("org.intermine:type=QueryMetrics,name="
+                    + ObjectName.quote(name));
+            if (server.isRegistered(newName)) {
+                server.unregisterMBean(newName);
+            }
+            server.registerMBean(this, newName);
+            objectName = newName;
+        } catch (Exception e) {
+            LOG.warn("Could not register query metrics for " + name + " with JMX: " + e);
+        }
+    }
+
+    /**
+     * Removes this object from the platform MBean server, if it was registered.
+     */
+    public synchronized void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                LOG.warn("Could not unregister query metrics " + objectName + ": " + e);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * The metrics recorded for one fingerprint.
+     */
+    protected static class Metrics
+    {
+        final String fingerprint;
+        final AtomicLong executes = new AtomicLong();
+        final AtomicLong counts = new AtomicLong();
+        final AtomicLong estimates = new AtomicLong();
+        final AtomicLong cacheHits = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong optimiseTime = new AtomicLong();
+        final AtomicLong executeTime = new AtomicLong();
+        final AtomicLong decodeTime = new AtomicLong();
+        final AtomicLong totalTime = new AtomicLong();
+        final AtomicLong maxBatchTime = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+        Metrics(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> retval = new LinkedHashMap<String, Object>();
+            retval.put("fingerprint", fingerprint);
+            retval.put("executes", executes.get());
+            retval.put("counts", counts.get());
+            retval.put("estimates", estimates.get());
+            retval.put("cacheHits", cacheHits.get());
+            retval.put("rows", rows.get());
+            retval.put("optimiseTime", optimiseTime.get());
+            retval.put("executeTime", executeTime.get());
+            retval.put("decodeTime", decodeTime.get());
+            retval.put("totalTime", totalTime.get());
+            retval.put("maxBatchTime", maxBatchTime.get());
+            List<Long> buckets = new ArrayList<Long>();
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                buckets.add(Long.valueOf(histogram.get(i)));
+            }
+            retval.put("batchTimeHistogram", buckets);
+            return retval;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * The JMX management interface of QueryMetrics.
+ */
+public interface QueryMetricsMBean
+{
+    /**
+     * Returns the number of distinct query fingerprints that have been recorded.
+     *
+     * @return an int
+     */
+    int getFingerprintCount();
+
+    /**
+     * Returns the total number of batches executed.
+     *
+     * @return a long
+     */
+    long getExecuteCount();
+
+    /**
+     * Returns the total number of count queries run.
+     *
+     * @return a long
+     */
+    long getCountCount();
+
+    /**
+     * Returns the total number of estimates made.
+     *
+     * @return a long
+     */
+    long getEstimateCount();
+
+    /**
+     * Returns the total number of queries answered from the results cache.
+     *
+     * @return a long
+     */
+    long getCacheHitCount();
+
+    /**
+     * Returns the total time in milliseconds spent in the database and decoding results.
+     *
+     * @return a long
+     */
+    long getTotalTime();
+
+    /**
+     * Returns a one-line summary of each of the query fingerprints that have taken the most time.
+     *
+     * @param count the maximum number of fingerprints to describe
+     * @return an array of Strings, most expensive first
+     */
+    String[] describeTopQueries(int count);
+
+    /**
+     * Discards all the recorded metrics.
+     */
+    void reset();
+}
@@ -0,0 +1,579 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.ResultsRow;
+
+/**
+ * A bounded cache of pages of query results, for a database that does not change under it, such
+ * as a production release served by a webapp. Each page is the result of one execute with a
+ * particular start and limit, and is held encoded and compressed rather than as objects, which
+ * keeps it small and out of the way of the garbage collector. Objects are encoded as NotXml.
+ * Pages holding values that cannot be encoded, such as clobs, are not cached.
+ * <p>
+ * The pages are held in memory, on the heap or off it, up to a number of bytes, and the least
+ * recently used pages are evicted first. If a directory is given, evicted pages are written there
+ * instead of being lost, up to a further number of bytes. The files are named after the release
+ * of the database, so a webapp restarted against the same release finds the pages that it wrote
+ * before, and files for any other release are deleted. Everything is discarded when the database
+ * is altered.
+ */
+public class ResultsPageCache implements ResultsPageCacheMBean
+{
+    private static final Logger LOG = Logger.getLogger(ResultsPageCache.class);
+    private static final String SUFFIX = ".page";
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int INTEGER = 2;
+    private static final int LONG = 3;
+    private static final int SHORT = 4;
+    private static final int DOUBLE = 5;
+    private static final int FLOAT = 6;
+    private static final int BOOLEAN = 7;
+    private static final int BIG_DECIMAL = 8;
+    private static final int DATE = 9;
+    private static final int OBJECT = 10;
+
+    private final String release;
+    private final long maxBytes;
+    private final boolean offHeap;
+    private final File directory;
+    private final long maxDiskBytes;
+    private final LinkedHashMap<String, Object> pages = new LinkedHashMap<String, Object>(16,
+            0.75F, true);
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<String, Long>();
+    private long bytesHeld = 0;
+    private long diskBytesHeld = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long generation = 0;
+    private ObjectName objectName = null;
+
+    /**
+     * Creates a cache held only in memory.
+     *
+     * @param release the release or serial number of the database, or null if it has none
+     * @param maxBytes the maximum number of bytes of pages to hold in memory
+     * @param offHeap true to hold the pages in direct buffers rather than on the heap
+     */
+    public ResultsPageCache(String release, long maxBytes, boolean offHeap) {
+        this(release, maxBytes, offHeap, null, 0);
+    }
+
+    /**
+     * Creates a cache that writes the pages that it evicts from memory to a directory. Files in
+     * the directory that were written for a different release are deleted. If the release is
+     * null, then the files cannot be trusted, and all of them are deleted.
+     *
+     * @param release the release or serial number of the database, or null if it has none
+     * @param maxBytes the maximum number of bytes of pages to hold in memory
+     * @param offHeap true to hold the pages in direct buffers rather than on the heap
+     * @param directory the directory to write pages to, or null to hold pages only in memory
+     * @param maxDiskBytes the maximum number of bytes of pages to hold in the directory
+     */
+    public ResultsPageCache(String release, long maxBytes, boolean offHeap, File directory,
+            long maxDiskBytes) {
+        this.release = (release == null ? null : release.replaceAll("[^A-Za-z0-9_.]", "_"));
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        if (directory != null) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IllegalArgumentException("Cannot create results page cache directory "
+                        + directory);
+            }
+            File[] existing = directory.listFiles();
+            Arrays.sort(existing, new Comparator<File>() {
+                @Override
+                public int compare(File f1, File f2) {
+                    return Long.compare(f1.lastModified(), f2.lastModified());
+                }
+            });
+            for (File file : existing) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    if ((this.release != null)
+                            && file.getName().startsWith(this.release + "-")) {
+                        files.put(file.getName(), Long.valueOf(file.length()));
+                        diskBytesHeld += file.length();
+                    } else if (!file.delete()) {
+                        LOG.warn("Could not delete results page cache file " + file);
+                    }
+                }
+            }
+            LOG.info("Found " + files.size() + " results pages for release " + release + " in "
+                    + directory);
+            evictFiles();
+        }
+    }
+
+    /**
+     * Returns the key under which a page of the results of a query is cached.
+     *
+     * @param q a Query
+     * @param start the start row number of the page
+     * @param limit the maximum number of rows in the page
+     * @return a String
+     */
+    public static String getKey(Query q, int start, int limit) {
+        return "START " + start + " LIMIT " + limit + " " + q;
+    }
+
+    /**
+     * Returns the cached page for a key, looking in the directory if it is not in memory.
+     *
+     * @param key the key, from getKey()
+     * @param os the ObjectStore from which to create lazy objects in the rows
+     * @return a List of rows, or null if the page is not cached
+     */
+    public List<ResultsRow<Object>> get(String key, ObjectStoreInterMineImpl os) {
+        byte[] page = null;
+        synchronized (this) {
+            Object held = pages.get(key);
+            if (held instanceof ByteBuffer) {
+                ByteBuffer buffer = ((ByteBuffer) held).duplicate();
+                page = new byte[buffer.remaining()];
+                buffer.get(page);
+            } else if (held != null) {
+                page = (byte[]) held;
+            } else if (directory != null) {
+                page = readFile(key);
+                if (page != null) {
+                    hold(key, page);
+                }
+            }
+            if (page == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        try {
+            return decode(page, os);
+        } catch (Exception e) {
+            LOG.warn("Could not decode cached results page for " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of times that this cache has been cleared. A page fetched from the
+     * database must only be cached if the cache has not been cleared since the fetch began.
+     *
+     * @return a long
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches a page of results, if all of its values can be encoded and the cache has not been
+     * cleared since the page was fetched.
+     *
+     * @param key the key, from getKey()
+     * @param rows the rows of the page
+     * @param fetchGeneration the value of getGeneration() from before the page was fetched
+     */
+    public void put(String key, List<ResultsRow<Object>> rows, long fetchGeneration) {
+        byte[] page = encode(rows);
+        if ((page != null) && (page.length <= maxBytes)) {
+            synchronized (this) {
+                if (fetchGeneration == generation) {
+                    hold(key, page);
+                }
+            }
+        }
+    }
+
+    private void hold(String key, byte[] page) {
+        Object old;
+        if (offHeap) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(page.length);
+            buffer.put(page);
+            buffer.flip();
+            old = pages.put(key, buffer);
+        } else {
+            old = pages.put(key, page);
+        }
+        bytesHeld += page.length - size(old);
+        Iterator<Map.Entry<String, Object>> iter = pages.entrySet().iterator();
+        while ((bytesHeld > maxBytes) && iter.hasNext()) {
+            Map.Entry<String, Object> eldest = iter.next();
+            iter.remove();
+            bytesHeld -= size(eldest.getValue());
+            if (directory != null) {
+                writeFile(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+    private static int size(Object held) {
+        if (held instanceof ByteBuffer) {
+            return ((ByteBuffer) held).remaining();
+        } else if (held != null) {
+            return ((byte[]) held).length;
+        }
+        return 0;
+    }
+
+    private String getFileName(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder retval = new StringBuilder(release).append('-');
+            for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+                retval.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+            }
+            return retval.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    private void writeFile(String key, Object held) {
+        if (release == null) {
+            return;
+        }
+        String name = getFileName(key);
+        if (files.containsKey(name)) {
+            return;
+        }
+        byte[] page;
+        if (held instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) held).duplicate();
+            page = new byte[buffer.remaining()];
+            buffer.get(page);
+        } else {
+            page = (byte[]) held;
+        }
+        File file = new File(directory, name);
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            try {
+                writeString(out, key);
+                out.write(page);
+            } finally {
+                out.close();
+            }
+            files.put(name, Long.valueOf(file.length()));
+            diskBytesHeld += file.length();
+            evictFiles();
+        } catch (IOException e) {
+            LOG.warn("Could not write results page cache file " + file + ": " + e);
+            file.delete();
+        }
+    }
+
+    private byte[] readFile(String key) {
+        if (release == null) {
+            return null;
+        }
+        String name = getFileName(key);
+        if (!files.containsKey(name)) {
+            return null;
+        }
+        File file = new File(directory, name);
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                if (!key.equals(readString(in))) {
+                    return null;
+                }
+                ByteArrayOutputStream page = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    page.write(buffer, 0, read);
+                }
+                return page.toByteArray();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not read results page cache file " + file + ": " + e);
+            return null;
+        }
+    }
+
+    private void evictFiles() {
+        Iterator<Map.Entry<String, Long>> iter = files.entrySet().iterator();
+        while ((diskBytesHeld > maxDiskBytes) && iter.hasNext()) {
+            Map.Entry<String, Long> eldest = iter.next();
+            iter.remove();
+            diskBytesHeld -= eldest.getValue().longValue();
+            new File(directory, eldest.getKey()).delete();
+        }
+    }
+
+    /**
+     * Encodes a page of results.
+     *
+     * @param rows the rows of the page
+     * @return a compressed array of bytes, or null if the rows hold a value that cannot be encoded
+     */
+    public static byte[] encode(List<ResultsRow<Object>> rows) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+            out.writeInt(rows.size());
+            for (ResultsRow<Object> row : rows) {
+                out.writeInt(row.size());
+                for (Object value : row) {
+                    if (value == null) {
+                        out.writeByte(NULL);
+                    } else if (value instanceof String) {
+                        out.writeByte(STRING);
+                        writeString(out, (String) value);
+                    } else if (value instanceof Integer) {
+                        out.writeByte(INTEGER);
+                        out.writeInt(((Integer) value).intValue());
+                    } else if (value instanceof Long) {
+                        out.writeByte(LONG);
+                        out.writeLong(((Long) value).longValue());
+                    } else if (value instanceof Short) {
+                        out.writeByte(SHORT);
+                        out.writeShort(((Short) value).shortValue());
+                    } else if (value instanceof Double) {
+                        out.writeByte(DOUBLE);
+                        out.writeDouble(((Double) value).doubleValue());
+                    } else if (value instanceof Float) {
+                        out.writeByte(FLOAT);
+                        out.writeFloat(((Float) value).floatValue());
+                    } else if (value instanceof Boolean) {
+                        out.writeByte(BOOLEAN);
+                        out.writeBoolean(((Boolean) value).booleanValue());
+                    } else if (value instanceof BigDecimal) {
+                        out.writeByte(BIG_DECIMAL);
+                        writeString(out, value.toString());
+                    } else if (value instanceof Date) {
+                        out.writeByte(DATE);
+                        out.writeLong(((Date) value).getTime());
+                    } else if (value instanceof InterMineObject) {
+                        out.writeByte(OBJECT);
+                        writeString(out, NotXmlRenderer.render(value).toString());
+                    } else {
+                        return null;
+                    }
+                }
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // Cannot happen when writing to memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Decodes a page of results.
+     *
+     * @param page the bytes from encode()
+     * @param os the ObjectStore from which to create lazy objects in the rows
+     * @return a List of rows
+     * @throws IOException if the page is corrupt
+     * @throws ClassNotFoundException if an object in the page is of a class that does not exist
+     */
+    public static List<ResultsRow<Object>> decode(byte[] page, ObjectStoreInterMineImpl os)
+        throws IOException, ClassNotFoundException {
+        DataInputStream in = new DataInputStream(new InflaterInputStream(
+                    new ByteArrayInputStream(page)));
+        int rowCount = in.readInt();
+        List<ResultsRow<Object>> retval = new ArrayList<ResultsRow<Object>>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            int columns = in.readInt();
+            ResultsRow<Object> row = new ResultsRow<Object>();
+            for (int j = 0; j < columns; j++) {
+                int type = in.readByte();
+                switch (type) {
+                    case NULL:
+                        row.add(null);
+                        break;
+                    case STRING:
+                        row.add(readString(in));
+                        break;
+                    case INTEGER:
+                        row.add(Integer.valueOf(in.readInt()));
+                        break;
+                    case LONG:
+                        row.add(Long.valueOf(in.readLong()));
+                        break;
+                    case SHORT:
+                        row.add(Short.valueOf(in.readShort()));
+                        break;
+                    case DOUBLE:
+                        row.add(Double.valueOf(in.readDouble()));
+                        break;
+                    case FLOAT:
+                        row.add(Float.valueOf(in.readFloat()));
+                        break;
+                    case BOOLEAN:
+                        row.add(Boolean.valueOf(in.readBoolean()));
+                        break;
+                    case BIG_DECIMAL:
+                        row.add(new BigDecimal(readString(in)));
+                        break;
+                    case DATE:
+                        row.add(new Date(in.readLong()));
+                        break;
+                    case OBJECT:
+                        row.add(NotXmlParser.parse(readString(in), os));
+                        break;
+                    default:
+                        throw new IOException("Unknown value type " + type);
+                }
+            }
+            retval.add(row);
+        }
+        return retval;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized double getHitRatio() {
+        return (hits + misses == 0) ? 0.0 : ((double) hits) / (hits + misses);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getBytesHeld() {
+        return bytesHeld;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getDiskBytesHeld() {
+        return diskBytesHeld;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void clear() {
+        generation++;
+        pages.clear();
+        bytesHeld = 0;
+        for (String name : files.keySet()) {
+            new File(directory, name).delete();
+        }
+        files.clear();
+        diskBytesHeld = 0;
+    }
+
+    /**
+     * Registers this object with the platform MBean server, so that it can be read through JMX.
+     * Failure to register is logged rather than thrown, as the metrics are not essential.
+     *
+     * @param name the name to register under, which is usually the alias of the objectstore
+     */
+    public synchronized void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName newName = new ObjectName("org.intermine:type=ResultsPageCache,name="
+                    + ObjectName.quote(name));
+            if (server.isRegistered(newName)) {
+                server.unregisterMBean(newName);
+            }
+            server.registerMBean(this, newName);
+            objectName = newName;
+        } catch (Exception e) {
+            LOG.warn("Could not register results page cache for " + name + " with JMX: " + e);
+        }
+    }
+
+    /**
+     * Removes this object from the platform MBean server, if it was registered.
+     */
+    public synchronized void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                LOG.warn("Could not unregister results page cache " + objectName + ": " + e);
+            }
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * The JMX management interface of ResultsPageCache.
+ */
+public interface ResultsPageCacheMBean
+{
+    /**
+     * Returns the number of pages that were answered from the cache.
+     *
+     * @return a long
+     */
+    long getHitCount();
+
+    /**
+     * Returns the number of pages that were looked for in the cache and not found.
+     *
+     * @return a long
+     */
+    long getMissCount();
+
+    /**
+     * Returns the proportion of lookups that were answered from the cache.
+     *
+     * @return a double between 0 and 1, or 0 if there have been no lookups
+     */
+    double getHitRatio();
+
+    /**
+     * Returns the number of pages held in memory.
+     *
+     * @return an int
+     */
+    int getPageCount();
+
+    /**
+     * Returns the number of bytes of encoded pages held in memory, on or off the heap.
+     *
+     * @return a long
+     */
+    long getBytesHeld();
+
+    /**
+     * Returns the number of bytes of encoded pages held on local disk.
+     *
+     * @return a long
+     */
+    long getDiskBytesHeld();
+
+    /**
+     * Discards all the cached pages.
+     */
+    void clear();
+}
@@ -18,7 +18,9 @@ import static org.intermine.objectstore.intermine.ObjectStoreInterMineImpl.CLOBV
 import static org.intermine.objectstore.intermine.ObjectStoreInterMineImpl.CLOB_TABLE_NAME;
 import static org.intermine.objectstore.intermine.ObjectStoreInterMineImpl.INT_BAG_TABLE_NAME;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -131,6 +133,11 @@ public final class SqlGenerator
     /** subquery only for counting. SELECT COUNT(*) AS ... FROM (subquery) **/
     public static final int QUERY_FOR_COUNTING = 7;
 
+    /** The types of value that can be used in a keyset pagination constraint. */
+    private static final Set<Class<?>> KEYSET_TYPES = new HashSet<Class<?>>(Arrays.asList(
+                String.class, Short.class, Integer.class, Long.class, Double.class,
+                BigDecimal.class, Date.class));
+
     protected static Map<DatabaseSchema, Map<Query, CacheEntry>> sqlCache
         = new WeakHashMap<DatabaseSchema, Map<Query, CacheEntry>>();
     protected static Map<DatabaseSchema, Map<Query, Set<Object>>> tablenamesCache
@@ -285,6 +292,190 @@ public final class SqlGenerator
     }
 
 
+    /**
+     * Registers the last row of a batch of results for a given query, so that the following rows
+     * can later be fetched with keyset pagination - that is with a WHERE component that selects
+     * the rows that sort after the given row, instead of with an OFFSET that makes the database
+     * produce and discard all the earlier rows. This is only possible if the order of the query
+     * is total, so that no two rows share the same values for the ORDER BY list, and if all the
+     * values of the ORDER BY list can be read from the row.
+     *
+     * @param q the Query
+     * @param start the number of the row after lastRow, numbered from zero
+     * @param schema the DatabaseSchema in which to look up metadata
+     * @param db the Database that the ObjectStore uses
+     * @param lastRow the row numbered start - 1
+     * @param bagTableNames a Map from BagConstraints to table names, where the table contains the
+     *        contents of the bag that are relevant for the BagConstraint
+     * @return true if the row was registered, or false if the query is not suitable for keyset
+     *         pagination
+     */
+    public static boolean registerKeyset(Query q, int start, DatabaseSchema schema, Database db,
+            List<Object> lastRow, Map<Object, String> bagTableNames) {
+        try {
+            synchronized (q) {
+                Constraint keysetConstraint = getKeysetConstraint(q, lastRow, schema);
+                if (keysetConstraint == null) {
+                    return false;
+                }
+                Map<Query, CacheEntry> schemaCache = getCacheForSchema(schema);
+                CacheEntry cacheEntry = schemaCache.get(q);
+                if (cacheEntry == null) {
+                    cacheEntry = new CacheEntry(0, null);
+                    schemaCache.put(q, cacheEntry);
+                }
+                cacheEntry.setKeyset(start, keysetConstraint);
+                // Keep an occasional position permanently, to help later random access
+                SortedMap<Integer, String> headMap = cacheEntry.getCached()
+                    .headMap(new Integer(start + 1));
+                if (headMap.isEmpty() || (start - headMap.lastKey().intValue() >= 100000)) {
+                    String sql = generate(q, schema, db, keysetConstraint, QUERY_NORMAL,
+                            bagTableNames);
+                    cacheEntry.getCached().put(new Integer(start), sql);
+                }
+                return true;
+            }
+        } catch (ObjectStoreException e) {
+            LOG.warn("Error while registering keyset for query " + q + ": " + e);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Error while registering keyset for query " + q + ": " + e);
+        }
+        return false;
+    }
+
+    /**
+     * Create a constraint to add to the main query that selects the rows that come after the
+     * given row in the order of the query. For an ORDER BY list of k1, k2, k3 and a row with
+     * values v1, v2, v3, this is '(k1 &gt; v1) OR (k1 = v1 AND k2 &gt; v2) OR (k1 = v1 AND
+     * k2 = v2 AND k3 &gt; v3)', with the comparisons reversed for descending elements and extra
+     * terms for null values, which the database sorts after all other values.
+     *
+     * @param q the Query
+     * @param row a row of results of the query
+     * @param schema the DatabaseSchema in which to look up metadata
+     * @return a Constraint, or null if the order of the query is not total, or the values of the
+     *         ORDER BY list cannot be compared
+     */
+    protected static Constraint getKeysetConstraint(Query q, List<Object> row,
+            DatabaseSchema schema) {
+        // A DISTINCT query is ordered by its whole SELECT list, so no two rows compare equal
+        if ((!q.isDistinct()) || (!q.getGroupBy().isEmpty())) {
+            return null;
+        }
+        List<QuerySelectable> select = q.getSelect();
+        ConstraintSet retval = new ConstraintSet(ConstraintOp.OR);
+        List<Constraint> equalities = new ArrayList<Constraint>();
+        for (Object orderBy : q.getEffectiveOrderBy()) {
+            boolean reverse = false;
+            Object node = orderBy;
+            if (node instanceof OrderDescending) {
+                node = ((OrderDescending) node).getQueryOrderable();
+                reverse = true;
+            }
+            Object value;
+            if (node instanceof QueryClass) {
+                int colNo = select.indexOf(node);
+                if ((colNo == -1) || (!(row.get(colNo) instanceof InterMineObject))) {
+                    return null;
+                }
+                value = ((InterMineObject) row.get(colNo)).getId();
+                node = new QueryField((QueryClass) node, "id");
+            } else if (node instanceof QueryField) {
+                int colNo = select.indexOf(node);
+                if (colNo != -1) {
+                    value = row.get(colNo);
+                } else {
+                    // The field may belong to an object in the SELECT list
+                    FromElement fe = ((QueryField) node).getFromElement();
+                    colNo = select.indexOf(fe);
+                    if ((colNo == -1) || (!(fe instanceof QueryClass))) {
+                        return null;
+                    }
+                    try {
+                        value = TypeUtil.getFieldValue(row.get(colNo),
+                                ((QueryField) node).getFieldName());
+                    } catch (IllegalAccessException e) {
+                        return null;
+                    }
+                }
+            } else {
+                return null;
+            }
+            QueryEvaluable qe = (QueryEvaluable) node;
+            if ((value != null) && (!KEYSET_TYPES.contains(value.getClass()))) {
+                // Booleans and classes cannot be compared with an inequality, and floats do not
+                // survive being written into SQL exactly
+                return null;
+            }
+            Constraint after;
+            if (value == null) {
+                after = reverse ? new SimpleConstraint(qe, ConstraintOp.IS_NOT_NULL) : null;
+            } else if (reverse) {
+                after = new SimpleConstraint(qe, ConstraintOp.LESS_THAN, new QueryValue(value));
+            } else {
+                after = new SimpleConstraint(qe, ConstraintOp.GREATER_THAN,
+                        new QueryValue(value));
+                if (canBeNull(q, qe, schema)) {
+                    ConstraintSet cs = new ConstraintSet(ConstraintOp.OR);
+                    cs.addConstraint(after);
+                    cs.addConstraint(new SimpleConstraint(qe, ConstraintOp.IS_NULL));
+                    after = cs;
+                }
+            }
+            if (after != null) {
+                if (equalities.isEmpty()) {
+                    retval.addConstraint(after);
+                } else {
+                    ConstraintSet term = new ConstraintSet(ConstraintOp.AND);
+                    for (Constraint equality : equalities) {
+                        term.addConstraint(equality);
+                    }
+                    term.addConstraint(after);
+                    retval.addConstraint(term);
+                }
+            }
+            equalities.add(value == null ? new SimpleConstraint(qe, ConstraintOp.IS_NULL)
+                    : new SimpleConstraint(qe, ConstraintOp.EQUALS, new QueryValue(value)));
+        }
+        if (retval.getConstraints().isEmpty()) {
+            return null;
+        } else if (retval.getConstraints().size() == 1) {
+            return retval.getConstraints().iterator().next();
+        }
+        return retval;
+    }
+
+    /**
+     * Returns whether a QueryEvaluable may have null values in the results of a query. This is
+     * false for ids, classes and primitive attributes of QueryClasses, and for anything the
+     * query already constrains to be not null.
+     *
+     * @param q the Query
+     * @param qe the QueryEvaluable
+     * @param schema the DatabaseSchema in which to look up metadata
+     * @return a boolean
+     */
+    private static boolean canBeNull(Query q, QueryEvaluable qe, DatabaseSchema schema) {
+        if (qe instanceof QueryField) {
+            FromElement qc = ((QueryField) qe).getFromElement();
+            if (qc instanceof QueryClass) {
+                String fieldName = ((QueryField) qe).getFieldName();
+                if ("id".equals(fieldName) || "class".equals(fieldName)) {
+                    return false;
+                }
+                AttributeDescriptor desc = (AttributeDescriptor) schema.getModel()
+                    .getFieldDescriptorsForClass(((QueryClass) qc).getType()).get(fieldName);
+                if (desc.isPrimitive()) {
+                    return false;
+                }
+            }
+        }
+        // if the query aready constrains the field to be not null it can't be null
+        CheckForIsNotNullConstraint check = new CheckForIsNotNullConstraint((QueryNode) qe);
+        ConstraintHelper.traverseConstraints(q.getConstraint(), check);
+        return !check.exists();
+    }
+
     /**
      * Create a constraint to add to the main query to deal with offset - this is based on
      * the first element in the order by (field) and a given value (x).  If the order by
@@ -310,44 +501,18 @@ public final class SqlGenerator
         if (newFirstOrderBy instanceof QueryClass) {
             newFirstOrderBy = new QueryField((QueryClass) newFirstOrderBy, "id");
         }
-        boolean hasNulls = true;
-        if ((newFirstOrderBy instanceof QueryField) && (!reverse)) {
-            FromElement qc = ((QueryField) newFirstOrderBy).getFromElement();
-            if (qc instanceof QueryClass) {
-                if ("id".equals(((QueryField) newFirstOrderBy).getFieldName())) {
-                    hasNulls = false;
-                } else if ("class".equals(((QueryField) newFirstOrderBy).getFieldName())) {
-                    hasNulls = false;
-                } else {
-                    AttributeDescriptor desc = (AttributeDescriptor) schema
-                        .getModel().getFieldDescriptorsForClass(((QueryClass) qc)
-                        .getType()).get(((QueryField) newFirstOrderBy)
-                                        .getFieldName());
-                    if (desc.isPrimitive()) {
-                        hasNulls = false;
-                    }
-                }
-            }
-        }
         if (reverse) {
             return new SimpleConstraint((QueryEvaluable) newFirstOrderBy,
                     ConstraintOp.LESS_THAN, new QueryValue(value));
         } else {
             SimpleConstraint sc = new SimpleConstraint((QueryEvaluable) newFirstOrderBy,
                     ConstraintOp.GREATER_THAN, new QueryValue(value));
-            if (hasNulls) {
-                // if the query aready constrains the first order by field to be
-                // not null it doesn't make sense to add a costraint to null
-                CheckForIsNotNullConstraint check = new CheckForIsNotNullConstraint((QueryNode)
-                        newFirstOrderBy);
-                ConstraintHelper.traverseConstraints(q.getConstraint(), check);
-                if (!check.exists()) {
-                    ConstraintSet cs = new ConstraintSet(ConstraintOp.OR);
-                    cs.addConstraint(sc);
-                    cs.addConstraint(new SimpleConstraint((QueryEvaluable) newFirstOrderBy,
-                                ConstraintOp.IS_NULL));
-                    return cs;
-                }
+            if (canBeNull(q, (QueryEvaluable) newFirstOrderBy, schema)) {
+                ConstraintSet cs = new ConstraintSet(ConstraintOp.OR);
+                cs.addConstraint(sc);
+                cs.addConstraint(new SimpleConstraint((QueryEvaluable) newFirstOrderBy,
+                            ConstraintOp.IS_NULL));
+                return cs;
             }
             return sc;
         }
@@ -389,20 +554,30 @@ public final class SqlGenerator
                 } catch (NoSuchElementException e) {
                     // ignore
                 }
+                String anchorSql = null;
+                int anchorOffset = 0;
                 if (lastKey != null) {
                     int offset = lastKey.intValue();
                     if ((offset > cacheEntry.getLastOffset())
                             || (cacheEntry.getLastOffset() > start)) {
-                        return cacheEntry.getCached().get(lastKey)
-                            + (limit == Integer.MAX_VALUE ? "" : " LIMIT " + limit)
-                            + (start == offset ? "" : " OFFSET " + (start - offset));
+                        anchorSql = cacheEntry.getCached().get(lastKey);
+                        anchorOffset = offset;
                     } else {
-                        return cacheEntry.getLastSQL()
-                            + (limit == Integer.MAX_VALUE ? "" : " LIMIT " + limit)
-                            + (start == cacheEntry.getLastOffset() ? ""
-                                    : " OFFSET " + (start - cacheEntry.getLastOffset()));
+                        anchorSql = cacheEntry.getLastSQL();
+                        anchorOffset = cacheEntry.getLastOffset();
                     }
                 }
+                int keysetOffset = cacheEntry.getKeysetOffset();
+                if ((cacheEntry.getKeysetConstraint() != null) && (keysetOffset <= start)
+                        && ((anchorSql == null) || (keysetOffset > anchorOffset))) {
+                    anchorSql = generate(q, schema, db, cacheEntry.getKeysetConstraint(),
+                            QUERY_NORMAL, bagTableNames);
+                    anchorOffset = keysetOffset;
+                }
+                if (anchorSql != null) {
+                    return anchorSql + (limit == Integer.MAX_VALUE ? "" : " LIMIT " + limit)
+                        + (start == anchorOffset ? "" : " OFFSET " + (start - anchorOffset));
+                }
             }
             String sql = generate(q, schema, db, null, QUERY_NORMAL, bagTableNames);
             /*if (cached == null) {
@@ -2821,6 +2996,8 @@ public final class SqlGenerator
         private TreeMap<Integer, String> cached = new TreeMap<Integer, String>();
         private int lastOffset;
         private String lastSQL;
+        private int keysetOffset;
+        private Constraint keysetConstraint = null;
 
         public CacheEntry(int lastOffset, String lastSQL) {
             this.lastOffset = lastOffset;
@@ -2843,6 +3020,19 @@ public final class SqlGenerator
         public String getLastSQL() {
             return lastSQL;
         }
+
+        public void setKeyset(int keysetOffset, Constraint keysetConstraint) {
+            this.keysetOffset = keysetOffset;
+            this.keysetConstraint = keysetConstraint;
+        }
+
+        public int getKeysetOffset() {
+            return keysetOffset;
+        }
+
+        public Constraint getKeysetConstraint() {
+            return keysetConstraint;
+        }
     }
 
     private static class ClassDescriptorAndAlias
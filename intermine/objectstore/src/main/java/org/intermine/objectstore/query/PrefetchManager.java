@@ -14,12 +14,24 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.intermine.objectstore.ObjectStoreException;
 
 /**
  * A manager for the prefetch mechanism for the Results object.
+ * <p>
+ * Prefetch requests are serviced by a bounded pool of daemon threads shared by all Results
+ * objects. The pool never has more threads than the configured maximum, nor more than half the
+ * connections of the smallest database connection pool that prefetching has been limited to, so
+ * that read-ahead never starves the threads that actually need their results of connections.
+ * If the pool is busy, further prefetch requests are dropped, and the batches are fetched by the
+ * thread that needs them when it gets there.
  *
  * @author Matthew Wakeling
  */
@@ -34,10 +46,19 @@ public final class PrefetchManager
     /** Set of requests currently being serviced. This Set is not accessed inside a block
      * synchronised on any global object, so it must be able to handle concurrent access. */
     protected static Set<Request> serviced = Collections.synchronizedSet(new HashSet<Request>());
-    protected static int serviceThreads = 0;
     private static Object sync = new Object();
 
+    /** The number of queued requests allowed per service thread. */
     protected static final int LOADING = 3;
+    /** The default maximum number of service threads. */
+    public static final int DEFAULT_MAX_THREADS = 4;
+    /** The default number of batches to read ahead of a sequential reader. */
+    public static final int DEFAULT_READ_AHEAD = 1;
+
+    private static int maxThreads = DEFAULT_MAX_THREADS;
+    private static int connectionLimit = Integer.MAX_VALUE;
+    private static volatile int readAhead = DEFAULT_READ_AHEAD;
+    private static ThreadPoolExecutor executor = null;
 
     /*
      * This class provides methods for cancelling requests, so here is an explanation of how this
@@ -92,6 +113,7 @@ public final class PrefetchManager
     public static void addRequest(ResultsBatches result, int batchNo, boolean optimise,
             boolean explain) {
         Request request = new Request(result, batchNo, optimise, explain);
+        boolean added = false;
         synchronized (sync) {
             synchronized (result) {
                 // Synchronise on BOTH locks, so we can muck about with anything.
@@ -99,31 +121,22 @@ public final class PrefetchManager
                     // The request has not been done.
                     if (!serviced.contains(request)) {
                         // And it isn't currently being serviced.
-                        //if (!pending.contains(request)) {
-                        //    LOG.debug("addRequest - adding request:                          "
-                        //            + request);
-                        //}
-                        pending.add(request);
-                        if ((pending.size() + serviced.size()) > (serviceThreads * LOADING)) {
-                            // There are too many requests for the servicing threads.
-                            Thread newThread = new ServiceThread();
-                            newThread.setDaemon(true);
-                            newThread.setName("PrefetchManager ServiceThread");
-                            newThread.start();
-                            serviceThreads++;
-                            LOG.info("addRequest - creating new ServiceThread. We now have "
-                                    + serviceThreads);
-                        } else {
-                            // There may or may not be a service thread waiting. If not, a service
-                            // thread will soon finish a request.
-                            sync.notify();
-                        }
-                    //} else {
-                        //LOG.debug("addRequest - the request is currently being serviced: "
-                        //        + request);
+                        added = pending.add(request);
                     }
-                //} else {
-                    //LOG.debug("addRequest - the request has already been done:       " + request);
+                }
+            }
+        }
+        if (added) {
+            // Hand the request to the executor outside the locks. If a thread calls doRequest for
+            // the same batch in the meantime, it takes the request over and the ServiceTask finds
+            // nothing to do.
+            try {
+                getExecutor().execute(new ServiceTask(request));
+            } catch (RejectedExecutionException e) {
+                // The service threads are all busy - drop the request, and let the thread that
+                // needs the batch fetch it.
+                synchronized (sync) {
+                    pending.remove(request);
                 }
             }
         }
@@ -264,51 +277,118 @@ public final class PrefetchManager
     }
 
     /**
-     * Returns a request for a thread to service.
+     * Moves a request from the pending set to the serviced set, so that the current thread can
+     * service it.
      *
-     * @return a request to service
+     * @param request the request to claim
+     * @return true if the current thread should service the request, or false if it is no longer
+     * pending because another thread has taken it over
      */
-    protected static Request getRequest() {
-        Request retval;
+    protected static boolean claimRequest(Request request) {
         synchronized (sync) {
-            while (pending.isEmpty()) {
-                // There are no requests to get - wait for a notify.
-                //LOG.debug("getRequest - waiting for a request");
-                try {
-                    sync.wait();
-                } catch (InterruptedException e) {
-                    // Ignore interruption.
-                }
+            // We never check to see if the batch has already been fetched before checking to see
+            // if anyone is fetching it - we only put the request in serviced. Therefore, we do
+            // not need to synchronise by request.result here.
+            if (pending.remove(request)) {
+                serviced.add(request);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Sets the maximum number of threads used to service prefetch requests.
+     *
+     * @param threads the maximum number of threads
+     */
+    public static void setMaxThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        synchronized (sync) {
+            maxThreads = threads;
+            resizeExecutor();
+        }
+    }
+
+    /**
+     * Limits the number of prefetch threads to half of the given number of database connections,
+     * so that at least as many connections remain for threads fetching batches they need
+     * immediately. If several databases are used, the smallest limit applies.
+     *
+     * @param maxConnections the maximum number of connections of a database connection pool, or a
+     * value less than one if it is not known
+     */
+    public static void limitThreadsToConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            return;
+        }
+        synchronized (sync) {
+            connectionLimit = Math.min(connectionLimit, Math.max(1, maxConnections / 2));
+            resizeExecutor();
+        }
+    }
+
+    /**
+     * Returns the number of threads that may service prefetch requests at once.
+     *
+     * @return an int
+     */
+    public static int getThreadCount() {
+        synchronized (sync) {
+            return Math.min(maxThreads, connectionLimit);
+        }
+    }
+
+    /**
+     * Sets the number of batches to read ahead of a Results object that is being read
+     * sequentially.
+     *
+     * @param batches the number of batches, or zero to switch off read-ahead
+     */
+    public static void setReadAhead(int batches) {
+        if (batches < 0) {
+            throw new IllegalArgumentException("batches must not be negative: " + batches);
+        }
+        readAhead = batches;
+    }
+
+    /**
+     * Returns the number of batches to read ahead of a Results object that is being read
+     * sequentially.
+     *
+     * @return an int
+     */
+    public static int getReadAhead() {
+        return readAhead;
+    }
+
+    private static ThreadPoolExecutor getExecutor() {
+        synchronized (sync) {
+            if (executor == null) {
+                int threads = getThreadCount();
+                executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>(threads * LOADING),
+                        new ServiceThreadFactory());
+                executor.allowCoreThreadTimeOut(true);
+                LOG.info("Created PrefetchManager executor with " + threads + " threads");
+            }
+            return executor;
+        }
+    }
+
+    private static void resizeExecutor() {
+        if (executor != null) {
+            int threads = getThreadCount();
+            if (threads > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(threads);
+                executor.setCorePoolSize(threads);
+            } else {
+                executor.setCorePoolSize(threads);
+                executor.setMaximumPoolSize(threads);
             }
-            // Get a request from the pending set. We know there is something in there, because we
-            // just got false from pending.isEmpty, and we have the lock on sync, and nothing
-            // touches pending unless they have that lock.
-            retval = pending.iterator().next();
-            //LOG.debug("getRequest - got request:                             " + retval);
-            // Now we have a request, we could synchronise by its result - other things look
-            // for the request in serviced - namely:
-            // 1. addRequest doesn't add a request to pending if it already in serviced. However,
-            //     that doesn't matter, because it is already synchronised on sync. Otherwise, you
-            //     might have had the situation where a request appears in both pending and serviced
-            //     sets.
-            // 2. doRequest also moves items from pending to serviced, but that doesn't matter
-            //     because it is also synchronised on sync. Otherwise you could have two threads
-            //     servicing the same request, which could possibly leave other requests not being
-            //     serviced while a service thread sleeps.
-            // 3. doRequest decides whether to wait on whether there is a request in serviced, but
-            //     this also does not matter, as it can only be broken by a thread removing a
-            //     request from serviced outside a synchronised block.
-            // 4. reportDone removes an entry from serviced, which does not matter, because it will
-            //     only break something that is broken by things being removed from serviced outside
-            //     a sync lock.
-            // Basically, we never check to see if the batch has already been fetched before
-            // checking to see if anyone is fetching it - we only put the request in serviced.
-            // Therefore, we do not need to synchronise by request.result here.
-
-            serviced.add(retval);
-            pending.remove(retval);
         }
-        return retval;
     }
 
     private static class Request
@@ -341,41 +421,46 @@ public final class PrefetchManager
         }
     }
 
-    private static class ServiceThread extends Thread
+    private static class ServiceThreadFactory implements ThreadFactory
     {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread retval = new Thread(r, "PrefetchManager ServiceThread");
+            retval.setDaemon(true);
+            return retval;
+        }
+    }
+
+    private static class ServiceTask implements Runnable
+    {
+        private Request request;
+
+        public ServiceTask(Request request) {
+            this.request = request;
+        }
+
         @Override
         public void run() {
+            if (!claimRequest(request)) {
+                // Another thread needed the batch first, and is fetching it itself.
+                return;
+            }
+            //LOG.debug("ServiceTask.run - servicing request                   " + request);
             try {
-                while (true) {
-                    Request request = PrefetchManager.getRequest();
-                    //LOG.debug("ServiceThread.run - servicing request                 " + request);
-                    try {
-                        // Now, we can service this request in a normal manner, outside all locks.
-                        @SuppressWarnings("unused")
-                        List<Object> batch = request.result.fetchBatchFromObjectStore(request
-                                .batchNo, request.optimise, request.explain);
-                    } catch (Exception e) {
-                        LOG.warn("ServiceThread.run - Received exception                " + request
-                                + " " + e);
-                        // We don't care about any exception - we NEED this thread to keep running.
-                        // Otherwise, things go pear-shaped.
-                    } finally {
-                        // And then report that it is finished, inside a lock, even if we did get an
-                        // exception.
-                        reportDone(request);
-                    }
-                }
-            } catch (Error e) {
-                LOG.error("Failure of PrefetchManager service thread with error", e);
-                throw e;
+                // Now, we can service this request in a normal manner, outside all locks.
+                @SuppressWarnings("unused")
+                List<Object> batch = request.result.fetchBatchFromObjectStore(request.batchNo,
+                        request.optimise, request.explain);
+            } catch (Exception e) {
+                // We don't care about any exception - a thread that needs the batch will fetch it
+                // again and receive the exception itself.
+                LOG.warn("ServiceTask.run - Received exception                  " + request
+                        + " " + e);
             } finally {
-                // Like I said, we REALLY NEED to know if something has gone wrong here, as it is a
-                // BIG BAD BUG.
-                LOG.error("ServiceThread died unexpectedly. PrefetchManager may stop working");
-                // And decrement the count of available ServiceThreads.
-                PrefetchManager.serviceThreads--;
+                // And then report that it is finished, inside a lock, even if we did get an
+                // exception.
+                reportDone(request);
             }
         }
     }
 }
-
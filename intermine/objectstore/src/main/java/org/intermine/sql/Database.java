@@ -162,6 +162,19 @@ public class Database implements Shutdownable
         return datasource;
     }
 
+    /**
+     * Returns the maximum number of connections the connection pool of this Database will hand
+     * out at once, if the pool says.
+     *
+     * @return the maximum number of connections, or -1 if it is not known
+     */
+    public int getMaxConnections() {
+        if (datasource instanceof HikariDataSource) {
+            return ((HikariDataSource) datasource).getMaximumPoolSize();
+        }
+        return -1;
+    }
+
     /**
      * Gets a Connection to this Database
      *
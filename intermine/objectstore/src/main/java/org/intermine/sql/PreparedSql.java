@@ -0,0 +1,238 @@
+package org.intermine.sql;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An SQL query with its constant values taken out as parameters, so that queries that differ only
+ * in their values have the same SQL text. The PostgreSQL driver keeps the statements prepared on
+ * each connection keyed by their text, and after a statement has been executed a few times it
+ * plans it once on the server and reuses the plan, so such queries are not parsed and planned
+ * every time.
+ * <p>
+ * Constants are taken out where the server can tell their type from the other side: after a
+ * comparison operator, LIKE, LIMIT or OFFSET, and in a short IN list. Constants elsewhere, such as
+ * in a SELECT list, are left alone. IN lists of more than MAX_IN_LIST_PARAMETERS values, such as
+ * the ids of a bag, are left alone too, as each length of list would make a different statement,
+ * and the driver cannot send more than 32767 parameters. The parameters are bound without a type,
+ * so that the server gives each the type that the constant would have had.
+ */
+public final class PreparedSql
+{
+    /** The largest IN list whose values are taken out as parameters. */
+    public static final int MAX_IN_LIST_PARAMETERS = 10;
+
+    private String sql;
+    private List<String> parameters;
+
+    private PreparedSql(String sql, List<String> parameters) {
+        this.sql = sql;
+        this.parameters = parameters;
+    }
+
+    /**
+     * Takes the constant values out of an SQL query.
+     *
+     * @param sql an SQL query, as generated by the SqlGenerator and optimised by the
+     * QueryOptimiser
+     * @return a PreparedSql
+     */
+    public static PreparedSql parameterise(String sql) {
+        StringBuilder retval = new StringBuilder(sql.length());
+        List<String> parameters = new ArrayList<String>();
+        // Whether a constant at this point is a value that can be a parameter
+        boolean valueAllowed = false;
+        // Whether we are in an IN list, or have just passed the IN keyword
+        boolean inList = false;
+        boolean afterIn = false;
+        // Where the current IN list starts in the SQL, the result and the parameters
+        int listSqlStart = 0;
+        int listRetvalStart = 0;
+        int listParamStart = 0;
+        int i = 0;
+        int length = sql.length();
+        while (i < length) {
+            char c = sql.charAt(i);
+            boolean afterIdentifier = (i > 0) && isIdentifierChar(sql.charAt(i - 1));
+            boolean isString = (c == '\'') || ((c == 'E') && (!afterIdentifier)
+                    && (i + 1 < length) && (sql.charAt(i + 1) == '\''));
+            boolean isNumber = (!afterIdentifier) && (Character.isDigit(c) || ((c == '-')
+                        && (i + 1 < length) && Character.isDigit(sql.charAt(i + 1))));
+            if (isString) {
+                boolean escaped = (c == 'E');
+                int start = i;
+                StringBuilder value = new StringBuilder();
+                i += (escaped ? 2 : 1);
+                while (true) {
+                    if (i >= length) {
+                        // Unterminated string - leave the query as it is
+                        return new PreparedSql(sql, Collections.<String>emptyList());
+                    }
+                    char v = sql.charAt(i);
+                    if (escaped && (v == '\\') && (i + 1 < length)) {
+                        value.append(sql.charAt(i + 1));
+                        i += 2;
+                    } else if (v == '\'') {
+                        if ((i + 1 < length) && (sql.charAt(i + 1) == '\'')) {
+                            value.append('\'');
+                            i += 2;
+                        } else {
+                            i++;
+                            break;
+                        }
+                    } else {
+                        value.append(v);
+                        i++;
+                    }
+                }
+                if (valueAllowed) {
+                    retval.append('?');
+                    parameters.add(value.toString());
+                } else {
+                    retval.append(sql, start, i);
+                }
+                valueAllowed = false;
+            } else if (isNumber && (valueAllowed || (c != '-'))) {
+                int end = i + 1;
+                while ((end < length) && (Character.isDigit(sql.charAt(end))
+                            || (sql.charAt(end) == '.'))) {
+                    end++;
+                }
+                if ((end < length) && ((sql.charAt(end) == 'E') || (sql.charAt(end) == 'e'))) {
+                    end++;
+                    if ((end < length) && ((sql.charAt(end) == '-')
+                                || (sql.charAt(end) == '+'))) {
+                        end++;
+                    }
+                    while ((end < length) && Character.isDigit(sql.charAt(end))) {
+                        end++;
+                    }
+                }
+                if (valueAllowed && ((end >= length) || (!isIdentifierChar(sql.charAt(end))))) {
+                    retval.append('?');
+                    parameters.add(sql.substring(i, end));
+                } else {
+                    retval.append(sql, i, end);
+                }
+                i = end;
+                valueAllowed = false;
+            } else if (c == '"') {
+                int end = sql.indexOf('"', i + 1);
+                end = (end == -1 ? length : end + 1);
+                retval.append(sql, i, end);
+                i = end;
+                valueAllowed = false;
+            } else if (isIdentifierChar(c)) {
+                int end = i + 1;
+                while ((end < length) && isIdentifierChar(sql.charAt(end))) {
+                    end++;
+                }
+                String word = sql.substring(i, end);
+                if (inList) {
+                    keepLongList(sql, listSqlStart, i, retval, listRetvalStart, parameters,
+                            listParamStart);
+                }
+                retval.append(word);
+                i = end;
+                valueAllowed = "LIMIT".equalsIgnoreCase(word) || "OFFSET".equalsIgnoreCase(word)
+                    || "LIKE".equalsIgnoreCase(word);
+                afterIn = "IN".equalsIgnoreCase(word);
+                inList = false;
+            } else {
+                if (inList && (c != ',') && (!Character.isWhitespace(c))) {
+                    keepLongList(sql, listSqlStart, i, retval, listRetvalStart, parameters,
+                            listParamStart);
+                }
+                retval.append(c);
+                i++;
+                if ((c == '=') || (c == '<') || (c == '>') || (c == '!')) {
+                    valueAllowed = true;
+                } else if ((c == '(') && afterIn) {
+                    inList = true;
+                    valueAllowed = true;
+                    listSqlStart = i;
+                    listRetvalStart = retval.length();
+                    listParamStart = parameters.size();
+                } else if ((c == ',') && inList) {
+                    valueAllowed = true;
+                } else if (!Character.isWhitespace(c)) {
+                    valueAllowed = false;
+                    inList = false;
+                }
+                if (!Character.isWhitespace(c)) {
+                    afterIn = false;
+                }
+            }
+        }
+        if (inList) {
+            keepLongList(sql, listSqlStart, length, retval, listRetvalStart, parameters,
+                    listParamStart);
+        }
+        return new PreparedSql(retval.toString(), parameters);
+    }
+
+    /**
+     * Puts the values of an IN list that has just ended back into the SQL if there are too many
+     * of them.
+     */
+    private static void keepLongList(String sql, int sqlStart, int sqlEnd, StringBuilder retval,
+            int retvalStart, List<String> parameters, int paramStart) {
+        if (parameters.size() - paramStart > MAX_IN_LIST_PARAMETERS) {
+            retval.setLength(retvalStart);
+            retval.append(sql, sqlStart, sqlEnd);
+            parameters.subList(paramStart, parameters.size()).clear();
+        }
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || (c == '_') || (c == '$');
+    }
+
+    /**
+     * Returns the SQL with a question mark in place of each value.
+     *
+     * @return a String
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Returns the values taken out of the SQL, in order.
+     *
+     * @return a List of Strings
+     */
+    public List<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Prepares the SQL on a connection, and binds the values.
+     *
+     * @param c a Connection
+     * @return a PreparedStatement, ready to execute
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public PreparedStatement prepare(Connection c) throws SQLException {
+        PreparedStatement s = c.prepareStatement(sql);
+        for (int i = 0; i < parameters.size(); i++) {
+            s.setObject(i + 1, parameters.get(i), Types.OTHER);
+        }
+        return s;
+    }
+}
@@ -10,25 +10,47 @@ package org.intermine.sql.precompute;
  *
  */
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
+import org.apache.log4j.Logger;
 import org.intermine.sql.Database;
+import org.intermine.sql.DatabaseUtil;
 import org.intermine.util.CacheMap;
 
 /**
  * A class that provides an implementation of a cache for String-based SQL query optimisation.
+ * <p>
+ * The cache for a Database can be made persistent, in which case every cache line is also stored
+ * in a table in that database, and the cache is filled from that table when it is created. Each
+ * stored line is tagged with a fingerprint of the set of precomputed tables it was optimised
+ * against, and lines stored against any other set of precomputed tables are discarded, so the
+ * optimiser's work survives restarts until the precomputed tables change.
  *
  * @author Matthew Wakeling
  */
 public class OptimiserCache
 {
+    private static final Logger LOG = Logger.getLogger(OptimiserCache.class);
     /** Maximum number of cache linesets in the cache. */
     public static final int MAX_LINESETS = 1000;
     /** Number of events to happen before an expiration run. */
     public static final int EXPIRE_INTERVAL = 100;
+    /** The name of the table that holds persistent cache lines. */
+    public static final String TABLE_NAME = "optimiser_cache";
+    /** Maximum number of stored cache lines to load when a persistent cache is created. */
+    public static final int MAX_WARM_LINES = 10000;
+    private static final String UNIQUE_VIOLATION = "23505";
 
     // Caches need to be per-database, so we will provide a static method to retrieve a cache object
     // given a database. We need to be careful about synchronisation in this whole class.
@@ -47,6 +69,22 @@ public class OptimiserCache
         return caches.get(db);
     }
 
+    /**
+     * Makes the OptimiserCache for the given database persistent, and fills it with the cache
+     * lines previously stored in the database for the current set of precomputed tables.
+     *
+     * @param db a Database object
+     * @return the OptimiserCache object for the database
+     */
+    public static synchronized OptimiserCache getPersistentInstance(Database db) {
+        OptimiserCache retval = caches.get(db);
+        if ((retval == null) || (retval.database == null)) {
+            retval = new OptimiserCache(db);
+            caches.put(db, retval);
+        }
+        return retval;
+    }
+
     /**
      * used only for testing
      */
@@ -60,6 +98,11 @@ public class OptimiserCache
      */
     protected Map<String, Set<OptimiserCacheLine>> cacheLines;
 
+    /** The database in which cache lines are stored, or null if the cache is not persistent. */
+    protected volatile Database database = null;
+    /** The fingerprint of the precomputed tables, or null if it needs to be calculated. */
+    protected String fingerprint = null;
+
     /**
      * Constructor for this object.
      */
@@ -68,10 +111,133 @@ public class OptimiserCache
     }
 
     /**
-     * Removes all entries from the cache.
+     * Constructor for a persistent cache, which stores its cache lines in the given database, and
+     * starts with the lines already stored there for the current set of precomputed tables. If the
+     * database cannot be used, the cache carries on in memory only.
+     *
+     * @param database the Database to store cache lines in
+     */
+    public OptimiserCache(Database database) {
+        this();
+        this.database = database;
+        Connection con = null;
+        try {
+            long start = System.currentTimeMillis();
+            con = database.getConnection();
+            con.setAutoCommit(true);
+            if (!DatabaseUtil.tableExists(con, TABLE_NAME)) {
+                Statement stmt = con.createStatement();
+                stmt.execute("CREATE TABLE " + TABLE_NAME + " (fingerprint text, original text,"
+                        + " optimised text, querylimit integer)");
+                // One row per line - the original is hashed, as it can be too long to index
+                stmt.execute("CREATE UNIQUE INDEX " + TABLE_NAME + "_line ON " + TABLE_NAME
+                        + " (fingerprint, md5(original), querylimit)");
+            }
+            String currentFingerprint = getFingerprint();
+            PreparedStatement delete = con.prepareStatement("DELETE FROM " + TABLE_NAME
+                    + " WHERE fingerprint <> ?");
+            delete.setString(1, currentFingerprint);
+            int discarded = delete.executeUpdate();
+            PreparedStatement select = con.prepareStatement("SELECT original, optimised,"
+                    + " querylimit FROM " + TABLE_NAME + " WHERE fingerprint = ? LIMIT "
+                    + MAX_WARM_LINES);
+            select.setString(1, currentFingerprint);
+            ResultSet res = select.executeQuery();
+            int loaded = 0;
+            while (res.next()) {
+                addCacheLineInMemory(res.getString(1), res.getString(2), res.getInt(3));
+                loaded++;
+            }
+            LOG.info("Loaded " + loaded + " optimiser cache lines (discarded " + discarded
+                    + " stale lines) in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (SQLException e) {
+            LOG.warn("Could not load the persistent optimiser cache - it will be held in memory"
+                    + " only: " + e);
+            this.database = null;
+        } finally {
+            if (con != null) {
+                try {
+                    con.close();
+                } catch (SQLException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all entries from the cache. If the cache is persistent, the stored entries are
+     * removed as well, as this is called when the precomputed tables change.
+     */
+    public void flush() {
+        Database db;
+        synchronized (this) {
+            cacheLines.clear();
+            fingerprint = null;
+            db = database;
+        }
+        if (db != null) {
+            Connection con = null;
+            try {
+                con = db.getConnection();
+                con.setAutoCommit(true);
+                con.createStatement().execute("DELETE FROM " + TABLE_NAME);
+            } catch (SQLException e) {
+                LOG.warn("Could not flush the persistent optimiser cache: " + e);
+            } finally {
+                if (con != null) {
+                    try {
+                        con.close();
+                    } catch (SQLException e) {
+                        // Ignore
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the fingerprint of the precomputed tables be calculated again the next time it is
+     * needed. This must be called once a precomputed table has been removed from the
+     * PrecomputedTableManager, as the fingerprint may have been calculated since the cache was
+     * flushed for that table.
      */
-    public synchronized void flush() {
-        cacheLines.clear();
+    public synchronized void resetFingerprint() {
+        fingerprint = null;
+    }
+
+    /**
+     * Returns a fingerprint of the set of precomputed tables in the database of this cache, which
+     * changes whenever a precomputed table is added or dropped.
+     *
+     * @return a String
+     * @throws SQLException if the precomputed tables cannot be read
+     */
+    protected synchronized String getFingerprint() throws SQLException {
+        if (fingerprint == null) {
+            Set<String> tables = new TreeSet<String>();
+            for (PrecomputedTable pt : PrecomputedTableManager.getInstance(database)
+                    .getPrecomputedTables()) {
+                tables.add(pt.getName() + "\t" + pt.getOriginalSql());
+            }
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            for (String table : tables) {
+                md.update(table.getBytes());
+                md.update((byte) '\n');
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 15, 16));
+                sb.append(Character.forDigit(b & 15, 16));
+            }
+            fingerprint = sb.toString();
+        }
+        return fingerprint;
     }
 
     /**
@@ -81,13 +247,66 @@ public class OptimiserCache
      * @param optimised the optimised SQL string (stripped of LIMIT and OFFSET)
      * @param limit the limit that was used during the optimisation
      */
-    public synchronized void addCacheLine(String original, String optimised, int limit) {
+    public void addCacheLine(String original, String optimised, int limit) {
         if (original.toUpperCase().startsWith("EXPLAIN ")) {
             original = original.substring(8);
         }
         if (optimised.toUpperCase().startsWith("EXPLAIN ")) {
             optimised = optimised.substring(8);
         }
+        addCacheLineInMemory(original, optimised, limit);
+        if (database != null) {
+            storeCacheLine(original, optimised, limit);
+        }
+    }
+
+    /**
+     * Stores a cache line in the database of a persistent cache. If that fails, the cache stops
+     * being persistent.
+     *
+     * @param original the original SQL string (stripped of LIMIT and OFFSET)
+     * @param optimised the optimised SQL string (stripped of LIMIT and OFFSET)
+     * @param limit the limit that was used during the optimisation
+     */
+    protected void storeCacheLine(String original, String optimised, int limit) {
+        Connection con = null;
+        try {
+            String currentFingerprint = getFingerprint();
+            con = database.getConnection();
+            con.setAutoCommit(true);
+            PreparedStatement insert = con.prepareStatement("INSERT INTO " + TABLE_NAME
+                    + " (fingerprint, original, optimised, querylimit) SELECT ?, ?, ?, ?"
+                    + " WHERE NOT EXISTS (SELECT 1 FROM " + TABLE_NAME + " WHERE fingerprint = ?"
+                    + " AND md5(original) = md5(?) AND querylimit = ?)");
+            insert.setString(1, currentFingerprint);
+            insert.setString(2, original);
+            insert.setString(3, optimised);
+            insert.setInt(4, limit);
+            insert.setString(5, currentFingerprint);
+            insert.setString(6, original);
+            insert.setInt(7, limit);
+            insert.executeUpdate();
+        } catch (SQLException e) {
+            if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                // Another process stored the same line at the same time
+                return;
+            }
+            LOG.warn("Could not store optimiser cache line - the cache will be held in memory"
+                    + " only from now on: " + e);
+            database = null;
+        } finally {
+            if (con != null) {
+                try {
+                    con.close();
+                } catch (SQLException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private synchronized void addCacheLineInMemory(String original, String optimised,
+            int limit) {
         Set<OptimiserCacheLine> lines = cacheLines.get(original);
         if (lines == null) {
             lines = new HashSet<OptimiserCacheLine>();
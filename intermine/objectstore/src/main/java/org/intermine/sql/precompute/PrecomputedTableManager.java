@@ -176,6 +176,8 @@ public class PrecomputedTableManager
             addTableToDatabase(pt, indexes, true);
             precomputedTables.add(pt);
             queryStrings.put(queryString, pt);
+            // Queries optimised before may do better with the new table
+            OptimiserCache.getInstance(database).flush();
         }
     }
 
@@ -193,6 +195,7 @@ public class PrecomputedTableManager
         }
 
         types.clear();
+        OptimiserCache.getInstance(database).resetFingerprint();
     }
 
     /**
@@ -222,6 +225,7 @@ public class PrecomputedTableManager
                 String queryString = pt.getOriginalSql();
                 Map<String, PrecomputedTable> queryStrings = types.get(pt.getCategory());
                 queryStrings.remove(queryString);
+                OptimiserCache.getInstance(database).resetFingerprint();
             }
         }
     }
@@ -247,6 +251,7 @@ public class PrecomputedTableManager
         String queryString = pt.getOriginalSql();
         Map<String, PrecomputedTable> queryStrings = types.get(pt.getCategory());
         queryStrings.remove(queryString);
+        OptimiserCache.getInstance(database).resetFingerprint();
     }
 
     /**
@@ -381,6 +386,8 @@ public class PrecomputedTableManager
      * @throws SQLException if an error occurs in the underlying database
      */
     public void deleteTableFromDatabase(String name) throws SQLException {
+        // Callers that remove the table from precomputedTables afterwards also reset the
+        // fingerprint of the OptimiserCache, once the table is gone from the set
         OptimiserCache oc = OptimiserCache.getInstance(database);
         oc.flush();
         Connection con = null;
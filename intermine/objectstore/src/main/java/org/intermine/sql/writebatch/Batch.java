@@ -20,6 +20,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.intermine.util.ExecutionService;
 
 /**
  * A class representing a collection of writes to an SQL database. This class is intended for the
@@ -66,10 +67,7 @@ public class Batch
         // if/when we need to hunt down memory leaks. Remember kids,
         // Only YOU can prevent memory leaks (by closing your objectstore writers)
         LOG.debug("Created batch " + id, e);
-        Thread thread = new Thread(flusher);
-        thread.setDaemon(true);
-        thread.setName("WriteBatch Flusher - " + id);
-        thread.start();
+        ExecutionService.execute("WriteBatch Flusher - " + id, flusher);
     }
 
     /**
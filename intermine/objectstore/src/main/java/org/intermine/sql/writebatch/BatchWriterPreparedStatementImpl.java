@@ -86,18 +86,19 @@ public class BatchWriterPreparedStatementImpl extends BatchWriterSimpleImpl
     @Override
     protected int doIndirectionInserts(String name,
             IndirectionTableBatch table, List<FlushJob> batches) throws SQLException {
-        if (!table.getRowsToInsert().isEmpty()) {
+        long[] rows = table.getRowsToInsert();
+        if (rows.length > 0) {
             String sql = "INSERT INTO " + name + " (" + table.getLeftColName() + ", "
                 + table.getRightColName() + ") VALUES (?, ?)";
             PreparedStatement prepS = con.prepareStatement(sql);
-            for (Row row : table.getRowsToInsert()) {
-                prepS.setInt(1, row.getLeft());
-                prepS.setInt(2, row.getRight());
+            for (long row : rows) {
+                prepS.setInt(1, IndirectionTableBatch.getLeft(row));
+                prepS.setInt(2, IndirectionTableBatch.getRight(row));
                 prepS.addBatch();
             }
             batches.add(new FlushJobStatementBatchImpl(prepS));
         }
-        return table.getRowsToInsert().size();
+        return rows.length;
     }
 
     /**
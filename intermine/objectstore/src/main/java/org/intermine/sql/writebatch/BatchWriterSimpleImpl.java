@@ -15,10 +15,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
-import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -226,9 +224,9 @@ public class BatchWriterSimpleImpl implements BatchWriter
      */
     protected int doIndirectionDeletes(String name,
             IndirectionTableBatch table) throws SQLException {
-        Set<Row> rows = new CombinedSet<Row>(table.getRowsToDelete(), table.getRowsToInsert());
-        if (!rows.isEmpty()) {
-            if (rows.size() > deleteTempTableSize) {
+        long[] rows = table.getRows();
+        if (rows.length > 0) {
+            if (rows.length > deleteTempTableSize) {
                 String tempTableName = "deletes_from_" + name;
                 addToPreDeleteBatch("CREATE TABLE " + tempTableName + " (a integer, b integer)");
                 IndirectionTableBatch tableBatch = new IndirectionTableBatch("a", "b", rows);
@@ -238,33 +236,42 @@ public class BatchWriterSimpleImpl implements BatchWriter
                         + tempTableName + ")");
                 addToPostDeleteBatch("DROP TABLE " + tempTableName);
             } else {
-                StringBuffer sql = new StringBuffer("DELETE FROM ").append(name).append(" WHERE (");
-                boolean needComma = false;
+                // The rows are sorted, so rows with the same left value are grouped into one
+                // IN list
+                StringBuffer sql = null;
                 int statementSize = 0;
-                for (Row row : rows) {
-                    if (needComma) {
-                        sql.append(" OR ");
+                int lastLeft = 0;
+                for (long row : rows) {
+                    int left = IndirectionTableBatch.getLeft(row);
+                    if (sql == null) {
+                        sql = new StringBuffer("DELETE FROM ").append(name).append(" WHERE (");
+                    } else if (left == lastLeft) {
+                        sql.append(", ");
+                    } else {
+                        sql.append(")) OR ");
                     }
-                    sql.append("(").append(table.getLeftColName()).append(" = ")
-                        .append(row.getLeft()).append(" AND ").append(table.getRightColName())
-                        .append(" = ").append(row.getRight()).append(")");
-                    needComma = true;
+                    if ((statementSize == 0) || (left != lastLeft)) {
+                        sql.append("(").append(table.getLeftColName()).append(" = ")
+                            .append(left).append(" AND ").append(table.getRightColName())
+                            .append(" IN (");
+                    }
+                    sql.append(IndirectionTableBatch.getRight(row));
+                    lastLeft = left;
                     statementSize++;
                     if (statementSize >= 500) {
-                        statementSize = 0;
-                        sql.append(")");
+                        sql.append(")))");
                         addToPostDeleteBatch(sql.toString());
-                        sql = new StringBuffer("DELETE FROM ").append(name).append(" WHERE (");
-                        needComma = false;
+                        sql = null;
+                        statementSize = 0;
                     }
                 }
                 if (statementSize > 0) {
-                    sql.append(")");
+                    sql.append(")))");
                     addToPostDeleteBatch(sql.toString());
                 }
             }
         }
-        return table.getRowsToDelete().size();
+        return table.getDeleteCount();
     }
 
     /**
@@ -279,16 +286,18 @@ public class BatchWriterSimpleImpl implements BatchWriter
     protected int doIndirectionInserts(String name,
             IndirectionTableBatch table, @SuppressWarnings("unused") List<FlushJob> batches)
         throws SQLException {
-        if (!table.getRowsToInsert().isEmpty()) {
+        long[] rows = table.getRowsToInsert();
+        if (rows.length > 0) {
             String preamble = "INSERT INTO " + name + " (" + table.getLeftColName() + ", "
                 + table.getRightColName() + ") VALUES (";
-            for (Row row : table.getRowsToInsert()) {
-                StringBuffer sql = new StringBuffer(preamble).append(row.getLeft()).append(", ")
-                    .append(row.getRight()).append(")");
+            for (long row : rows) {
+                StringBuffer sql = new StringBuffer(preamble)
+                    .append(IndirectionTableBatch.getLeft(row)).append(", ")
+                    .append(IndirectionTableBatch.getRight(row)).append(")");
                 addToLastBatch(sql.toString());
             }
         }
-        return table.getRowsToInsert().size();
+        return rows.length;
     }
 
     /**
@@ -330,57 +339,6 @@ public class BatchWriterSimpleImpl implements BatchWriter
         addToPreDeleteBatch(sql);
     }
 
-    private static class CombinedSet<T> extends AbstractSet<T>
-    {
-        private Set<T> setA, setB;
-
-        public CombinedSet(Set<T> setA, Set<T> setB) {
-            this.setA = setA;
-            this.setB = setB;
-        }
-
-        @Override
-        public int size() {
-            return setA.size() + setB.size();
-        }
-
-        @Override
-        public Iterator<T> iterator() {
-            return new CombinedIterator();
-        }
-
-        private class CombinedIterator implements Iterator<T>
-        {
-            private boolean state = true;
-            private Iterator<T> iter = setA.iterator();
-
-            public boolean hasNext() {
-                if (state) {
-                    if (iter.hasNext()) {
-                        return true;
-                    } else {
-                        state = false;
-                        iter = setB.iterator();
-                        return iter.hasNext();
-                    }
-                } else {
-                    return iter.hasNext();
-                }
-            }
-
-            public T next() {
-                if (state && (!iter.hasNext())) {
-                    iter = setB.iterator();
-                }
-                return iter.next();
-            }
-
-            public void remove() {
-                throw new UnsupportedOperationException();
-            }
-        }
-    }
-
     /*
      * All code above this comment is called by the thread that calls into the Batch.
      * All code below this comment is called by the Batch writer thread.
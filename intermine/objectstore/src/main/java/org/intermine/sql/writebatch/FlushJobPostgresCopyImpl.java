@@ -13,6 +13,7 @@ package org.intermine.sql.writebatch;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.sql.SQLException;
+import org.postgresql.copy.CopyIn;
 import org.postgresql.copy.CopyManager;
 
 /**
@@ -25,6 +26,7 @@ public class FlushJobPostgresCopyImpl implements FlushJob
     private CopyManager copyManager;
     private String sql;
     private byte[] data;
+    private PostgresCopyBuffer buffer;
     private int size;
 
     /**
@@ -42,12 +44,42 @@ public class FlushJobPostgresCopyImpl implements FlushJob
         this.size = size;
     }
 
+    /**
+     * Constructor for this class, taking the COPY data as a PostgresCopyBuffer, which is streamed
+     * to the database a segment at a time and released once it has been written.
+     *
+     * @param copyManager the CopyManager to use
+     * @param sql the SQL String containing the COPY command
+     * @param buffer the COPY data
+     */
+    public FlushJobPostgresCopyImpl(CopyManager copyManager, String sql,
+            PostgresCopyBuffer buffer) {
+        this.copyManager = copyManager;
+        this.sql = sql;
+        this.buffer = buffer;
+        this.size = buffer.size();
+    }
+
     /**
      * {@inheritDoc}
      */
     public void flush() throws SQLException {
         try {
-            copyManager.copyIn(sql, new ByteArrayInputStream(data, 0, size));
+            if (buffer == null) {
+                copyManager.copyIn(sql, new ByteArrayInputStream(data, 0, size));
+            } else {
+                CopyIn copyIn = copyManager.copyIn(sql);
+                try {
+                    buffer.writeTo(copyIn);
+                    copyIn.endCopy();
+                } finally {
+                    if (copyIn.isActive()) {
+                        copyIn.cancelCopy();
+                    }
+                }
+                buffer.release();
+                buffer = null;
+            }
             copyManager = null;
             sql = null;
             data = null;
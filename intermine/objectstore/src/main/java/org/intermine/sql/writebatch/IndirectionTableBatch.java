@@ -10,19 +10,36 @@ package org.intermine.sql.writebatch;
  *
  */
 
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.Arrays;
+
+import org.intermine.util.IntArray;
 
 /**
  * A class representing all changes to be made to an SQL indirection table.
+ * <p>
+ * The rows are held without boxing in an open-addressed hash table with linear probing, with three
+ * ints per slot: the left value, the right value, and whether the row is to be inserted or deleted.
+ * A later change to a row replaces an earlier one, so each row is held once. Large tables are
+ * memory-mapped, outside the heap - see IntArray. The rows are handed to the BatchWriter as
+ * sorted arrays of longs, each holding a left value in its high half and a right value in its low
+ * half, so that they are written in index order.
  *
  * @author Matthew Wakeling
  */
 public class IndirectionTableBatch implements Table
 {
+    private static final int MIN_CAPACITY = 16;
+    // Tables with more slots than this are memory-mapped
+    private static final int OFF_HEAP_CAPACITY = 1 << 20;
+    private static final int EMPTY = 0;
+    private static final int INSERT = 1;
+    private static final int DELETE = 2;
+
     private String leftColName, rightColName;
-    private Set<Row> rowsToDelete;
-    private Set<Row> rowsToInsert;
+    private IntArray slots;
+    private int mask;
+    private int used = 0;
+    private int insertCount = 0;
     private int size = 0;
 
     /**
@@ -34,8 +51,7 @@ public class IndirectionTableBatch implements Table
     public IndirectionTableBatch(String leftColName, String rightColName) {
         this.leftColName = leftColName;
         this.rightColName = rightColName;
-        rowsToDelete = new TreeSet<Row>();
-        rowsToInsert = new TreeSet<Row>();
+        allocate(MIN_CAPACITY);
     }
 
     /**
@@ -43,13 +59,13 @@ public class IndirectionTableBatch implements Table
      *
      * @param leftColName the left column name
      * @param rightColName the right column name
-     * @param toInsert the Set of Rows to insert
+     * @param toInsert the rows to insert, as returned by getRows()
      */
-    protected IndirectionTableBatch(String leftColName, String rightColName, Set<Row> toInsert) {
-        this.leftColName = leftColName;
-        this.rightColName = rightColName;
-        rowsToDelete = new TreeSet<Row>();
-        this.rowsToInsert = toInsert;
+    protected IndirectionTableBatch(String leftColName, String rightColName, long[] toInsert) {
+        this(leftColName, rightColName);
+        for (long row : toInsert) {
+            addRow(getLeft(row), getRight(row));
+        }
     }
 
     /**
@@ -61,12 +77,7 @@ public class IndirectionTableBatch implements Table
      * @return the number of bytes by which the batch should be deemed to have expanded
      */
     public int addRow(int left, int right) {
-        Row row = new Row(left, right);
-        boolean removedDelete = rowsToDelete.remove(row);
-        boolean addedInsert = rowsToInsert.add(row);
-        int deltaSize = (addedInsert ? (removedDelete ? 0 : 16) : 0);
-        size += deltaSize;
-        return deltaSize;
+        return put(left, right, INSERT);
     }
 
     /**
@@ -78,12 +89,83 @@ public class IndirectionTableBatch implements Table
      * @return the number of bytes by which the batch should be deemed to have expanded
      */
     public int deleteRow(int left, int right) {
-        Row row = new Row(left, right);
-        boolean removedInsert = rowsToInsert.remove(row);
-        boolean addedDelete = rowsToDelete.add(row);
-        int deltaSize = (addedDelete ? (removedInsert ? 0 : 16) : 0);
-        size += deltaSize;
-        return deltaSize;
+        return put(left, right, DELETE);
+    }
+
+    private int put(int left, int right, int state) {
+        int index = (hash(left, right) & mask) * 3;
+        int current;
+        while ((current = slots.get(index + 2)) != EMPTY) {
+            if ((slots.get(index) == left) && (slots.get(index + 1) == right)) {
+                if (current != state) {
+                    slots.set(index + 2, state);
+                    insertCount += (state == INSERT ? 1 : -1);
+                }
+                return 0;
+            }
+            index = (index + 3) % slots.length();
+        }
+        slots.set(index, left);
+        slots.set(index + 1, right);
+        slots.set(index + 2, state);
+        used++;
+        if (state == INSERT) {
+            insertCount++;
+        }
+        size += 16;
+        if (3L * used > 2L * (mask + 1)) {
+            rehash((mask + 1) * 2);
+        }
+        return 16;
+    }
+
+    private static int hash(int left, int right) {
+        int h = (left * 0x9E3779B9) ^ (right * 0x85EBCA6B);
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int capacity) {
+        slots = IntArray.allocate(capacity * 3, capacity > OFF_HEAP_CAPACITY);
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        IntArray old = slots;
+        allocate(capacity);
+        for (int i = 0; i < old.length(); i += 3) {
+            int state = old.get(i + 2);
+            if (state != EMPTY) {
+                int left = old.get(i);
+                int right = old.get(i + 1);
+                int index = (hash(left, right) & mask) * 3;
+                while (slots.get(index + 2) != EMPTY) {
+                    index = (index + 3) % slots.length();
+                }
+                slots.set(index, left);
+                slots.set(index + 1, right);
+                slots.set(index + 2, state);
+            }
+        }
+    }
+
+    /**
+     * Returns the left value of a row in an array returned by this class.
+     *
+     * @param row a row
+     * @return the left value
+     */
+    public static int getLeft(long row) {
+        return (int) (row >>> 32);
+    }
+
+    /**
+     * Returns the right value of a row in an array returned by this class.
+     *
+     * @param row a row
+     * @return the right value
+     */
+    public static int getRight(long row) {
+        return ((int) row) ^ Integer.MIN_VALUE;
     }
 
     /**
@@ -105,29 +187,65 @@ public class IndirectionTableBatch implements Table
     }
 
     /**
-     * Returns the Set of rows to delete.
+     * Returns the number of rows to delete.
      *
-     * @return rowsToDelete
+     * @return an int
      */
-    public Set<Row> getRowsToDelete() {
-        return rowsToDelete;
+    public int getDeleteCount() {
+        return used - insertCount;
     }
 
     /**
-     * Returns the Set of rows to insert.
+     * Returns the number of rows to insert.
      *
-     * @return rowsToInsert
+     * @return an int
      */
-    public Set<Row> getRowsToInsert() {
-        return rowsToInsert;
+    public int getInsertCount() {
+        return insertCount;
+    }
+
+    /**
+     * Returns the rows to insert, sorted by left value and then by right value.
+     *
+     * @return an array of rows, to be read with getLeft() and getRight()
+     */
+    public long[] getRowsToInsert() {
+        return getSortedRows(INSERT, insertCount);
+    }
+
+    /**
+     * Returns every row in the batch, sorted by left value and then by right value. These are the
+     * rows that must be deleted from the database before the rows to insert are written, so that
+     * they are not inserted twice.
+     *
+     * @return an array of rows, to be read with getLeft() and getRight()
+     */
+    public long[] getRows() {
+        return getSortedRows(EMPTY, used);
+    }
+
+    private long[] getSortedRows(int state, int count) {
+        long[] retval = new long[count];
+        int pos = 0;
+        for (int i = 0; i < slots.length(); i += 3) {
+            int slotState = slots.get(i + 2);
+            if ((slotState != EMPTY) && ((state == EMPTY) || (slotState == state))) {
+                // The sign bit of the right value is flipped, so that the longs sort by it
+                retval[pos++] = (((long) slots.get(i)) << 32)
+                    | ((slots.get(i + 1) ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+            }
+        }
+        Arrays.sort(retval);
+        return retval;
     }
 
     /**
      * Clears the batch.
      */
     public void clear() {
-        rowsToInsert.clear();
-        rowsToDelete.clear();
+        allocate(MIN_CAPACITY);
+        used = 0;
+        insertCount = 0;
         size = 0;
     }
 
@@ -0,0 +1,257 @@
+package org.intermine.sql.writebatch;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.postgresql.copy.CopyIn;
+
+/**
+ * A buffer of data for a binary COPY, held as a list of fixed-size segments rather than one
+ * growing array. Filling the buffer never copies data already written, and the segments are
+ * returned to a shared pool by release() once the data has been sent, so that writing a
+ * succession of batches does not keep allocating large arrays.
+ * <p>
+ * Numbers are written in network byte order. This class is not thread-safe.
+ */
+public class PostgresCopyBuffer
+{
+    /** The size of each segment. */
+    public static final int SEGMENT_SIZE = 65536;
+    private static final int MAX_POOLED_SEGMENTS = 128;
+    private static final Queue<byte[]> POOL = new ConcurrentLinkedQueue<byte[]>();
+    private static final AtomicInteger POOL_SIZE = new AtomicInteger(0);
+
+    private List<byte[]> segments = new ArrayList<byte[]>();
+    private int[] lengths = new int[4];
+    private byte[] current = null;
+    private int pos = SEGMENT_SIZE;
+    private int size = 0;
+
+    /**
+     * Makes sure that the current segment has room for the given number of bytes, starting a new
+     * segment if necessary. The number must not be greater than SEGMENT_SIZE.
+     *
+     * @param bytes the number of bytes about to be written
+     */
+    protected void ensure(int bytes) {
+        if (pos + bytes > SEGMENT_SIZE) {
+            if (current != null) {
+                lengths[segments.size() - 1] = pos;
+            }
+            current = POOL.poll();
+            if (current == null) {
+                current = new byte[SEGMENT_SIZE];
+            } else {
+                POOL_SIZE.decrementAndGet();
+            }
+            segments.add(current);
+            if (segments.size() > lengths.length) {
+                int[] newLengths = new int[lengths.length * 2];
+                System.arraycopy(lengths, 0, newLengths, 0, lengths.length);
+                lengths = newLengths;
+            }
+            pos = 0;
+        }
+    }
+
+    /**
+     * Writes a byte.
+     *
+     * @param v the byte
+     */
+    public void writeByte(int v) {
+        ensure(1);
+        current[pos++] = (byte) v;
+        size++;
+    }
+
+    /**
+     * Writes a two-byte integer.
+     *
+     * @param v the integer
+     */
+    public void writeShort(int v) {
+        ensure(2);
+        current[pos++] = (byte) (v >>> 8);
+        current[pos++] = (byte) v;
+        size += 2;
+    }
+
+    /**
+     * Writes a four-byte integer.
+     *
+     * @param v the integer
+     */
+    public void writeInt(int v) {
+        ensure(4);
+        current[pos++] = (byte) (v >>> 24);
+        current[pos++] = (byte) (v >>> 16);
+        current[pos++] = (byte) (v >>> 8);
+        current[pos++] = (byte) v;
+        size += 4;
+    }
+
+    /**
+     * Writes an eight-byte integer.
+     *
+     * @param v the integer
+     */
+    public void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    /**
+     * Writes the low bytes of each character of an ASCII String.
+     *
+     * @param s the String
+     */
+    public void writeAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    /**
+     * Writes part of a String in UTF-8. Characters that are half of a surrogate pair without the
+     * other half are written as '?', as String.getBytes() does.
+     *
+     * @param s the String
+     */
+    public void writeUTF8(String s) {
+        int length = s.length();
+        int i = 0;
+        while (i < length) {
+            ensure(4);
+            byte[] buf = current;
+            int p = pos;
+            // Leave room for the longest encoding of a character
+            int limit = SEGMENT_SIZE - 4;
+            while ((i < length) && (p <= limit)) {
+                char c = s.charAt(i++);
+                if (c < 0x80) {
+                    buf[p++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[p++] = (byte) (0xC0 | (c >> 6));
+                    buf[p++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && (i < length)
+                        && Character.isLowSurrogate(s.charAt(i))) {
+                    int cp = Character.toCodePoint(c, s.charAt(i++));
+                    buf[p++] = (byte) (0xF0 | (cp >> 18));
+                    buf[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[p++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buf[p++] = (byte) '?';
+                } else {
+                    buf[p++] = (byte) (0xE0 | (c >> 12));
+                    buf[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[p++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            size += p - pos;
+            pos = p;
+        }
+    }
+
+    /**
+     * Returns the number of bytes that writeUTF8 would write for a String.
+     *
+     * @param s the String
+     * @return the number of bytes
+     */
+    public static int utf8Length(String s) {
+        int length = s.length();
+        int retval = length;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    retval++;
+                } else if (Character.isHighSurrogate(c) && (i + 1 < length)
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    // Four bytes for the two chars
+                    retval += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    retval += 2;
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the number of bytes written to this buffer.
+     *
+     * @return an int
+     */
+    public int size() {
+        return size;
+    }
+
+    private void finishSegment() {
+        if (current != null) {
+            lengths[segments.size() - 1] = pos;
+        }
+    }
+
+    /**
+     * Sends the contents of this buffer to a COPY operation, one segment at a time.
+     *
+     * @param copyIn the COPY operation
+     * @throws SQLException if there is an error writing to the database
+     */
+    public void writeTo(CopyIn copyIn) throws SQLException {
+        finishSegment();
+        for (int i = 0; i < segments.size(); i++) {
+            copyIn.writeToCopy(segments.get(i), 0, lengths[i]);
+        }
+    }
+
+    /**
+     * Writes the contents of this buffer to an OutputStream.
+     *
+     * @param out the OutputStream
+     * @throws IOException if there is an error writing to the OutputStream
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        finishSegment();
+        for (int i = 0; i < segments.size(); i++) {
+            out.write(segments.get(i), 0, lengths[i]);
+        }
+    }
+
+    /**
+     * Returns the segments of this buffer to the pool. The buffer must not be used afterwards.
+     */
+    public void release() {
+        for (byte[] segment : segments) {
+            if (POOL_SIZE.incrementAndGet() <= MAX_POOLED_SEGMENTS) {
+                POOL.offer(segment);
+            } else {
+                POOL_SIZE.decrementAndGet();
+            }
+        }
+        segments.clear();
+        current = null;
+        pos = SEGMENT_SIZE;
+        size = 0;
+    }
+}
@@ -0,0 +1,269 @@
+package org.intermine.sql.writebatch;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.intermine.model.StringConstructor;
+
+/**
+ * Encodes rows of a table into the PostgreSQL binary COPY format, in a PostgresCopyBuffer.
+ * <p>
+ * The encoder keeps a ColumnWriter for each column, chosen from the type of the first value in
+ * that column, so each value is written by a writer specialised for its type after a single class
+ * comparison, without going through a chain of instanceof tests. A value of a different type to
+ * the others in its column simply causes the writer for that column to be chosen again.
+ */
+public class PostgresCopyEncoder
+{
+    private static final BigInteger TEN = BigInteger.valueOf(10);
+    private static final BigInteger HUNDRED = BigInteger.valueOf(100);
+    private static final BigInteger THOUSAND = BigInteger.valueOf(1000);
+    private static final BigInteger TEN_THOUSAND = BigInteger.valueOf(10000);
+
+    private final PostgresCopyBuffer buffer;
+    private final ColumnWriter[] writers;
+    private int rowCount = 0;
+
+    /**
+     * Constructs an encoder for a table, and writes the COPY header.
+     *
+     * @param buffer the buffer to write to
+     * @param columnCount the number of columns in each row
+     */
+    public PostgresCopyEncoder(PostgresCopyBuffer buffer, int columnCount) {
+        this.buffer = buffer;
+        this.writers = new ColumnWriter[columnCount];
+        buffer.writeAscii("PGCOPY\n");
+        buffer.writeByte(255);
+        buffer.writeAscii("\r\n");
+        buffer.writeByte(0); // Signature done
+        buffer.writeInt(0); // Flags - we aren't supplying OIDS
+        buffer.writeInt(0); // Length of header extension
+    }
+
+    /**
+     * Writes a row.
+     *
+     * @param values the values of the row, of which the first columnCount are written
+     */
+    public void writeRow(Object[] values) {
+        int columnCount = writers.length;
+        buffer.writeShort(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            Object value = values[i];
+            if (value == null) {
+                buffer.writeInt(-1);
+            } else {
+                ColumnWriter writer = writers[i];
+                if ((writer == null) || (writer.type != value.getClass())) {
+                    writer = forValue(value);
+                    writers[i] = writer;
+                }
+                writer.write(buffer, value);
+            }
+        }
+        rowCount++;
+    }
+
+    /**
+     * Writes a row of two integers, as used by indirection tables.
+     *
+     * @param left the first value
+     * @param right the second value
+     */
+    public void writeRow(int left, int right) {
+        buffer.writeShort(2);
+        buffer.writeInt(4);
+        buffer.writeInt(left);
+        buffer.writeInt(4);
+        buffer.writeInt(right);
+        rowCount++;
+    }
+
+    /**
+     * Writes the COPY trailer. No more rows may be written afterwards.
+     */
+    public void finish() {
+        buffer.writeShort(-1);
+    }
+
+    /**
+     * Returns the number of rows written so far.
+     *
+     * @return an int
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the buffer that this encoder writes to.
+     *
+     * @return a PostgresCopyBuffer
+     */
+    public PostgresCopyBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the ColumnWriter for the type of a value.
+     *
+     * @param value a non-null value
+     * @return a ColumnWriter
+     * @throws IllegalArgumentException if values of that type cannot be stored
+     */
+    protected static ColumnWriter forValue(Object value) {
+        Class<?> type = value.getClass();
+        for (ColumnWriter writer : WRITERS) {
+            if (writer.type == type) {
+                return writer;
+            }
+        }
+        for (ColumnWriter writer : WRITERS) {
+            if (writer.type.isInstance(value)) {
+                return writer;
+            }
+        }
+        throw new IllegalArgumentException("Cannot store values of type " + type);
+    }
+
+    /**
+     * Writes one value of a particular type to a buffer, preceded by its length.
+     */
+    protected abstract static class ColumnWriter
+    {
+        final Class<?> type;
+
+        ColumnWriter(Class<?> type) {
+            this.type = type;
+        }
+
+        abstract void write(PostgresCopyBuffer buffer, Object value);
+    }
+
+    // TODO: Add support for UUID.
+    private static final ColumnWriter[] WRITERS = new ColumnWriter[] {
+        new ColumnWriter(Integer.class) {
+            @Override
+            void write(PostgresCopyBuffer buffer, Object value) {
+                buffer.writeInt(4);
+                buffer.writeInt(((Integer) value).intValue());
+            }
+        },
+        new ColumnWriter(String.class) {
+            @Override
+            void write(PostgresCopyBuffer buffer, Object value) {
+                String s = (String) value;
+                buffer.writeInt(PostgresCopyBuffer.utf8Length(s));
+                buffer.writeUTF8(s);
+            }
+        },
+        new ColumnWriter(StringConstructor.class) {
+            @Override
+            void write(PostgresCopyBuffer buffer, Object value) {
+                int length = 0;
+                for (String s : ((StringConstructor) value).getStrings()) {
+                    length += PostgresCopyBuffer.utf8Length(s);
+                }
+                buffer.writeInt(length);
+                for (String s : ((StringConstructor) value).getStrings()) {
+                    buffer.writeUTF8(s);
+                }
+            }
+        },
+        new ColumnWriter(Long.class) {
+            @Override
+            void write(PostgresCopyBuffer buffer, Object value) {
+                buffer.writeInt(8);
+                buffer.writeLong(((Long) value).longValue());
+            }
+        },
+        new ColumnWriter(Boolean.class) {
+            @Override
+            void write(PostgresCopyBuffer buffer, Object value) {
+                buffer.writeInt(1);
+                buffer.writeByte(((Boolean) value).booleanValue() ? 1 : 0);
+            }
+        },
+        new ColumnWriter(Short.class) {
+            @Override
+            void write(PostgresCopyBuffer buffer, Object value) {
+                buffer.writeInt(2);
+                buffer.writeShort(((Short) value).intValue());
+            }
+        },
+        new ColumnWriter(Float.class) {
+            @Override
+            void write(PostgresCopyBuffer buffer, Object value) {
+                buffer.writeInt(4);
+                buffer.writeInt(Float.floatToIntBits(((Float) value).floatValue()));
+            }
+        },
+        new ColumnWriter(Double.class) {
+            @Override
+            void write(PostgresCopyBuffer buffer, Object value) {
+                buffer.writeInt(8);
+                buffer.writeLong(Double.doubleToLongBits(((Double) value).doubleValue()));
+            }
+        },
+        new ColumnWriter(BigDecimal.class) {
+            @Override
+            void write(PostgresCopyBuffer buffer, Object value) {
+                writeNumeric(buffer, (BigDecimal) value);
+            }
+        }
+    };
+
+    /**
+     * Writes a BigDecimal in the format of the numeric type, which is a list of base 10000 digits.
+     */
+    private static void writeNumeric(PostgresCopyBuffer buffer, BigDecimal value) {
+        BigInteger unscaledValue = value.unscaledValue();
+        int signum = value.signum();
+        if (signum == -1) {
+            unscaledValue = unscaledValue.negate();
+        }
+        int scale = value.scale();
+        int nBaseScale = (scale + 3) / 4;
+        int nBaseScaleRemainder = scale % 4;
+        // Least significant digit first
+        int[] digits = new int[unscaledValue.bitLength() / 13 + 2];
+        int digitCount = 0;
+        if (nBaseScaleRemainder == 1) {
+            BigInteger[] res = unscaledValue.divideAndRemainder(TEN);
+            digits[digitCount++] = res[1].intValue() * 1000;
+            unscaledValue = res[0];
+        } else if (nBaseScaleRemainder == 2) {
+            BigInteger[] res = unscaledValue.divideAndRemainder(HUNDRED);
+            digits[digitCount++] = res[1].intValue() * 100;
+            unscaledValue = res[0];
+        } else if (nBaseScaleRemainder == 3) {
+            BigInteger[] res = unscaledValue.divideAndRemainder(THOUSAND);
+            digits[digitCount++] = res[1].intValue() * 10;
+            unscaledValue = res[0];
+        }
+        while (unscaledValue.signum() != 0) {
+            BigInteger[] res = unscaledValue.divideAndRemainder(TEN_THOUSAND);
+            digits[digitCount++] = res[1].intValue();
+            unscaledValue = res[0];
+        }
+        buffer.writeInt(8 + (2 * digitCount));
+        buffer.writeShort(digitCount);
+        buffer.writeShort(digitCount - nBaseScale - 1);
+        buffer.writeShort(signum == 1 ? 0x0000 : 0x4000);
+        buffer.writeShort(scale);
+        for (int i = digitCount - 1; i >= 0; i--) {
+            buffer.writeShort(digits[i]);
+        }
+    }
+}
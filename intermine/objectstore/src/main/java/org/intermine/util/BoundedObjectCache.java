@@ -0,0 +1,477 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An ObjectCache that holds at most a fixed number of entries, with an admission policy modelled
+ * on W-TinyLFU.
+ * <p>
+ * The cache is split into a number of independently locked segments, chosen by the hash of the
+ * key, so that concurrent readers only contend when they hit the same segment. Each segment holds
+ * a small LRU window that every new entry enters, and a larger LRU main region. When an entry
+ * falls off the end of the window, it is only admitted to the main region if it has been used
+ * more often recently than the entry it would displace, as estimated by a compact frequency
+ * sketch. This keeps one-off lookups (for instance a large scan of objects) from flushing the
+ * frequently used objects out of the cache.
+ *
+ * @param <K> the type of keys maintained by this cache
+ * @param <V> the type of cached values
+ */
+public class BoundedObjectCache<K, V> implements ObjectCache<K, V>
+{
+    /** The default number of segments. */
+    public static final int DEFAULT_CONCURRENCY = 16;
+
+    private static final Object NULL_VALUE = new Object();
+    private static final int MIN_SEGMENT_SIZE = 32;
+    private static final int WINDOW_PERCENT = 1;
+
+    private final String name;
+    private final int maximumSize;
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    /**
+     * Constructs a new empty cache with the default number of segments.
+     *
+     * @param name the name of the cache - printed out in log messages
+     * @param maximumSize the maximum number of entries to hold
+     */
+    public BoundedObjectCache(String name, int maximumSize) {
+        this(name, maximumSize, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Constructs a new empty cache.
+     *
+     * @param name the name of the cache - printed out in log messages
+     * @param maximumSize the maximum number of entries to hold
+     * @param concurrency the expected number of concurrent users of the cache, which is rounded up
+     * to a power of two to give the number of segments
+     * @throws IllegalArgumentException if maximumSize or concurrency is not positive
+     */
+    public BoundedObjectCache(String name, int maximumSize, int concurrency) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        }
+        this.name = name;
+        this.maximumSize = maximumSize;
+        int segmentCount = 1;
+        while (segmentCount < concurrency) {
+            segmentCount <<= 1;
+        }
+        while ((segmentCount > 1) && (maximumSize / segmentCount < MIN_SEGMENT_SIZE)) {
+            segmentCount >>= 1;
+        }
+        segments = new Segment[segmentCount];
+        segmentMask = segmentCount - 1;
+        int remaining = maximumSize;
+        for (int i = 0; i < segmentCount; i++) {
+            int segmentSize = remaining / (segmentCount - i);
+            segments[i] = new Segment(segmentSize);
+            remaining -= segmentSize;
+        }
+    }
+
+    /**
+     * Spreads the bits of the key's hashCode, so that segments and sketch counters are chosen
+     * evenly even for sequential integer keys.
+     *
+     * @param key the key
+     * @return a well-mixed hash
+     */
+    private static int hash(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash >>> 24) & segmentMask];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(K key) {
+        int hash = hash(key);
+        Object value = segmentFor(hash).get(key, hash);
+        return (value == NULL_VALUE) ? null : (V) value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E extends Exception> V get(K key, Loader<K, V, E> loader) throws E {
+        int hash = hash(key);
+        Segment segment = segmentFor(hash);
+        Object value;
+        do {
+            value = segment.getOrStartLoad(key, hash);
+            if (value instanceof PendingLoad) {
+                PendingLoad load = (PendingLoad) value;
+                if (load.isOwner()) {
+                    value = PendingLoad.FAILED;
+                    try {
+                        V loaded = loader.load(key);
+                        value = segment.finishLoad(key, hash, load,
+                                (loaded == null) ? NULL_VALUE : loaded);
+                    } finally {
+                        if (value == PendingLoad.FAILED) {
+                            segment.abandonLoad(key, load);
+                        }
+                        load.complete(value);
+                    }
+                } else {
+                    value = load.await();
+                }
+            }
+        } while (value == PendingLoad.FAILED);
+        return (value == NULL_VALUE) ? null : (V) value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(K key) {
+        int hash = hash(key);
+        return segmentFor(hash).containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put(K key, V value) {
+        int hash = hash(key);
+        segmentFor(hash).put(key, hash, (value == null) ? NULL_VALUE : value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove(K key) {
+        int hash = hash(key);
+        segmentFor(hash).remove(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        int retval = 0;
+        for (Segment segment : segments) {
+            retval += segment.size();
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the maximum number of entries this cache will hold.
+     *
+     * @return an int
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getHits() {
+        long retval = 0;
+        for (Segment segment : segments) {
+            retval += segment.getHits();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMisses() {
+        long retval = 0;
+        for (Segment segment : segments) {
+            retval += segment.getMisses();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEvictions() {
+        long retval = 0;
+        for (Segment segment : segments) {
+            retval += segment.getEvictions();
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return name + " (bounded to " + maximumSize + " in " + segments.length + " segments, size "
+            + size() + ", hits " + getHits() + ", misses " + getMisses() + ", evictions "
+            + getEvictions() + ")";
+    }
+
+    /**
+     * One independently locked part of the cache.
+     */
+    private static final class Segment
+    {
+        private final LinkedHashMap<Object, Object> window;
+        private final LinkedHashMap<Object, Object> main;
+        private final int windowSize;
+        private final int mainSize;
+        private final FrequencySketch sketch;
+        private final Map<Object, PendingLoad> loads = new HashMap<Object, PendingLoad>();
+        private long hits = 0;
+        private long misses = 0;
+        private long evictions = 0;
+
+        Segment(int size) {
+            windowSize = Math.max(1, size * WINDOW_PERCENT / 100);
+            mainSize = Math.max(0, size - windowSize);
+            window = new LinkedHashMap<Object, Object>(16, 0.75F, true);
+            main = new LinkedHashMap<Object, Object>(16, 0.75F, true);
+            sketch = new FrequencySketch(Math.max(size, 1));
+        }
+
+        synchronized Object get(Object key, int hash) {
+            sketch.increment(hash);
+            Object value = window.get(key);
+            if (value == null) {
+                value = main.get(key);
+            }
+            if (value == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+            return value;
+        }
+
+        synchronized boolean containsKey(Object key) {
+            return window.containsKey(key) || main.containsKey(key);
+        }
+
+        /**
+         * Returns the value for a key, or if there is none, the PendingLoad for it, starting one
+         * owned by the current thread if no other thread is loading the key.
+         */
+        synchronized Object getOrStartLoad(Object key, int hash) {
+            Object value = get(key, hash);
+            if (value == null) {
+                PendingLoad load = loads.get(key);
+                if (load == null) {
+                    load = new PendingLoad();
+                    loads.put(key, load);
+                }
+                value = load;
+            }
+            return value;
+        }
+
+        /**
+         * Ends a load, putting the value in the segment unless the load is stale, and returns the
+         * value to give to the callers. An entry put while the load was in progress wins.
+         */
+        synchronized Object finishLoad(Object key, int hash, PendingLoad load, Object value) {
+            loads.remove(key);
+            if (!load.isStale()) {
+                Object existing = window.containsKey(key) ? window.get(key) : main.get(key);
+                if (existing != null) {
+                    return existing;
+                }
+                put(key, hash, value);
+            }
+            return value;
+        }
+
+        synchronized void abandonLoad(Object key, PendingLoad load) {
+            if (loads.get(key) == load) {
+                loads.remove(key);
+            }
+        }
+
+        synchronized void put(Object key, int hash, Object value) {
+            if (main.containsKey(key)) {
+                main.put(key, value);
+                return;
+            }
+            sketch.increment(hash);
+            window.put(key, value);
+            if (window.size() > windowSize) {
+                Iterator<Map.Entry<Object, Object>> windowIter = window.entrySet().iterator();
+                Map.Entry<Object, Object> candidate = windowIter.next();
+                windowIter.remove();
+                admit(candidate.getKey(), candidate.getValue());
+            }
+        }
+
+        /**
+         * Decides whether an entry evicted from the window should enter the main region, evicting
+         * the least recently used entry of the main region if it is full.
+         */
+        private void admit(Object key, Object value) {
+            if (main.size() < mainSize) {
+                main.put(key, value);
+                return;
+            }
+            if (mainSize == 0) {
+                evictions++;
+                return;
+            }
+            Iterator<Map.Entry<Object, Object>> mainIter = main.entrySet().iterator();
+            Map.Entry<Object, Object> victim = mainIter.next();
+            if (sketch.frequency(hash(key)) > sketch.frequency(hash(victim.getKey()))) {
+                mainIter.remove();
+                main.put(key, value);
+            }
+            evictions++;
+        }
+
+        synchronized void remove(Object key) {
+            if (window.remove(key) == null) {
+                main.remove(key);
+            }
+            PendingLoad load = loads.get(key);
+            if (load != null) {
+                load.markStale();
+            }
+        }
+
+        synchronized void clear() {
+            window.clear();
+            main.clear();
+            for (PendingLoad load : loads.values()) {
+                load.markStale();
+            }
+        }
+
+        synchronized int size() {
+            return window.size() + main.size();
+        }
+
+        synchronized long getHits() {
+            return hits;
+        }
+
+        synchronized long getMisses() {
+            return misses;
+        }
+
+        synchronized long getEvictions() {
+            return evictions;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, used to estimate how often each key has been used
+     * recently. All counters are halved periodically, so that old popularity fades away.
+     */
+    private static final class FrequencySketch
+    {
+        private static final long[] SEEDS = new long[] {0xC3A5C85C97CB3127L,
+            0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int MAX_COUNT = 15;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions = 0;
+
+        FrequencySketch(int maximumSize) {
+            int length = 16;
+            while (length < maximumSize) {
+                length <<= 1;
+            }
+            table = new long[length];
+            tableMask = length - 1;
+            sampleSize = 10 * Math.max(maximumSize, 16);
+        }
+
+        private long mix(int hash, int depth) {
+            long h = (hash + SEEDS[depth]) * SEEDS[depth];
+            return h + (h >>> 32);
+        }
+
+        int frequency(int hash) {
+            int retval = MAX_COUNT;
+            for (int depth = 0; depth < SEEDS.length; depth++) {
+                long h = mix(hash, depth);
+                int index = ((int) h) & tableMask;
+                int offset = ((int) (h >>> 40) & 15) << 2;
+                retval = Math.min(retval, (int) ((table[index] >>> offset) & 0xFL));
+            }
+            return retval;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int depth = 0; depth < SEEDS.length; depth++) {
+                long h = mix(hash, depth);
+                int index = ((int) h) & tableMask;
+                int offset = ((int) (h >>> 40) & 15) << 2;
+                if (((table[index] >>> offset) & 0xFL) < MAX_COUNT) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && (++additions >= sampleSize)) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions = additions >>> 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.intermine.sql.Database;
+
+/**
+ * A pool of threads shared by the parts of InterMine that do work in parallel, such as fetching
+ * equivalent objects, precomputing queries, storing partitions of a source and flushing write
+ * batches. Idle threads are reused, and die after a minute without work.
+ * <p>
+ * Work is normally submitted through a TaskGroup, which limits how many of its tasks run at once,
+ * so that each part can be kept within the database connections it may use. The pool itself does
+ * not limit the number of threads, because a task of one group may wait for a task of another,
+ * for example an object being stored waiting for a batch flush, and a fixed number of threads
+ * could then all be taken by tasks waiting for tasks that cannot start.
+ */
+public final class ExecutionService
+{
+    private static final Logger LOG = Logger.getLogger(ExecutionService.class);
+
+    private static ThreadPoolExecutor executor = null;
+    private static AtomicInteger threadNo = new AtomicInteger(0);
+
+    private ExecutionService() {
+        // don't instantiate
+    }
+
+    /**
+     * Returns the shared thread pool.
+     *
+     * @return an ExecutorService
+     */
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = (ThreadPoolExecutor) Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "InterMine worker "
+                            + threadNo.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Creates a new TaskGroup that runs tasks on the shared thread pool.
+     *
+     * @param name a name for the group, for logging
+     * @param limit the maximum number of tasks of the group to run at once
+     * @return a TaskGroup
+     */
+    public static TaskGroup newGroup(String name, int limit) {
+        return new TaskGroup(name, limit, getExecutor());
+    }
+
+    /**
+     * Runs a task that lasts a long time, such as a background writer, on a thread from the shared
+     * pool. The thread is given the name for as long as the task runs.
+     *
+     * @param name the name for the thread
+     * @param task the task to run
+     */
+    public static void execute(final String name, final Runnable task) {
+        getExecutor().execute(new Runnable() {
+            public void run() {
+                Thread thread = Thread.currentThread();
+                String oldName = thread.getName();
+                thread.setName(name);
+                try {
+                    task.run();
+                } finally {
+                    thread.setName(oldName);
+                    // Don't leave an interrupt for the next task on this thread
+                    Thread.interrupted();
+                }
+            }
+        });
+    }
+
+    /**
+     * Limits a number of tasks that each hold a connection to a database, so that together they
+     * take at most half of the connections in its pool, leaving the rest for the main threads and
+     * for other groups.
+     *
+     * @param db the Database that the tasks use, or null if not known
+     * @param requested the number of tasks wanted
+     * @return the number of tasks that may run at once
+     */
+    public static int getConnectionLimit(Database db, int requested) {
+        if ((db != null) && (db.getMaxConnections() > 0)) {
+            int limit = Math.min(requested, Math.max(1, db.getMaxConnections() / 2));
+            if (limit < requested) {
+                LOG.info("Running " + limit + " tasks at once instead of " + requested
+                        + ", to leave connections to " + db.getName() + " for other work");
+            }
+            return limit;
+        }
+        return requested;
+    }
+
+    /**
+     * Returns a summary of the use of the shared thread pool.
+     *
+     * @return a String
+     */
+    public static synchronized String getSummary() {
+        if (executor == null) {
+            return "Shared thread pool not started";
+        }
+        return "Shared thread pool: " + executor.getActiveCount() + " of "
+            + executor.getPoolSize() + " threads busy, largest size " + executor
+            .getLargestPoolSize() + ", " + executor.getCompletedTaskCount() + " tasks completed";
+    }
+}
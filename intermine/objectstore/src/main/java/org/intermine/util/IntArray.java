@@ -0,0 +1,164 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A fixed-length array of ints, initially all zero, held either on the Java heap or in a
+ * memory-mapped temporary file. Memory-mapped arrays live outside the heap, so large id tables do
+ * not add to garbage collection pauses, and the operating system can page them out when memory is
+ * short.
+ */
+public abstract class IntArray
+{
+    /** The largest length of a memory-mapped array. */
+    public static final int MAX_MAPPED_LENGTH = Integer.MAX_VALUE / 4;
+
+    /**
+     * Allocates a new array.
+     *
+     * @param length the number of ints
+     * @param offHeap true to map the array from a temporary file, false to use the heap
+     * @return an IntArray
+     * @throws IllegalArgumentException if an off-heap array is too long or cannot be created
+     */
+    public static IntArray allocate(int length, boolean offHeap) {
+        if (offHeap) {
+            return new Mapped(length);
+        }
+        return new Heap(length);
+    }
+
+    /**
+     * Returns the number of ints in this array.
+     *
+     * @return an int
+     */
+    public abstract int length();
+
+    /**
+     * Returns an element of this array.
+     *
+     * @param index the index of the element
+     * @return the value of the element
+     */
+    public abstract int get(int index);
+
+    /**
+     * Sets an element of this array.
+     *
+     * @param index the index of the element
+     * @param value the new value
+     */
+    public abstract void set(int index, int value);
+
+    /**
+     * Returns whether this array is held outside the heap.
+     *
+     * @return a boolean
+     */
+    public abstract boolean isOffHeap();
+
+    /**
+     * An IntArray on the heap.
+     */
+    private static final class Heap extends IntArray
+    {
+        private final int[] array;
+
+        Heap(int length) {
+            array = new int[length];
+        }
+
+        @Override
+        public int length() {
+            return array.length;
+        }
+
+        @Override
+        public int get(int index) {
+            return array[index];
+        }
+
+        @Override
+        public void set(int index, int value) {
+            array[index] = value;
+        }
+
+        @Override
+        public boolean isOffHeap() {
+            return false;
+        }
+    }
+
+    /**
+     * An IntArray in a memory-mapped temporary file. The file is deleted as soon as it has been
+     * mapped, and the space is given back when the array is garbage collected.
+     */
+    private static final class Mapped extends IntArray
+    {
+        private final IntBuffer buffer;
+        private final int length;
+
+        Mapped(int length) {
+            if ((length < 0) || (length > MAX_MAPPED_LENGTH)) {
+                throw new IllegalArgumentException("Cannot map an array of " + length + " ints");
+            }
+            this.length = length;
+            File file = null;
+            try {
+                file = File.createTempFile("intarray", ".tmp");
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    FileChannel channel = raf.getChannel();
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, 4L * length)
+                        .order(ByteOrder.nativeOrder()).asIntBuffer();
+                } finally {
+                    // The mapping stays valid after the file is closed
+                    raf.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not map an array of " + length
+                        + " ints", e);
+            } finally {
+                if (file != null) {
+                    file.delete();
+                }
+            }
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public int get(int index) {
+            return buffer.get(index);
+        }
+
+        @Override
+        public void set(int index, int value) {
+            buffer.put(index, value);
+        }
+
+        @Override
+        public boolean isOffHeap() {
+            return true;
+        }
+    }
+}
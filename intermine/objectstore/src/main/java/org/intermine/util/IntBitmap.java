@@ -0,0 +1,620 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of ints, laid out like a Roaring bitmap. The ints are divided into chunks of
+ * 65536 by their upper 16 bits. Each chunk that holds anything is a container, which is either a
+ * sorted array of the lower 16 bits of its ints, while it holds at most 4096 of them, or a bitmap
+ * of 65536 bits once it holds more. A sparse set of ids therefore costs two bytes per id, and a
+ * dense range of ids costs one bit per possible id.
+ * <p>
+ * The containers are kept in order, so iteration is in ascending order of int, and unions,
+ * intersections and differences of two bitmaps are computed by merging their containers. This
+ * class is not thread-safe.
+ */
+public class IntBitmap
+{
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    // Container keys are the upper 16 bits with the sign bit flipped, so they sort as ints do
+    private char[] keys = new char[4];
+    private Object[] containers = new Object[4];
+    private int[] cardinalities = new int[4];
+    private int containerCount = 0;
+    private int size = 0;
+
+    /**
+     * Constructs an empty bitmap.
+     */
+    public IntBitmap() {
+    }
+
+    private static char keyOf(int value) {
+        return (char) ((value >>> 16) ^ 0x8000);
+    }
+
+    private int findContainer(char key) {
+        int low = 0;
+        int high = containerCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midKey = keys[mid];
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Adds an int to the set.
+     *
+     * @param value the int
+     * @return true if the set did not already contain the int
+     */
+    public boolean add(int value) {
+        char key = keyOf(value);
+        char low = (char) value;
+        int index = findContainer(key);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, key);
+        }
+        Object container = containers[index];
+        boolean added;
+        if (container instanceof long[]) {
+            long[] bitmap = (long[]) container;
+            long bit = 1L << low;
+            added = (bitmap[low >>> 6] & bit) == 0;
+            bitmap[low >>> 6] |= bit;
+        } else {
+            char[] array = (char[]) container;
+            int cardinality = cardinalities[index];
+            int pos = Arrays.binarySearch(array, 0, cardinality, low);
+            added = pos < 0;
+            if (added) {
+                if (cardinality == ARRAY_MAX) {
+                    long[] bitmap = toBitmap(array, cardinality);
+                    bitmap[low >>> 6] |= 1L << low;
+                    containers[index] = bitmap;
+                } else {
+                    pos = -pos - 1;
+                    if (cardinality == array.length) {
+                        array = Arrays.copyOf(array, Math.min(ARRAY_MAX, cardinality * 2));
+                        containers[index] = array;
+                    }
+                    System.arraycopy(array, pos, array, pos + 1, cardinality - pos);
+                    array[pos] = low;
+                }
+            }
+        }
+        if (added) {
+            cardinalities[index]++;
+            size++;
+        }
+        return added;
+    }
+
+    /**
+     * Removes an int from the set.
+     *
+     * @param value the int
+     * @return true if the set contained the int
+     */
+    public boolean remove(int value) {
+        int index = findContainer(keyOf(value));
+        if (index < 0) {
+            return false;
+        }
+        char low = (char) value;
+        Object container = containers[index];
+        int cardinality = cardinalities[index];
+        if (container instanceof long[]) {
+            long[] bitmap = (long[]) container;
+            long bit = 1L << low;
+            if ((bitmap[low >>> 6] & bit) == 0) {
+                return false;
+            }
+            bitmap[low >>> 6] &= ~bit;
+            cardinality--;
+            if (cardinality <= ARRAY_MAX) {
+                containers[index] = toArray(bitmap, cardinality);
+            }
+        } else {
+            char[] array = (char[]) container;
+            int pos = Arrays.binarySearch(array, 0, cardinality, low);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(array, pos + 1, array, pos, cardinality - pos - 1);
+            cardinality--;
+        }
+        size--;
+        if (cardinality == 0) {
+            removeContainer(index);
+        } else {
+            cardinalities[index] = cardinality;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the set contains an int.
+     *
+     * @param value the int
+     * @return a boolean
+     */
+    public boolean contains(int value) {
+        int index = findContainer(keyOf(value));
+        if (index < 0) {
+            return false;
+        }
+        char low = (char) value;
+        Object container = containers[index];
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, 0, cardinalities[index], low) >= 0;
+    }
+
+    /**
+     * Returns the number of ints in the set.
+     *
+     * @return an int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the set is empty.
+     *
+     * @return a boolean
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all ints from the set.
+     */
+    public void clear() {
+        keys = new char[4];
+        containers = new Object[4];
+        cardinalities = new int[4];
+        containerCount = 0;
+        size = 0;
+    }
+
+    /**
+     * Passes every int in the set to an IntConsumer, in ascending order.
+     *
+     * @param action the IntConsumer
+     */
+    public void forEach(IntConsumer action) {
+        for (int c = 0; c < containerCount; c++) {
+            int high = (keys[c] ^ 0x8000) << 16;
+            Object container = containers[c];
+            if (container instanceof long[]) {
+                long[] bitmap = (long[]) container;
+                for (int word = 0; word < BITMAP_WORDS; word++) {
+                    long bits = bitmap[word];
+                    while (bits != 0) {
+                        action.accept(high | (word << 6) | Long.numberOfTrailingZeros(bits));
+                        bits &= bits - 1;
+                    }
+                }
+            } else {
+                char[] array = (char[]) container;
+                int cardinality = cardinalities[c];
+                for (int i = 0; i < cardinality; i++) {
+                    action.accept(high | array[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the ints in the set as an array, in ascending order.
+     *
+     * @return an array of ints
+     */
+    public int[] toArray() {
+        final int[] retval = new int[size];
+        forEach(new IntConsumer() {
+            private int pos = 0;
+
+            public void accept(int value) {
+                retval[pos++] = value;
+            }
+        });
+        return retval;
+    }
+
+    /**
+     * Returns a copy of this bitmap, which may be modified independently.
+     *
+     * @return a new IntBitmap
+     */
+    public IntBitmap copy() {
+        IntBitmap retval = new IntBitmap();
+        for (int c = 0; c < containerCount; c++) {
+            retval.appendContainer(keys[c], copyContainer(containers[c], cardinalities[c]),
+                    cardinalities[c]);
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the union of two bitmaps, as a new bitmap.
+     *
+     * @param a an IntBitmap
+     * @param b an IntBitmap
+     * @return a new IntBitmap holding every int in either bitmap
+     */
+    public static IntBitmap or(IntBitmap a, IntBitmap b) {
+        IntBitmap retval = new IntBitmap();
+        int i = 0;
+        int j = 0;
+        while ((i < a.containerCount) || (j < b.containerCount)) {
+            if ((j == b.containerCount)
+                    || ((i < a.containerCount) && (a.keys[i] < b.keys[j]))) {
+                retval.appendContainer(a.keys[i], copyContainer(a.containers[i],
+                            a.cardinalities[i]), a.cardinalities[i]);
+                i++;
+            } else if ((i == a.containerCount) || (b.keys[j] < a.keys[i])) {
+                retval.appendContainer(b.keys[j], copyContainer(b.containers[j],
+                            b.cardinalities[j]), b.cardinalities[j]);
+                j++;
+            } else {
+                Object c1 = a.containers[i];
+                Object c2 = b.containers[j];
+                int n1 = a.cardinalities[i];
+                int n2 = b.cardinalities[j];
+                if ((c1 instanceof char[]) && (c2 instanceof char[]) && (n1 + n2 <= ARRAY_MAX)) {
+                    char[] array1 = (char[]) c1;
+                    char[] array2 = (char[]) c2;
+                    char[] array = new char[n1 + n2];
+                    int pos = 0;
+                    int p1 = 0;
+                    int p2 = 0;
+                    while ((p1 < n1) || (p2 < n2)) {
+                        if ((p2 == n2) || ((p1 < n1) && (array1[p1] < array2[p2]))) {
+                            array[pos++] = array1[p1++];
+                        } else if ((p1 == n1) || (array2[p2] < array1[p1])) {
+                            array[pos++] = array2[p2++];
+                        } else {
+                            array[pos++] = array1[p1++];
+                            p2++;
+                        }
+                    }
+                    retval.appendContainer(a.keys[i], array, pos);
+                } else {
+                    long[] bitmap = (c1 instanceof long[]) ? ((long[]) c1).clone()
+                        : toBitmap((char[]) c1, n1);
+                    if (c2 instanceof long[]) {
+                        long[] bitmap2 = (long[]) c2;
+                        for (int word = 0; word < BITMAP_WORDS; word++) {
+                            bitmap[word] |= bitmap2[word];
+                        }
+                    } else {
+                        char[] array2 = (char[]) c2;
+                        for (int p = 0; p < n2; p++) {
+                            bitmap[array2[p] >>> 6] |= 1L << array2[p];
+                        }
+                    }
+                    retval.appendContainer(a.keys[i], bitmap, cardinality(bitmap));
+                }
+                i++;
+                j++;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the intersection of two bitmaps, as a new bitmap.
+     *
+     * @param a an IntBitmap
+     * @param b an IntBitmap
+     * @return a new IntBitmap holding every int in both bitmaps
+     */
+    public static IntBitmap and(IntBitmap a, IntBitmap b) {
+        IntBitmap retval = new IntBitmap();
+        int i = 0;
+        int j = 0;
+        while ((i < a.containerCount) && (j < b.containerCount)) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (b.keys[j] < a.keys[i]) {
+                j++;
+            } else {
+                Object c1 = a.containers[i];
+                Object c2 = b.containers[j];
+                int n1 = a.cardinalities[i];
+                int n2 = b.cardinalities[j];
+                if ((c1 instanceof long[]) && (c2 instanceof long[])) {
+                    long[] bitmap1 = (long[]) c1;
+                    long[] bitmap2 = (long[]) c2;
+                    long[] bitmap = new long[BITMAP_WORDS];
+                    for (int word = 0; word < BITMAP_WORDS; word++) {
+                        bitmap[word] = bitmap1[word] & bitmap2[word];
+                    }
+                    retval.appendContainer(a.keys[i], bitmap, cardinality(bitmap));
+                } else if (c1 instanceof long[]) {
+                    char[] array = filter((char[]) c2, n2, (long[]) c1, true);
+                    retval.appendContainer(a.keys[i], array, array.length);
+                } else if (c2 instanceof long[]) {
+                    char[] array = filter((char[]) c1, n1, (long[]) c2, true);
+                    retval.appendContainer(a.keys[i], array, array.length);
+                } else {
+                    char[] array1 = (char[]) c1;
+                    char[] array2 = (char[]) c2;
+                    char[] array = new char[Math.min(n1, n2)];
+                    int pos = 0;
+                    int p1 = 0;
+                    int p2 = 0;
+                    while ((p1 < n1) && (p2 < n2)) {
+                        if (array1[p1] < array2[p2]) {
+                            p1++;
+                        } else if (array2[p2] < array1[p1]) {
+                            p2++;
+                        } else {
+                            array[pos++] = array1[p1++];
+                            p2++;
+                        }
+                    }
+                    retval.appendContainer(a.keys[i], array, pos);
+                }
+                i++;
+                j++;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the ints in one bitmap that are not in another, as a new bitmap.
+     *
+     * @param a an IntBitmap
+     * @param b an IntBitmap
+     * @return a new IntBitmap holding every int in a that is not in b
+     */
+    public static IntBitmap andNot(IntBitmap a, IntBitmap b) {
+        IntBitmap retval = new IntBitmap();
+        int j = 0;
+        for (int i = 0; i < a.containerCount; i++) {
+            while ((j < b.containerCount) && (b.keys[j] < a.keys[i])) {
+                j++;
+            }
+            Object c1 = a.containers[i];
+            int n1 = a.cardinalities[i];
+            if ((j == b.containerCount) || (b.keys[j] != a.keys[i])) {
+                retval.appendContainer(a.keys[i], copyContainer(c1, n1), n1);
+                continue;
+            }
+            Object c2 = b.containers[j];
+            int n2 = b.cardinalities[j];
+            if (c1 instanceof long[]) {
+                long[] bitmap = ((long[]) c1).clone();
+                if (c2 instanceof long[]) {
+                    long[] bitmap2 = (long[]) c2;
+                    for (int word = 0; word < BITMAP_WORDS; word++) {
+                        bitmap[word] &= ~bitmap2[word];
+                    }
+                } else {
+                    char[] array2 = (char[]) c2;
+                    for (int p = 0; p < n2; p++) {
+                        bitmap[array2[p] >>> 6] &= ~(1L << array2[p]);
+                    }
+                }
+                retval.appendContainer(a.keys[i], bitmap, cardinality(bitmap));
+            } else if (c2 instanceof long[]) {
+                char[] array = filter((char[]) c1, n1, (long[]) c2, false);
+                retval.appendContainer(a.keys[i], array, array.length);
+            } else {
+                char[] array1 = (char[]) c1;
+                char[] array2 = (char[]) c2;
+                char[] array = new char[n1];
+                int pos = 0;
+                int p2 = 0;
+                for (int p1 = 0; p1 < n1; p1++) {
+                    while ((p2 < n2) && (array2[p2] < array1[p1])) {
+                        p2++;
+                    }
+                    if ((p2 == n2) || (array2[p2] != array1[p1])) {
+                        array[pos++] = array1[p1];
+                    }
+                }
+                retval.appendContainer(a.keys[i], array, pos);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns the number of ints in both of two bitmaps, without building their intersection.
+     *
+     * @param a an IntBitmap
+     * @param b an IntBitmap
+     * @return the size of the intersection
+     */
+    public static int andCardinality(IntBitmap a, IntBitmap b) {
+        int retval = 0;
+        int i = 0;
+        int j = 0;
+        while ((i < a.containerCount) && (j < b.containerCount)) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (b.keys[j] < a.keys[i]) {
+                j++;
+            } else {
+                Object c1 = a.containers[i];
+                Object c2 = b.containers[j];
+                int n1 = a.cardinalities[i];
+                int n2 = b.cardinalities[j];
+                if ((c1 instanceof long[]) && (c2 instanceof long[])) {
+                    long[] bitmap1 = (long[]) c1;
+                    long[] bitmap2 = (long[]) c2;
+                    for (int word = 0; word < BITMAP_WORDS; word++) {
+                        retval += Long.bitCount(bitmap1[word] & bitmap2[word]);
+                    }
+                } else if ((c1 instanceof long[]) || (c2 instanceof long[])) {
+                    long[] bitmap = (long[]) ((c1 instanceof long[]) ? c1 : c2);
+                    char[] array = (char[]) ((c1 instanceof long[]) ? c2 : c1);
+                    int n = (c1 instanceof long[]) ? n2 : n1;
+                    for (int p = 0; p < n; p++) {
+                        if ((bitmap[array[p] >>> 6] & (1L << array[p])) != 0) {
+                            retval++;
+                        }
+                    }
+                } else {
+                    char[] array1 = (char[]) c1;
+                    char[] array2 = (char[]) c2;
+                    int p1 = 0;
+                    int p2 = 0;
+                    while ((p1 < n1) && (p2 < n2)) {
+                        if (array1[p1] < array2[p2]) {
+                            p1++;
+                        } else if (array2[p2] < array1[p1]) {
+                            p2++;
+                        } else {
+                            retval++;
+                            p1++;
+                            p2++;
+                        }
+                    }
+                }
+                i++;
+                j++;
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Returns an estimate of the number of bytes used by the containers.
+     *
+     * @return a long
+     */
+    public long getMemoryUsage() {
+        long retval = 0;
+        for (int c = 0; c < containerCount; c++) {
+            Object container = containers[c];
+            retval += (container instanceof long[]) ? 8L * BITMAP_WORDS
+                : 2L * ((char[]) container).length;
+        }
+        return retval;
+    }
+
+    private void insertContainer(int index, char key) {
+        if (containerCount == keys.length) {
+            int newLength = keys.length * 2;
+            keys = Arrays.copyOf(keys, newLength);
+            containers = Arrays.copyOf(containers, newLength);
+            cardinalities = Arrays.copyOf(cardinalities, newLength);
+        }
+        System.arraycopy(keys, index, keys, index + 1, containerCount - index);
+        System.arraycopy(containers, index, containers, index + 1, containerCount - index);
+        System.arraycopy(cardinalities, index, cardinalities, index + 1, containerCount - index);
+        keys[index] = key;
+        containers[index] = new char[4];
+        cardinalities[index] = 0;
+        containerCount++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, containerCount - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, containerCount - index - 1);
+        System.arraycopy(cardinalities, index + 1, cardinalities, index,
+                containerCount - index - 1);
+        containerCount--;
+        containers[containerCount] = null;
+    }
+
+    private void appendContainer(char key, Object container, int cardinality) {
+        if (cardinality == 0) {
+            return;
+        }
+        if ((container instanceof long[]) && (cardinality <= ARRAY_MAX)) {
+            container = toArray((long[]) container, cardinality);
+        }
+        if (containerCount == keys.length) {
+            int newLength = keys.length * 2;
+            keys = Arrays.copyOf(keys, newLength);
+            containers = Arrays.copyOf(containers, newLength);
+            cardinalities = Arrays.copyOf(cardinalities, newLength);
+        }
+        keys[containerCount] = key;
+        containers[containerCount] = container;
+        cardinalities[containerCount] = cardinality;
+        containerCount++;
+        size += cardinality;
+    }
+
+    private static Object copyContainer(Object container, int cardinality) {
+        if (container instanceof long[]) {
+            return ((long[]) container).clone();
+        }
+        return Arrays.copyOf((char[]) container, cardinality);
+    }
+
+    private static int cardinality(long[] bitmap) {
+        int retval = 0;
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+            retval += Long.bitCount(bitmap[word]);
+        }
+        return retval;
+    }
+
+    private static char[] filter(char[] array, int cardinality, long[] bitmap, boolean keep) {
+        char[] retval = new char[cardinality];
+        int pos = 0;
+        for (int i = 0; i < cardinality; i++) {
+            char low = array[i];
+            if (((bitmap[low >>> 6] & (1L << low)) != 0) == keep) {
+                retval[pos++] = low;
+            }
+        }
+        return Arrays.copyOf(retval, pos);
+    }
+
+    private static long[] toBitmap(char[] array, int cardinality) {
+        long[] bitmap = new long[BITMAP_WORDS];
+        for (int i = 0; i < cardinality; i++) {
+            char low = array[i];
+            bitmap[low >>> 6] |= 1L << low;
+        }
+        return bitmap;
+    }
+
+    private static char[] toArray(long[] bitmap, int cardinality) {
+        char[] array = new char[cardinality];
+        int pos = 0;
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+            long bits = bitmap[word];
+            while (bits != 0) {
+                array[pos++] = (char) ((word << 6) | Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        return array;
+    }
+}
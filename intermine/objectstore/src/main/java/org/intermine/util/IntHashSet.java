@@ -0,0 +1,235 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A set of ints, stored without boxing in an open-addressed hash table with linear probing. The
+ * table may be held on the heap or in a memory-mapped file - see IntArray. Zero marks an empty
+ * slot, so whether zero is in the set is recorded separately. This class is not thread-safe.
+ */
+public class IntHashSet
+{
+    private static final int MIN_CAPACITY = 16;
+
+    private final boolean offHeap;
+    private IntArray table;
+    private int mask;
+    private int used = 0;
+    private boolean containsZero = false;
+
+    /**
+     * Constructs an empty set on the heap.
+     */
+    public IntHashSet() {
+        this(MIN_CAPACITY, false);
+    }
+
+    /**
+     * Constructs an empty set.
+     *
+     * @param expectedSize the number of ints the set is expected to hold
+     * @param offHeap true to hold the table in a memory-mapped file rather than on the heap
+     */
+    public IntHashSet(int expectedSize, boolean offHeap) {
+        this.offHeap = offHeap;
+        allocate(IntToIntHashMap.capacityFor(expectedSize));
+    }
+
+    private void allocate(int capacity) {
+        table = IntArray.allocate(capacity, offHeap);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds an int to the set.
+     *
+     * @param value the int
+     * @return true if the set did not already contain the int
+     */
+    public boolean add(int value) {
+        if (value == 0) {
+            boolean retval = !containsZero;
+            containsZero = true;
+            return retval;
+        }
+        int index = IntToIntHashMap.hash(value) & mask;
+        int current;
+        while ((current = table.get(index)) != 0) {
+            if (current == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        table.set(index, value);
+        used++;
+        if (IntToIntHashMap.isOverloaded(used, mask + 1)) {
+            rehash((mask + 1) * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the set contains an int.
+     *
+     * @param value the int
+     * @return a boolean
+     */
+    public boolean contains(int value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int index = IntToIntHashMap.hash(value) & mask;
+        int current;
+        while ((current = table.get(index)) != 0) {
+            if (current == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Removes an int from the set.
+     *
+     * @param value the int
+     * @return true if the set contained the int
+     */
+    public boolean remove(int value) {
+        if (value == 0) {
+            boolean retval = containsZero;
+            containsZero = false;
+            return retval;
+        }
+        int index = IntToIntHashMap.hash(value) & mask;
+        int current;
+        while ((current = table.get(index)) != 0) {
+            if (current == value) {
+                shiftBack(index);
+                used--;
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Closes the gap left by removing the entry at the given index, by moving later entries of the
+     * same probe sequence back, so that lookups never need to skip over deleted entries.
+     */
+    private void shiftBack(int gap) {
+        int index = gap;
+        while (true) {
+            index = (index + 1) & mask;
+            int current = table.get(index);
+            if (current == 0) {
+                break;
+            }
+            int home = IntToIntHashMap.hash(current) & mask;
+            // Move the entry if its home slot is not cyclically within (gap, index]
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                table.set(gap, current);
+                gap = index;
+            }
+        }
+        table.set(gap, 0);
+    }
+
+    private void rehash(int capacity) {
+        IntArray old = table;
+        allocate(capacity);
+        for (int i = 0; i < old.length(); i++) {
+            int value = old.get(i);
+            if (value != 0) {
+                int index = IntToIntHashMap.hash(value) & mask;
+                while (table.get(index) != 0) {
+                    index = (index + 1) & mask;
+                }
+                table.set(index, value);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of ints in the set.
+     *
+     * @return an int
+     */
+    public int size() {
+        return used + (containsZero ? 1 : 0);
+    }
+
+    /**
+     * Returns whether the set is empty.
+     *
+     * @return a boolean
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes all ints from the set, and shrinks the table.
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        used = 0;
+        containsZero = false;
+    }
+
+    /**
+     * Passes every int in the set to an IntConsumer, in no particular order.
+     *
+     * @param action the IntConsumer
+     */
+    public void forEach(IntConsumer action) {
+        if (containsZero) {
+            action.accept(0);
+        }
+        int length = table.length();
+        for (int i = 0; i < length; i++) {
+            int value = table.get(i);
+            if (value != 0) {
+                action.accept(value);
+            }
+        }
+    }
+
+    /**
+     * Returns the ints in the set as an array, in ascending order.
+     *
+     * @return an array of ints
+     */
+    public int[] toSortedArray() {
+        final int[] retval = new int[size()];
+        forEach(new IntConsumer() {
+            private int pos = 0;
+
+            public void accept(int value) {
+                retval[pos++] = value;
+            }
+        });
+        Arrays.sort(retval);
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return Arrays.toString(toSortedArray());
+    }
+}
@@ -10,28 +10,20 @@ package org.intermine.util;
  *
  */
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.TreeSet;
+import java.util.function.IntConsumer;
 
 /**
  * This is a set of ints. This class provides methods to insert an int, check for the presence of a
  * given int, and remove an int from the set. This class is designed to use as little RAM as
- * possible, and assumes that the ints are reasonably closely-spaced. In the case where the ints
- * are consecutive, this class will use not much more than an eighth of a byte per mapping.
+ * possible. It is backed by an IntBitmap, so where the ints are reasonably closely-spaced it uses
+ * not much more than an eighth of a byte per int, and where they are sparse about two bytes per
+ * int. All methods are synchronized, so a set may be shared between threads.
  *
  * @author Matthew Wakeling
  */
 public class IntPresentSet
 {
-    private static final int WORD_SIZE = 32; // Number of bits in a word
-    private static final int WORD_MASK = WORD_SIZE - 1;
-    private static final int PAGE_SIZE = 0x2000; // Number of words per page
-    private static final int PAGE_MASK = PAGE_SIZE - 1;
-
-    private Map<Integer, int[]> pages = new HashMap<Integer, int[]>();
-    private int size = 0;
+    private IntBitmap bitmap = new IntBitmap();
 
     /**
      * Constructor for this class. Creates an empty map.
@@ -45,36 +37,11 @@ public class IntPresentSet
      * @param i the int to add to the set
      * @param newBit true to add to the set, false to remove from the set
      */
-    public void set(int i, boolean newBit) {
-        int bitNo = i & WORD_MASK;
-        i /= WORD_SIZE;
-        int wordNo = i & PAGE_MASK;
-        Integer pageNo = new Integer(i / PAGE_SIZE);
-        int[] page = pages.get(pageNo);
-        if (page == null) {
-            page = new int[PAGE_SIZE + 1];
-            for (int o = 0; o <= PAGE_SIZE; o++) {
-                page[o] = 0;
-            }
-            pages.put(pageNo, page);
-        }
-        int bitMask = 1 << bitNo;
-        int word = page[wordNo];
-        boolean oldBit = ((word & bitMask) != 0);
-        if (oldBit != newBit) {
-            if (newBit) {
-                word = word | bitMask;
-                size++;
-                page[PAGE_SIZE]++;
-            } else {
-                word = word & (~bitMask);
-                size--;
-                page[PAGE_SIZE]--;
-            }
-            page[wordNo] = word;
-            if (page[PAGE_SIZE] == 0) {
-                pages.remove(pageNo);
-            }
+    public synchronized void set(int i, boolean newBit) {
+        if (newBit) {
+            bitmap.add(i);
+        } else {
+            bitmap.remove(i);
         }
     }
 
@@ -84,18 +51,8 @@ public class IntPresentSet
      * @param i any int
      * @return true or false
      */
-    public boolean contains(int i) {
-        int bitNo = i & WORD_MASK;
-        i /= WORD_SIZE;
-        int wordNo = i & PAGE_MASK;
-        Integer pageNo = new Integer(i / PAGE_SIZE);
-        int[] page = pages.get(pageNo);
-        if (page == null) {
-            return false;
-        }
-        int bitMask = 1 << bitNo;
-        int word = page[wordNo];
-        return ((word & bitMask) != 0);
+    public synchronized boolean contains(int i) {
+        return bitmap.contains(i);
     }
 
     /**
@@ -130,51 +87,44 @@ public class IntPresentSet
      *
      * @return the size
      */
-    public int size() {
-        return size;
+    public synchronized int size() {
+        return bitmap.size();
     }
 
     /**
      * Removes all ints from the object.
      */
-    public void clear() {
-        pages.clear();
-        size = 0;
+    public synchronized void clear() {
+        bitmap.clear();
+    }
+
+    /**
+     * Passes every int present to an IntConsumer, in ascending order.
+     *
+     * @param action the IntConsumer
+     */
+    public synchronized void forEach(IntConsumer action) {
+        bitmap.forEach(action);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public String toString() {
-        StringBuffer retval = new StringBuffer("[");
-        boolean needComma = false;
-        TreeSet<Integer> sortedKeys = new TreeSet<Integer>(pages.keySet());
-        Iterator<Integer> keyIter = sortedKeys.iterator();
-        while (keyIter.hasNext()) {
-            Integer pageNo = keyIter.next();
-            int pageNoInt = pageNo.intValue();
-            int[] page = pages.get(pageNo);
-            for (int wordNo = 0; wordNo < PAGE_SIZE; wordNo++) {
-                int word = page[wordNo];
-                if (word != 0) {
-                    int bitMask = 1;
-                    for (int bitNo = 0; bitNo < WORD_SIZE; bitNo++) {
-                        if ((word & bitMask) != 0) {
-                            if (needComma) {
-                                retval.append(", ");
-                            }
-                            needComma = true;
-                            retval.append(Integer.toString((pageNoInt * PAGE_SIZE + wordNo)
-                                        * WORD_SIZE + bitNo));
-                        }
-                        bitMask <<= 1;
-                    }
+    public synchronized String toString() {
+        final StringBuffer retval = new StringBuffer("[");
+        bitmap.forEach(new IntConsumer() {
+            private boolean needComma = false;
+
+            public void accept(int i) {
+                if (needComma) {
+                    retval.append(", ");
                 }
+                needComma = true;
+                retval.append(i);
             }
-        }
+        });
         retval.append("]");
         return retval.toString();
     }
 }
-
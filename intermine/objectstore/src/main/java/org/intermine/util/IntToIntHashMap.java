@@ -0,0 +1,288 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * A map from ints to ints, stored without boxing in an open-addressed hash table with linear
+ * probing. Keys and values are interleaved in a single IntArray, which may be held on the heap or
+ * in a memory-mapped file. A key of zero marks an empty slot, so a mapping from zero is recorded
+ * separately. The map has a "no value" int, which get() returns for missing keys and which cannot
+ * be stored. This class is not thread-safe.
+ */
+public class IntToIntHashMap
+{
+    private static final int MIN_CAPACITY = 16;
+
+    private final boolean offHeap;
+    private final int noValue;
+    private IntArray table;
+    private int mask;
+    private int used = 0;
+    private boolean containsZero = false;
+    private int zeroValue;
+
+    /**
+     * Constructs an empty map on the heap.
+     *
+     * @param noValue the int returned by get() for a key with no mapping
+     */
+    public IntToIntHashMap(int noValue) {
+        this(noValue, MIN_CAPACITY, false);
+    }
+
+    /**
+     * Constructs an empty map.
+     *
+     * @param noValue the int returned by get() for a key with no mapping
+     * @param expectedSize the number of mappings the map is expected to hold
+     * @param offHeap true to hold the table in a memory-mapped file rather than on the heap
+     */
+    public IntToIntHashMap(int noValue, int expectedSize, boolean offHeap) {
+        this.noValue = noValue;
+        this.offHeap = offHeap;
+        this.zeroValue = noValue;
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Spreads the bits of an int, so that sequential ids are scattered over the table.
+     *
+     * @param key the int
+     * @return a hash
+     */
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the table capacity needed for a number of entries.
+     *
+     * @param expectedSize the number of entries
+     * @return a power of two
+     */
+    static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (isOverloaded(expectedSize, capacity)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns whether a table with the given capacity is too full, which is over two thirds.
+     *
+     * @param used the number of slots in use
+     * @param capacity the number of slots
+     * @return a boolean
+     */
+    static boolean isOverloaded(int used, int capacity) {
+        return 3L * used > 2L * capacity;
+    }
+
+    private void allocate(int capacity) {
+        table = IntArray.allocate(capacity * 2, offHeap);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Returns the int that get() returns for a key with no mapping.
+     *
+     * @return an int
+     */
+    public int getNoValue() {
+        return noValue;
+    }
+
+    /**
+     * Creates a mapping, replacing any existing mapping for the key.
+     *
+     * @param key any int
+     * @param value any int other than the no value int
+     * @return the previous value, or the no value int if there was none
+     * @throws IllegalArgumentException if the value is the no value int
+     */
+    public int put(int key, int value) {
+        if (value == noValue) {
+            throw new IllegalArgumentException("Cannot map to the no value int " + value);
+        }
+        if (key == 0) {
+            int retval = zeroValue;
+            zeroValue = value;
+            containsZero = true;
+            return retval;
+        }
+        int index = hash(key) & mask;
+        int current;
+        while ((current = table.get(index * 2)) != 0) {
+            if (current == key) {
+                int retval = table.get(index * 2 + 1);
+                table.set(index * 2 + 1, value);
+                return retval;
+            }
+            index = (index + 1) & mask;
+        }
+        table.set(index * 2, key);
+        table.set(index * 2 + 1, value);
+        used++;
+        if (isOverloaded(used, mask + 1)) {
+            rehash((mask + 1) * 2);
+        }
+        return noValue;
+    }
+
+    /**
+     * Retrieves a mapping.
+     *
+     * @param key any int
+     * @return the value, or the no value int if there is no mapping for the key
+     */
+    public int get(int key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        int index = hash(key) & mask;
+        int current;
+        while ((current = table.get(index * 2)) != 0) {
+            if (current == key) {
+                return table.get(index * 2 + 1);
+            }
+            index = (index + 1) & mask;
+        }
+        return noValue;
+    }
+
+    /**
+     * Returns whether there is a mapping for a key.
+     *
+     * @param key any int
+     * @return a boolean
+     */
+    public boolean containsKey(int key) {
+        return (key == 0) ? containsZero : (get(key) != noValue);
+    }
+
+    /**
+     * Removes the mapping for a key.
+     *
+     * @param key any int
+     * @return the previous value, or the no value int if there was none
+     */
+    public int remove(int key) {
+        if (key == 0) {
+            int retval = zeroValue;
+            zeroValue = noValue;
+            containsZero = false;
+            return retval;
+        }
+        int index = hash(key) & mask;
+        int current;
+        while ((current = table.get(index * 2)) != 0) {
+            if (current == key) {
+                int retval = table.get(index * 2 + 1);
+                shiftBack(index);
+                used--;
+                return retval;
+            }
+            index = (index + 1) & mask;
+        }
+        return noValue;
+    }
+
+    /**
+     * Closes the gap left by removing the entry at the given index - see IntHashSet.
+     */
+    private void shiftBack(int gap) {
+        int index = gap;
+        while (true) {
+            index = (index + 1) & mask;
+            int current = table.get(index * 2);
+            if (current == 0) {
+                break;
+            }
+            int home = hash(current) & mask;
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                table.set(gap * 2, current);
+                table.set(gap * 2 + 1, table.get(index * 2 + 1));
+                gap = index;
+            }
+        }
+        table.set(gap * 2, 0);
+        table.set(gap * 2 + 1, 0);
+    }
+
+    private void rehash(int capacity) {
+        IntArray old = table;
+        allocate(capacity);
+        for (int i = 0; i < old.length(); i += 2) {
+            int key = old.get(i);
+            if (key != 0) {
+                int index = hash(key) & mask;
+                while (table.get(index * 2) != 0) {
+                    index = (index + 1) & mask;
+                }
+                table.set(index * 2, key);
+                table.set(index * 2 + 1, old.get(i + 1));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of mappings.
+     *
+     * @return an int
+     */
+    public int size() {
+        return used + (containsZero ? 1 : 0);
+    }
+
+    /**
+     * Removes all mappings, and shrinks the table.
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        used = 0;
+        containsZero = false;
+        zeroValue = noValue;
+    }
+
+    /**
+     * Passes every mapping to an EntryConsumer, in no particular order.
+     *
+     * @param action the EntryConsumer
+     */
+    public void forEach(EntryConsumer action) {
+        if (containsZero) {
+            action.accept(0, zeroValue);
+        }
+        int length = table.length();
+        for (int i = 0; i < length; i += 2) {
+            int key = table.get(i);
+            if (key != 0) {
+                action.accept(key, table.get(i + 1));
+            }
+        }
+    }
+
+    /**
+     * Receives the mappings of an IntToIntHashMap.
+     */
+    public interface EntryConsumer
+    {
+        /**
+         * Receives a mapping.
+         *
+         * @param key the key
+         * @param value the value
+         */
+        void accept(int key, int value);
+    }
+}
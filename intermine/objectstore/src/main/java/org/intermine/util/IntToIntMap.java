@@ -10,17 +10,22 @@ package org.intermine.util;
  *
  */
 
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.TreeSet;
 
 /**
  * This is a map that maps from int to int. All non-existent mappings automatically map onto -1 -
- * inserting a mapping merely redefines the mapping. This class is designed to use as little RAM as
- * possible, and assumes that the mappings are from reasonably closely-spaced ints. In the case
- * where the mappings are from consecutive ints, this class will use not much more than four bytes
- * per mapping.
+ * inserting a mapping merely redefines the mapping.
+ * <p>
+ * Keys are grouped into pages of 8192 consecutive ints. A page that holds at least a quarter of
+ * its keys is stored as a plain int array, so in the usual case of ids allocated close together,
+ * this class uses not much more than four bytes per mapping. Keys in sparser pages are kept in
+ * an IntToIntHashMap, which costs between twelve and twenty-four bytes per mapping without
+ * boxing (two ints per slot, at a load factor between a third and two thirds), but does not
+ * depend on how the keys are spaced. That table can optionally be kept in a memory-mapped file
+ * instead of on the heap. The quarter threshold is where a page costs sixteen bytes per mapping,
+ * which is the middle of that range.
  *
  * @author Matthew Wakeling
  */
@@ -29,14 +34,44 @@ public class IntToIntMap
     private static final int INNER_MASK = 0x1fff;
     private static final int OUTER_MASK = ~INNER_MASK;
     private static final int PAGE_SIZE = INNER_MASK + 1;
+    private static final int MIN_PAGE_COUNT = PAGE_SIZE / 4;
 
+    // Each page has the count of its mappings in its last element
     private Map<Integer, int[]> pages = new HashMap<Integer, int[]>();
-    private int size = 0;
+    private int pagedSize = 0;
+    private int lastPageNo = 0;
+    private int[] lastPage = null;
+    private IntToIntHashMap sparse;
+    // The number of keys held in sparse for each page, for deciding when to make a page
+    private IntToIntHashMap sparseCounts = new IntToIntHashMap(0);
 
     /**
      * Constructor for this class. Creates an empty map.
      */
     public IntToIntMap() {
+        this(false);
+    }
+
+    /**
+     * Constructor for this class. Creates an empty map.
+     *
+     * @param offHeap true to keep the mappings that are not in dense pages in a memory-mapped
+     * file rather than on the heap
+     */
+    public IntToIntMap(boolean offHeap) {
+        sparse = new IntToIntHashMap(-1, 0, offHeap);
+    }
+
+    private int[] getPage(int pageNo) {
+        if ((lastPage != null) && (lastPageNo == pageNo)) {
+            return lastPage;
+        }
+        int[] page = pages.get(new Integer(pageNo));
+        if (page != null) {
+            lastPageNo = pageNo;
+            lastPage = page;
+        }
+        return page;
     }
 
     /**
@@ -46,29 +81,59 @@ public class IntToIntMap
      * @param to any int - or -1 to effectively remove the mapping
      */
     public synchronized void put(int from, int to) {
-        Integer pageNo = new Integer(from & OUTER_MASK);
-        int[] page = pages.get(pageNo);
-        if (page == null) {
-            page = new int[PAGE_SIZE + 1];
-            for (int i = 0; i < PAGE_SIZE; i++) {
-                page[i] = -1;
+        int pageNo = from & OUTER_MASK;
+        int[] page = getPage(pageNo);
+        if (page != null) {
+            int old = page[from & INNER_MASK];
+            page[from & INNER_MASK] = to;
+            if (old != -1) {
+                pagedSize--;
+                page[PAGE_SIZE]--;
+            }
+            if (to != -1) {
+                pagedSize++;
+                page[PAGE_SIZE]++;
+            }
+            if (page[PAGE_SIZE] == 0) {
+                pages.remove(new Integer(pageNo));
+                lastPage = null;
+            }
+        } else if (to == -1) {
+            if (sparse.remove(from) != -1) {
+                int count = sparseCounts.get(pageNo) - 1;
+                if (count == 0) {
+                    sparseCounts.remove(pageNo);
+                } else {
+                    sparseCounts.put(pageNo, count);
+                }
+            }
+        } else if (sparse.put(from, to) == -1) {
+            int count = sparseCounts.get(pageNo) + 1;
+            if (count >= MIN_PAGE_COUNT) {
+                makePage(pageNo);
+            } else {
+                sparseCounts.put(pageNo, count);
             }
-            page[PAGE_SIZE] = 0;
-            pages.put(pageNo, page);
-        }
-        int old = page[from & INNER_MASK];
-        page[from & INNER_MASK] = to;
-        if (old != -1) {
-            size--;
-            page[PAGE_SIZE]--;
-        }
-        if (to != -1) {
-            size++;
-            page[PAGE_SIZE]++;
         }
-        if (page[PAGE_SIZE] == 0) {
-            pages.remove(pageNo);
+    }
+
+    /**
+     * Moves the mappings of a page out of the sparse map into a new page.
+     *
+     * @param pageNo the first key of the page
+     */
+    private void makePage(int pageNo) {
+        int[] page = new int[PAGE_SIZE + 1];
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            int value = sparse.remove(pageNo + i);
+            page[i] = value;
+            if (value != -1) {
+                page[PAGE_SIZE]++;
+            }
         }
+        pagedSize += page[PAGE_SIZE];
+        sparseCounts.remove(pageNo);
+        pages.put(new Integer(pageNo), page);
     }
 
     /**
@@ -78,12 +143,11 @@ public class IntToIntMap
      * @return an int - -1 if there is no mapping present that matches
      */
     public synchronized int get(int from) {
-        Integer pageNo = new Integer(from & OUTER_MASK);
-        int[] page = pages.get(pageNo);
-        if (page == null) {
-            return -1;
+        int[] page = getPage(from & OUTER_MASK);
+        if (page != null) {
+            return page[from & INNER_MASK];
         }
-        return page[from & INNER_MASK];
+        return sparse.get(from);
     }
 
     /**
@@ -131,7 +195,7 @@ public class IntToIntMap
      * @return the size
      */
     public synchronized int size() {
-        return size;
+        return pagedSize + sparse.size();
     }
 
     /**
@@ -139,7 +203,10 @@ public class IntToIntMap
      */
     public synchronized void clear() {
         pages.clear();
-        size = 0;
+        pagedSize = 0;
+        lastPage = null;
+        sparse.clear();
+        sparseCounts.clear();
     }
 
     /**
@@ -147,24 +214,34 @@ public class IntToIntMap
      */
     @Override
     public synchronized String toString() {
-        StringBuffer retval = new StringBuffer("{");
-        boolean needComma = false;
-        TreeSet<Integer> sortedKeys = new TreeSet<Integer>(pages.keySet());
-        Iterator<Integer> keyIter = sortedKeys.iterator();
-        while (keyIter.hasNext()) {
-            Integer pageNo = keyIter.next();
-            int pageNoInt = pageNo.intValue();
-            int[] page = pages.get(pageNo);
+        final long[] entries = new long[size()];
+        int pos = 0;
+        for (Map.Entry<Integer, int[]> pageEntry : pages.entrySet()) {
+            int pageNo = pageEntry.getKey().intValue();
+            int[] page = pageEntry.getValue();
             for (int i = 0; i < PAGE_SIZE; i++) {
                 if (page[i] != -1) {
-                    if (needComma) {
-                        retval.append(", ");
-                    }
-                    needComma = true;
-                    retval.append((pageNoInt + i) + " -> " + page[i]);
+                    entries[pos++] = (((long) (pageNo + i)) << 32) | (page[i] & 0xFFFFFFFFL);
                 }
             }
         }
+        final int sparseStart = pos;
+        sparse.forEach(new IntToIntHashMap.EntryConsumer() {
+            private int sparsePos = sparseStart;
+
+            public void accept(int key, int value) {
+                entries[sparsePos++] = (((long) key) << 32) | (value & 0xFFFFFFFFL);
+            }
+        });
+        // Sorting the packed entries sorts by key
+        Arrays.sort(entries);
+        StringBuffer retval = new StringBuffer("{");
+        for (int i = 0; i < entries.length; i++) {
+            if (i > 0) {
+                retval.append(", ");
+            }
+            retval.append((int) (entries[i] >> 32) + " -> " + ((int) entries[i]));
+        }
         retval.append("}");
         return retval.toString();
     }
@@ -0,0 +1,134 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * A thread-safe cache of objects, such as the objectstore getObjectById cache. Implementations
+ * must allow null values to be stored, so that a cache can remember that an entry does not exist,
+ * and must keep count of hits, misses and evictions.
+ * <p>
+ * Callers do not need to synchronise on the cache to perform single operations.
+ *
+ * @param <K> the type of keys maintained by this cache
+ * @param <V> the type of cached values
+ */
+public interface ObjectCache<K, V>
+{
+    /**
+     * Returns the value held in the cache for the given key, or null if there is no such value.
+     * Note that a null return value can also mean that null has been stored in the cache - use
+     * containsKey() to distinguish between the two.
+     *
+     * @param key the key
+     * @return the cached value, or null
+     */
+    V get(K key);
+
+    /**
+     * Returns the value held in the cache for the given key, loading it with the given Loader if
+     * there is no entry. If several threads want the same missing key at once, only one of them
+     * loads it, and the others wait for it and get the same value. A value whose key is removed,
+     * or whose cache is cleared, while it is being loaded is returned but not put in the cache,
+     * as it may be out of date.
+     *
+     * @param key the key
+     * @param loader the Loader to call on a miss
+     * @param <E> the type of exception thrown by the loader
+     * @return the cached or loaded value, which may be null
+     * @throws E if the loader fails
+     */
+    <E extends Exception> V get(K key, Loader<K, V, E> loader) throws E;
+
+    /**
+     * Returns whether the cache holds an entry for the given key. This does not count as a cache
+     * hit or miss.
+     *
+     * @param key the key
+     * @return true if there is an entry in the cache, which may be null
+     */
+    boolean containsKey(K key);
+
+    /**
+     * Places an entry into the cache. The cache may decide not to keep the entry, or may evict
+     * other entries to make room for it.
+     *
+     * @param key the key
+     * @param value the value, which may be null
+     */
+    void put(K key, V value);
+
+    /**
+     * Removes the entry for the given key from the cache.
+     *
+     * @param key the key
+     */
+    void remove(K key);
+
+    /**
+     * Removes all entries from the cache.
+     */
+    void clear();
+
+    /**
+     * Returns the number of entries currently held in the cache.
+     *
+     * @return an int
+     */
+    int size();
+
+    /**
+     * Returns the name of the cache, used in log messages.
+     *
+     * @return a String
+     */
+    String getName();
+
+    /**
+     * Returns the number of times get() found an entry in the cache.
+     *
+     * @return a long
+     */
+    long getHits();
+
+    /**
+     * Returns the number of times get() did not find an entry in the cache.
+     *
+     * @return a long
+     */
+    long getMisses();
+
+    /**
+     * Returns the number of entries that have been dropped from the cache without being explicitly
+     * removed or cleared.
+     *
+     * @return a long
+     */
+    long getEvictions();
+
+    /**
+     * Loads values into an ObjectCache on a miss.
+     *
+     * @param <K> the type of keys
+     * @param <V> the type of values
+     * @param <E> the type of exception thrown when a value cannot be loaded
+     */
+    interface Loader<K, V, E extends Exception>
+    {
+        /**
+         * Loads the value for a key.
+         *
+         * @param key the key
+         * @return the value, which may be null
+         * @throws E if the value cannot be loaded
+         */
+        V load(K key) throws E;
+    }
+}
@@ -0,0 +1,86 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * A load of a value into an ObjectCache that is in progress. The thread that starts the load
+ * performs it, and other threads that want the same key wait for it instead of loading the value
+ * themselves. The cache marks the load as stale if the key is removed or the cache is cleared
+ * while it is in progress, so that a value read before the removal is not put in the cache.
+ * <p>
+ * The cache creates, finds and marks loads while holding its own lock for the key.
+ */
+final class PendingLoad
+{
+    /** Returned by await() if the load failed, in which case the caller should try again. */
+    static final Object FAILED = new Object();
+
+    private final Thread owner = Thread.currentThread();
+    private boolean stale = false;
+    private boolean done = false;
+    private Object value = FAILED;
+
+    /**
+     * Returns whether the current thread started this load, and should therefore perform it.
+     *
+     * @return a boolean
+     */
+    boolean isOwner() {
+        return owner == Thread.currentThread();
+    }
+
+    /**
+     * Marks this load as stale, so that its value is not put in the cache.
+     */
+    void markStale() {
+        stale = true;
+    }
+
+    /**
+     * Returns whether this load has been marked as stale.
+     *
+     * @return a boolean
+     */
+    boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Finishes this load, and wakes up the threads waiting for it.
+     *
+     * @param loaded the value, as held in the cache, or FAILED if the load failed
+     */
+    synchronized void complete(Object loaded) {
+        value = loaded;
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the load to finish.
+     *
+     * @return the value, as held in the cache, or FAILED if the load failed
+     */
+    synchronized Object await() {
+        boolean interrupted = false;
+        while (!done) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return value;
+    }
+}
@@ -0,0 +1,207 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An ObjectCache backed by a CacheMap, so the values are held softly and are only dropped when the
+ * garbage collector needs the memory. This cache is unbounded, and all operations synchronise on
+ * the cache. This is the default getObjectById cache for objectstores.
+ *
+ * @param <K> the type of keys maintained by this cache
+ * @param <V> the type of cached values
+ */
+public class SoftReferenceObjectCache<K, V> implements ObjectCache<K, V>
+{
+    private final String name;
+    private final CacheMap<K, V> map;
+    private final Map<K, PendingLoad> loads = new HashMap<K, PendingLoad>();
+    private long hits = 0;
+    private long misses = 0;
+    private long inserted = 0;
+    private long removed = 0;
+
+    /**
+     * Constructs a new empty cache.
+     *
+     * @param name the name of the cache - printed out in log messages
+     */
+    public SoftReferenceObjectCache(String name) {
+        this.name = name;
+        map = new CacheMap<K, V>(name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized V get(K key) {
+        V retval = map.get(key);
+        if ((retval != null) || map.containsKey(key)) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <E extends Exception> V get(K key, Loader<K, V, E> loader) throws E {
+        Object value;
+        do {
+            PendingLoad load;
+            synchronized (this) {
+                V cached = get(key);
+                if ((cached != null) || map.containsKey(key)) {
+                    return cached;
+                }
+                load = loads.get(key);
+                if (load == null) {
+                    load = new PendingLoad();
+                    loads.put(key, load);
+                }
+            }
+            if (load.isOwner()) {
+                value = PendingLoad.FAILED;
+                try {
+                    V loaded = loader.load(key);
+                    synchronized (this) {
+                        loads.remove(key);
+                        if (load.isStale()) {
+                            value = loaded;
+                        } else if (map.containsKey(key)) {
+                            // An entry put while the load was in progress wins
+                            value = map.get(key);
+                        } else {
+                            put(key, loaded);
+                            value = loaded;
+                        }
+                    }
+                } finally {
+                    if (value == PendingLoad.FAILED) {
+                        synchronized (this) {
+                            if (loads.get(key) == load) {
+                                loads.remove(key);
+                            }
+                        }
+                    }
+                    load.complete(value);
+                }
+            } else {
+                value = load.await();
+            }
+        } while (value == PendingLoad.FAILED);
+        return (V) value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void put(K key, V value) {
+        if (!map.containsKey(key)) {
+            inserted++;
+        }
+        map.put(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void remove(K key) {
+        if (map.containsKey(key)) {
+            removed++;
+        }
+        map.remove(key);
+        PendingLoad load = loads.get(key);
+        if (load != null) {
+            load.markStale();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void clear() {
+        removed += map.size();
+        map.clear();
+        for (PendingLoad load : loads.values()) {
+            load.markStale();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * For this cache, evictions are entries that have been garbage-collected.
+     */
+    @Override
+    public synchronized long getEvictions() {
+        return inserted - removed - map.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return name + " (soft, size " + size() + ", hits " + getHits() + ", misses " + getMisses()
+            + ", evictions " + getEvictions() + ")";
+    }
+}
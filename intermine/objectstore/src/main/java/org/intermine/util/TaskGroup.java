@@ -0,0 +1,182 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * A set of related tasks run on a shared Executor, no more than a given number at once. Tasks
+ * start in the order in which they were submitted.
+ * <p>
+ * If a task throws an exception, the tasks that have not started yet are discarded, as are any
+ * submitted later, and await() throws the exception once the running tasks have finished. The
+ * group also keeps counts of its tasks and of the time they took, for logging.
+ */
+public class TaskGroup
+{
+    private final String name;
+    private final int limit;
+    private final Executor executor;
+    private final long created = System.currentTimeMillis();
+
+    private LinkedList<Callable<?>> waiting = new LinkedList<Callable<?>>();
+    private Set<Thread> runningThreads = new HashSet<Thread>();
+    private int running = 0;
+    private int peakRunning = 0;
+    private int completed = 0;
+    private long busyTime = 0;
+    private Throwable failure = null;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Constructor. ExecutionService.newGroup() creates a group that uses the shared thread pool.
+     *
+     * @param name a name for the group, for logging
+     * @param limit the maximum number of tasks to run at once
+     * @param executor the Executor to run tasks on
+     */
+    public TaskGroup(String name, int limit, Executor executor) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Illegal value for limit: " + limit);
+        }
+        this.name = name;
+        this.limit = limit;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the maximum number of tasks that this group runs at once.
+     *
+     * @return an int
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Submits a task, which runs as soon as fewer than the limit of tasks are running. If the
+     * group has failed or been cancelled, the task is discarded.
+     *
+     * @param task the task
+     */
+    public synchronized void submit(Callable<?> task) {
+        if ((failure == null) && (!cancelled)) {
+            waiting.add(task);
+            startWaiting();
+        }
+    }
+
+    /**
+     * Waits until all the tasks submitted so far have finished. Tasks may submit further tasks,
+     * and those are waited for too.
+     *
+     * @throws ExecutionException if a task threw an exception
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     * @throws CancellationException if the group was cancelled
+     */
+    public synchronized void await() throws ExecutionException, InterruptedException {
+        while ((running > 0) || (!waiting.isEmpty())) {
+            wait();
+        }
+        if (failure != null) {
+            throw new ExecutionException("Task in " + name + " failed", failure);
+        }
+        if (cancelled) {
+            throw new CancellationException(name + " was cancelled");
+        }
+    }
+
+    /**
+     * Discards the tasks that have not started, and interrupts the running tasks.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        waiting.clear();
+        for (Thread thread : runningThreads) {
+            thread.interrupt();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns whether a task has thrown an exception, so that long tasks can give up early.
+     *
+     * @return true if a task has failed
+     */
+    public synchronized boolean hasFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Returns a summary of the tasks run by this group, including the share of the time since the
+     * group was created that its slots were busy.
+     *
+     * @return a String
+     */
+    public synchronized String getSummary() {
+        long elapsed = Math.max(1, System.currentTimeMillis() - created);
+        return name + ": " + completed + " tasks completed, " + running + " running, "
+            + waiting.size() + " waiting, at most " + peakRunning + " of " + limit
+            + " at once, utilisation " + ((busyTime * 100) / (elapsed * limit)) + "%";
+    }
+
+    private void startWaiting() {
+        while ((running < limit) && (!waiting.isEmpty())) {
+            final Callable<?> task = waiting.removeFirst();
+            running++;
+            peakRunning = Math.max(peakRunning, running);
+            executor.execute(new Runnable() {
+                public void run() {
+                    runTask(task);
+                }
+            });
+        }
+    }
+
+    private void runTask(Callable<?> task) {
+        Thread thread = Thread.currentThread();
+        synchronized (this) {
+            runningThreads.add(thread);
+        }
+        long start = System.currentTimeMillis();
+        Throwable problem = null;
+        try {
+            if (!cancelled) {
+                task.call();
+            }
+        } catch (Throwable t) {
+            problem = t;
+        } finally {
+            finished(thread, problem, System.currentTimeMillis() - start);
+            // A cancel may have interrupted this thread after the task finished
+            Thread.interrupted();
+        }
+    }
+
+    private synchronized void finished(Thread thread, Throwable problem, long time) {
+        runningThreads.remove(thread);
+        running--;
+        completed++;
+        busyTime += time;
+        if ((problem != null) && (failure == null) && (!cancelled)) {
+            failure = problem;
+            waiting.clear();
+        }
+        startWaiting();
+        notifyAll();
+    }
+}
@@ -0,0 +1,284 @@
+package org.intermine.xml.full;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.Model;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.proxy.ProxyReference;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Realises business objects one at a time from the Items read by an ItemReader, giving each
+ * InterMineObject a new id.
+ * <p>
+ * The caller must store the objects in the order in which they are returned. Objects are only held
+ * in memory until they have been returned, so later references to an object that has already been
+ * returned are set to a ProxyReference holding its id, unless its class is retained. An object
+ * that refers to an Item that has not been read yet is held back until that Item arrives, so that
+ * the object it refers to is complete when it is returned. Memory use therefore depends on how far
+ * ahead references point in the file rather than on its size, apart from a map from identifier
+ * to id for every Item.
+ */
+public class FullObjectReader
+{
+    private static final Logger LOG = Logger.getLogger(FullObjectReader.class);
+
+    private ItemReader items;
+    private Model model;
+    private ObjectStore os;
+    private int nextId;
+    private boolean abortOnError;
+    private boolean finished = false;
+    private Set<Class<?>> retainedClasses = Collections.emptySet();
+
+    // identifier to id for every Item read so far
+    private Map<String, Integer> ids = new HashMap<String, Integer>();
+    // objects read but not yet returned, and returned objects of retained classes, by identifier
+    private Map<String, FastPathObject> held = new HashMap<String, FastPathObject>();
+    // objects waiting for the Item with a given identifier
+    private Map<String, List<Waiter>> waiters = new HashMap<String, List<Waiter>>();
+    private LinkedList<Pending> ready = new LinkedList<Pending>();
+
+    /**
+     * Constructor.
+     *
+     * @param items the ItemReader to read Items from
+     * @param model the model of the objects
+     * @param os the ObjectStore to use in ProxyReferences to objects that have been returned
+     * @param firstId the id to give the first object
+     * @param abortOnError if true, throw an exception if there is a problem.  If false, log the
+     * problem and continue if possible
+     */
+    public FullObjectReader(ItemReader items, Model model, ObjectStore os, int firstId,
+            boolean abortOnError) {
+        this.items = items;
+        this.model = model;
+        this.os = os;
+        this.nextId = firstId;
+        this.abortOnError = abortOnError;
+    }
+
+    /**
+     * Returns the next object that is ready.
+     *
+     * @return a FastPathObject, or null if there are no more
+     * @throws IOException if the Items cannot be read
+     * @throws ClassNotFoundException if an Item has a class that isn't in the model
+     */
+    public FastPathObject next() throws IOException, ClassNotFoundException {
+        while (ready.isEmpty() && !finished) {
+            Item item = items.next();
+            if (item == null) {
+                finished = true;
+                releaseWaiters();
+            } else {
+                read(item);
+            }
+        }
+        if (ready.isEmpty()) {
+            return null;
+        }
+        Pending pending = ready.removeFirst();
+        if ((pending.identifier != null) && !isRetained(pending.obj)) {
+            held.remove(pending.identifier);
+        }
+        return pending.obj;
+    }
+
+    /**
+     * Sets the classes of objects that are kept in memory once they have been returned, so that
+     * references to them are always set to the complete object rather than a ProxyReference. This
+     * is needed for objects that are referred to from primary keys.
+     *
+     * @param retainedClasses a Set of classes
+     */
+    public void setRetainedClasses(Set<Class<?>> retainedClasses) {
+        this.retainedClasses = retainedClasses;
+    }
+
+    private boolean isRetained(FastPathObject obj) {
+        for (Class<?> c : retainedClasses) {
+            if (c.isInstance(obj)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the id that will be given to the next object with an identifier.
+     *
+     * @return an int
+     */
+    public int getNextId() {
+        return nextId;
+    }
+
+    private void read(Item item) throws ClassNotFoundException {
+        FastPathObject obj;
+        try {
+            obj = DynamicUtil.instantiateObject(
+                    ItemHelper.generateClassNames(item.getClassName(), model),
+                    ItemHelper.generateClassNames(item.getImplementations(), model));
+        } catch (ClassNotFoundException e) {
+            if (abortOnError) {
+                throw e;
+            }
+            LOG.warn("Not creating object for item: " + item.getIdentifier()
+                    + " class: " + item.getClassName() + " not found in model.");
+            return;
+        }
+        // Only InterMineObjects have ids and can be referred to
+        String identifier = (obj instanceof InterMineObject) ? item.getIdentifier() : null;
+        Pending pending = new Pending(identifier, obj);
+        try {
+            FullParser.populateAttributes(item, obj);
+            if (identifier != null) {
+                Integer id = new Integer(nextId++);
+                ids.put(identifier, id);
+                obj.setFieldValue("id", id);
+                held.put(identifier, obj);
+            }
+            for (Reference ref : item.getReferences()) {
+                if (FullParser.checkReference(obj, ref.getName(), abortOnError)) {
+                    resolve(pending, ref.getName(), ref.getRefId(), false);
+                }
+            }
+            for (ReferenceList refList : item.getCollections()) {
+                for (String refId : refList.getRefIds()) {
+                    resolve(pending, refList.getName(), refId, true);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            // ignore, as FullParser does
+        }
+        if (pending.outstanding == 0) {
+            ready.add(pending);
+        }
+        if (identifier != null) {
+            List<Waiter> waiting = waiters.remove(identifier);
+            if (waiting != null) {
+                for (Waiter waiter : waiting) {
+                    set(waiter.pending, waiter.fieldName, obj, waiter.collection);
+                    waiter.pending.outstanding--;
+                    if (waiter.pending.outstanding == 0) {
+                        ready.add(waiter.pending);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets a reference or adds to a collection, or waits for the Item referred to.
+     */
+    private void resolve(Pending pending, String fieldName, String refId, boolean collection) {
+        FastPathObject target = held.get(refId);
+        if (target == null) {
+            Integer id = ids.get(refId);
+            if (id != null) {
+                target = new ProxyReference(os, id, InterMineObject.class);
+            }
+        }
+        if (target == null) {
+            List<Waiter> waiting = waiters.get(refId);
+            if (waiting == null) {
+                waiting = new ArrayList<Waiter>();
+                waiters.put(refId, waiting);
+            }
+            waiting.add(new Waiter(pending, fieldName, collection));
+            pending.outstanding++;
+        } else {
+            set(pending, fieldName, target, collection);
+        }
+    }
+
+    private void set(Pending pending, String fieldName, FastPathObject target,
+            boolean collection) {
+        try {
+            if (collection) {
+                @SuppressWarnings("unchecked") Collection<Object> col
+                    = (Collection<Object>) pending.obj.getFieldValue(fieldName);
+                col.add(target);
+            } else {
+                pending.obj.setFieldValue(fieldName, target);
+            }
+        } catch (IllegalAccessException e) {
+            // ignore, as FullParser does
+        } catch (IllegalArgumentException e) {
+            if (abortOnError) {
+                throw e;
+            }
+            LOG.warn("Failed to set field: " + e);
+        }
+    }
+
+    /**
+     * Releases the objects that refer to Items that were never read.
+     */
+    private void releaseWaiters() {
+        for (Map.Entry<String, List<Waiter>> entry : waiters.entrySet()) {
+            for (Waiter waiter : entry.getValue()) {
+                LOG.warn("no item " + entry.getKey() + " for field " + waiter.fieldName
+                        + " in object: " + waiter.pending.obj);
+                waiter.pending.outstanding--;
+                if (waiter.pending.outstanding == 0) {
+                    ready.add(waiter.pending);
+                }
+            }
+        }
+        waiters.clear();
+    }
+
+    /**
+     * An object that has been read, and the number of Items it is waiting for.
+     */
+    private static class Pending
+    {
+        private String identifier;
+        private FastPathObject obj;
+        private int outstanding = 0;
+
+        Pending(String identifier, FastPathObject obj) {
+            this.identifier = identifier;
+            this.obj = obj;
+        }
+    }
+
+    /**
+     * A field of a pending object that refers to an Item not yet read.
+     */
+    private static class Waiter
+    {
+        private Pending pending;
+        private String fieldName;
+        private boolean collection;
+
+        Waiter(Pending pending, String fieldName, boolean collection) {
+            this.pending = pending;
+            this.fieldName = fieldName;
+            this.collection = collection;
+        }
+    }
+}
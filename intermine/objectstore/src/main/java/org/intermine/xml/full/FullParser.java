@@ -26,8 +26,6 @@ import org.intermine.model.InterMineObject;
 import org.intermine.objectstore.query.ClobAccess;
 import org.intermine.objectstore.query.PendingClob;
 import org.intermine.util.DynamicUtil;
-import org.intermine.util.SAXParser;
-import org.xml.sax.InputSource;
 
 /**
  * Unmarshal XML Full format data into java business objects.
@@ -57,10 +55,13 @@ public final class FullParser
             throw new NullPointerException("InputStream cannot be null");
         }
 
-        FullHandler handler = new FullHandler();
-        SAXParser.parse(new InputSource(is), handler);
-
-        return handler.getItems();
+        ItemXmlReader reader = new ItemXmlReader(is);
+        List<Item> items = new ArrayList<Item>();
+        Item item;
+        while ((item = reader.next()) != null) {
+            items.add(item);
+        }
+        return items;
     }
 
     /**
@@ -156,38 +157,7 @@ public final class FullParser
     protected static FastPathObject populateObject(Item item, Map<String, FastPathObject> objMap,
             boolean useIdentifier, boolean abortOnError, FastPathObject obj) {
         try {
-            // Set the data for every given attribute except id
-            for (Attribute attr : item.getAttributes()) {
-                String attrName = attr.getName();
-                if (!("id".equals(attrName))) {
-                    Class<?> attrClass;
-                    try {
-                        attrClass = obj.getFieldType(attrName);
-                        if (attrClass == null) {
-                            String message = "Class '" + attrClass + "' not found for "
-                                + Util.getFriendlyName(obj.getClass());
-                            throw new IllegalArgumentException(message);
-                        }
-                    } catch (IllegalArgumentException e) {
-                        String message = "Field " + attr.getName() + " not found in "
-                            + Util.getFriendlyName(obj.getClass());
-                        throw new IllegalArgumentException(message);
-                    }
-                    if (ClobAccess.class.equals(attrClass)) {
-                        obj.setFieldValue(attr.getName(), new PendingClob(attr.getValue()));
-                    } else {
-                        String value = attr.getValue();
-                        if (value != null) {
-                            obj.setFieldValue(attr.getName(), TypeUtil.stringToObject(attrClass,
-                                    value));
-                        } else {
-                            String message = "Field '" + attr.getName() + "' has NULL value in "
-                                + Util.getFriendlyName(obj.getClass());
-                            throw new IllegalArgumentException(message);
-                        }
-                    }
-                }
-            }
+            populateAttributes(item, obj);
 
             if (useIdentifier) {
                 obj.setFieldValue("id", TypeUtil.stringToObject(Integer.class,
@@ -198,27 +168,8 @@ public final class FullParser
             for (Reference ref : item.getReferences()) {
                 Object refObj = objMap.get(ref.getRefId());
                 String refName = ref.getName();
-                Class<?> refClass;
-                try {
-                    refClass = obj.getFieldType(refName);
-                } catch (IllegalArgumentException e) {
-                    String message = "Field " + ref.getName() + " not found in "
-                        + Util.getFriendlyName(obj.getClass());
-                    if (abortOnError) {
-                        throw new IllegalArgumentException(message);
-                    } else {
-                        LOG.warn(message);
-                        continue;
-                    }
-                }
-                if (!InterMineObject.class.isAssignableFrom(refClass)) {
-                    if (abortOnError) {
-                        throw new IllegalArgumentException("Looking for a reference, but found a "
-                                + refClass.getName());
-                    } else {
-                        LOG.warn("Looking for a reference, but found a " + refClass.getName());
-                        continue;
-                    }
+                if (!checkReference(obj, refName, abortOnError)) {
+                    continue;
                 }
                 if (refObj == null) {
                     LOG.warn("no field " + ref.getName() + " in object: " + obj);
@@ -250,4 +201,83 @@ public final class FullParser
 
         return obj;
     }
+
+    /**
+     * Sets the attributes of an object from an Item, except for the id.
+     *
+     * @param item the Item to read attributes from
+     * @param obj the object to populate
+     * @throws IllegalAccessException if a field cannot be set
+     */
+    protected static void populateAttributes(Item item,
+            FastPathObject obj) throws IllegalAccessException {
+        // Set the data for every given attribute except id
+        for (Attribute attr : item.getAttributes()) {
+            String attrName = attr.getName();
+            if (!("id".equals(attrName))) {
+                Class<?> attrClass;
+                try {
+                    attrClass = obj.getFieldType(attrName);
+                    if (attrClass == null) {
+                        String message = "Class '" + attrClass + "' not found for "
+                            + Util.getFriendlyName(obj.getClass());
+                        throw new IllegalArgumentException(message);
+                    }
+                } catch (IllegalArgumentException e) {
+                    String message = "Field " + attr.getName() + " not found in "
+                        + Util.getFriendlyName(obj.getClass());
+                    throw new IllegalArgumentException(message);
+                }
+                if (ClobAccess.class.equals(attrClass)) {
+                    obj.setFieldValue(attr.getName(), new PendingClob(attr.getValue()));
+                } else {
+                    String value = attr.getValue();
+                    if (value != null) {
+                        obj.setFieldValue(attr.getName(), TypeUtil.stringToObject(attrClass,
+                                value));
+                    } else {
+                        String message = "Field '" + attr.getName() + "' has NULL value in "
+                            + Util.getFriendlyName(obj.getClass());
+                        throw new IllegalArgumentException(message);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that a field of an object is a reference to an InterMineObject.
+     *
+     * @param obj the object
+     * @param refName the name of the field
+     * @param abortOnError if true, throw an exception if the field is not a reference.  If false,
+     * log the problem and return false
+     * @return true if the field can be set to an InterMineObject
+     */
+    protected static boolean checkReference(FastPathObject obj, String refName,
+            boolean abortOnError) {
+        Class<?> refClass;
+        try {
+            refClass = obj.getFieldType(refName);
+        } catch (IllegalArgumentException e) {
+            String message = "Field " + refName + " not found in "
+                + Util.getFriendlyName(obj.getClass());
+            if (abortOnError) {
+                throw new IllegalArgumentException(message);
+            } else {
+                LOG.warn(message);
+                return false;
+            }
+        }
+        if (!InterMineObject.class.isAssignableFrom(refClass)) {
+            if (abortOnError) {
+                throw new IllegalArgumentException("Looking for a reference, but found a "
+                        + refClass.getName());
+            } else {
+                LOG.warn("Looking for a reference, but found a " + refClass.getName());
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,34 @@
+package org.intermine.xml.full;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+
+/**
+ * A source of Items that are read one at a time, for example from a file written by a converter.
+ */
+public interface ItemReader
+{
+    /**
+     * Reads the next Item.
+     *
+     * @return the next Item, or null if there are no more
+     * @throws IOException if the Items cannot be read
+     */
+    Item next() throws IOException;
+
+    /**
+     * Releases any resources held by the reader.
+     *
+     * @throws IOException if an error occurs
+     */
+    void close() throws IOException;
+}
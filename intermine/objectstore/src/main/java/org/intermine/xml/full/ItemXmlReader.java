@@ -0,0 +1,144 @@
+package org.intermine.xml.full;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads Items one at a time from InterMine Full XML, so that a file of any size can be processed
+ * without holding all of its Items in memory. This is a pull parser equivalent of FullHandler.
+ */
+public class ItemXmlReader implements ItemReader
+{
+    private XMLStreamReader xml;
+    private ItemFactory itemFactory = new ItemFactory();
+    private boolean finished = false;
+
+    /**
+     * Creates a reader for the XML in an InputStream.
+     *
+     * @param is the InputStream to read
+     * @throws XMLStreamException if the XML cannot be opened
+     */
+    public ItemXmlReader(InputStream is) throws XMLStreamException {
+        if (is == null) {
+            throw new NullPointerException("InputStream cannot be null");
+        }
+        xml = createFactory().createXMLStreamReader(is);
+    }
+
+    /**
+     * Creates a reader for the XML in a Reader.
+     *
+     * @param reader the Reader to read
+     * @throws XMLStreamException if the XML cannot be opened
+     */
+    public ItemXmlReader(Reader reader) throws XMLStreamException {
+        if (reader == null) {
+            throw new NullPointerException("Reader cannot be null");
+        }
+        xml = createFactory().createXMLStreamReader(reader);
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Item next() throws IOException {
+        try {
+            return readItem();
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed item XML", e);
+        }
+    }
+
+    private Item readItem() throws XMLStreamException {
+        if (finished) {
+            return null;
+        }
+        Item item = null;
+        String collectionName = null;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = xml.getLocalName();
+                if ("item".equals(name)) {
+                    item = itemFactory.makeItem(getAttribute("id"));
+                    item.setClassName(getAttribute("class"));
+                    if (getAttribute("implements") != null) {
+                        item.setImplementations(getAttribute("implements"));
+                    }
+                } else if (item == null) {
+                    continue;
+                } else if ("attribute".equals(name)) {
+                    item.setAttribute(getAttribute("name"), getAttribute("value"));
+                } else if ("reference".equals(name)) {
+                    String value = getAttribute("ref_id");
+                    if (collectionName == null) {
+                        if (getAttribute("name") == null) {
+                            throw new RuntimeException("no name given for reference with value: "
+                                    + value);
+                        }
+                        item.setReference(getAttribute("name"), value);
+                    } else {
+                        // a reference element within a collection element
+                        item.addToCollection(collectionName, value);
+                    }
+                } else if ("collection".equals(name)) {
+                    collectionName = getAttribute("name");
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                String name = xml.getLocalName();
+                if ("item".equals(name) && (item != null)) {
+                    return item;
+                } else if ("collection".equals(name)) {
+                    collectionName = null;
+                }
+            }
+        }
+        finished = true;
+        xml.close();
+        return null;
+    }
+
+    /**
+     * Releases the parser. The underlying stream is not closed.
+     *
+     * @throws IOException if an error occurs
+     */
+    public void close() throws IOException {
+        if (!finished) {
+            finished = true;
+            try {
+                xml.close();
+            } catch (XMLStreamException e) {
+                throw new IOException("Could not close item XML", e);
+            }
+        }
+    }
+
+    private String getAttribute(String name) {
+        return xml.getAttributeValue(null, name);
+    }
+}
@@ -99,6 +99,78 @@ public class NotXmlTest extends TestCase
         assertEquals(e.getId(), reparsed.getId());
     }
 
+    public void testDecoder() throws Exception {
+        String notXml = NotXmlParser.DELIM + "org.intermine.model.testmodel.Employee"
+            + NotXmlParser.DELIM + "aage" + NotXmlParser.DELIM + "-42"
+            + NotXmlParser.DELIM + "rdepartment" + NotXmlParser.DELIM + "5679"
+            + NotXmlParser.DELIM + "afullTime" + NotXmlParser.DELIM + "true"
+            + NotXmlParser.DELIM + "aid" + NotXmlParser.DELIM + "2875"
+            + NotXmlParser.DELIM + "aname" + NotXmlParser.DELIM + "Flibble $_^d Wotsit $_^d";
+        Employee decoded = (Employee) NotXmlParser.parse(notXml, os);
+
+        assertEquals("Flibble $_^ Wotsit $_^", decoded.getName());
+        assertEquals(new Integer(2875), decoded.getId());
+        assertEquals(-42, decoded.getAge());
+        assertTrue(decoded.getFullTime());
+        assertEquals(new Integer(5679),
+                ((ProxyReference) decoded.getFieldProxy("department")).getId());
+    }
+
+    public void testCompactFormat() throws Exception {
+        Employee e = new Employee();
+        e.setId(new Integer(2877));
+        e.setName("Flibble $_^ Wotsit");
+        e.setAge(-42);
+        e.setFullTime(true);
+        Department d = new Department();
+        d.setId(new Integer(5681));
+        e.setDepartment(d);
+
+        String compact = CompactObjectFormat.render(e, os.getModel()).toString();
+        assertTrue(CompactObjectFormat.isCompact(compact));
+        assertFalse(CompactObjectFormat.isCompact(NotXmlRenderer.render(e).toString()));
+        assertTrue(compact.length() < NotXmlRenderer.render(e).toString().length());
+
+        Employee reparsed = (Employee) NotXmlParser.parse(compact, os);
+        assertEquals(e.getName(), reparsed.getName());
+        assertEquals(e.getId(), reparsed.getId());
+        assertEquals(e.getAge(), reparsed.getAge());
+        assertEquals(e.getFullTime(), reparsed.getFullTime());
+        assertEquals(new Integer(5681),
+                ((ProxyReference) reparsed.getFieldProxy("department")).getId());
+
+        // An object written with a different field dictionary is refused
+        int fingerprintStart = compact.indexOf('\u0002') + 1;
+        String changed = compact.substring(0, fingerprintStart)
+            + (char) (compact.charAt(fingerprintStart) ^ 1)
+            + compact.substring(fingerprintStart + 1);
+        try {
+            NotXmlParser.parse(changed, os);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    public void testDecoderLongValue() throws Exception {
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            longName.append("Employee with a reasonably long name ");
+        }
+        Employee e = new Employee();
+        e.setId(new Integer(2876));
+        e.setName(longName.toString());
+        e.setAge(42);
+
+        String notXml = NotXmlRenderer.render(e).toString();
+        Employee decoded = (Employee) NotXmlParser.parse(notXml, os);
+
+        assertEquals(e.getName(), decoded.getName());
+        assertEquals(new Integer(2876), decoded.getId());
+        assertEquals(42, decoded.getAge());
+        assertNull(decoded.getFieldProxy("department"));
+    }
+
     public void testSplitPerformance() throws Exception {
         StringBuilder sb = new StringBuilder(49999997);
         for (int i = 0; i < 1000000; i++) {
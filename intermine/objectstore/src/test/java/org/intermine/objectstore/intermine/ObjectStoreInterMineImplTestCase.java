@@ -16,6 +16,7 @@ import org.intermine.model.testmodel.*;
 import org.intermine.objectstore.*;
 import org.intermine.objectstore.query.*;
 import org.intermine.objectstore.query.iql.IqlQuery;
+import org.intermine.util.IntBitmap;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -64,6 +65,32 @@ public class ObjectStoreInterMineImplTestCase extends ObjectStoreAbstractImplTes
         Assert.assertTrue(!r.equals(r3));
     }
 
+    @Test
+    public void testKeysetPagination() throws Exception {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.addToOrderBy(new QueryField(qc, "name"));
+        ((ObjectStoreInterMineImpl) os).setKeysetPagination(true);
+        List rows;
+        try {
+            // Read every batch while keyset pagination is on
+            rows = new ArrayList(os.executeSingleton(q, 2, true, true, true));
+        } finally {
+            ((ObjectStoreInterMineImpl) os).setKeysetPagination(false);
+        }
+        // An equivalent query, so that the results are not taken from the cache
+        Query q2 = new Query();
+        QueryClass qc2 = new QueryClass(Employee.class);
+        q2.addFrom(qc2);
+        q2.addToSelect(qc2);
+        q2.addToOrderBy(new QueryField(qc2, "name"));
+        q2.addToOrderBy(new QueryField(qc2, "id"));
+        SingletonResults r2 = os.executeSingleton(q2, 2, true, true, true);
+        Assert.assertEquals(new ArrayList(r2), rows);
+    }
+
     @Test
     public void testLargeOffset2() throws Exception {
         Employee nullEmployee = new Employee();
@@ -789,6 +816,38 @@ public class ObjectStoreInterMineImplTestCase extends ObjectStoreAbstractImplTes
         Assert.assertEquals(Arrays.asList(new Object[] {((Employee) data.get("EmployeeA1")).getId(), ((Employee) data.get("EmployeeA2")).getId()}), r);
     }
 
+    @Test
+    public void testBagBitmap() throws Exception {
+        ObjectStoreInterMineImpl osi = (ObjectStoreInterMineImpl) os;
+        ObjectStoreBag osb1 = storeDataWriter.createObjectStoreBag();
+        ObjectStoreBag osb2 = storeDataWriter.createObjectStoreBag();
+        storeDataWriter.addAllToBag(osb1, Arrays.asList(new Integer(3), new Integer(20),
+                    new Integer(23)));
+        storeDataWriter.addAllToBag(osb2, Arrays.asList(new Integer(20), new Integer(30)));
+        IntBitmap bitmap = osi.getBagBitmap(osb1);
+        Assert.assertTrue(Arrays.equals(new int[] {3, 20, 23}, bitmap.toArray()));
+        Assert.assertSame(bitmap, osi.getBagBitmap(osb1));
+        storeDataWriter.addToBag(osb1, new Integer(1));
+        Assert.assertTrue(Arrays.equals(new int[] {1, 3, 20, 23},
+                    osi.getBagBitmap(osb1).toArray()));
+
+        ObjectStoreBagCombination osbc = new ObjectStoreBagCombination(
+                ObjectStoreBagCombination.UNION);
+        osbc.addBag(osb1);
+        osbc.addBag(osb2);
+        Assert.assertTrue(Arrays.equals(new int[] {1, 3, 20, 23, 30},
+                    osi.getBagBitmap(osbc).toArray()));
+        osbc = new ObjectStoreBagCombination(ObjectStoreBagCombination.ALLBUTINTERSECT);
+        osbc.addBag(osb1);
+        osbc.addBag(osb2);
+        Assert.assertTrue(Arrays.equals(new int[] {1, 3, 23, 30},
+                    osi.getBagBitmap(osbc).toArray()));
+        osbc = new ObjectStoreBagCombination(ObjectStoreBagCombination.EXCEPT);
+        osbc.addBag(osb1);
+        osbc.addBag(osb2);
+        Assert.assertTrue(Arrays.equals(new int[] {1, 3, 23}, osi.getBagBitmap(osbc).toArray()));
+    }
+
     @Test
     public void testClosedConnectionBug() throws Exception {
         Query pq = new Query();
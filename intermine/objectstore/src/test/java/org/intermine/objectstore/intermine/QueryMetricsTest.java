@@ -0,0 +1,105 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.SimpleConstraint;
+
+public class QueryMetricsTest extends TestCase
+{
+    public QueryMetricsTest(String arg) {
+        super(arg);
+    }
+
+    private static Query idQuery(int id) {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(InterMineObject.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.setConstraint(new SimpleConstraint(new QueryField(qc, "id"), ConstraintOp.EQUALS,
+                    new QueryValue(new Integer(id))));
+        return q;
+    }
+
+    public void testFingerprint() throws Exception {
+        assertEquals("SELECT a1_ FROM Gene AS a1_ WHERE a1_.symbol = ? AND a1_.length > ?",
+                QueryMetrics.fingerprint("SELECT a1_ FROM Gene AS a1_ WHERE a1_.symbol = 'eve' "
+                    + "AND a1_.length > 1.5"));
+        assertEquals("WHERE a.name = ? AND a.id IN (?)",
+                QueryMetrics.fingerprint("WHERE a.name = 'O''Brien' AND a.id IN (1, 2, 3)"));
+        assertEquals("WHERE a.id IN (?)", QueryMetrics.fingerprint("WHERE a.id IN ('x', 'y')"));
+        assertEquals(QueryMetrics.fingerprint(idQuery(1)), QueryMetrics.fingerprint(idQuery(2)));
+    }
+
+    public void testAggregation() throws Exception {
+        QueryMetrics metrics = new QueryMetrics();
+        metrics.recordExecute(idQuery(1), 2, 10, 3, 20, 100);
+        metrics.recordExecute(idQuery(2), 1, 5, 1, 0, 10);
+        metrics.recordCount(idQuery(3), 7);
+        metrics.recordEstimate(idQuery(4), 1);
+        metrics.recordCacheHit(idQuery(5));
+        assertEquals(1, metrics.getFingerprintCount());
+        assertEquals(2, metrics.getExecuteCount());
+        assertEquals(1, metrics.getCountCount());
+        assertEquals(1, metrics.getEstimateCount());
+        assertEquals(1, metrics.getCacheHitCount());
+        assertEquals(28, metrics.getTotalTime());
+
+        List<Map<String, Object>> snapshot = metrics.getSnapshot(10);
+        assertEquals(1, snapshot.size());
+        Map<String, Object> m = snapshot.get(0);
+        assertEquals(Long.valueOf(110), m.get("rows"));
+        assertEquals(Long.valueOf(3), m.get("optimiseTime"));
+        assertEquals(Long.valueOf(15), m.get("executeTime"));
+        assertEquals(Long.valueOf(4), m.get("decodeTime"));
+        assertEquals(Long.valueOf(20), m.get("maxBatchTime"));
+        List<?> histogram = (List<?>) m.get("batchTimeHistogram");
+        assertEquals(QueryMetrics.HISTOGRAM_BUCKETS, histogram.size());
+        assertEquals(Long.valueOf(1), histogram.get(0));
+        assertEquals(Long.valueOf(1), histogram.get(QueryMetrics.bucketFor(20)));
+
+        metrics.reset();
+        assertEquals(0, metrics.getFingerprintCount());
+    }
+
+    public void testBuckets() throws Exception {
+        assertEquals(0, QueryMetrics.bucketFor(0));
+        assertEquals(1, QueryMetrics.bucketFor(1));
+        assertEquals(2, QueryMetrics.bucketFor(2));
+        assertEquals(2, QueryMetrics.bucketFor(3));
+        assertEquals(3, QueryMetrics.bucketFor(4));
+        assertEquals(QueryMetrics.HISTOGRAM_BUCKETS - 1, QueryMetrics.bucketFor(Long.MAX_VALUE));
+    }
+
+    public void testOverflow() throws Exception {
+        QueryMetrics metrics = new QueryMetrics();
+        for (int i = 0; i < QueryMetrics.MAX_FINGERPRINTS + 10; i++) {
+            Query q = new Query();
+            QueryClass qc = new QueryClass(InterMineObject.class);
+            q.alias(qc, "a" + i + "_");
+            q.addFrom(qc);
+            q.addToSelect(qc);
+            metrics.recordCacheHit(q);
+        }
+        assertEquals(QueryMetrics.MAX_FINGERPRINTS + 1, metrics.getFingerprintCount());
+        assertEquals(QueryMetrics.MAX_FINGERPRINTS + 10, metrics.getCacheHitCount());
+    }
+}
@@ -0,0 +1,104 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.objectstore.query.ResultsRow;
+
+public class ResultsPageCacheTest extends TestCase
+{
+    private File dir;
+
+    public ResultsPageCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        dir = File.createTempFile("resultsPageCache", "");
+        dir.delete();
+    }
+
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static List<ResultsRow<Object>> page(Object... values) {
+        List<ResultsRow<Object>> retval = new ArrayList<ResultsRow<Object>>();
+        retval.add(new ResultsRow<Object>(Arrays.asList(values)));
+        return retval;
+    }
+
+    public void testEncodeDecode() throws Exception {
+        List<ResultsRow<Object>> rows = page("a\u00e9b", null, Integer.valueOf(-5),
+                Long.valueOf(1L << 40), Short.valueOf((short) 3), Double.valueOf(1.5),
+                Float.valueOf(2.5F), Boolean.TRUE, new BigDecimal("12.340"), new Date(12345L));
+        rows.add(new ResultsRow<Object>(Collections.singletonList("second")));
+        assertEquals(rows, ResultsPageCache.decode(ResultsPageCache.encode(rows), null));
+        assertNull(ResultsPageCache.encode(page(new Object())));
+    }
+
+    public void testEviction() throws Exception {
+        int pageSize = ResultsPageCache.encode(page("value 0")).length;
+        ResultsPageCache cache = new ResultsPageCache("1", pageSize * 2, true);
+        cache.put("0", page("value 0"), 0);
+        cache.put("1", page("value 1"), 0);
+        assertEquals(page("value 0"), cache.get("0", null));
+        cache.put("2", page("value 2"), 0);
+        assertEquals(2, cache.getPageCount());
+        assertEquals(pageSize * 2, cache.getBytesHeld());
+        assertNull(cache.get("1", null));
+        assertEquals(page("value 2"), cache.get("2", null));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        long generation = cache.getGeneration();
+        cache.clear();
+        cache.put("3", page("value 3"), generation);
+        assertNull(cache.get("3", null));
+        assertNull(cache.get("0", null));
+        assertEquals(0, cache.getBytesHeld());
+    }
+
+    public void testDisk() throws Exception {
+        int pageSize = ResultsPageCache.encode(page("value 0")).length;
+        ResultsPageCache cache = new ResultsPageCache("1", pageSize, false, dir, 1000000);
+        cache.put("0", page("value 0"), 0);
+        cache.put("1", page("value 1"), 0);
+        assertEquals(1, cache.getPageCount());
+        assertTrue(cache.getDiskBytesHeld() > pageSize);
+        assertEquals(page("value 0"), cache.get("0", null));
+
+        // Both pages are on disk now, and are found by a cache for the same release
+        cache = new ResultsPageCache("1", pageSize, false, dir, 1000000);
+        assertEquals(page("value 1"), cache.get("1", null));
+        assertEquals(page("value 0"), cache.get("0", null));
+        assertEquals(2, dir.listFiles().length);
+
+        cache = new ResultsPageCache("2", pageSize, false, dir, 1000000);
+        assertEquals(0, dir.listFiles().length);
+        assertNull(cache.get("0", null));
+    }
+}
@@ -48,6 +48,7 @@ import org.intermine.objectstore.query.QueryExpression;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
 import org.intermine.sql.Database;
 import org.intermine.sql.DatabaseFactory;
@@ -877,6 +878,57 @@ public class SqlGeneratorTest extends SetupDataTestCase
         assertEquals("SELECT DISTINCT a1_.name AS a2_ FROM " + getRegisterOffset3() + " " + getRegisterOffset4() + " a1_.name < 'flibble' ORDER BY a1_.name DESC OFFSET 5", SqlGenerator.generate(q, 10, Integer.MAX_VALUE, schema, db, Collections.EMPTY_MAP));
     }
 
+    public void testRegisterKeyset() throws Exception {
+        DatabaseSchema schema = getSchema();
+        Query q = new Query();
+        QueryClass c1 = new QueryClass(Company.class);
+        q.addFrom(c1);
+        q.addToSelect(c1);
+        Company company = (Company) DynamicUtil.createObject(Collections.singleton(Company.class));
+        company.setId(new Integer(10));
+        ResultsRow<Object> row = new ResultsRow<Object>();
+        row.add(company);
+        assertTrue(SqlGenerator.registerKeyset(q, 5, schema, db, row, new HashMap()));
+        assertEquals(getRegisterOffset1(), SqlGenerator.generate(q, 0, Integer.MAX_VALUE, schema, db, new HashMap()));
+        assertEquals(getRegisterOffset2() + "a1_.id > 10 ORDER BY a1_.id LIMIT 5", SqlGenerator.generate(q, 5, 5, schema, db, new HashMap()));
+        assertEquals(getRegisterOffset2() + "a1_.id > 10 ORDER BY a1_.id OFFSET 2", SqlGenerator.generate(q, 7, Integer.MAX_VALUE, schema, db, new HashMap()));
+
+        // Without DISTINCT, the order is not total
+        q = new Query();
+        c1 = new QueryClass(Company.class);
+        q.addFrom(c1);
+        q.addToSelect(c1);
+        q.setDistinct(false);
+        assertFalse(SqlGenerator.registerKeyset(q, 5, schema, db, row, new HashMap()));
+    }
+
+    public void testKeysetConstraint() throws Exception {
+        DatabaseSchema schema = getSchema();
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        QueryField name = new QueryField(qc, "name");
+        QueryField age = new QueryField(qc, "age");
+        q.addToSelect(name);
+        q.addToSelect(age);
+        ResultsRow<Object> row = new ResultsRow<Object>();
+        row.add("flibble");
+        row.add(new Integer(34));
+        assertEquals("SELECT DISTINCT a1_.name AS a2_, a1_.age AS a3_ FROM " + getRegisterOffset3() + " " + getRegisterOffset4() + " ((a1_.name > 'flibble' OR a1_.name IS NULL) OR (a1_.name = 'flibble' AND a1_.age > 34)) ORDER BY a1_.name, a1_.age",
+                SqlGenerator.generate(q, schema, db, SqlGenerator.getKeysetConstraint(q, row, schema), SqlGenerator.QUERY_NORMAL, Collections.EMPTY_MAP));
+
+        q = new Query();
+        qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        name = new QueryField(qc, "name");
+        q.addToSelect(name);
+        q.addToOrderBy(new OrderDescending(name));
+        row = new ResultsRow<Object>();
+        row.add(null);
+        assertEquals("SELECT DISTINCT a1_.name AS a2_ FROM " + getRegisterOffset3() + " " + getRegisterOffset4() + " a1_.name IS NOT NULL ORDER BY a1_.name DESC",
+                SqlGenerator.generate(q, schema, db, SqlGenerator.getKeysetConstraint(q, row, schema), SqlGenerator.QUERY_NORMAL, Collections.EMPTY_MAP));
+    }
+
     public void testForPrecomp() throws Exception {
         DatabaseSchema schema = getSchema();
         Query q = (Query) queries.get("SelectSimpleObject");
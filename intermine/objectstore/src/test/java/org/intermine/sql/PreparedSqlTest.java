@@ -0,0 +1,64 @@
+package org.intermine.sql;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class PreparedSqlTest extends TestCase
+{
+    public PreparedSqlTest(String arg) {
+        super(arg);
+    }
+
+    public void testComparisons() throws Exception {
+        PreparedSql p = PreparedSql.parameterise("SELECT a1_.id AS a1_id FROM Employee AS a1_"
+                + " WHERE LOWER(a1_.name) LIKE 'emp''s%' AND a1_.age >= 30 AND a1_.age <> -2"
+                + " AND a1_.fullTime = 'true' ORDER BY a1_.id LIMIT 100 OFFSET 200");
+        assertEquals("SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE LOWER(a1_.name) LIKE ?"
+                + " AND a1_.age >= ? AND a1_.age <> ? AND a1_.fullTime = ? ORDER BY a1_.id"
+                + " LIMIT ? OFFSET ?", p.getSql());
+        assertEquals(Arrays.asList("emp's%", "30", "-2", "true", "100", "200"),
+                p.getParameters());
+    }
+
+    public void testInListAndEscapes() throws Exception {
+        PreparedSql p = PreparedSql.parameterise("SELECT a1_.id AS a1_id FROM Company AS a1_"
+                + " WHERE a1_.name IN ('A', E'B\\\\C\\'D') AND a1_.vatNumber = 5.5E3::REAL"
+                + " AND a1_.id IN (SELECT a2_.id FROM Bank AS a2_ WHERE a2_.id = 7)");
+        assertEquals("SELECT a1_.id AS a1_id FROM Company AS a1_ WHERE a1_.name IN (?, ?)"
+                + " AND a1_.vatNumber = ?::REAL AND a1_.id IN (SELECT a2_.id FROM Bank AS a2_"
+                + " WHERE a2_.id = ?)", p.getSql());
+        assertEquals(Arrays.asList("A", "B\\C'D", "5.5E3", "7"), p.getParameters());
+    }
+
+    public void testOtherConstantsLeftAlone() throws Exception {
+        String sql = "SELECT 'x' AS a2_, a1_.a3 + 1 AS a3_, \"odd = 'name'\" FROM t1 AS a1_"
+            + " WHERE a1_.a3 - 2 > a1_.b4";
+        PreparedSql p = PreparedSql.parameterise(sql);
+        assertEquals(sql, p.getSql());
+        assertEquals(Collections.emptyList(), p.getParameters());
+    }
+
+    public void testLongInList() throws Exception {
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            list.append(i == 0 ? "" : ", ").append(i);
+        }
+        PreparedSql p = PreparedSql.parameterise("SELECT a1_.id AS a1_id FROM Employee AS a1_"
+                + " WHERE a1_.id IN (" + list + ") AND a1_.age > 5 AND a1_.name IN ('A', 'B')");
+        assertEquals("SELECT a1_.id AS a1_id FROM Employee AS a1_ WHERE a1_.id IN (" + list
+                + ") AND a1_.age > ? AND a1_.name IN (?, ?)", p.getSql());
+        assertEquals(Arrays.asList("5", "A", "B"), p.getParameters());
+    }
+}
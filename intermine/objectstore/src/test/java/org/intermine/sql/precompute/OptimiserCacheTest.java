@@ -10,8 +10,15 @@ package org.intermine.sql.precompute;
  *
  */
 
+import java.sql.Connection;
+import java.sql.ResultSet;
+
 import junit.framework.TestCase;
 
+import org.intermine.sql.Database;
+import org.intermine.sql.DatabaseFactory;
+import org.intermine.sql.DatabaseUtil;
+
 public class OptimiserCacheTest extends TestCase
 {
     public OptimiserCacheTest(String arg1) {
@@ -28,4 +35,43 @@ public class OptimiserCacheTest extends TestCase
         assertNull(cache.lookup("original1", 10));
         assertNull(cache.lookup("somethingelse", 1000));
     }
+
+    public void testPersistent() throws Exception {
+        Database db = DatabaseFactory.getDatabase("db.unittest");
+        try {
+            OptimiserCache cache = new OptimiserCache(db);
+            cache.addCacheLine("original1", "optimised1_1", 1000);
+            assertEquals("optimised1_1", cache.lookup("original1", 1000));
+            // Storing the same line again does not add another row
+            cache.addCacheLine("original1", "optimised1_1", 1000);
+            Connection con = db.getConnection();
+            try {
+                ResultSet res = con.createStatement().executeQuery("SELECT COUNT(*) FROM "
+                        + OptimiserCache.TABLE_NAME);
+                res.next();
+                assertEquals(1, res.getInt(1));
+            } finally {
+                con.close();
+            }
+
+            // A new cache for the same database starts with the stored line
+            OptimiserCache cache2 = new OptimiserCache(db);
+            assertEquals("optimised1_1", cache2.lookup("original1", 1000));
+            assertNull(cache2.lookup("somethingelse", 1000));
+
+            cache2.flush();
+            assertNull(cache2.lookup("original1", 1000));
+            OptimiserCache cache3 = new OptimiserCache(db);
+            assertNull(cache3.lookup("original1", 1000));
+        } finally {
+            Connection con = db.getConnection();
+            try {
+                if (DatabaseUtil.tableExists(con, OptimiserCache.TABLE_NAME)) {
+                    con.createStatement().execute("DROP TABLE " + OptimiserCache.TABLE_NAME);
+                }
+            } finally {
+                con.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,68 @@
+package org.intermine.sql.writebatch;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import junit.framework.TestCase;
+
+public class IndirectionTableBatchTest extends TestCase
+{
+    public IndirectionTableBatchTest(String arg) {
+        super(arg);
+    }
+
+    public void testAddAndDelete() throws Exception {
+        IndirectionTableBatch batch = new IndirectionTableBatch("a", "b");
+        assertEquals(16, batch.addRow(1, 2));
+        assertEquals(0, batch.addRow(1, 2));
+        assertEquals(16, batch.deleteRow(1, 3));
+        assertEquals(0, batch.deleteRow(1, 2));
+        assertEquals(0, batch.addRow(1, 3));
+        assertEquals(32, batch.getSize());
+        assertEquals(1, batch.getInsertCount());
+        assertEquals(1, batch.getDeleteCount());
+        long[] inserts = batch.getRowsToInsert();
+        assertEquals(1, inserts.length);
+        assertEquals(1, IndirectionTableBatch.getLeft(inserts[0]));
+        assertEquals(3, IndirectionTableBatch.getRight(inserts[0]));
+        assertEquals(2, batch.getRows().length);
+
+        batch.clear();
+        assertEquals(0, batch.getSize());
+        assertEquals(0, batch.getRows().length);
+        assertEquals(16, batch.addRow(1, 2));
+    }
+
+    public void testSortedRows() throws Exception {
+        IndirectionTableBatch batch = new IndirectionTableBatch("a", "b");
+        for (int i = 0; i < 10000; i++) {
+            batch.addRow((i * 7919) % 101, i % 97 - 48);
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            batch.deleteRow((i * 7919) % 101, i % 97 - 48);
+        }
+        long[] rows = batch.getRows();
+        long[] inserts = batch.getRowsToInsert();
+        assertEquals(rows.length, batch.getInsertCount() + batch.getDeleteCount());
+        assertEquals(inserts.length, batch.getInsertCount());
+        for (int i = 1; i < rows.length; i++) {
+            int leftA = IndirectionTableBatch.getLeft(rows[i - 1]);
+            int leftB = IndirectionTableBatch.getLeft(rows[i]);
+            assertTrue(leftA <= leftB);
+            if (leftA == leftB) {
+                assertTrue(IndirectionTableBatch.getRight(rows[i - 1])
+                        < IndirectionTableBatch.getRight(rows[i]));
+            }
+        }
+        IndirectionTableBatch copy = new IndirectionTableBatch("a", "b", rows);
+        assertEquals(rows.length, copy.getInsertCount());
+        assertEquals(0, copy.getDeleteCount());
+    }
+}
@@ -0,0 +1,135 @@
+package org.intermine.sql.writebatch;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.intermine.model.StringConstructor;
+
+public class PostgresCopyEncoderTest extends TestCase
+{
+    public PostgresCopyEncoderTest(String arg) {
+        super(arg);
+    }
+
+    private static byte[] getBytes(PostgresCopyBuffer buffer) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        buffer.writeTo(baos);
+        assertEquals(buffer.size(), baos.size());
+        return baos.toByteArray();
+    }
+
+    public void testHeaderAndTypes() throws Exception {
+        PostgresCopyBuffer buffer = new PostgresCopyBuffer();
+        PostgresCopyEncoder encoder = new PostgresCopyEncoder(buffer, 4);
+        encoder.writeRow(new Object[] {new Integer(-2), null, Boolean.TRUE, new Long(1L << 40)});
+        encoder.writeRow(new Object[] {new Short((short) 7), new Double(1.5), new Float(0.25F),
+            new BigDecimal("-12345.678")});
+        encoder.writeRow(17, 42);
+        encoder.finish();
+        assertEquals(3, encoder.getRowCount());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeBytes("PGCOPY\n");
+        dos.writeByte(255);
+        dos.writeBytes("\r\n");
+        dos.writeByte(0);
+        dos.writeInt(0);
+        dos.writeInt(0);
+        dos.writeShort(4);
+        dos.writeInt(4);
+        dos.writeInt(-2);
+        dos.writeInt(-1);
+        dos.writeInt(1);
+        dos.writeByte(1);
+        dos.writeInt(8);
+        dos.writeLong(1L << 40);
+        dos.writeShort(4);
+        dos.writeInt(2);
+        dos.writeShort(7);
+        dos.writeInt(8);
+        dos.writeDouble(1.5);
+        dos.writeInt(4);
+        dos.writeFloat(0.25F);
+        // numeric: digits 1, 2345, 6780 with weight 1, negative, scale 3
+        dos.writeInt(14);
+        dos.writeShort(3);
+        dos.writeShort(1);
+        dos.writeShort(0x4000);
+        dos.writeShort(3);
+        dos.writeShort(1);
+        dos.writeShort(2345);
+        dos.writeShort(6780);
+        dos.writeShort(2);
+        dos.writeInt(4);
+        dos.writeInt(17);
+        dos.writeInt(4);
+        dos.writeInt(42);
+        dos.writeShort(-1);
+        dos.flush();
+        assertTrue(Arrays.equals(baos.toByteArray(), getBytes(buffer)));
+        buffer.release();
+        assertEquals(0, buffer.size());
+    }
+
+    public void testText() throws Exception {
+        String text = "ab\u00e9\u0e81\ud835\udf05";
+        PostgresCopyBuffer buffer = new PostgresCopyBuffer();
+        PostgresCopyEncoder encoder = new PostgresCopyEncoder(buffer, 2);
+        StringConstructor sc = new StringConstructor();
+        sc.append("x").append(text);
+        encoder.writeRow(new Object[] {text, sc});
+        byte[] utf8 = text.getBytes("UTF-8");
+        assertEquals(utf8.length, PostgresCopyBuffer.utf8Length(text));
+        byte[] output = getBytes(buffer);
+        int pos = 19 + 2;
+        assertEquals(utf8.length, output[pos + 3]);
+        assertTrue(Arrays.equals(utf8, Arrays.copyOfRange(output, pos + 4,
+                        pos + 4 + utf8.length)));
+        pos += 4 + utf8.length;
+        assertEquals(utf8.length + 1, output[pos + 3]);
+        assertEquals((byte) 'x', output[pos + 4]);
+    }
+
+    public void testSegments() throws Exception {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < PostgresCopyBuffer.SEGMENT_SIZE / 2; i++) {
+            large.append("\u00e9a");
+        }
+        String text = large.toString();
+        PostgresCopyBuffer buffer = new PostgresCopyBuffer();
+        PostgresCopyEncoder encoder = new PostgresCopyEncoder(buffer, 2);
+        for (int i = 0; i < 3; i++) {
+            encoder.writeRow(new Object[] {new Integer(i), text});
+        }
+        encoder.finish();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.write(getBytes(new PostgresCopyEncoder(new PostgresCopyBuffer(), 2).getBuffer()));
+        byte[] utf8 = text.getBytes("UTF-8");
+        for (int i = 0; i < 3; i++) {
+            dos.writeShort(2);
+            dos.writeInt(4);
+            dos.writeInt(i);
+            dos.writeInt(utf8.length);
+            dos.write(utf8);
+        }
+        dos.writeShort(-1);
+        dos.flush();
+        assertTrue(Arrays.equals(baos.toByteArray(), getBytes(buffer)));
+    }
+}
@@ -0,0 +1,195 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class BoundedObjectCacheTest extends TestCase
+{
+    public BoundedObjectCacheTest(String arg) {
+        super(arg);
+    }
+
+    public void testGetPut() throws Exception {
+        BoundedObjectCache<Integer, String> cache = new BoundedObjectCache<Integer, String>("test",
+                100);
+        cache.put(1, "one");
+        cache.put(2, null);
+
+        assertEquals("one", cache.get(1));
+        assertNull(cache.get(2));
+        assertTrue(cache.containsKey(2));
+        assertNull(cache.get(3));
+        assertFalse(cache.containsKey(3));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.remove(1);
+        assertFalse(cache.containsKey(1));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    public void testBounded() throws Exception {
+        BoundedObjectCache<Integer, Integer> cache = new BoundedObjectCache<Integer, Integer>(
+                "test", 1000, 4);
+        for (int i = 0; i < 100000; i++) {
+            cache.put(i, i);
+        }
+        assertTrue(cache.size() <= 1000);
+        assertEquals(100000 - cache.size(), cache.getEvictions());
+    }
+
+    public void testFrequentEntriesSurviveScan() throws Exception {
+        BoundedObjectCache<Integer, Integer> cache = new BoundedObjectCache<Integer, Integer>(
+                "test", 1000, 1);
+        for (int i = 0; i < 500; i++) {
+            cache.put(i, i);
+        }
+        for (int repeat = 0; repeat < 5; repeat++) {
+            for (int i = 0; i < 500; i++) {
+                cache.get(i);
+            }
+        }
+        for (int i = 1000; i < 6000; i++) {
+            cache.put(i, i);
+        }
+        int retained = 0;
+        for (int i = 0; i < 500; i++) {
+            if (cache.containsKey(i)) {
+                retained++;
+            }
+        }
+        assertTrue("Only " + retained + " frequent entries retained", retained > 450);
+    }
+
+    public void testSoftReferenceObjectCache() throws Exception {
+        SoftReferenceObjectCache<Integer, String> cache
+            = new SoftReferenceObjectCache<Integer, String>("test");
+        cache.put(1, "one");
+        cache.put(2, null);
+
+        assertEquals("one", cache.get(1));
+        assertNull(cache.get(2));
+        assertTrue(cache.containsKey(2));
+        assertNull(cache.get(3));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0, cache.getEvictions());
+
+        cache.remove(1);
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    public void testLoader() throws Exception {
+        doTestLoader(new BoundedObjectCache<Integer, String>("test", 100));
+        doTestLoader(new SoftReferenceObjectCache<Integer, String>("test"));
+    }
+
+    private void doTestLoader(final ObjectCache<Integer, String> cache) throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final ObjectCache.Loader<Integer, String, Exception> loader
+            = new ObjectCache.Loader<Integer, String, Exception>() {
+                public String load(Integer key) throws Exception {
+                    loads.incrementAndGet();
+                    loading.countDown();
+                    release.await();
+                    return new String("value" + key);
+                }
+            };
+        final String[] results = new String[2];
+        Thread first = new Thread() {
+            public void run() {
+                try {
+                    results[0] = cache.get(1, loader);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        first.start();
+        loading.await();
+        Thread second = new Thread() {
+            public void run() {
+                try {
+                    results[1] = cache.get(1, loader);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        second.start();
+        release.countDown();
+        first.join();
+        second.join();
+        // One load, shared by both callers
+        assertEquals(1, loads.get());
+        assertEquals("value1", results[0]);
+        assertSame(results[0], results[1]);
+        assertSame(results[0], cache.get(1, loader));
+        assertEquals(1, loads.get());
+
+        // A value loaded across a remove() is returned but not cached
+        final CountDownLatch staleLoading = new CountDownLatch(1);
+        final CountDownLatch staleRelease = new CountDownLatch(1);
+        final ObjectCache.Loader<Integer, String, Exception> staleLoader
+            = new ObjectCache.Loader<Integer, String, Exception>() {
+                public String load(Integer key) throws Exception {
+                    staleLoading.countDown();
+                    staleRelease.await();
+                    return "old";
+                }
+            };
+        Thread third = new Thread() {
+            public void run() {
+                try {
+                    results[0] = cache.get(2, staleLoader);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        third.start();
+        staleLoading.await();
+        cache.remove(2);
+        staleRelease.countDown();
+        third.join();
+        assertEquals("old", results[0]);
+        assertFalse(cache.containsKey(2));
+
+        // A failed load is not cached, and the next caller loads again
+        try {
+            cache.get(3, new ObjectCache.Loader<Integer, String, Exception>() {
+                public String load(Integer key) throws Exception {
+                    throw new Exception("failed");
+                }
+            });
+            fail("Expected Exception");
+        } catch (Exception e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertFalse(cache.containsKey(3));
+        assertNull(cache.get(3, new ObjectCache.Loader<Integer, String, Exception>() {
+            public String load(Integer key) {
+                return null;
+            }
+        }));
+        assertTrue(cache.containsKey(3));
+    }
+}
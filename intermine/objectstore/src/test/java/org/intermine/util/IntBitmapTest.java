@@ -0,0 +1,109 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class IntBitmapTest extends TestCase
+{
+    public IntBitmapTest(String arg) {
+        super(arg);
+    }
+
+    public void testAgainstTreeSet() throws Exception {
+        IntBitmap bitmap = new IntBitmap();
+        TreeSet<Integer> expected = new TreeSet<Integer>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            // A dense range, to make bitmap containers, and some sparse values
+            int value = (i % 4 == 0) ? random.nextInt() : random.nextInt(20000) - 5000;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), bitmap.remove(value));
+            } else {
+                assertEquals(expected.add(value), bitmap.add(value));
+            }
+        }
+        assertEquals(expected.size(), bitmap.size());
+        int[] values = bitmap.toArray();
+        int pos = 0;
+        for (Integer value : expected) {
+            assertEquals(value.intValue(), values[pos++]);
+            assertTrue(bitmap.contains(value.intValue()));
+        }
+        assertFalse(bitmap.contains(Integer.MAX_VALUE - 1));
+    }
+
+    public void testDenseAndClear() throws Exception {
+        IntBitmap bitmap = new IntBitmap();
+        for (int i = 0; i < 100000; i++) {
+            bitmap.add(i);
+        }
+        assertEquals(100000, bitmap.size());
+        assertTrue(bitmap.getMemoryUsage() < 100000 / 4);
+        for (int i = 0; i < 100000; i += 2) {
+            assertTrue(bitmap.remove(i));
+        }
+        assertEquals(50000, bitmap.size());
+        assertFalse(bitmap.contains(0));
+        assertTrue(bitmap.contains(99999));
+        bitmap.clear();
+        assertTrue(bitmap.isEmpty());
+        assertFalse(bitmap.contains(99999));
+    }
+
+    public void testSetOperations() throws Exception {
+        Random random = new Random(7);
+        IntBitmap a = new IntBitmap();
+        IntBitmap b = new IntBitmap();
+        TreeSet<Integer> setA = new TreeSet<Integer>();
+        TreeSet<Integer> setB = new TreeSet<Integer>();
+        for (int i = 0; i < 100000; i++) {
+            // Dense ranges make bitmap containers in both, and sparse values make array containers
+            int value = (i % 3 == 0) ? random.nextInt(1000000) : random.nextInt(30000);
+            if (random.nextBoolean()) {
+                a.add(value);
+                setA.add(value);
+            } else {
+                b.add(value);
+                setB.add(value);
+            }
+        }
+        TreeSet<Integer> expected = new TreeSet<Integer>(setA);
+        expected.addAll(setB);
+        assertContents(expected, IntBitmap.or(a, b));
+        expected = new TreeSet<Integer>(setA);
+        expected.retainAll(setB);
+        assertContents(expected, IntBitmap.and(a, b));
+        assertEquals(expected.size(), IntBitmap.andCardinality(a, b));
+        expected = new TreeSet<Integer>(setA);
+        expected.removeAll(setB);
+        assertContents(expected, IntBitmap.andNot(a, b));
+        assertContents(setA, a.copy());
+        assertContents(setA, IntBitmap.or(a, new IntBitmap()));
+        assertTrue(IntBitmap.and(a, new IntBitmap()).isEmpty());
+
+        IntBitmap copy = a.copy();
+        copy.add(-1);
+        assertFalse(a.contains(-1));
+    }
+
+    private static void assertContents(TreeSet<Integer> expected, IntBitmap bitmap) {
+        assertEquals(expected.size(), bitmap.size());
+        int[] values = bitmap.toArray();
+        int pos = 0;
+        for (Integer value : expected) {
+            assertEquals(value.intValue(), values[pos++]);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class IntHashSetTest extends TestCase
+{
+    public IntHashSetTest(String arg) {
+        super(arg);
+    }
+
+    public void testHeap() throws Exception {
+        doTest(new IntHashSet());
+    }
+
+    public void testOffHeap() throws Exception {
+        doTest(new IntHashSet(1000, true));
+    }
+
+    private void doTest(IntHashSet set) throws Exception {
+        Set<Integer> expected = new HashSet<Integer>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            int value = random.nextInt(5000) - 100;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), set.remove(value));
+            } else {
+                assertEquals(expected.add(value), set.add(value));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (int i = -200; i < 5000; i++) {
+            assertEquals(expected.contains(i), set.contains(i));
+        }
+        int[] values = set.toSortedArray();
+        assertEquals(expected.size(), values.length);
+        for (int i = 1; i < values.length; i++) {
+            assertTrue(values[i - 1] < values[i]);
+        }
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0));
+    }
+
+    public void testToString() throws Exception {
+        IntHashSet set = new IntHashSet();
+        set.add(5);
+        set.add(0);
+        set.add(-3);
+        assertEquals("[-3, 0, 5]", set.toString());
+    }
+}
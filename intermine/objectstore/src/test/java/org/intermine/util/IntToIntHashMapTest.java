@@ -0,0 +1,73 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class IntToIntHashMapTest extends TestCase
+{
+    public IntToIntHashMapTest(String arg) {
+        super(arg);
+    }
+
+    public void testHeap() throws Exception {
+        doTest(new IntToIntHashMap(-1));
+    }
+
+    public void testOffHeap() throws Exception {
+        doTest(new IntToIntHashMap(-1, 100000, true));
+    }
+
+    private void doTest(IntToIntHashMap map) throws Exception {
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        Random random = new Random(11);
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(5000) - 100;
+            if (random.nextInt(3) == 0) {
+                Integer old = expected.remove(key);
+                assertEquals(old == null ? -1 : old.intValue(), map.remove(key));
+            } else {
+                int value = random.nextInt(1000000);
+                Integer old = expected.put(key, value);
+                assertEquals(old == null ? -1 : old.intValue(), map.put(key, value));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (int i = -200; i < 5000; i++) {
+            Integer value = expected.get(i);
+            assertEquals(value == null ? -1 : value.intValue(), map.get(i));
+            assertEquals(value != null, map.containsKey(i));
+        }
+        final Map<Integer, Integer> got = new HashMap<Integer, Integer>();
+        map.forEach(new IntToIntHashMap.EntryConsumer() {
+            public void accept(int key, int value) {
+                got.put(key, value);
+            }
+        });
+        assertEquals(expected, got);
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(0));
+    }
+
+    public void testNoValue() throws Exception {
+        IntToIntHashMap map = new IntToIntHashMap(-1);
+        try {
+            map.put(3, -1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -10,6 +10,10 @@ package org.intermine.util;
  *
  */
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
 import junit.framework.*;
 
 public class IntToIntMapTest extends TestCase
@@ -38,4 +42,35 @@ public class IntToIntMapTest extends TestCase
         assertEquals(0, map.size());
         assertEquals("{}", map.toString());
     }
+
+    public void testDenseAndSparse() throws Exception {
+        IntToIntMap map = new IntToIntMap();
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        // A dense run that becomes pages, sparse keys on either side, and negative keys
+        for (int i = 100000; i < 120000; i++) {
+            map.put(i, i * 3);
+            expected.put(i, i * 3);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            int key = random.nextInt() / 1000;
+            int value = random.nextInt(1000000);
+            map.put(key, value);
+            expected.put(key, value);
+        }
+        for (int i = 100000; i < 120000; i += 3) {
+            map.put(i, -1);
+            expected.remove(i);
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().intValue(), map.get(entry.getKey().intValue()));
+        }
+        assertEquals(-1, map.get(100300));
+        for (Integer key : expected.keySet()) {
+            map.put(key.intValue(), -1);
+        }
+        assertEquals(0, map.size());
+        assertEquals("{}", map.toString());
+    }
 }
@@ -0,0 +1,134 @@
+package org.intermine.util;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+public class TaskGroupTest extends TestCase
+{
+    private int runningNow = 0;
+    private int maxRunning = 0;
+
+    public TaskGroupTest(String arg) {
+        super(arg);
+    }
+
+    public void testLimitAndOrder() throws Exception {
+        TaskGroup group = ExecutionService.newGroup("test", 3);
+        final List<Integer> started = Collections.synchronizedList(new ArrayList<Integer>());
+        // The first tasks wait until three are running at once, which proves the limit is reached
+        final CountDownLatch threeRunning = new CountDownLatch(3);
+        final AtomicBoolean limitReached = new AtomicBoolean(true);
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 20; i++) {
+            final int taskNo = i;
+            expected.add(new Integer(i));
+            group.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    started.add(new Integer(taskNo));
+                    enter();
+                    threeRunning.countDown();
+                    if (!threeRunning.await(30, TimeUnit.SECONDS)) {
+                        limitReached.set(false);
+                    }
+                    leave();
+                    return null;
+                }
+            });
+        }
+        group.await();
+        assertTrue(limitReached.get());
+        assertTrue("Ran " + maxRunning + " tasks at once", maxRunning <= 3);
+        assertEquals(0, runningNow);
+        // Several tasks handed to the pool together may start in any order, but with one slot
+        // the order is exact
+        assertEquals(20, started.size());
+        assertTrue(started.containsAll(expected));
+
+        TaskGroup single = ExecutionService.newGroup("single", 1);
+        started.clear();
+        for (int i = 0; i < 20; i++) {
+            final int taskNo = i;
+            single.submit(new Callable<Void>() {
+                public Void call() {
+                    started.add(new Integer(taskNo));
+                    return null;
+                }
+            });
+        }
+        single.await();
+        assertEquals(expected, started);
+    }
+
+    public void testFailure() throws Exception {
+        TaskGroup group = ExecutionService.newGroup("failing", 1);
+        final List<Integer> run = Collections.synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < 5; i++) {
+            final int taskNo = i;
+            group.submit(new Callable<Void>() {
+                public Void call() {
+                    run.add(new Integer(taskNo));
+                    if (taskNo == 1) {
+                        throw new IllegalStateException("task 1");
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            group.await();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(group.hasFailed());
+        assertEquals(2, run.size());
+    }
+
+    public void testNestedSubmit() throws Exception {
+        final TaskGroup group = ExecutionService.newGroup("nested", 2);
+        final List<Integer> run = Collections.synchronizedList(new ArrayList<Integer>());
+        group.submit(new Callable<Void>() {
+            public Void call() {
+                for (int i = 0; i < 4; i++) {
+                    final int taskNo = i;
+                    group.submit(new Callable<Void>() {
+                        public Void call() {
+                            run.add(new Integer(taskNo));
+                            return null;
+                        }
+                    });
+                }
+                return null;
+            }
+        });
+        group.await();
+        assertEquals(4, run.size());
+    }
+
+    private synchronized void enter() {
+        runningNow++;
+        maxRunning = Math.max(maxRunning, runningNow);
+    }
+
+    private synchronized void leave() {
+        runningNow--;
+    }
+}
@@ -15,9 +15,9 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import org.apache.commons.collections.ListUtils;
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.profile.InterMineBag;
+import org.intermine.util.IntBitmap;
 import org.intermine.webservice.server.Format;
 import org.intermine.webservice.server.WebService;
 import org.intermine.webservice.server.core.ListManager;
@@ -77,7 +77,7 @@ public class JaccardIndexService extends WebService
 
         ListManager listManager = new ListManager(im, getPermission().getProfile());
         Map<String, InterMineBag> lists = listManager.getListMap();
-        List<Integer> bagOfInterest = new ArrayList<>();
+        IntBitmap bagOfInterest = new IntBitmap();
 
         if (listName != null) {
             InterMineBag bag = lists.get(listName);
@@ -85,7 +85,7 @@ public class JaccardIndexService extends WebService
                 throw new BadRequestException("User does not have access to list named '"
                     + listName + "'");
             }
-            bagOfInterest = bag.getContentsAsIds();
+            bagOfInterest = bag.getContentsAsBitmap();
             type = bag.getType();
         } else if (ids != null) {
             if (type == null) {
@@ -117,13 +117,13 @@ public class JaccardIndexService extends WebService
                 continue;
             }
 
-            List<Integer> comparisonList = bag.getContentsAsIds();
-            List<Integer> intersection = (List<Integer>) ListUtils.intersection(bagOfInterest,
-                    comparisonList);
+            // The lists are compared as bitmaps, so the intersection is counted in memory
+            IntBitmap comparisonList = bag.getContentsAsBitmap();
+            int intersection = IntBitmap.andCardinality(bagOfInterest, comparisonList);
             // calculate the union
             BigDecimal denominator = new BigDecimal(bagOfInterest.size()
-                    + comparisonList.size() - intersection.size());
-            BigDecimal numerator = new BigDecimal(intersection.size());
+                    + comparisonList.size() - intersection);
+            BigDecimal numerator = new BigDecimal(intersection);
             BigDecimal jaccardSimilarity = new BigDecimal(0);
             // don't divide by zero
             if (denominator.compareTo(BigDecimal.ZERO) != 0
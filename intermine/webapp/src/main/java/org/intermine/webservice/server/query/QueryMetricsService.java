@@ -0,0 +1,68 @@
+package org.intermine.webservice.server.query;
+
+/*
+ * Copyright (C) 2002-2020 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.api.InterMineAPI;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.intermine.QueryMetrics;
+import org.intermine.webservice.server.core.JSONService;
+import org.intermine.webservice.server.exceptions.ServiceForbiddenException;
+
+/**
+ * Serves a snapshot of the per-query execution metrics of the production objectstore, with the
+ * most expensive query fingerprints first, so that hot queries can be found without turning on
+ * SQL logging. Only available to the superuser, as the fingerprints reveal the shape of other
+ * users' queries.
+ */
+public class QueryMetricsService extends JSONService
+{
+    private static final int DEFAULT_SIZE = 50;
+
+    /**
+     * Constructor.
+     * @param im The InterMine state object.
+     */
+    public QueryMetricsService(InterMineAPI im) {
+        super(im);
+    }
+
+    @Override
+    protected void validateState() {
+        if (!isAuthenticated() || !getPermission().getProfile().isSuperuser()) {
+            throw new ServiceForbiddenException("Only the superuser may read query metrics");
+        }
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "queries";
+    }
+
+    @Override
+    protected void execute() throws Exception {
+        int size = getIntParameter("size", DEFAULT_SIZE);
+        List<Map<String, Object>> snapshot = Collections.emptyList();
+        ObjectStore os = im.getObjectStore();
+        if (os instanceof ObjectStoreInterMineImpl) {
+            QueryMetrics metrics = ((ObjectStoreInterMineImpl) os).getQueryMetrics();
+            if (metrics != null) {
+                snapshot = metrics.getSnapshot(size);
+                addOutputInfo("histogramBuckets", String.valueOf(QueryMetrics.HISTOGRAM_BUCKETS));
+            }
+        }
+        addResultItem(snapshot, false);
+    }
+}
@@ -109,7 +109,7 @@ class IntegratePlugin implements Plugin<Project> {
 
         project.task('integrate') {
             group TaskConstants.TASK_GROUP
-            description "Integrates sources into production database. Optional input properties: source (source name) and action(possible values: pre-retrieve, retrieve or load). E.g. integrate -Psource=uniprot-malaria -Paction=load"
+            description "Integrates sources into production database. Optional input properties: source (source name) and action(possible values: pre-retrieve, retrieve or load) and reload (true to replace the data loaded before by the source). E.g. integrate -Psource=uniprot-malaria -Paction=load"
             dependsOn 'integrateSingleSource', 'integrateMultipleSources'
         }
 
@@ -263,18 +263,22 @@ class IntegrateUtils {
                 pathelement(path: gradleProject.configurations.getByName("integrateSource").asPath)
             }
         }
+        // -Preload=true loads the source again over the data it loaded before, instead of into
+        // a database built from scratch
+        def loadArgs = [sourceName: source.name, sourceType: source.type]
+        if (gradleProject.hasProperty("reload") && "true".equals(gradleProject.property("reload"))) {
+            loadArgs.reload = true
+        }
         if (props.containsKey("have.file.custom.direct")) {
-            ant.dataLoad(integrationWriterAlias: "integration.production",
-                    sourceName: source.name, sourceType: source.type){
+            ant.dataLoad([integrationWriterAlias: "integration.production"] + loadArgs){
                 fileset(dir: BioSourceProperties.getUserProperty(source, "src.data.dir"),
                         includes: BioSourceProperties.getUserProperty(source, source.type + ".includes"))
             }
         } else {
-            ant.dataLoad(integrationWriter: "integration.production",
+            ant.dataLoad([integrationWriter: "integration.production",
                     source: "os." + COMMON_OS_PREFIX + "-translated",
-                    sourceName: source.name, sourceType: source.type,
                     ignoreDuplicates: false,
-                    allSources: "")
+                    allSources: ""] + loadArgs)
         }
     }
 